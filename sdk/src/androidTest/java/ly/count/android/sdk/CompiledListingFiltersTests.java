@@ -0,0 +1,92 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class CompiledListingFiltersTests {
+
+    ConfigurationProvider.FilterList<Set<String>> list(boolean isWhitelist, String... items) {
+        return new ConfigurationProvider.FilterList<Set<String>>(new HashSet<>(Arrays.asList(items)), isWhitelist);
+    }
+
+    CompiledListingFilters compile(ConfigurationProvider.FilterList<Set<String>> eventFilter, ConfigurationProvider.FilterList<Set<String>> segmentationFilter,
+        ConfigurationProvider.FilterList<Map<String, Set<String>>> eventSegmentationFilter) {
+        return CompiledListingFilters.compile(eventFilter, list(false), segmentationFilter, eventSegmentationFilter, Collections.singleton("journey"));
+    }
+
+    /**
+     * Filters without rules allow everything
+     */
+    @Test
+    public void noRules() {
+        CompiledListingFilters filters = compile(list(true), list(false), new ConfigurationProvider.FilterList<Map<String, Set<String>>>(new HashMap<String, Set<String>>(), true));
+
+        Assert.assertFalse(filters.eventFilter.hasRules);
+        Assert.assertFalse(filters.hasSegmentationRules);
+        Assert.assertTrue(filters.eventFilter.allows("any"));
+        Assert.assertTrue(filters.allowsSegmentationKey("any", filters.eventSegmentationFilter("event")));
+        Assert.assertSame(CompiledListingFilters.KeyTable.NO_RULES, filters.eventSegmentationFilter("event"));
+        Assert.assertTrue(filters.journeyTriggerEvents.contains("journey"));
+        Assert.assertFalse(filters.journeyTriggerEvents.contains("other"));
+
+        Assert.assertTrue(CompiledListingFilters.EMPTY.userPropertyFilter.allows("any"));
+        Assert.assertFalse(CompiledListingFilters.EMPTY.journeyTriggerEvents.contains("any"));
+    }
+
+    /**
+     * Whitelists allow only the listed keys, blacklists allow all other keys
+     */
+    @Test
+    public void whitelistBlacklist() {
+        Map<String, Set<String>> eventSegmentation = new HashMap<>();
+        eventSegmentation.put("event", new HashSet<>(Collections.singletonList("allowed")));
+        eventSegmentation.put("noRules", new HashSet<String>());
+        CompiledListingFilters filters = compile(list(true, "a", "b"), list(false, "blocked"), new ConfigurationProvider.FilterList<>(eventSegmentation, true));
+
+        Assert.assertTrue(filters.eventFilter.allows("a"));
+        Assert.assertFalse(filters.eventFilter.allows("c"));
+        Assert.assertFalse(filters.eventFilter.allows(null));
+
+        CompiledListingFilters.KeyTable eventFilter = filters.eventSegmentationFilter("event");
+        Assert.assertTrue(filters.allowsSegmentationKey("allowed", eventFilter));
+        Assert.assertFalse(filters.allowsSegmentationKey("other", eventFilter));
+
+        CompiledListingFilters.KeyTable otherFilter = filters.eventSegmentationFilter("otherEvent");
+        Assert.assertTrue(filters.allowsSegmentationKey("other", otherFilter));
+        Assert.assertFalse(filters.allowsSegmentationKey("blocked", otherFilter));
+        Assert.assertSame(CompiledListingFilters.KeyTable.NO_RULES, filters.eventSegmentationFilter("noRules"));
+    }
+
+    /**
+     * Lookups give the same result as the source set for large lists with colliding hashes
+     */
+    @Test
+    public void largeList_sameAsSet() {
+        Set<String> items = new HashSet<>();
+        for (int a = 0; a < 1000; a++) {
+            items.add("key_" + a);
+        }
+        // "Aa" and "BB" have the same hash code
+        items.add("Aa");
+        items.add("BB");
+
+        CompiledListingFilters.KeyTable table = CompiledListingFilters.KeyTable.build(items, false);
+        for (int a = 0; a < 2000; a++) {
+            String key = "key_" + a;
+            Assert.assertEquals(items.contains(key), table.contains(key));
+            Assert.assertEquals(!items.contains(key), table.allows(key));
+        }
+        Assert.assertTrue(table.contains("Aa"));
+        Assert.assertTrue(table.contains("BB"));
+        Assert.assertFalse(table.contains("AaBB"));
+    }
+}
@@ -23,6 +23,7 @@ package ly.count.android.sdk;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
@@ -32,9 +33,19 @@ import java.net.URLConnection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.jetbrains.annotations.NotNull;
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -50,6 +61,7 @@ import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.isNull;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -72,6 +84,12 @@ public class ConnectionProcessorTests {
 
     String testSaltValueDefult = "123qwerty";
 
+    int bulkRequestBatchSize;
+
+    int requestDropAgeHours;
+
+    int requestCompressionThreshold;
+
     @Before
     public void setUp() {
         configurationProviderFake = new ConfigurationProvider() {
@@ -166,6 +184,9 @@ public class ConnectionProcessorTests {
         moduleLog = mock(ModuleLog.class);
         healthTrackerMock = mock(HealthTracker.class);
         testSaltValue = testSaltValueDefult;//in case a test wants to override the value
+        bulkRequestBatchSize = 0;
+        requestDropAgeHours = 0;
+        requestCompressionThreshold = -1;
 
         rip = new RequestInfoProvider() {
             @Override public boolean isHttpPostForced() {
@@ -181,12 +202,24 @@ public class ConnectionProcessorTests {
             }
 
             @Override public int getRequestDropAgeHours() {
-                return 0;
+                return requestDropAgeHours;
             }
 
             @Override public String getRequestSalt() {
                 return testSaltValue;
             }
+
+            @Override public int getBulkRequestBatchSize() {
+                return bulkRequestBatchSize;
+            }
+
+            @Override public String getBulkRequestEndpoint() {
+                return "/i/bulk";
+            }
+
+            @Override public int getRequestCompressionThreshold() {
+                return requestCompressionThreshold;
+            }
         };
 
         connectionProcessor = new ConnectionProcessor("http://server", mockStore, mockDeviceId, configurationProviderFake, rip, null, null, moduleLog, healthTrackerMock, Mockito.mock(Runnable.class), new ConcurrentHashMap<>());
@@ -354,7 +387,7 @@ public class ConnectionProcessorTests {
         assertTrue(testInputStream.fullyRead());
         verify(mockStore).removeRequest(eventData);
         assertTrue(testInputStream.closed);
-        verify(mockURLConnection).disconnect();
+        verify(mockURLConnection, never()).disconnect();
     }
 
     @Test
@@ -378,7 +411,7 @@ public class ConnectionProcessorTests {
         assertTrue(testInputStream.fullyRead());
         verify(mockStore, times(0)).removeRequest(eventData);
         assertTrue(testInputStream.closed);
-        verify(mockURLConnection).disconnect();
+        verify(mockURLConnection, never()).disconnect();
     }
 
     @Test
@@ -402,7 +435,7 @@ public class ConnectionProcessorTests {
         assertTrue(testInputStream.fullyRead());
         verify(mockStore, times(0)).removeRequest(eventData);
         assertTrue(testInputStream.closed);
-        verify(mockURLConnection).disconnect();
+        verify(mockURLConnection, never()).disconnect();
     }
 
     @Test
@@ -425,7 +458,7 @@ public class ConnectionProcessorTests {
         verify(mockURLConnection).getResponseCode();
         verify(mockStore, times(1)).removeRequest(eventData);
         assertTrue(testInputStream.closed);
-        verify(mockURLConnection).disconnect();
+        verify(mockURLConnection, never()).disconnect();
     }
 
     @Test
@@ -455,7 +488,301 @@ public class ConnectionProcessorTests {
         verify(mockStore).removeRequest(eventData2);
         assertTrue(testInputStream1.closed);
         assertTrue(testInputStream2.closed);
-        verify(mockURLConnection, times(2)).disconnect();
+        verify(mockURLConnection, never()).disconnect();
+    }
+
+    /**
+     * Drains a queue of 1000 requests against a local server that answers in 5 ms, first one request per connection
+     * and then in bulk mode with batches of 50. Both modes have to deliver every request and empty the queue,
+     * and the bulk mode has to be faster.
+     */
+    @Test
+    public void bulkMode_drainTime_1000Requests() throws IOException, JSONException {
+        final int requestCount = 1000;
+        List<RecordedRequest> recorded = new CopyOnWriteArrayList<>();
+        try (MockWebServer server = startRecordingServer(recorded, 5)) {
+            CountlyStore store = TestUtils.getCountlyStore();
+            when(mockDeviceId.getDeviceId()).thenReturn(testDeviceId);
+
+            fillRequestQueue(store, requestCount);
+            long singleModeTime = drainRequestQueue(server, store);
+            assertEquals(0, store.getRequests().length);
+            assertEquals(requestCount, recorded.size());
+
+            recorded.clear();
+            bulkRequestBatchSize = 50;
+            fillRequestQueue(store, requestCount);
+            long bulkModeTime = drainRequestQueue(server, store);
+            assertEquals(0, store.getRequests().length);
+            assertEquals(requestCount / bulkRequestBatchSize, recorded.size());
+            assertTrue(bulkModeTime < singleModeTime / 2);
+
+            int receivedRequests = 0;
+            for (RecordedRequest request : recorded) {
+                assertEquals("/i/bulk", request.getPath());
+                JSONArray bulk = bulkRequestsFromBody(request.getBody().readUtf8());
+                for (int a = 0; a < bulk.length(); a++) {
+                    assertEquals(String.valueOf(receivedRequests), bulk.getJSONObject(a).getString("nr"));
+                    assertEquals(testDeviceId, bulk.getJSONObject(a).getString("device_id"));
+                    receivedRequests++;
+                }
+            }
+            assertEquals(requestCount, receivedRequests);
+
+            store.clear();
+        }
+    }
+
+    /**
+     * Bulk requests respect callbacks, custom endpoints and the request drop age:
+     * - too old requests are dropped and their callbacks are notified
+     * - requests with callbacks are sent in bulk and their callbacks are notified once
+     * - a request with a custom endpoint is sent on its own to that endpoint
+     */
+    @Test
+    public void bulkMode_callbacksEndpointsAndOldRequests() throws IOException, JSONException {
+        List<RecordedRequest> recorded = new CopyOnWriteArrayList<>();
+        try (MockWebServer server = startRecordingServer(recorded)) {
+            CountlyStore store = TestUtils.getCountlyStore();
+            store.clear();
+            when(mockDeviceId.getDeviceId()).thenReturn(testDeviceId);
+            bulkRequestBatchSize = 10;
+            requestDropAgeHours = 1;
+
+            Map<String, InternalRequestCallback> callbacks = new ConcurrentHashMap<>();
+            List<String> callbackResults = new CopyOnWriteArrayList<>();
+            for (String id : new String[] { "cb_old", "cb_sent" }) {
+                callbacks.put(id, new InternalRequestCallback() {
+                    @Override public void onRequestCompleted(String response, boolean success) {
+                        callbackResults.add(id + ":" + success + ":" + response);
+                    }
+                });
+            }
+
+            long now = UtilsTime.currentTimestampMs();
+            store.addRequest("app_key=k&timestamp=" + (now - 7_200_000L) + "&device_id=123&nr=0&callback_id=cb_old", false);
+            store.addRequest("app_key=k&timestamp=" + now + "&device_id=123&nr=1&callback_id=cb_sent", false);
+            store.addRequest("app_key=k&timestamp=" + now + "&device_id=123&nr=2", false);
+            store.addRequest("app_key=k&timestamp=" + now + "&device_id=123&nr=3" + ConnectionProcessor.endPointOverrideTag + "/o/custom", false);
+            store.addRequest("app_key=k&timestamp=" + now + "&device_id=123&nr=4", false);
+
+            String serverUrl = server.url("/").toString();
+            new ConnectionProcessor(serverUrl.substring(0, serverUrl.length() - 1), store, mockDeviceId, configurationProviderFake, rip, null, null, moduleLog, healthTrackerMock, mock(Runnable.class), callbacks).run();
+
+            assertEquals(0, store.getRequests().length);
+            assertEquals(3, recorded.size());
+
+            assertEquals("/i/bulk", recorded.get(0).getPath());
+            JSONArray bulk = bulkRequestsFromBody(recorded.get(0).getBody().readUtf8());
+            assertEquals(2, bulk.length());
+            assertEquals("1", bulk.getJSONObject(0).getString("nr"));
+            assertFalse(bulk.getJSONObject(0).has("callback_id"));
+            assertEquals("2", bulk.getJSONObject(1).getString("nr"));
+
+            assertTrue(recorded.get(1).getPath().startsWith("/o/custom?"));
+            assertTrue(recorded.get(1).getPath().contains("nr=3"));
+            assertTrue(recorded.get(2).getPath().startsWith("/i?"));
+            assertTrue(recorded.get(2).getPath().contains("nr=4"));
+
+            assertEquals(2, callbackResults.size());
+            assertEquals("cb_old:false:Request too old", callbackResults.get(0));
+            assertEquals("cb_sent:true:null", callbackResults.get(1));
+            assertTrue(callbacks.isEmpty());
+        }
+    }
+
+    /**
+     * If the bulk request fails, the sent requests stay in the queue and will be retried
+     */
+    @Test
+    public void bulkMode_failedRequestKeepsQueue() throws IOException {
+        try (MockWebServer server = new MockWebServer()) {
+            server.setDispatcher(new Dispatcher() {
+                @NotNull @Override public MockResponse dispatch(@NotNull RecordedRequest recordedRequest) {
+                    return new MockResponse().setResponseCode(500).setBody("{}");
+                }
+            });
+            server.start();
+
+            CountlyStore store = TestUtils.getCountlyStore();
+            store.clear();
+            when(mockDeviceId.getDeviceId()).thenReturn(testDeviceId);
+            bulkRequestBatchSize = 10;
+            fillRequestQueue(store, 5);
+
+            drainRequestQueue(server, store);
+            assertEquals(5, store.getRequests().length);
+            assertEquals(1, server.getRequestCount());
+            verify(healthTrackerMock).logFailedNetworkRequest(500, "{}");
+            store.clear();
+        }
+    }
+
+    /**
+     * POST bodies above the compression threshold are gzip compressed,
+     * the decompressed body carries the same data and checksum as an uncompressed one would.
+     * Bodies below the threshold are sent as they are.
+     */
+    @Test
+    public void requestCompression_gzipAboveThreshold() throws IOException {
+        List<RecordedRequest> recorded = new CopyOnWriteArrayList<>();
+        try (MockWebServer server = startRecordingServer(recorded)) {
+            CountlyStore store = TestUtils.getCountlyStore();
+            store.clear();
+            when(mockDeviceId.getDeviceId()).thenReturn(testDeviceId);
+            requestCompressionThreshold = 1024;
+
+            StringBuilder events = new StringBuilder("[");
+            for (int a = 0; a < 50; a++) {
+                events.append(a == 0 ? "" : ",").append("{\"key\":\"purchase\",\"count\":1,\"segmentation\":{\"product\":\"p").append(a).append("\",\"category\":\"c\"}}");
+            }
+            events.append("]");
+            String largeRequest = "app_key=k&device_id=123&events=" + UtilsNetworking.urlEncodeString(events.toString());
+            String smallRequest = "app_key=k&device_id=123&crash=" + UtilsNetworking.urlEncodeString("{\"_error\":\"e\"}");
+            store.addRequest(largeRequest, false);
+            store.addRequest(smallRequest, false);
+
+            PerformanceCounterCollector pcc = new PerformanceCounterCollector();
+            String serverUrl = server.url("/").toString();
+            ConnectionProcessor cp = new ConnectionProcessor(serverUrl.substring(0, serverUrl.length() - 1), store, mockDeviceId, configurationProviderFake, rip, null, null, moduleLog, healthTrackerMock, mock(Runnable.class),
+                new ConcurrentHashMap<>());
+            cp.pcc = pcc;
+            cp.run();
+
+            assertEquals(0, store.getRequests().length);
+            assertEquals(2, recorded.size());
+
+            RecordedRequest compressed = recorded.get(0);
+            assertEquals("gzip", compressed.getHeader("Content-Encoding"));
+            byte[] compressedBody = compressed.getBody().readByteArray();
+            String expectedData = largeRequest + "&rr=1";
+            String expectedBody = expectedData + "&checksum256=" + sha256Hash(expectedData + testSaltValue);
+            assertTrue(compressedBody.length < expectedBody.length() / 2);
+            assertEquals(expectedBody, gunzip(compressedBody));
+            assertTrue(pcc.ReturnResults().contains("ConnectionProcessorUrlConnectionForServerRequest_05_CompressionRatio"));
+
+            RecordedRequest uncompressed = recorded.get(1);
+            assertNull(uncompressed.getHeader("Content-Encoding"));
+            String expectedSmallData = smallRequest + "&rr=0";
+            assertEquals(expectedSmallData + "&checksum256=" + sha256Hash(expectedSmallData + testSaltValue), uncompressed.getBody().readUtf8());
+        }
+    }
+
+    private String gunzip(byte[] data) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                out.write(buffer, 0, len);
+            }
+            return out.toString("UTF-8");
+        }
+    }
+
+    /**
+     * Draining the queue reuses one keep-alive connection for consecutive requests.
+     * The server should accept a single socket for the whole drain.
+     */
+    @Test
+    public void keepAlive_drainReusesConnection() throws IOException {
+        List<RecordedRequest> recorded = new CopyOnWriteArrayList<>();
+        try (MockWebServer server = startRecordingServer(recorded)) {
+            CountlyStore store = TestUtils.getCountlyStore();
+            when(mockDeviceId.getDeviceId()).thenReturn(testDeviceId);
+            fillRequestQueue(store, 20);
+
+            String serverUrl = server.url("/").toString();
+            ConnectionProcessor cp = new ConnectionProcessor(serverUrl.substring(0, serverUrl.length() - 1), store, mockDeviceId, configurationProviderFake, rip, null, null, moduleLog, healthTrackerMock, mock(Runnable.class),
+                new ConcurrentHashMap<>());
+            cp.run();
+
+            assertEquals(0, store.getRequests().length);
+            assertEquals(20, recorded.size());
+
+            int acceptedSockets = 0;
+            for (RecordedRequest request : recorded) {
+                if (request.getSequenceNumber() == 0) {
+                    acceptedSockets++;
+                }
+            }
+            assertEquals(1, acceptedSockets);
+            assertEquals(20, cp.drainRequestCount);
+            assertEquals(19, cp.drainKeepAliveCandidateCount);
+            assertEquals(0, cp.drainDisconnectCount);
+        }
+    }
+
+    /**
+     * If the response stream is broken, the connection is not reused and gets disconnected
+     */
+    @Test
+    public void keepAlive_failedResponseDisconnects() throws IOException {
+        final String eventData = "blahblahblah";
+        connectionProcessor = spy(connectionProcessor);
+        when(mockStore.getRequests()).thenReturn(new String[] { eventData }, new String[0]);
+        when(mockDeviceId.getDeviceId()).thenReturn(testDeviceId);
+        final HttpURLConnection mockURLConnection = mock(HttpURLConnection.class);
+        final TestInputStream2 testInputStream = new TestInputStream2();
+        when(mockURLConnection.getInputStream()).thenReturn(testInputStream);
+        when(mockURLConnection.getResponseCode()).thenReturn(200);
+        doReturn(mockURLConnection).when(connectionProcessor).urlConnectionForServerRequest(eventData + "&rr=0", null);
+        connectionProcessor.run();
+
+        verify(mockStore, times(0)).removeRequest(eventData);
+        assertTrue(testInputStream.closed);
+        verify(mockURLConnection).disconnect();
+        assertEquals(1, connectionProcessor.drainDisconnectCount);
+    }
+
+    private MockWebServer startRecordingServer(final List<RecordedRequest> recorded) throws IOException {
+        return startRecordingServer(recorded, 0);
+    }
+
+    private MockWebServer startRecordingServer(final List<RecordedRequest> recorded, final long responseDelayMs) throws IOException {
+        MockWebServer server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @NotNull @Override public MockResponse dispatch(@NotNull RecordedRequest recordedRequest) throws InterruptedException {
+                if (responseDelayMs > 0) {
+                    Thread.sleep(responseDelayMs);
+                }
+                recorded.add(recordedRequest);
+                return new MockResponse().setResponseCode(200).setHeader("Content-Type", "application/json").setBody("{\"result\": \"Success\"}");
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private void fillRequestQueue(CountlyStore store, int requestCount) {
+        store.clear();
+        store.setLimits(requestCount + 1);
+        long now = UtilsTime.currentTimestampMs();
+        for (int a = 0; a < requestCount; a++) {
+            store.addRequest("app_key=" + TestUtils.commonAppKey + "&timestamp=" + now + "&hour=10&dow=3&tz=0&device_id=" + testDeviceId + "&nr=" + a
+                + "&events=" + UtilsNetworking.urlEncodeString("[{\"key\":\"test\",\"count\":1,\"segmentation\":{\"a\":\"b\"}}]"), false);
+        }
+    }
+
+    /**
+     * @return how long the drain took, in nanoseconds
+     */
+    private long drainRequestQueue(MockWebServer server, CountlyStore store) {
+        String serverUrl = server.url("/").toString();
+        ConnectionProcessor cp = new ConnectionProcessor(serverUrl.substring(0, serverUrl.length() - 1), store, mockDeviceId, configurationProviderFake, rip, null, null, moduleLog, healthTrackerMock, mock(Runnable.class),
+            new ConcurrentHashMap<>());
+        long start = System.nanoTime();
+        cp.run();
+        return System.nanoTime() - start;
+    }
+
+    private JSONArray bulkRequestsFromBody(String body) throws JSONException {
+        for (String pair : body.split("&")) {
+            if (pair.startsWith("requests=")) {
+                return new JSONArray(UtilsNetworking.urlDecodeString(pair.substring("requests=".length())));
+            }
+        }
+        return new JSONArray();
     }
 
     private static class TestInputStream2 extends InputStream {
@@ -30,6 +30,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.After;
@@ -311,6 +312,23 @@ public class CountlyStoreTests {
         assertTrue(Arrays.equals(new String[] { requestEntries[1], requestEntries[0] }, store.getRequests()));
     }
 
+    /**
+     * Removing several requests at once only removes the first matching occurrence of each
+     */
+    @Test
+    public void removeRequests_batch() {
+        store.addRequest(requestEntries[0], false);
+        store.addRequest(requestEntries[1], false);
+        store.addRequest(requestEntries[0], false);
+        store.addRequest(requestEntries[2], false);
+
+        store.removeRequests(Arrays.asList(requestEntries[0], requestEntries[2], requestEntries[3]));
+        assertArrayEquals(new String[] { requestEntries[1], requestEntries[0] }, store.getRequests());
+
+        store.removeRequests(new ArrayList<>());
+        assertArrayEquals(new String[] { requestEntries[1], requestEntries[0] }, store.getRequests());
+    }
+
     @Test
     public void recordEventToEventQueue() {
         final Event event = CreateEvent(eKeys[3]);
@@ -783,6 +801,67 @@ public class CountlyStoreTests {
         assertEquals(0, sp.getEventQueueSize());
     }
 
+    /**
+     * Validate that the event queue kept in memory picks up changes that were written to storage by another store instance
+     * and that events recorded with an older timestamp are placed in order
+     */
+    @Test
+    public void eventQueue_inMemoryCopyFollowsStorage() {
+        final Event event1 = CreateEvent(eKeys[0]);
+        event1.timestamp = 2000;
+        RecordEvent(event1, store);
+        assertEquals(1, store.getEventQueueSize());
+
+        //another store writes to the same storage
+        final Event event2 = CreateEvent(eKeys[1]);
+        event2.timestamp = 3000;
+        CountlyStore otherStore = new CountlyStore(TestUtils.getContext(), mock(ModuleLog.class));
+        RecordEvent(event2, otherStore);
+
+        assertEquals(2, store.getEventQueueSize());
+        assertEquals(Arrays.asList(event1, event2), store.getEventList());
+
+        //a past event is placed before the existing ones
+        final Event event3 = CreateEvent(eKeys[2]);
+        event3.timestamp = 1000;
+        RecordEvent(event3, store);
+        assertEquals(Arrays.asList(event3, event1, event2), store.getEventList());
+        assertEquals(Arrays.asList(event3, event1, event2), otherStore.getEventList());
+
+        store.removeEvents(Arrays.asList(event1));
+        assertEquals(Arrays.asList(event3, event2), otherStore.getEventList());
+        assertEquals(2, otherStore.getEvents().length);
+    }
+
+    /**
+     * Validate that draining the event queue returns the same value that would be created by
+     * serializing the stored events into a JSONArray
+     *
+     * @throws UnsupportedEncodingException
+     */
+    @Test
+    public void getEventsForRequestAndEmptyEventQueue_sameAsJSONArray() throws UnsupportedEncodingException {
+        for (int a = 0; a < 20; a++) {
+            final Event event = CreateEvent(eKeys[a % eKeys.length]);
+            event.timestamp = 10_000 - a * 10;
+            event.segmentation = new HashMap<>();
+            event.segmentation.put("a", a);
+            event.segmentation.put("b", "value" + a);
+            event.segmentation.put("c", a * 1.5);
+            RecordEvent(event, store);
+        }
+
+        final JSONArray expectedArray = new JSONArray();
+        for (Event event : store.getEventList()) {
+            expectedArray.put(event.toJSON());
+        }
+
+        final String expected = URLEncoder.encode(expectedArray.toString(), "UTF-8");
+        assertEquals(expected, sp.getEventsForRequestAndEmptyEventQueue());
+        assertEquals(0, sp.getEventQueueSize());
+        assertEquals(0, new CountlyStore(TestUtils.getContext(), mock(ModuleLog.class)).getEventQueueSize());
+    }
+
     @Test
     public void getSetServerConfig() {
         store.clear();
@@ -833,6 +912,112 @@ public class CountlyStoreTests {
         assertEquals(10, TestUtils.getCurrentRQ().length);
     }
 
+    /**
+     * Validating that the file backed request queue behaves the same as the preference one
+     * and that the queue is kept between store instances
+     */
+    @Test
+    public void fileBackedRequestQueue_basicOperations() {
+        CountlyStore fileStore = new CountlyStore(TestUtils.getContext(), mock(ModuleLog.class), false, true);
+        fileStore.clear();
+        assertEquals(0, fileStore.getRequests().length);
+
+        fileStore.addRequest(requestEntries[0], false);
+        fileStore.addRequest(requestEntries[1], false);
+        fileStore.addRequest(requestEntries[2], false);
+        assertArrayEquals(new String[] { requestEntries[0], requestEntries[1], requestEntries[2] }, fileStore.getRequests());
+        assertEquals(requestEntries[0] + CountlyStore.DELIMITER + requestEntries[1] + CountlyStore.DELIMITER + requestEntries[2], fileStore.getRequestQueueRaw());
+
+        //nothing is written to the preferences
+        assertEquals("", TestUtils.getContext().getSharedPreferences(countlyStoreName, Context.MODE_PRIVATE).getString("CONNECTIONS", ""));
+
+        fileStore.removeRequest(requestEntries[0]);
+        fileStore.removeRequest(requestEntries[2]);
+        assertArrayEquals(new String[] { requestEntries[1] }, fileStore.getRequests());
+
+        CountlyStore reopenedStore = new CountlyStore(TestUtils.getContext(), mock(ModuleLog.class), false, true);
+        assertArrayEquals(new String[] { requestEntries[1] }, reopenedStore.getRequests());
+        assertTrue(reopenedStore.anythingSetInStorage());
+
+        reopenedStore.replaceRequests(new String[] { requestEntries[3], requestEntries[4] });
+        assertArrayEquals(new String[] { requestEntries[3], requestEntries[4] }, reopenedStore.getRequests());
+
+        reopenedStore.deleteOldestRequest_reworked();
+        assertArrayEquals(new String[] { requestEntries[4] }, reopenedStore.getRequests());
+
+        reopenedStore.clear();
+        assertEquals(0, new CountlyStore(TestUtils.getContext(), mock(ModuleLog.class), false, true).getRequests().length);
+    }
+
+    /**
+     * Validating that the queue size and request age limits are respected with the file backed request queue
+     */
+    @Test
+    public void fileBackedRequestQueue_maxQueueLimit_requestAge() {
+        CountlyStore fileStore = new CountlyStore(TestUtils.getContext(), mock(ModuleLog.class), false, true);
+        fileStore.clear();
+        fileStore.setLimits(3);
+        fileStore.setRequestAgeLimit(1);
+        fileStore.addRequest(requestEntries[0], false);
+        fileStore.addRequest(requestEntries[1], false);
+        fileStore.addRequest(requestEntries[2], false);
+        assertArrayEquals(new String[] { requestEntries[0], requestEntries[1], requestEntries[2] }, fileStore.getRequests());
+
+        fileStore.addRequest(oldRequestEntries[0], false);
+        assertArrayEquals(new String[] { requestEntries[1], requestEntries[2], oldRequestEntries[0] }, fileStore.getRequests());
+
+        fileStore.addRequest(oldRequestEntries[1], false);
+        assertArrayEquals(new String[] { requestEntries[1], requestEntries[2], oldRequestEntries[1] }, fileStore.getRequests());
+
+        fileStore.addRequest(requestEntries[3], false);
+        assertArrayEquals(new String[] { requestEntries[1], requestEntries[2], requestEntries[3] }, fileStore.getRequests());
+        assertArrayEquals(new String[] { requestEntries[1], requestEntries[2], requestEntries[3] }, new CountlyStore(TestUtils.getContext(), mock(ModuleLog.class), false, true).getRequests());
+        fileStore.clear();
+    }
+
+    /**
+     * Validating the byte limits of the request queue with both queue backends:
+     * requests over the single request limit are not added and
+     * the oldest requests, except crash reports, are removed to fit into the queue byte budget
+     */
+    @Test
+    public void addRequest_byteLimits() {
+        validateByteLimits(store);
+
+        CountlyStore fileStore = new CountlyStore(TestUtils.getContext(), mock(ModuleLog.class), false, true);
+        fileStore.clear();
+        validateByteLimits(fileStore);
+        fileStore.clear();
+    }
+
+    private void validateByteLimits(CountlyStore countlyStore) {
+        HealthTracker healthTracker = mock(HealthTracker.class);
+        countlyStore.healthTracker = healthTracker;
+        countlyStore.pcc = new PerformanceCounterCollector();
+        countlyStore.setByteLimits(40, 20);
+
+        String crash = "a=1&crash=12345";//15 bytes
+        countlyStore.addRequest(crash, false);
+        countlyStore.addRequest("a=1&events=1", false);//12 bytes
+        countlyStore.addRequest("a=1&events=2", false);
+        verify(healthTracker).logRequestQueueBytes(39);
+
+        // over the single request limit
+        countlyStore.addRequest("a=1&events=1234567890", false);
+        verify(healthTracker).logRequestQueueEviction(0, 1);
+        assertArrayEquals(new String[] { crash, "a=1&events=1", "a=1&events=2" }, countlyStore.getRequests());
+
+        // the oldest request that is not a crash is removed
+        countlyStore.addRequest("a=1&events=3", false);
+        assertArrayEquals(new String[] { crash, "a=1&events=2", "a=1&events=3" }, countlyStore.getRequests());
+
+        // a larger request needs more room
+        countlyStore.addRequest("a=1&events=45678", false);//16 bytes
+        assertArrayEquals(new String[] { crash, "a=1&events=45678" }, countlyStore.getRequests());
+        assertEquals(39.0, countlyStore.pcc.GetValue("CountlyStore_requestQueueBytes"), 0.0);
+        countlyStore.setByteLimits(0, 0);
+    }
+
     private void addRequests(int count, CountlyStore countlyStore) {
         for (int i = 0; i < count; i++) {
             countlyStore.addRequest("request" + i, false);
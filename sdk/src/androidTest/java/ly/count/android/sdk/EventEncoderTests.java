@@ -0,0 +1,119 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.json.JSONArray;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class EventEncoderTests {
+
+    Event createEvent() {
+        Event event = new Event("key/\"with\\ ä \n escapes", 1_579_463_653_876L, 13, 2);
+        event.count = 3;
+        event.sum = 4.5;
+        event.dur = 12;
+        event.id = "id";
+        event.pvid = "pvid";
+        event.cvid = "cvid";
+        event.peid = "peid";
+        return event;
+    }
+
+    void assertSameAsOrgJson(Event event) {
+        Assert.assertEquals(event.toJSON().toString(), EventEncoder.toJson(event));
+    }
+
+    /**
+     * Basic fields and optional fields are written in the same order and format
+     */
+    @Test
+    public void toJson_fields() {
+        Event event = createEvent();
+        assertSameAsOrgJson(event);
+
+        event.key = null;
+        event.id = null;
+        event.cvid = null;
+        event.dur = 0;
+        event.sum = -0d;
+        assertSameAsOrgJson(event);
+
+        event.sum = 1e20;
+        event.dur = 0.1;
+        assertSameAsOrgJson(event);
+    }
+
+    /**
+     * Segmentation values of all supported types
+     */
+    @Test
+    public void toJson_segmentation() throws Exception {
+        Event event = createEvent();
+        Map<String, Object> segmentation = new HashMap<>();
+        segmentation.put("str", "a/b \u0001 \t");
+        segmentation.put("int", 5);
+        segmentation.put("long", 5_000_000_000L);
+        segmentation.put("double", 5.25);
+        segmentation.put("wholeDouble", 6.0);
+        segmentation.put("float", 0.1f);
+        segmentation.put("bool", true);
+        segmentation.put("list", Arrays.asList("a", 1, 2.5, false));
+        segmentation.put("intArray", new int[] { 1, 2, 3 });
+        segmentation.put("stringArray", new String[] { "x", "y" });
+        segmentation.put("jsonArray", new JSONArray("[1,\"b\",true]"));
+        event.segmentation = segmentation;
+        assertSameAsOrgJson(event);
+
+        event.segmentation = new HashMap<>();
+        assertSameAsOrgJson(event);
+    }
+
+    /**
+     * Values that org.json handles in a special way fall back to it
+     */
+    @Test
+    public void toJson_fallback() {
+        Event event = createEvent();
+        event.sum = Double.NaN;
+        assertSameAsOrgJson(event);
+
+        event = createEvent();
+        Map<String, Object> segmentation = new HashMap<>();
+        segmentation.put("nan", Double.POSITIVE_INFINITY);
+        segmentation.put("other", new Object());
+        event.segmentation = segmentation;
+        assertSameAsOrgJson(event);
+    }
+
+    /**
+     * URL encoding is the same as URLEncoder with UTF-8
+     */
+    @Test
+    public void appendUrlEncoded() throws UnsupportedEncodingException {
+        String[] values = { "", "abcXYZ019.-*_", "a b+c&d=e%f", "[{\"k\":\"\\/\"}]", "äö€中", "😀", "broken \ud83d end", "\ude00" };
+        for (String value : values) {
+            StringBuilder sb = new StringBuilder();
+            EventEncoder.appendUrlEncoded(value, sb);
+            Assert.assertEquals(URLEncoder.encode(value, "UTF-8"), sb.toString());
+        }
+    }
+
+    /**
+     * Joined events are the same as joining the org.json strings
+     */
+    @Test
+    public void joinEvents() {
+        Event e1 = createEvent();
+        Event e2 = createEvent();
+        e2.key = "other";
+        String expected = e1.toJSON().toString() + CountlyStore.DELIMITER + e2.toJSON().toString();
+        Assert.assertEquals(expected, CountlyStore.joinEvents(Arrays.asList(e1, e2), CountlyStore.DELIMITER, null));
+    }
+}
@@ -376,6 +376,18 @@ public class InternalRequestCallbackTests {
             @Override public String getRequestSalt() {
                 return null;
             }
+
+            @Override public int getBulkRequestBatchSize() {
+                return 0;
+            }
+
+            @Override public String getBulkRequestEndpoint() {
+                return "/i/bulk";
+            }
+
+            @Override public int getRequestCompressionThreshold() {
+                return -1;
+            }
         };
 
         ConnectionProcessor cp = new ConnectionProcessor(
@@ -456,6 +468,18 @@ public class InternalRequestCallbackTests {
             @Override public String getRequestSalt() {
                 return null;
             }
+
+            @Override public int getBulkRequestBatchSize() {
+                return 0;
+            }
+
+            @Override public String getBulkRequestEndpoint() {
+                return "/i/bulk";
+            }
+
+            @Override public int getRequestCompressionThreshold() {
+                return -1;
+            }
         };
 
         ConnectionProcessor cp = new ConnectionProcessor(
@@ -959,6 +983,18 @@ public class InternalRequestCallbackTests {
             @Override public String getRequestSalt() {
                 return null;
             }
+
+            @Override public int getBulkRequestBatchSize() {
+                return 0;
+            }
+
+            @Override public String getBulkRequestEndpoint() {
+                return "/i/bulk";
+            }
+
+            @Override public int getRequestCompressionThreshold() {
+                return -1;
+            }
         };
     }
 }
@@ -1203,4 +1203,30 @@ public class MigrationHelperTests {
     void validateRequestsAreEqual(String required, String gotten) {
         Assert.assertEquals(Utils.splitIntoParams(required, mockLog), Utils.splitIntoParams(gotten, mockLog));
     }
+
+    /**
+     * Requests stored in preferences are moved in front of the file backed request queue,
+     * and moved back to preferences if the file backed queue is not used anymore
+     */
+    @Test
+    public void requestQueueBackendMigration() {
+        CountlyStore fileStore = new CountlyStore(TestUtils.getContext(), mockLog, false, true);
+        fileStore.clear();
+        fileStore.addRequest("c=3", false);
+        cs.addRequest("a=1", false);
+        cs.addRequest("b=2", false);
+
+        new MigrationHelper(fileStore, mockLog, getApplicationContext()).performRequestQueueBackendMigration();
+        Assert.assertArrayEquals(new String[] { "a=1", "b=2", "c=3" }, fileStore.getRequests());
+        Assert.assertEquals(0, cs.getRequests().length);
+
+        //nothing left to move
+        Assert.assertFalse(fileStore.migrateRequestQueueBackend());
+
+        CountlyStore prefStore = new CountlyStore(TestUtils.getContext(), mockLog);
+        new MigrationHelper(prefStore, mockLog, getApplicationContext()).performRequestQueueBackendMigration();
+        Assert.assertArrayEquals(new String[] { "a=1", "b=2", "c=3" }, prefStore.getRequests());
+        Assert.assertFalse(prefStore.migrateRequestQueueBackend());
+        prefStore.clear();
+    }
 }
@@ -190,6 +190,267 @@ public class ModuleEventsTests {
         eventWithSegmentation(76355, 576334.33d, 85664.64d, 1579463653876L);
     }
 
+    /**
+     * Matching events are merged while aggregation is enabled and written to the event queue when events are sent
+     */
+    @Test
+    public void recordEvent_aggregation() {
+        mCountly.halt();
+        config = new CountlyConfig(TestUtils.getContext(), "appkey", "http://test.count.ly").setDeviceId("1234").setLoggingEnabled(true);
+        config.eventQueueProvider = eventQueueProvider;
+        config.enableEventAggregation(60_000).setEventAggregationExcludedKeys("excluded");
+        mCountly.init(config);
+
+        Map<String, Object> segmentation = new HashMap<>();
+        segmentation.put("a", "b");
+        mCountly.events().recordEvent(eventKey, segmentation, 1, 2.0d);
+        mCountly.events().recordEvent(eventKey, segmentation, 3, 4.0d);
+        mCountly.events().recordEvent("other", null, 1, 0);
+        mCountly.events().recordEvent("excluded", null, 1, 0);
+
+        verify(eventQueueProvider, times(1)).recordEventToEventQueue(any(String.class), any(), any(Integer.class), any(Double.class), any(Double.class), any(Long.class), any(Integer.class), any(Integer.class), any(String.class), any(), any(), any());
+        Assert.assertEquals(2, mCountly.moduleEvents.eventAggregator.size());
+
+        mCountly.moduleRequestQueue.sendEventsIfNeeded(true);
+
+        Assert.assertEquals(0, mCountly.moduleEvents.eventAggregator.size());
+        verify(eventQueueProvider).recordEventToEventQueue(eq(eventKey), eq(segmentation), eq(4), eq(6.0d), eq(0.0d), any(Long.class), any(Integer.class), any(Integer.class), any(String.class), isNull(String.class), eq(""), eq(""));
+        verify(eventQueueProvider).recordEventToEventQueue(eq("other"), any(), eq(1), eq(0.0d), eq(0.0d), any(Long.class), any(Integer.class), any(Integer.class), any(String.class), isNull(String.class), eq(""), any());
+    }
+
+    /**
+     * An oversized segmentation recorded as a past event keeps its supported entries if they fit the count limit
+     * once the unsupported ones are removed, the provided entries are only limited up front by 'recordEvent'
+     */
+    @Test
+    public void recordPastEvent_oversizedFilteredSegmentation() {
+        mCountly.halt();
+        config = new CountlyConfig(TestUtils.getContext(), "appkey", "http://test.count.ly").setDeviceId("1234").setLoggingEnabled(true);
+        config.eventQueueProvider = eventQueueProvider;
+        config.sdkInternalLimits.setMaxSegmentationValues(3);
+        mCountly.init(config);
+
+        Map<String, Object> segmentation = new HashMap<>();
+        for (int a = 0; a < 6; a++) {
+            segmentation.put("unsupported_" + a, new Object());
+        }
+        segmentation.put("a", 1);
+        segmentation.put("b", "2");
+        segmentation.put("c", true);
+
+        mCountly.events().recordPastEvent(eventKey, segmentation, 1, 0, 0, 1579463653876L);
+
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("a", 1);
+        expected.put("b", "2");
+        expected.put("c", true);
+        verify(eventQueueProvider).recordEventToEventQueue(eq(eventKey), eq(expected), eq(1), eq(0.0d), eq(0.0d), eq(1579463653876L), any(Integer.class), any(Integer.class), any(String.class), isNull(String.class), eq(""), eq(""));
+    }
+
+    /**
+     * Events recorded at the same hour and day of week but on different days are not merged
+     */
+    @Test
+    public void recordPastEvent_aggregationKeepsDaysApart() {
+        mCountly.halt();
+        config = new CountlyConfig(TestUtils.getContext(), "appkey", "http://test.count.ly").setDeviceId("1234").setLoggingEnabled(true);
+        config.eventQueueProvider = eventQueueProvider;
+        config.enableEventAggregation(60_000);
+        mCountly.init(config);
+
+        long timestamp = 1579463653876L;
+        mCountly.events().recordPastEvent(eventKey, null, 1, 0, 0, timestamp);
+        mCountly.events().recordPastEvent(eventKey, null, 1, 0, 0, timestamp + 1000);
+        mCountly.events().recordPastEvent(eventKey, null, 1, 0, 0, timestamp + 7 * 24 * 60 * 60 * 1000L);
+        Assert.assertEquals(2, mCountly.moduleEvents.eventAggregator.size());
+
+        mCountly.moduleRequestQueue.sendEventsIfNeeded(true);
+        verify(eventQueueProvider).recordEventToEventQueue(eq(eventKey), any(), eq(2), eq(0.0d), eq(0.0d), eq(timestamp), any(Integer.class), any(Integer.class), any(String.class), any(), any(), any());
+        verify(eventQueueProvider).recordEventToEventQueue(eq(eventKey), any(), eq(1), eq(0.0d), eq(0.0d), eq(timestamp + 7 * 24 * 60 * 60 * 1000L), any(Integer.class), any(Integer.class), any(String.class), any(), any(), any());
+    }
+
+    /**
+     * Events are sent when the event queue reaches the byte threshold
+     */
+    @Test
+    public void recordEvent_byteThreshold() {
+        mCountly.halt();
+        config = new CountlyConfig(TestUtils.getContext(), "appkey", "http://test.count.ly").setDeviceId("1234").setLoggingEnabled(true);
+        config.setEventQueueByteThreshold(200);
+        mCountly.init(config);
+
+        mCountly.events().recordEvent(eventKey);
+        Assert.assertEquals(1, mCountly.countlyStore.getEventQueueSize());
+        Assert.assertTrue(mCountly.countlyStore.getEventQueueByteSize() < 200);
+
+        mCountly.events().recordEvent(eventKey);
+        Assert.assertEquals(0, mCountly.countlyStore.getEventQueueSize());
+        Assert.assertEquals(0, mCountly.countlyStore.getEventQueueByteSize());
+        Assert.assertTrue(Arrays.toString(mCountly.countlyStore.getRequests()).contains("events="));
+    }
+
+    /**
+     * A flush is scheduled only while events are waiting, they are sent when the app goes to the background
+     * and the global timer is suspended while there is nothing to do
+     */
+    @Test
+    public void recordEvent_flushScheduler() {
+        mCountly.halt();
+        config = new CountlyConfig(TestUtils.getContext(), "appkey", "http://test.count.ly").setDeviceId("1234").setLoggingEnabled(true);
+        config.enableEventFlushScheduler(60);
+        mCountly.init(config);
+
+        EventFlushScheduler scheduler = mCountly.moduleRequestQueue.eventFlushScheduler;
+        Assert.assertFalse(scheduler.isScheduled());
+
+        mCountly.onStartInternal(null);
+        mCountly.events().recordEvent(eventKey);
+        Assert.assertEquals(1, mCountly.countlyStore.getEventQueueSize());
+        Assert.assertTrue(scheduler.isScheduled());
+
+        mCountly.onStopInternal();
+        Assert.assertEquals(0, mCountly.countlyStore.getEventQueueSize());
+        Assert.assertFalse(scheduler.isScheduled());
+        Assert.assertTrue(Arrays.toString(mCountly.countlyStore.getRequests()).contains("events="));
+
+        // the timer keeps running while requests are waiting
+        mCountly.onTimer();
+        Assert.assertFalse(mCountly.isTimerSuspended());
+
+        mCountly.countlyStore.replaceRequests(new String[] {});
+        mCountly.onTimer();
+        Assert.assertTrue(mCountly.isTimerSuspended());
+
+        mCountly.onStartInternal(null);
+        Assert.assertFalse(mCountly.isTimerSuspended());
+    }
+
+    /**
+     * User properties that are set while the global timer is suspended start it again,
+     * and the next tick saves them into a request
+     */
+    @Test
+    public void flushScheduler_userPropertiesWhileSuspended() {
+        mCountly.halt();
+        config = new CountlyConfig(TestUtils.getContext(), "appkey", "http://test.count.ly").setDeviceId("1234").setLoggingEnabled(true);
+        config.enableEventFlushScheduler(60);
+        mCountly.init(config);
+
+        mCountly.countlyStore.replaceRequests(new String[] {});
+        mCountly.onTimer();
+        Assert.assertTrue(mCountly.isTimerSuspended());
+
+        mCountly.userProfile().setProperty("a", "b");
+        Assert.assertFalse(mCountly.isTimerSuspended());
+
+        mCountly.onTimer();
+        Assert.assertTrue(Arrays.toString(mCountly.countlyStore.getRequests()).contains("user_details="));
+        Assert.assertFalse(mCountly.isTimerSuspended());
+    }
+
+    /**
+     * The age of waiting events is counted from when they were added to the event queue,
+     * so a past event with an old timestamp is not sent right away
+     */
+    @Test
+    public void recordPastEvent_flushSchedulerUsesEnqueueTime() {
+        mCountly.halt();
+        config = new CountlyConfig(TestUtils.getContext(), "appkey", "http://test.count.ly").setDeviceId("1234").setLoggingEnabled(true);
+        config.enableEventFlushScheduler(60);
+        mCountly.init(config);
+
+        long beforeRecording = UtilsTime.currentTimestampMs();
+        mCountly.events().recordPastEvent(eventKey, null, 1, 0, 0, beforeRecording - 2 * 60 * 60 * 1000L);
+
+        Assert.assertEquals(1, mCountly.countlyStore.getEventQueueSize());
+        Assert.assertTrue(mCountly.countlyStore.getOldestEventEnqueueTimestamp() >= beforeRecording);
+        Assert.assertTrue(mCountly.moduleRequestQueue.eventFlushScheduler.isScheduled());
+    }
+
+    /**
+     * With async event ingestion the event is recorded by the consumer with a copy of the segmentation
+     */
+    @Test
+    public void recordEvent_asyncIngestion() {
+        mCountly.halt();
+        config = new CountlyConfig(TestUtils.getContext(), "appkey", "http://test.count.ly").setDeviceId("1234").setLoggingEnabled(true);
+        config.eventQueueProvider = eventQueueProvider;
+        config.experimental.enableAsyncEventIngestion();
+        mCountly.init(config);
+
+        Map<String, Object> segmentation = new HashMap<>();
+        segmentation.put("a", "b");
+        mCountly.events().recordEvent(eventKey, segmentation, 3, 4.5d, 6.5d);
+        segmentation.put("c", "d");
+
+        mCountly.moduleEvents.eventIngestionQueue.drain();
+
+        ArgumentCaptor<Map> argS = ArgumentCaptor.forClass(Map.class);
+        verify(eventQueueProvider).recordEventToEventQueue(eq(eventKey), argS.capture(), eq(3), eq(4.5d), eq(6.5d), any(Long.class), any(Integer.class), any(Integer.class), any(String.class), isNull(String.class), eq(""), eq(""));
+        Assert.assertEquals("b", argS.getValue().get("a"));
+        Assert.assertFalse(argS.getValue().containsKey("c"));
+    }
+
+    /**
+     * With async event ingestion timed events are started and ended without the SDK lock
+     */
+    @Test
+    public void startEndEvent_asyncIngestion() {
+        mCountly.halt();
+        config = new CountlyConfig(TestUtils.getContext(), "appkey", "http://test.count.ly").setDeviceId("1234").setLoggingEnabled(true);
+        config.eventQueueProvider = eventQueueProvider;
+        config.experimental.enableAsyncEventIngestion();
+        mCountly.init(config);
+
+        Assert.assertTrue(mCountly.events().startEvent(eventKey));
+        Assert.assertFalse(mCountly.events().startEvent(eventKey));
+        Assert.assertTrue(mCountly.events().endEvent(eventKey));
+        Assert.assertFalse(mCountly.events().endEvent(eventKey));
+        Assert.assertEquals(0, ModuleEvents.timedEvents.size());
+
+        mCountly.moduleEvents.eventIngestionQueue.drain();
+        verify(eventQueueProvider).recordEventToEventQueue(eq(eventKey), any(Map.class), eq(1), eq(0.0d), any(Double.class), any(Long.class), any(Integer.class), any(Integer.class), any(String.class), isNull(String.class), eq(""), eq(""));
+    }
+
+    /**
+     * With async event ingestion a timed event ended with a count below 1 is recorded with a count of 1
+     */
+    @Test
+    public void endEvent_asyncIngestion_countIsClamped() {
+        mCountly.halt();
+        config = new CountlyConfig(TestUtils.getContext(), "appkey", "http://test.count.ly").setDeviceId("1234").setLoggingEnabled(true);
+        config.eventQueueProvider = eventQueueProvider;
+        config.experimental.enableAsyncEventIngestion();
+        mCountly.init(config);
+
+        Assert.assertTrue(mCountly.events().startEvent(eventKey));
+        Assert.assertTrue(mCountly.events().endEvent(eventKey, null, 0, 0));
+
+        mCountly.moduleEvents.eventIngestionQueue.drain();
+        verify(eventQueueProvider).recordEventToEventQueue(eq(eventKey), isNull(Map.class), eq(1), eq(0.0d), any(Double.class), any(Long.class), any(Integer.class), any(Integer.class), any(String.class), isNull(String.class), eq(""), eq(""));
+    }
+
+    /**
+     * With async event ingestion, forced event sending and halting record the events that are still waiting in the ingestion queue
+     */
+    @Test
+    public void asyncIngestion_drainedBeforeSendingAndOnHalt() {
+        mCountly.halt();
+        config = new CountlyConfig(TestUtils.getContext(), "appkey", "http://test.count.ly").setDeviceId("1234").setLoggingEnabled(true);
+        config.eventQueueProvider = eventQueueProvider;
+        config.experimental.enableAsyncEventIngestion();
+        mCountly.init(config);
+
+        mCountly.events().recordEvent(eventKey);
+        mCountly.moduleRequestQueue.sendEventsIfNeeded(true);
+        Assert.assertEquals(0, mCountly.moduleEvents.eventIngestionQueue.size());
+        verify(eventQueueProvider).recordEventToEventQueue(eq(eventKey), isNull(Map.class), eq(1), eq(0.0d), eq(0.0d), any(Long.class), any(Integer.class), any(Integer.class), any(String.class), isNull(String.class), eq(""), eq(""));
+
+        mCountly.events().recordEvent(eventKey + "_2");
+        mCountly.halt();
+        verify(eventQueueProvider).recordEventToEventQueue(eq(eventKey + "_2"), isNull(Map.class), eq(1), eq(0.0d), eq(0.0d), any(Long.class), any(Integer.class), any(Integer.class), any(String.class), isNull(String.class), eq(""), eq(""));
+    }
+
     @Test
     public void startEndEvent_noSegments() throws InterruptedException {
         boolean res = mCountly.events().startEvent(eventKey);
@@ -1348,4 +1609,46 @@ public class ModuleEventsTests {
         }
     }
      */
-}
\ No newline at end of file
+
+    /**
+     * With logging disabled, recording an event should not build any log messages.
+     * 'recordEvent' has to allocate less with logging off than with a log listener set.
+     * If the runtime does not count allocations, both counts are 0.
+     */
+    @Test
+    public void benchmark_recordEventAllocationsLoggingOff() {
+        Countly.sharedInstance().setLoggingEnabled(false);
+        CountlyConfig cc = new CountlyConfig(TestUtils.getContext(), "appkey", "http://test.count.ly").setDeviceId("1234").giveAllConsents();
+        cc.eventQueueProvider = (key, segmentation, count, sum, dur, timestamp, hour, dow, eventID, previousViewID, currentViewId, previousEventId) -> {
+        };
+        Countly countly = new Countly().init(cc);
+
+        Map<String, Object> segmentation = new HashMap<>();
+        for (int a = 0; a < 10; a++) {
+            segmentation.put("key_" + a, "value_" + a);
+        }
+
+        final int iterations = 1000;
+        //warm up
+        countly.events().recordEvent(eventKey, segmentation, 1, 0, 0);
+
+        android.os.Debug.startAllocCounting();
+        android.os.Debug.resetThreadAllocCount();
+        for (int a = 0; a < iterations; a++) {
+            countly.events().recordEvent(eventKey, segmentation, 1, 0, 0);
+        }
+        int loggingOffAllocations = android.os.Debug.getThreadAllocCount();
+
+        countly.L.SetListener((logMessage, logLevel) -> {
+        });
+        android.os.Debug.resetThreadAllocCount();
+        for (int a = 0; a < iterations; a++) {
+            countly.events().recordEvent(eventKey, segmentation, 1, 0, 0);
+        }
+        int loggingOnAllocations = android.os.Debug.getThreadAllocCount();
+        android.os.Debug.stopAllocCounting();
+        countly.L.SetListener(null);
+
+        Assert.assertTrue(loggingOffAllocations == 0 || loggingOffAllocations < loggingOnAllocations);
+    }
+}
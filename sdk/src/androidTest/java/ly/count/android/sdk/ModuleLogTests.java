@@ -1,7 +1,13 @@
 package ly.count.android.sdk;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -56,4 +62,116 @@ public class ModuleLogTests {
     public void checkListenerSimple() {
 
     }
+
+    /**
+     * Parameterized calls only turn their arguments into strings if logging is enabled
+     */
+    @Test
+    public void parameterizedCalls_formattedOnlyWhenEnabled() {
+        Countly.sharedInstance().setLoggingEnabled(false);
+        ModuleLog log = new ModuleLog();
+        final int[] toStringCalls = { 0 };
+        Object arg = new Object() {
+            @Override public String toString() {
+                toStringCalls[0]++;
+                return "arg";
+            }
+        };
+
+        Assert.assertFalse(log.logEnabled());
+        log.v("a [{}]", arg);
+        log.d("a [{}] [{}]", arg, arg);
+        log.i("a [{}] [{}] [{}]", arg, arg, arg);
+        Assert.assertEquals(0, toStringCalls[0]);
+
+        final List<String> messages = new ArrayList<>();
+        log.SetListener((logMessage, logLevel) -> messages.add(logMessage));
+        Assert.assertTrue(log.logEnabled());
+
+        log.v("a [{}]", arg);
+        log.d("a [{}] b [{}] c [{}]", 1, "two", null);
+        log.i("{} {}", "x");
+        log.i("no placeholders", "x");
+        Assert.assertEquals(1, toStringCalls[0]);
+        Assert.assertEquals("a [arg]", messages.get(0));
+        Assert.assertEquals("a [1] b [two] c [null]", messages.get(1));
+        Assert.assertEquals("x {}", messages.get(2));
+        Assert.assertEquals("no placeholders", messages.get(3));
+    }
+
+    static void waitForDelivery(ModuleLog log) throws InterruptedException {
+        for (int a = 0; a < 200 && log.logDispatcher.size() > 0; a++) {
+            Thread.sleep(10);
+        }
+        //the last message could still be inside the listener
+        Thread.sleep(50);
+    }
+
+    /**
+     * With asynchronous delivery the listener is informed on another thread, in order and without filtered levels
+     */
+    @Test
+    public void asyncListener_deliveredInOrderOnOtherThread() throws InterruptedException {
+        Countly.sharedInstance().setLoggingEnabled(false);
+        ModuleLog log = new ModuleLog();
+        final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+        log.SetListener((logMessage, logLevel) -> {
+            messages.add(logLevel + ":" + logMessage);
+            threads.add(Thread.currentThread());
+        }, ModuleLog.LogLevel.Info, 16);
+
+        log.v("aa");
+        log.d("bb");
+        log.i("cc");
+        log.w("dd");
+        log.e("ee");
+        waitForDelivery(log);
+
+        Assert.assertEquals(3, messages.size());
+        Assert.assertEquals("Info:cc", messages.get(0));
+        Assert.assertEquals("Warning:dd", messages.get(1));
+        Assert.assertEquals("Error:ee", messages.get(2));
+        for (Thread thread : threads) {
+            Assert.assertNotSame(Thread.currentThread(), thread);
+        }
+        Assert.assertEquals(0, log.logDispatcher.droppedCount());
+
+        log.SetListener(null);
+        Assert.assertNull(log.logDispatcher);
+    }
+
+    /**
+     * A blocked listener doesn't block logging. Messages that don't fit in the buffer are dropped, counted and reported.
+     */
+    @Test
+    public void asyncListener_overflowIsCounted() throws InterruptedException {
+        Countly.sharedInstance().setLoggingEnabled(false);
+        ModuleLog log = new ModuleLog();
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+        log.SetListener((logMessage, logLevel) -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+            messages.add(logMessage);
+        }, ModuleLog.LogLevel.Verbose, 4);
+
+        for (int a = 0; a < 20; a++) {
+            log.d("msg_" + a);
+        }
+        //at most one message is inside the listener and 4 wait in the buffer
+        Assert.assertTrue(log.logDispatcher.droppedCount() >= 15);
+
+        release.countDown();
+        waitForDelivery(log);
+
+        long dropped = log.logDispatcher.droppedCount();
+        Assert.assertEquals(20 - dropped + 1, messages.size());
+        Assert.assertEquals("msg_0", messages.get(0));
+        Assert.assertEquals("[LogDispatcher] [" + dropped + "] log messages were dropped because the log listener could not keep up", messages.get(messages.size() - 1));
+
+        log.SetListener(null);
+    }
 }
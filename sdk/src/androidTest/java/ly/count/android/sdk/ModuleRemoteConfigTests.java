@@ -1,6 +1,10 @@
 package ly.count.android.sdk;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import ly.count.android.sdk.internal.RemoteConfigHelper;
 import ly.count.android.sdk.internal.RemoteConfigValueStore;
@@ -43,7 +47,7 @@ public class ModuleRemoteConfigTests {
 
         //set RC
         String[] rcArr = { rcEStr("a", 123), rcEStr("b", "fg") };
-        countlyStore.setRemoteConfigValues(RemoteConfigValueStore.dataFromString(rcArrIntoJSON(rcArr), false).dataToString());
+        countly.moduleRemoteConfig.saveConfig(RemoteConfigValueStore.dataFromString(rcArrIntoJSON(rcArr), false));
 
         Assert.assertEquals(123, countly.remoteConfig().getValue("a").value);
         Assert.assertEquals("fg", countly.remoteConfig().getValue("b").value);
@@ -166,7 +170,7 @@ public class ModuleRemoteConfigTests {
             Assert.assertEquals(0, countly.remoteConfig().getValues().size());
 
             String[] rcArr = new String[] { rcEStr("a", 123), rcEStr("b", "fg") };
-            countlyStore.setRemoteConfigValues(RemoteConfigValueStore.dataFromString(rcArrIntoJSON(rcArr), false).dataToString());
+            countly.moduleRemoteConfig.saveConfig(RemoteConfigValueStore.dataFromString(rcArrIntoJSON(rcArr), false));
             Assert.assertEquals(2, countly.remoteConfig().getValues().size());
             assertCValueCachedState(countly.remoteConfig().getValues(), false);
 
@@ -194,7 +198,7 @@ public class ModuleRemoteConfigTests {
             }
 
             //entering temp ID mode should trigger caching. Lack of consent should leave no impact on this
-            countlyStore.setRemoteConfigValues(RemoteConfigValueStore.dataFromString(rcArrIntoJSON(rcArr), false).dataToString());
+            countly.moduleRemoteConfig.saveConfig(RemoteConfigValueStore.dataFromString(rcArrIntoJSON(rcArr), false));
             countly.deviceId().enableTemporaryIdMode();
 
             for (int b = 0; b < 2; b++) {
@@ -244,7 +248,7 @@ public class ModuleRemoteConfigTests {
 
         //set RC
         String[] rcArr = new String[] { rcEStr("a", 123), rcEStr("b", "fg") };
-        countlyStore.setRemoteConfigValues(RemoteConfigValueStore.dataFromString(rcArrIntoJSON(rcArr), false).dataToString());
+        countly.moduleRemoteConfig.saveConfig(RemoteConfigValueStore.dataFromString(rcArrIntoJSON(rcArr), false));
 
         Assert.assertEquals(123, countly.remoteConfig().getValue("a").value);
         Assert.assertEquals("fg", countly.remoteConfig().getValue("b").value);
@@ -253,7 +257,7 @@ public class ModuleRemoteConfigTests {
 
         Assert.assertEquals(0, countly.remoteConfig().getValues().size());
 
-        countlyStore.setRemoteConfigValues(RemoteConfigValueStore.dataFromString(rcArrIntoJSON(rcArr), false).dataToString());
+        countly.moduleRemoteConfig.saveConfig(RemoteConfigValueStore.dataFromString(rcArrIntoJSON(rcArr), false));
 
         Assert.assertEquals(123, countly.remoteConfig().getValue("a").value);
         Assert.assertEquals("fg", countly.remoteConfig().getValue("b").value);
@@ -357,7 +361,7 @@ public class ModuleRemoteConfigTests {
         JSONArray jArrI = new JSONArray("[3,\"44\",5.1,7.7]");
         JSONObject jObjI = new JSONObject("{\"q\":6,\"w\":\"op\"}");
         String[] rcArr = new String[] { rcEStr("a", 123, false), rcEStr("b", "fg"), rcEStr("c", 222222222222L, false), rcEStr("d", 1.5d), rcEStr("e", jArrI, false), rcEStr("f", jObjI) };
-        countlyStore.setRemoteConfigValues(RemoteConfigValueStore.dataFromString(rcArrIntoJSON(rcArr), false).dataToString());
+        countly.moduleRemoteConfig.saveConfig(RemoteConfigValueStore.dataFromString(rcArrIntoJSON(rcArr), false));
 
         Assert.assertEquals(123, countly.remoteConfig().getValue("a").value);
         Assert.assertEquals(123, countly.remoteConfig().getValueAndEnroll("a").value);
@@ -545,6 +549,245 @@ public class ModuleRemoteConfigTests {
         Assert.assertEquals(0, ((JSONObject) vals.get("t")).length());
     }
 
+    /**
+     * Reads use the same decoded snapshot until the module changes the values. Reads don't go to storage,
+     * the stored values are decoded at init. Changing a returned RCData does not change the stored value.
+     */
+    @Test
+    public void snapshotReusedUntilValuesChange() {
+        CountlyConfig cc = new CountlyConfig(TestUtils.getContext(), "aaa", "http://www.aa.bb");
+        Countly countly = new Countly().init(cc);
+
+        RemoteConfigSnapshot empty = countly.moduleRemoteConfig.currentSnapshot();
+        Assert.assertEquals(0, empty.size());
+
+        RemoteConfigValueStore rcvs = RemoteConfigValueStore.dataFromString("{\"a\": 123,\"b\": \"fg\"}", false);
+        countly.moduleRemoteConfig.mergeCheckResponseIntoCurrentValues(false, RemoteConfigHelper.DownloadedValuesIntoMap(rcvs.values));
+
+        RemoteConfigSnapshot merged = countly.moduleRemoteConfig.currentSnapshot();
+        Assert.assertNotSame(empty, merged);
+        Assert.assertEquals(123, countly.remoteConfig().getValue("a").value);
+        Assert.assertSame(merged, countly.moduleRemoteConfig.currentSnapshot());
+
+        countly.remoteConfig().getValue("a").value = 5;
+        Assert.assertEquals(123, countly.remoteConfig().getValue("a").value);
+
+        String[] rcArr = new String[] { rcEStr("c", "ww") };
+        countly.moduleRemoteConfig.saveConfig(RemoteConfigValueStore.dataFromString(rcArrIntoJSON(rcArr), false));
+        Assert.assertNull(countly.remoteConfig().getValue("a").value);
+        Assert.assertEquals("ww", countly.remoteConfig().getValue("c").value);
+        RemoteConfigSnapshot saved = countly.moduleRemoteConfig.currentSnapshot();
+        Assert.assertNotSame(merged, saved);
+
+        countlyStore.setRemoteConfigValues(RemoteConfigValueStore.dataFromString(rcArrIntoJSON(new String[] { rcEStr("d", 1) }), false).dataToString());
+        Assert.assertSame(saved, countly.moduleRemoteConfig.currentSnapshot());
+        Assert.assertEquals(1, new Countly().init(new CountlyConfig(TestUtils.getContext(), "aaa", "http://www.aa.bb")).remoteConfig().getLong("d", 0));
+
+        countly.remoteConfig().clearAll();
+        Assert.assertSame(RemoteConfigSnapshot.EMPTY, countly.moduleRemoteConfig.currentSnapshot());
+    }
+
+    /**
+     * JSONObject and JSONArray values are returned as copies, changing them does not change the stored values
+     */
+    @Test
+    public void snapshotReturnsCopiesOfJsonValues() throws JSONException {
+        CountlyConfig cc = new CountlyConfig(TestUtils.getContext(), "aaa", "http://www.aa.bb");
+        Countly countly = new Countly().init(cc);
+
+        RemoteConfigValueStore rcvs = RemoteConfigValueStore.dataFromString("{\"j\": {\"x\": 1},\"arr\": [1, 2]}", false);
+        countly.moduleRemoteConfig.mergeCheckResponseIntoCurrentValues(false, RemoteConfigHelper.DownloadedValuesIntoMap(rcvs.values));
+
+        ((JSONObject) countly.remoteConfig().getValue("j").value).put("y", 2);
+        ((JSONArray) countly.remoteConfig().getValue("arr").value).put(3);
+        Assert.assertEquals(1, ((JSONObject) countly.remoteConfig().getValue("j").value).length());
+        Assert.assertEquals(2, ((JSONArray) countly.remoteConfig().getValue("arr").value).length());
+
+        ((JSONObject) countly.remoteConfig().getValues().get("j").value).put("y", 2);
+        ((JSONObject) countly.remoteConfig().getAllValues().get("j")).put("y", 2);
+        ((JSONObject) countly.remoteConfig().getValueForKey("j")).put("y", 2);
+        Assert.assertEquals(1, ((JSONObject) countly.remoteConfig().getValue("j").value).length());
+    }
+
+    /**
+     * Typed getters return the stored value if it has the requested type, otherwise the default value
+     */
+    @Test
+    public void typedGetters() {
+        CountlyConfig cc = new CountlyConfig(TestUtils.getContext(), "aaa", "http://www.aa.bb");
+        Countly countly = new Countly().init(cc);
+
+        RemoteConfigValueStore rcvs = RemoteConfigValueStore.dataFromString("{\"bool\": true,\"int\": 123,\"big\": 12345678901,\"dec\": 1.5,\"str\": \"fg\",\"obj\": {}}", false);
+        countly.moduleRemoteConfig.mergeCheckResponseIntoCurrentValues(false, RemoteConfigHelper.DownloadedValuesIntoMap(rcvs.values));
+
+        ModuleRemoteConfig.RemoteConfig rc = countly.remoteConfig();
+        Assert.assertTrue(rc.getBoolean("bool", false));
+        Assert.assertFalse(rc.getBoolean("str", false));
+        Assert.assertEquals(123, rc.getLong("int", -1));
+        Assert.assertEquals(12_345_678_901L, rc.getLong("big", -1));
+        Assert.assertEquals(1, rc.getLong("dec", -1));
+        Assert.assertEquals(1.5, rc.getDouble("dec", -1), 0.0);
+        Assert.assertEquals(123.0, rc.getDouble("int", -1), 0.0);
+        Assert.assertEquals(-1, rc.getLong("bool", -1));
+        Assert.assertEquals("fg", rc.getString("str", "def"));
+        Assert.assertEquals("def", rc.getString("int", "def"));
+        Assert.assertEquals("def", rc.getString("obj", "def"));
+        Assert.assertEquals("def", rc.getString("missing", "def"));
+        Assert.assertEquals("def", rc.getString(null, "def"));
+    }
+
+    /**
+     * A flag check with the typed getters does not allocate, while 'getValue' allocates on every call.
+     * If the runtime does not count allocations, both counts are 0.
+     */
+    @SuppressWarnings("deprecation")
+    @Test
+    public void benchmark_typedGetterAllocations() {
+        CountlyConfig cc = new CountlyConfig(TestUtils.getContext(), "aaa", "http://www.aa.bb");
+        Countly countly = new Countly().init(cc);
+
+        RemoteConfigValueStore rcvs = RemoteConfigValueStore.dataFromString("{\"flag\": true,\"count\": 5}", false);
+        countly.moduleRemoteConfig.mergeCheckResponseIntoCurrentValues(false, RemoteConfigHelper.DownloadedValuesIntoMap(rcvs.values));
+        ModuleRemoteConfig.RemoteConfig rc = countly.remoteConfig();
+
+        final int iterations = 10_000;
+        boolean result = false;
+        //warm up, so that one time allocations of the first calls are not counted
+        result = rc.getBoolean("flag", false) && (Boolean) rc.getValue("flag").value;
+
+        android.os.Debug.startAllocCounting();
+        android.os.Debug.resetThreadAllocCount();
+        for (int a = 0; a < iterations; a++) {
+            result &= (Boolean) rc.getValue("flag").value;
+        }
+        int getValueAllocations = android.os.Debug.getThreadAllocCount();
+
+        android.os.Debug.resetThreadAllocCount();
+        for (int a = 0; a < iterations; a++) {
+            result &= rc.getBoolean("flag", false) && rc.getLong("count", 0) == 5;
+        }
+        int typedAllocations = android.os.Debug.getThreadAllocCount();
+        android.os.Debug.stopAllocCounting();
+
+        Assert.assertTrue(result);
+        Assert.assertEquals(0, typedAllocations);
+        Assert.assertTrue(getValueAllocations == 0 || getValueAllocations >= iterations);
+    }
+
+    /**
+     * Conditional downloads against a simulated server that keeps the previous version of its values.
+     * Unchanged values are not parsed or written, changes only update the changed keys,
+     * and a version is not sent once the stored values were changed in another way.
+     */
+    @Test
+    public void deltaDownload_simulatedServer() throws Exception {
+        final JSONObject[] serverValues = { new JSONObject("{\"a\": 1,\"b\": \"x\"}") };
+        final JSONObject[] previousValues = { null };
+        final int[] serverVersion = { 1 };
+        final List<String> receivedRequests = new ArrayList<>();
+
+        CountlyConfig cc = new CountlyConfig(TestUtils.getContext(), "appkey", "http://test.count.ly").setDeviceId("1234").enableRemoteConfigDeltaDownload();
+        cc.immediateRequestGenerator = new ImmediateRequestGenerator() {
+            @Override public ImmediateRequestI CreateImmediateRequestMaker() {
+                return (requestData, customEndpoint, cp, requestShouldBeDelayed, networkingIsEnabled, callback, log) -> {
+                    if (!requestData.contains("&method=rc")) {
+                        //server config and health check requests
+                        callback.callback(null);
+                        return;
+                    }
+                    receivedRequests.add(requestData);
+                    try {
+                        String version = null;
+                        for (String param : requestData.split("&")) {
+                            if (param.startsWith("rc_version=")) {
+                                version = URLDecoder.decode(param.substring("rc_version=".length()), "UTF-8");
+                            }
+                        }
+
+                        if (!requestData.contains("&rc_delta=1")) {
+                            callback.callback(serverValues[0]);
+                        } else if (("v" + serverVersion[0]).equals(version)) {
+                            //what ImmediateRequestMaker passes on for a 304 response
+                            callback.callback(new JSONObject().put(ImmediateRequestMaker.keyNotModified, true));
+                        } else if (("v" + (serverVersion[0] - 1)).equals(version)) {
+                            JSONObject changed = new JSONObject();
+                            JSONArray removed = new JSONArray();
+                            Iterator<String> keys = serverValues[0].keys();
+                            while (keys.hasNext()) {
+                                String key = keys.next();
+                                if (!serverValues[0].get(key).equals(previousValues[0].opt(key))) {
+                                    changed.put(key, serverValues[0].get(key));
+                                }
+                            }
+                            keys = previousValues[0].keys();
+                            while (keys.hasNext()) {
+                                String key = keys.next();
+                                if (!serverValues[0].has(key)) {
+                                    removed.put(key);
+                                }
+                            }
+                            callback.callback(new JSONObject().put("rc_version", "v" + serverVersion[0]).put("changed", changed).put("removed", removed));
+                        } else {
+                            callback.callback(new JSONObject().put("rc_version", "v" + serverVersion[0]).put("values", serverValues[0]));
+                        }
+                    } catch (Exception e) {
+                        callback.callback(null);
+                    }
+                };
+            }
+
+            @Override public ImmediateRequestI CreatePreflightRequestMaker() {
+                return null;
+            }
+        };
+        Countly countly = new Countly().init(cc);
+
+        final List<Map<String, RCData>> downloaded = new ArrayList<>();
+        RCDownloadCallback callback = (downloadResult, error, fullValueUpdate, downloadedValues) -> {
+            Assert.assertEquals(RequestResult.Success, downloadResult);
+            downloaded.add(downloadedValues);
+        };
+
+        //first download has no version
+        countly.remoteConfig().downloadAllKeys(callback);
+        Assert.assertTrue(receivedRequests.get(0).contains("&rc_delta=1"));
+        Assert.assertFalse(receivedRequests.get(0).contains("rc_version"));
+        Assert.assertEquals(1, countly.remoteConfig().getLong("a", 0));
+        Assert.assertEquals("x", countly.remoteConfig().getString("b", null));
+
+        //nothing changed, the stored values are not written again
+        String storedBefore = countlyStore.getRemoteConfigValues();
+        RemoteConfigSnapshot snapshotBefore = countly.moduleRemoteConfig.currentSnapshot();
+        countly.remoteConfig().downloadAllKeys(callback);
+        Assert.assertTrue(receivedRequests.get(1).contains("&rc_version=v1"));
+        Assert.assertSame(storedBefore, countlyStore.getRemoteConfigValues());
+        Assert.assertSame(snapshotBefore, countly.moduleRemoteConfig.currentSnapshot());
+        Assert.assertEquals(2, downloaded.get(1).size());
+
+        //only the changes are received
+        previousValues[0] = serverValues[0];
+        serverValues[0] = new JSONObject("{\"a\": 2,\"c\": true}");
+        serverVersion[0] = 2;
+        countly.remoteConfig().downloadAllKeys(callback);
+        Assert.assertTrue(receivedRequests.get(2).contains("&rc_version=v1"));
+        Assert.assertEquals(2, countly.remoteConfig().getLong("a", 0));
+        Assert.assertNull(countly.remoteConfig().getValue("b").value);
+        Assert.assertTrue(countly.remoteConfig().getBoolean("c", false));
+        Assert.assertEquals(2, countly.remoteConfig().getValues().size());
+
+        //partial downloads are not conditional
+        countly.remoteConfig().downloadSpecificKeys(new String[] { "a" }, callback);
+        Assert.assertFalse(receivedRequests.get(3).contains("rc_delta"));
+
+        //values changed in another way, so the version is not sent and all values are received
+        countly.moduleRemoteConfig.saveConfig(RemoteConfigValueStore.dataFromString(rcArrIntoJSON(new String[] { rcEStr("z", 9) }), false));
+        countly.remoteConfig().downloadAllKeys(callback);
+        Assert.assertFalse(receivedRequests.get(4).contains("rc_version"));
+        Assert.assertNull(countly.remoteConfig().getValue("z").value);
+        Assert.assertEquals(2, countly.remoteConfig().getValues().size());
+        Assert.assertEquals(5, downloaded.size());
+    }
+
     /**
      * Concurrency test: simulate rapid merge operations while concurrently reading values
      * to ensure no ConcurrentModificationException or data corruption occurs after introducing
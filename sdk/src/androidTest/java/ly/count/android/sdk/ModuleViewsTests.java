@@ -77,6 +77,25 @@ public class ModuleViewsTests {
         Assert.assertNotEquals(result1, result2);
     }
 
+    /**
+     * Make sure the fast ID generator matches the format of the random value generator
+     */
+    @Test
+    public void testFastIDGenerator() {
+        FastIDGenerator generator = new FastIDGenerator();
+        @NonNull String result1 = generator.GenerateValue();
+        @NonNull String result2 = generator.GenerateValue();
+
+        Assert.assertTrue(result1.matches(base64Regex));
+        Assert.assertTrue(result2.matches(base64Regex));
+        Assert.assertEquals(21, result1.length(), result2.length());
+        Assert.assertNotEquals(result1, result2);
+
+        byte[] bytes = new byte[] { 1, 2, 3, (byte) 0xFD, (byte) 0xFE, (byte) 0xFF };
+        String expected = android.util.Base64.encodeToString(bytes, android.util.Base64.NO_WRAP) + 1_579_463_653_876L;
+        Assert.assertEquals(expected, FastIDGenerator.encode(0x010203FDFEFFL, 1_579_463_653_876L));
+    }
+
     /**
      * Make sure that long names for Activities are recorded when required
      */
@@ -7,6 +7,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -70,6 +73,89 @@ public class MultiThreadingTests {
         //todo add validation
     }
 
+    /**
+     * Event recording threads compete with a thread that keeps holding the SDK lock.
+     * Compares how long the event threads are blocked with the regular path and with async event ingestion.
+     */
+    @Test
+    public void eventContention_asyncIngestion() throws BrokenBarrierException, InterruptedException {
+        long lockedNs = runEventContention(false);
+
+        mCountly.halt();
+        CountlyConfig config = new CountlyConfig(TestUtils.getContext(), "appkey", "https://test.count.ly").setDeviceId("1234").setLoggingEnabled(true).setEventQueueSizeToSend(1000);
+        config.experimental.enableAsyncEventIngestion();
+        mCountly.init(config);
+
+        long asyncNs = runEventContention(true);
+
+        Assert.assertTrue(asyncNs < lockedNs);
+    }
+
+    /**
+     * @return total time the event threads spent in the event calls
+     */
+    long runEventContention(boolean async) throws BrokenBarrierException, InterruptedException {
+        int eventThreads = 20;
+        final int iterations = 50;
+        final AtomicLong callerTimeNs = new AtomicLong();
+        final AtomicBoolean lockHolderRunning = new AtomicBoolean(true);
+
+        final CyclicBarrier gate = new CyclicBarrier(eventThreads + 2);
+        List<Thread> runs = new ArrayList<>();
+
+        for (int a = 0; a < eventThreads; a++) {
+            runs.add(tBase(gate, a, iterations, 0, new ThreadCall() {
+                @Override public void call(int threadNumber, int iter, long sleepTime) {
+                    long start = System.nanoTime();
+                    mCountly.events().recordEvent("contention__" + threadNumber + "__" + iter, createSegmentation(iter), 1, 2.0);
+                    callerTimeNs.addAndGet(System.nanoTime() - start);
+                }
+            }));
+        }
+
+        // simulates other modules and the timer working under the SDK lock
+        Thread lockHolder = new Thread() {
+            @Override public void run() {
+                try {
+                    gate.await();
+                } catch (BrokenBarrierException | InterruptedException e) {
+                    e.printStackTrace();
+                }
+
+                while (lockHolderRunning.get()) {
+                    synchronized (mCountly) {
+                        try {
+                            Thread.sleep(2);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    Thread.yield();
+                }
+            }
+        };
+
+        for (Thread t : runs) {
+            t.start();
+        }
+        lockHolder.start();
+
+        gate.await();
+
+        for (Thread t : runs) {
+            t.join();
+        }
+        lockHolderRunning.set(false);
+        lockHolder.join();
+
+        if (async) {
+            mCountly.moduleEvents.eventIngestionQueue.drain();
+            Assert.assertEquals(0, mCountly.moduleEvents.eventIngestionQueue.size());
+        }
+
+        return callerTimeNs.get();
+    }
+
     ThreadCall createEventJob() {
         return new ThreadCall() {
             @Override public void call(int threadNumber, int iter, long sleepTime) {
@@ -0,0 +1,119 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class PerformanceCounterCollectorTests {
+
+    /**
+     * Sums, max values and the text output keep their previous meaning
+     */
+    @Test
+    public void sumAndMax() {
+        PerformanceCounterCollector pcc = new PerformanceCounterCollector();
+        pcc.TrackCounter("b_sum", 1.5);
+        pcc.TrackCounter("b_sum", 2.0);
+        pcc.TrackCounterMax("a_max", 3);
+        pcc.TrackCounterMax("a_max", 7);
+        pcc.TrackCounterMax("a_max", 5);
+        pcc.TrackCounterTimeNs("c_time", 2_000_000_000L);
+
+        Assert.assertEquals(3.5, pcc.GetValue("b_sum"), 0.0);
+        Assert.assertEquals(7.0, pcc.GetValue("a_max"), 0.0);
+        Assert.assertEquals(2.0, pcc.GetValue("c_time"), 0.0);
+        Assert.assertNull(pcc.GetValue("missing"));
+        Assert.assertEquals("a_max - 7.000000\nb_sum - 3.500000\nc_time - 2.000000\n", pcc.ReturnResults());
+
+        pcc.Clear();
+        Assert.assertEquals("", pcc.ReturnResults());
+    }
+
+    /**
+     * Percentiles of time counters are within the histogram bucket precision
+     */
+    @Test
+    public void timePercentiles() throws Exception {
+        PerformanceCounterCollector pcc = new PerformanceCounterCollector();
+        for (int a = 1; a <= 1000; a++) {
+            pcc.TrackCounterTimeNs("time", a * 1000L);
+        }
+
+        PerformanceCounterCollector.CounterSnapshot snapshot = pcc.TakeSnapshot().get("time");
+        Assert.assertEquals(1000, snapshot.count);
+        Assert.assertEquals(0.000001, snapshot.min, 1e-12);
+        Assert.assertEquals(0.001, snapshot.max, 1e-12);
+        Assert.assertEquals(0.0005, snapshot.p50, 0.0005 / PerformanceCounterCollector.SUB_BUCKETS);
+        Assert.assertEquals(0.0009, snapshot.p90, 0.0009 / PerformanceCounterCollector.SUB_BUCKETS);
+        Assert.assertEquals(0.00099, snapshot.p99, 0.00099 / PerformanceCounterCollector.SUB_BUCKETS);
+
+        JSONObject json = pcc.ReturnResultsJson().getJSONObject("time");
+        Assert.assertEquals(1000, json.getLong("count"));
+        Assert.assertEquals(snapshot.p99, json.getDouble("p99"), 0.0);
+
+        pcc.TrackCounter("plain", 1);
+        Assert.assertTrue(Double.isNaN(pcc.TakeSnapshot().get("plain").p50));
+        Assert.assertFalse(pcc.ReturnResultsJson().getJSONObject("plain").has("p50"));
+    }
+
+    /**
+     * Every value falls into the bucket whose bounds contain it
+     */
+    @Test
+    public void histogramBuckets() {
+        long[] values = { 0, 1, 7, 8, 9, 15, 16, 1000, 123_456_789L, 1L << 40, (1L << 41) - 1 };
+        for (long value : values) {
+            int index = PerformanceCounterCollector.bucketIndex(value);
+            Assert.assertTrue(PerformanceCounterCollector.bucketLowerBound(index) <= value);
+            Assert.assertTrue(index == PerformanceCounterCollector.HISTOGRAM_BUCKETS - 1 || PerformanceCounterCollector.bucketLowerBound(index + 1) > value);
+        }
+        Assert.assertEquals(PerformanceCounterCollector.HISTOGRAM_BUCKETS - 1, PerformanceCounterCollector.bucketIndex(Long.MAX_VALUE));
+    }
+
+    /**
+     * Counts and sums are exact when many threads track the same keys
+     */
+    @Test
+    public void multipleProducers() throws InterruptedException {
+        final PerformanceCounterCollector pcc = new PerformanceCounterCollector();
+        final int threadCount = 8;
+        final int iterations = 10_000;
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int a = 0; a < threadCount; a++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ignored) {
+                }
+                for (int b = 0; b < iterations; b++) {
+                    pcc.TrackCounter("count", 1);
+                    pcc.TrackCounterTimeNs("time", 1_000_000L);
+                    pcc.TrackCounterMax("max", b);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Map<String, PerformanceCounterCollector.CounterSnapshot> snapshot = pcc.TakeSnapshot();
+        Assert.assertEquals(threadCount * iterations, snapshot.get("count").count);
+        Assert.assertEquals(threadCount * iterations, snapshot.get("count").sum, 0.0);
+        Assert.assertEquals(threadCount * iterations, snapshot.get("time").count);
+        Assert.assertEquals(threadCount * iterations * 0.001, snapshot.get("time").sum, 1e-6);
+        Assert.assertEquals(iterations - 1, snapshot.get("max").value(), 0.0);
+    }
+}
@@ -0,0 +1,166 @@
+package ly.count.android.sdk;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.mockito.Mockito.mock;
+
+@RunWith(AndroidJUnit4.class)
+public class PersistenceFlusherTests {
+    SharedPreferences preferences;
+    ModuleLog mockLog;
+
+    @Before
+    public void setUp() {
+        preferences = TestUtils.getContext().getSharedPreferences("PERSISTENCE_FLUSHER_TESTS", Context.MODE_PRIVATE);
+        preferences.edit().clear().commit();
+        mockLog = mock(ModuleLog.class);
+    }
+
+    @After
+    public void tearDown() {
+        preferences.edit().clear().commit();
+    }
+
+    /**
+     * With the immediate policy every write goes straight to preferences
+     */
+    @Test
+    public void immediate_writesThrough() {
+        PersistenceFlusher flusher = new PersistenceFlusher(preferences, PersistenceFlusher.Policy.IMMEDIATE, 0, mockLog);
+        flusher.write("a", "1", true);
+
+        Assert.assertEquals("1", preferences.getString("a", ""));
+        Assert.assertEquals("1", flusher.read("a"));
+        Assert.assertFalse(flusher.hasPendingWrites());
+        Assert.assertTrue(flusher.flush(-1));
+    }
+
+    /**
+     * Writes done within the flush window are coalesced into a single disk write
+     * and reads are served from the cache before that
+     */
+    @Test
+    public void writeBehind_coalescesWrites() {
+        PersistenceFlusher flusher = new PersistenceFlusher(preferences, PersistenceFlusher.Policy.WRITE_BEHIND, 60_000, mockLog);
+        flusher.write("a", "1", false);
+        flusher.write("a", "2", false);
+        flusher.write("b", "3", false);
+
+        Assert.assertEquals("", preferences.getString("a", ""));
+        Assert.assertEquals("2", flusher.read("a"));
+        Assert.assertTrue(flusher.hasPendingWrites());
+
+        Assert.assertTrue(flusher.flush(-1));
+        Assert.assertEquals("2", preferences.getString("a", ""));
+        Assert.assertEquals("3", preferences.getString("b", ""));
+        Assert.assertEquals(1, flusher.diskWriteCount);
+        Assert.assertFalse(flusher.hasPendingWrites());
+    }
+
+    /**
+     * The flush window elapsing writes the pending values on the flusher thread
+     */
+    @Test
+    public void writeBehind_flushesAfterWindow() throws InterruptedException {
+        PersistenceFlusher flusher = new PersistenceFlusher(preferences, PersistenceFlusher.Policy.WRITE_BEHIND, 10, mockLog);
+        flusher.write("a", "1", false);
+
+        for (int a = 0; a < 100 && flusher.hasPendingWrites(); a++) {
+            Thread.sleep(10);
+        }
+
+        Assert.assertFalse(flusher.hasPendingWrites());
+        Assert.assertEquals("1", preferences.getString("a", ""));
+    }
+
+    /**
+     * A write in sync is on disk when the call returns
+     */
+    @Test
+    public void writeBehind_writeInSync() {
+        PersistenceFlusher flusher = new PersistenceFlusher(preferences, PersistenceFlusher.Policy.WRITE_BEHIND, 60_000, mockLog);
+        flusher.write("a", "1", false);
+        flusher.write("b", "2", true);
+
+        Assert.assertEquals("1", preferences.getString("a", ""));
+        Assert.assertEquals("2", preferences.getString("b", ""));
+    }
+
+    /**
+     * With the explicit policy nothing is written until the pending values are flushed,
+     * and values matching the stored ones don't cause a disk write
+     */
+    @Test
+    public void explicit_writesOnlyOnFlush() {
+        preferences.edit().putString("a", "1").commit();
+        PersistenceFlusher flusher = new PersistenceFlusher(preferences, PersistenceFlusher.Policy.EXPLICIT, 0, mockLog);
+
+        flusher.write("a", "1", true);
+        Assert.assertFalse(flusher.flushPending());
+        Assert.assertEquals(0, flusher.diskWriteCount);
+
+        flusher.write("a", "2", true);
+        Assert.assertEquals("1", preferences.getString("a", ""));
+        Assert.assertTrue(flusher.flushPending());
+        Assert.assertEquals("2", preferences.getString("a", ""));
+        Assert.assertEquals(1, flusher.diskWriteCount);
+    }
+
+    /**
+     * Clearing drops pending values so they are not written later
+     */
+    @Test
+    public void clear_dropsPending() {
+        PersistenceFlusher flusher = new PersistenceFlusher(preferences, PersistenceFlusher.Policy.WRITE_BEHIND, 60_000, mockLog);
+        flusher.write("a", "1", false);
+        flusher.clear();
+
+        Assert.assertFalse(flusher.hasPendingWrites());
+        Assert.assertTrue(flusher.flush(-1));
+        Assert.assertEquals("", preferences.getString("a", ""));
+    }
+
+    /**
+     * Stopping writes the pending values, the flusher can still be used after that
+     */
+    @Test
+    public void stop_flushesPending() {
+        PersistenceFlusher flusher = new PersistenceFlusher(preferences, PersistenceFlusher.Policy.WRITE_BEHIND, 60_000, mockLog);
+        flusher.write("a", "1", false);
+        flusher.stop();
+
+        Assert.assertFalse(flusher.hasPendingWrites());
+        Assert.assertEquals("1", preferences.getString("a", ""));
+
+        flusher.write("b", "2", false);
+        Assert.assertTrue(flusher.flush(-1));
+        Assert.assertEquals("2", preferences.getString("b", ""));
+    }
+
+    /**
+     * A value is compared with the last written one, writing it back after a change still reaches the disk
+     */
+    @Test
+    public void flushPending_comparesWithLastWritten() {
+        PersistenceFlusher flusher = new PersistenceFlusher(preferences, PersistenceFlusher.Policy.EXPLICIT, 0, mockLog);
+
+        flusher.write("a", "1", true);
+        Assert.assertTrue(flusher.flushPending());
+        flusher.write("a", "1", true);
+        Assert.assertFalse(flusher.flushPending());
+        flusher.write("a", "2", true);
+        Assert.assertTrue(flusher.flushPending());
+        flusher.write("a", "1", true);
+        Assert.assertTrue(flusher.flushPending());
+
+        Assert.assertEquals("1", preferences.getString("a", ""));
+        Assert.assertEquals(3, flusher.diskWriteCount);
+    }
+}
@@ -0,0 +1,202 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.mockito.Mockito.mock;
+
+@RunWith(AndroidJUnit4.class)
+public class RequestHeaderTests {
+    ModuleLog mockLog;
+    CountlyStore store;
+
+    @Before
+    public void setUp() {
+        mockLog = mock(ModuleLog.class);
+        store = new CountlyStore(TestUtils.getContext(), mockLog, false, true);
+        store.clear();
+    }
+
+    @After
+    public void tearDown() {
+        store.clear();
+    }
+
+    /**
+     * All header fields are parsed from a request that has them
+     */
+    @Test
+    public void parse_allFields() {
+        String request = "app_key=abc%2B1&device_id=dev1&timestamp=1700000000000&hour=1&new_end_point=/o/sdk&callback_id=cb1&events=%5B%5D";
+        RequestHeader header = RequestHeader.parse(request);
+
+        Assert.assertEquals(1_700_000_000_000L, header.timestamp);
+        Assert.assertEquals("abc%2B1", header.appKey);
+        Assert.assertEquals("dev1", header.deviceId);
+        Assert.assertFalse(header.temporaryId);
+        Assert.assertEquals("/o/sdk", header.customEndpoint);
+        Assert.assertEquals("cb1", header.callbackId);
+        Assert.assertFalse(header.crash);
+        Assert.assertEquals(request.length(), header.size);
+
+        Assert.assertTrue(RequestHeader.parse("app_key=a&device_id=1&crash=%7B%7D").crash);
+    }
+
+    /**
+     * Missing and malformed fields, parameters that only end with a known key are not matched
+     */
+    @Test
+    public void parse_missingAndMalformed() {
+        RequestHeader header = RequestHeader.parse("app_key=abc&old_device_id=dev1&timestamp=12a4&new_end_point=&device_id=" + DeviceId.temporaryCountlyDeviceId);
+
+        Assert.assertEquals(RequestHeader.NO_TIMESTAMP, header.timestamp);
+        Assert.assertEquals(DeviceId.temporaryCountlyDeviceId, header.deviceId);
+        Assert.assertTrue(header.temporaryId);
+        Assert.assertEquals("", header.customEndpoint);
+        Assert.assertNull(header.callbackId);
+
+        header = RequestHeader.parse("");
+        Assert.assertEquals(RequestHeader.NO_TIMESTAMP, header.timestamp);
+        Assert.assertNull(header.appKey);
+        Assert.assertNull(header.deviceId);
+        Assert.assertFalse(header.temporaryId);
+        Assert.assertNull(header.customEndpoint);
+        Assert.assertEquals(0, header.size);
+
+        // the first value is used
+        header = RequestHeader.parse("timestamp=&app_key=a&timestamp=5&app_key=b&timestamp=6");
+        Assert.assertEquals(5, header.timestamp);
+        Assert.assertEquals("a", header.appKey);
+    }
+
+    /**
+     * Headers are kept when requests are added and are cleared together with the queue
+     */
+    @Test
+    public void store_keepsRequestHeaders() {
+        String request = "app_key=a&device_id=1&timestamp=1700000000000&events=1";
+        store.addRequest(request, false);
+
+        RequestHeader header = store.getRequestHeader(store.getRequests()[0], 0);
+        Assert.assertSame(header, store.getRequestHeader(store.getRequests()[0], 0));
+        Assert.assertEquals(1_700_000_000_000L, header.timestamp);
+
+        store.clear();
+        Assert.assertNull(store.requestHeaders);
+    }
+
+    /**
+     * Headers stay at the positions of their requests when requests leave the queue,
+     * headers of removed requests are not kept
+     */
+    @Test
+    public void store_headersFollowTheQueue() {
+        store.addRequest("app_key=a&device_id=1&events=0", false);
+        store.addRequest("app_key=a&device_id=1&events=1", false);
+        store.addRequest("app_key=a&device_id=1&events=2", false);
+        RequestHeader header = store.getRequestHeader(store.getRequests()[2], 2);
+
+        store.deleteOldestRequest_reworked();
+        String[] requests = store.getRequests();
+        Assert.assertEquals(2, store.requestHeaders.length);
+        // the position is only a hint, the request is still found
+        Assert.assertSame(header, store.getRequestHeader(requests[1], 0));
+        Assert.assertSame(header, store.getRequestHeader(requests[1], 5));
+
+        // a request that is not a stored instance is parsed
+        RequestHeader parsed = store.getRequestHeader(new String(requests[1]), 1);
+        Assert.assertNotSame(header, parsed);
+        Assert.assertEquals(header.appKey, parsed.appKey);
+
+        store.removeRequest(requests[0]);
+        Assert.assertEquals(1, store.getRequests().length);
+        Assert.assertSame(header, store.getRequestHeader(store.getRequests()[0], 0));
+    }
+
+    /**
+     * Compares the checks done on a 5000 request queue while draining and cleaning it
+     * (age, temporary ID, custom endpoint, callback and app key checks)
+     * between scanning the raw request strings and reading the kept headers.
+     * Every round reads the preference queue again, as the SDK does.
+     */
+    @Test
+    public void benchmark_5000RequestQueue() {
+        // requests are stored in preferences
+        store = new CountlyStore(TestUtils.getContext(), mockLog);
+        store.maxRequestQueueSize = 5000;
+        long now = UtilsTime.currentTimestampMs();
+        StringBuilder events = new StringBuilder();
+        for (int a = 0; a < 10; a++) {
+            events.append("%7B%22key%22%3A%22event_").append(a).append("%22%2C%22count%22%3A1%2C%22segmentation%22%3A%7B%22screen%22%3A%22main%22%7D%7D%2C");
+        }
+        for (int a = 0; a < 5000; a++) {
+            String deviceId = a == 4999 ? DeviceId.temporaryCountlyDeviceId : "device_1";
+            store.addRequest("app_key=app_key_1&timestamp=" + (now - a) + "&hour=10&dow=3&tz=120&sdk_version=24.7.0&sdk_name=java-native-android&device_id=" + deviceId + "&events=%5B" + events + "%5D", false);
+        }
+        String temporaryIdTag = "&device_id=" + DeviceId.temporaryCountlyDeviceId;
+        String targetAppKey = "app_key_1";
+
+        int scanResult = 0;
+        int indexResult = 0;
+        long scanTime = Long.MAX_VALUE;
+        long indexTime = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            scanResult = 0;
+            for (String request : store.getRequests()) {
+                if (Utils.isRequestTooOld(request, 1, "[Benchmark]", mockLog)) {
+                    scanResult++;
+                }
+                if (request.contains(temporaryIdTag)) {
+                    scanResult++;
+                }
+                if (Utils.extractValueFromString(request, ConnectionProcessor.endPointOverrideTag, "&")[1] != null) {
+                    scanResult++;
+                }
+                if (Utils.extractValueFromString(request, "&callback_id=", "&")[1] != null) {
+                    scanResult++;
+                }
+                for (String part : request.split("&")) {
+                    if (part.contains("app_key=")) {
+                        if (part.equals("app_key=" + targetAppKey)) {
+                            scanResult++;
+                        }
+                        break;
+                    }
+                }
+            }
+            scanTime = Math.min(scanTime, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            indexResult = 0;
+            String[] requests = store.getRequests();
+            for (int a = 0; a < requests.length; a++) {
+                RequestHeader header = store.getRequestHeader(requests[a], a);
+                if (Utils.isRequestTooOld(header.timestamp, 1, "[Benchmark]", mockLog)) {
+                    indexResult++;
+                }
+                if (header.temporaryId) {
+                    indexResult++;
+                }
+                if (header.customEndpoint != null) {
+                    indexResult++;
+                }
+                if (header.callbackId != null) {
+                    indexResult++;
+                }
+                if (targetAppKey.equals(header.appKey)) {
+                    indexResult++;
+                }
+            }
+            indexTime = Math.min(indexTime, System.nanoTime() - start);
+        }
+
+        Assert.assertEquals(5001, scanResult);
+        Assert.assertEquals(scanResult, indexResult);
+        Assert.assertTrue(indexTime < scanTime);
+    }
+}
@@ -0,0 +1,188 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@RunWith(AndroidJUnit4.class)
+public class RequestQueueEvictorTests {
+    ModuleLog mockLog;
+    StorageProvider storageProvider;
+    CountlyStore store;
+    long freshTimestamp;
+    long oldTimestamp;
+
+    @Before
+    public void setUp() {
+        mockLog = mock(ModuleLog.class);
+        storageProvider = mock(StorageProvider.class);
+        store = new CountlyStore(TestUtils.getContext(), mockLog, false, true);
+        store.clear();
+        freshTimestamp = UtilsTime.currentTimestampMs();
+        oldTimestamp = freshTimestamp - 5 * 3_600_000L;
+    }
+
+    @After
+    public void tearDown() {
+        store.clear();
+    }
+
+    private String request(long timestamp, int index) {
+        return "app_key=a&device_id=1&timestamp=" + timestamp + "&events=" + index;
+    }
+
+    /**
+     * Too old requests are removed in slices, continuing where the previous slice ended
+     */
+    @Test
+    public void evictTooOldRequests_boundedSlices() {
+        List<String> requests = new ArrayList<>();
+        for (int a = 0; a < 250; a++) {
+            requests.add(request(oldTimestamp, a));
+        }
+        for (int a = 250; a < 300; a++) {
+            requests.add(request(freshTimestamp, a));
+        }
+
+        RequestQueueEvictor evictor = new RequestQueueEvictor(mockLog);
+        evictor.timeBudgetNs = Long.MAX_VALUE;
+        Assert.assertTrue(evictor.mightContainTooOldRequests(1));
+        Assert.assertEquals(100, evictor.evictTooOldRequests(storageProvider, requests, 1));
+        Assert.assertTrue(evictor.lastEvictionFromFront);
+        Assert.assertEquals(100, evictor.evictTooOldRequests(storageProvider, requests, 1));
+        Assert.assertEquals(50, evictor.evictTooOldRequests(storageProvider, requests, 1));
+        Assert.assertEquals(50, requests.size());
+        Assert.assertEquals(request(freshTimestamp, 250), requests.get(0));
+
+        // the whole queue has been checked and nothing old is left
+        Assert.assertFalse(evictor.mightContainTooOldRequests(1));
+        Assert.assertFalse(evictor.mightContainTooOldRequests(0));
+
+        // an old request that is added makes the check necessary again
+        evictor.onRequestAdded(RequestHeader.parse(request(oldTimestamp, 300)));
+        Assert.assertTrue(evictor.mightContainTooOldRequests(1));
+    }
+
+    /**
+     * Too old requests in the middle of the queue are found and reported as not being at the front
+     */
+    @Test
+    public void evictTooOldRequests_middleOfQueue() {
+        List<String> requests = new ArrayList<>(Arrays.asList(request(freshTimestamp, 0), request(oldTimestamp, 1), "app_key=a&events=2", request(freshTimestamp, 3)));
+
+        RequestQueueEvictor evictor = new RequestQueueEvictor(mockLog);
+        Assert.assertEquals(1, evictor.evictTooOldRequests(storageProvider, requests, 1));
+        Assert.assertFalse(evictor.lastEvictionFromFront);
+        Assert.assertEquals(Arrays.asList(request(freshTimestamp, 0), "app_key=a&events=2", request(freshTimestamp, 3)), requests);
+        Assert.assertFalse(evictor.mightContainTooOldRequests(1));
+    }
+
+    /**
+     * Removals that are not done by the evictor move the running pass back so that nothing is skipped
+     */
+    @Test
+    public void evictTooOldRequests_removalDuringPass() {
+        List<String> requests = new ArrayList<>();
+        for (int a = 0; a < 150; a++) {
+            requests.add(request(freshTimestamp, a));
+        }
+        requests.add(request(oldTimestamp, 150));
+
+        RequestQueueEvictor evictor = new RequestQueueEvictor(mockLog);
+        evictor.timeBudgetNs = Long.MAX_VALUE;
+        Assert.assertEquals(0, evictor.evictTooOldRequests(storageProvider, requests, 1));
+
+        // 10 requests were sent from the front of the queue
+        requests.subList(0, 10).clear();
+        evictor.onRequestsRemoved(10);
+
+        Assert.assertEquals(1, evictor.evictTooOldRequests(storageProvider, requests, 1));
+        Assert.assertEquals(140, requests.size());
+    }
+
+    /**
+     * The slice stops when the time budget runs out, the rest is checked by the next slice
+     */
+    @Test
+    public void evictTooOldRequests_timeBudget() {
+        List<String> requests = new ArrayList<>();
+        for (int a = 0; a < 100; a++) {
+            requests.add(request(oldTimestamp, a));
+        }
+
+        RequestQueueEvictor evictor = new RequestQueueEvictor(mockLog);
+        evictor.timeBudgetNs = 0;
+        Assert.assertEquals(16, evictor.evictTooOldRequests(storageProvider, requests, 1));
+        Assert.assertEquals(84, requests.size());
+    }
+
+    /**
+     * Overflow eviction is gradual by default and removes all overflow when the gradual cleaner is disabled
+     */
+    @Test
+    public void overflowToEvict() {
+        RequestQueueEvictor evictor = new RequestQueueEvictor(mockLog);
+        Assert.assertEquals(0, evictor.overflowToEvict(9, 10));
+        Assert.assertEquals(1, evictor.overflowToEvict(10, 10));
+        Assert.assertEquals(101, evictor.overflowToEvict(500, 10));
+
+        evictor.removeAllOverflow = true;
+        Assert.assertEquals(491, evictor.overflowToEvict(500, 10));
+    }
+
+    /**
+     * Evicted requests are reported to the health tracker
+     */
+    @Test
+    public void store_reportsEvictions() {
+        HealthTracker healthTracker = mock(HealthTracker.class);
+        store.healthTracker = healthTracker;
+        store.setLimits(3);
+        store.setRequestAgeLimit(1);
+
+        store.addRequest(request(freshTimestamp, 0), false);
+        store.addRequest(request(oldTimestamp, 1), false);
+        store.addRequest(request(freshTimestamp, 2), false);
+        verify(healthTracker, never()).logRequestQueueEviction(anyInt(), anyInt());
+
+        store.addRequest(request(freshTimestamp, 3), false);
+        verify(healthTracker).logRequestQueueEviction(1, 0);
+
+        store.addRequest(request(freshTimestamp, 4), false);
+        verify(healthTracker).logRequestQueueEviction(0, 1);
+        Assert.assertArrayEquals(new String[] { request(freshTimestamp, 2), request(freshTimestamp, 3), request(freshTimestamp, 4) }, store.getRequests());
+    }
+
+    /**
+     * Sustained offline burst into a full 5000 request queue that has a request age limit and one too old request at the end.
+     * The too old request is found by the bounded eviction while the queue stays full.
+     */
+    @Test
+    public void benchmark_fullQueueBurst() {
+        store.setLimits(5000);
+        store.setRequestAgeLimit(1);
+        for (int a = 0; a < 4999; a++) {
+            store.addRequest(request(freshTimestamp, a), false);
+        }
+        store.addRequest(request(oldTimestamp, 4999), false);
+
+        for (int a = 0; a < 1000; a++) {
+            store.addRequest(request(freshTimestamp, 5000 + a), false);
+        }
+        Assert.assertEquals(5000, store.getRequests().length);
+        for (String request : store.getRequests()) {
+            Assert.assertFalse(request.contains("&timestamp=" + oldTimestamp));
+        }
+    }
+}
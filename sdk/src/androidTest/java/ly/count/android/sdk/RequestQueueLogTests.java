@@ -0,0 +1,236 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.mockito.Mockito.mock;
+
+@RunWith(AndroidJUnit4.class)
+public class RequestQueueLogTests {
+    ModuleLog mockLog;
+    File directory;
+
+    @Before
+    public void setUp() {
+        mockLog = mock(ModuleLog.class);
+        directory = new File(TestUtils.getContext().getFilesDir(), "countly_rq_test");
+        RequestQueueLog.deleteDirectory(directory);
+    }
+
+    @After
+    public void tearDown() {
+        RequestQueueLog.deleteDirectory(directory);
+    }
+
+    /**
+     * Appended requests are returned in order and survive reopening the log
+     */
+    @Test
+    public void appendAndReopen() throws IOException {
+        RequestQueueLog log = new RequestQueueLog(directory, mockLog);
+        Assert.assertEquals(0, log.size());
+
+        log.append("a=1", false);
+        log.append("b=2", true);
+        log.append("c=äö", false);
+        Assert.assertArrayEquals(new String[] { "a=1", "b=2", "c=äö" }, log.getRequests());
+        Assert.assertEquals("a=1", log.peek());
+
+        RequestQueueLog reopened = new RequestQueueLog(directory, mockLog);
+        Assert.assertArrayEquals(new String[] { "a=1", "b=2", "c=äö" }, reopened.getRequests());
+    }
+
+    /**
+     * Removing from the front only moves the head and the head position is persisted
+     */
+    @Test
+    public void removeFirst_headPersisted() throws IOException {
+        RequestQueueLog log = new RequestQueueLog(directory, mockLog);
+        for (int a = 0; a < 5; a++) {
+            log.append("r=" + a, false);
+        }
+
+        Assert.assertEquals(2, log.removeFirst(2));
+        Assert.assertArrayEquals(new String[] { "r=2", "r=3", "r=4" }, log.getRequests());
+
+        Assert.assertTrue(log.remove("r=2"));
+        Assert.assertArrayEquals(new String[] { "r=3", "r=4" }, log.getRequests());
+
+        RequestQueueLog reopened = new RequestQueueLog(directory, mockLog);
+        Assert.assertArrayEquals(new String[] { "r=3", "r=4" }, reopened.getRequests());
+
+        Assert.assertEquals(2, reopened.removeFirst(10));
+        Assert.assertEquals(0, reopened.size());
+        Assert.assertNull(reopened.peek());
+        Assert.assertEquals(0, new RequestQueueLog(directory, mockLog).size());
+    }
+
+    /**
+     * Removing a request that is not at the front compacts the log and keeps the order
+     */
+    @Test
+    public void remove_notFirst() throws IOException {
+        RequestQueueLog log = new RequestQueueLog(directory, mockLog);
+        log.append("a", false);
+        log.append("b", false);
+        log.append("a", false);
+
+        Assert.assertFalse(log.remove("x"));
+        Assert.assertTrue(log.remove("b"));
+        Assert.assertArrayEquals(new String[] { "a", "a" }, log.getRequests());
+        Assert.assertArrayEquals(new String[] { "a", "a" }, new RequestQueueLog(directory, mockLog).getRequests());
+
+        log.append("c", false);
+        Assert.assertArrayEquals(new String[] { "a", "a", "c" }, new RequestQueueLog(directory, mockLog).getRequests());
+    }
+
+    /**
+     * Removing a batch of requests: the oldest requests only move the head,
+     * any other combination compacts the log with a single write
+     */
+    @Test
+    public void removeAll_prefixAndOthers() throws IOException {
+        RequestQueueLog log = new RequestQueueLog(directory, mockLog);
+        for (int a = 0; a < 6; a++) {
+            log.append("r=" + a, false);
+        }
+
+        Assert.assertEquals(2, log.removeAll(Arrays.asList("r=0", "r=1")));
+        Assert.assertArrayEquals(new String[] { "r=2", "r=3", "r=4", "r=5" }, log.getRequests());
+
+        Assert.assertEquals(2, log.removeAll(Arrays.asList("r=3", "x", "r=5")));
+        Assert.assertArrayEquals(new String[] { "r=2", "r=4" }, log.getRequests());
+        Assert.assertArrayEquals(new String[] { "r=2", "r=4" }, new RequestQueueLog(directory, mockLog).getRequests());
+    }
+
+    /**
+     * Segments are rolled over when they reach their size limit
+     * and segments that are fully behind the head are deleted
+     */
+    @Test
+    public void segmentRolling() throws IOException {
+        RequestQueueLog log = new RequestQueueLog(directory, 64, mockLog);
+        for (int a = 0; a < 20; a++) {
+            log.append("request_number=" + a, false);
+        }
+        Assert.assertTrue(RequestQueueLog.listSegmentIds(directory).size() > 3);
+
+        log.removeFirst(18);
+        Assert.assertArrayEquals(new String[] { "request_number=18", "request_number=19" }, log.getRequests());
+        Assert.assertTrue(RequestQueueLog.listSegmentIds(directory).size() <= 2);
+
+        Assert.assertArrayEquals(new String[] { "request_number=18", "request_number=19" }, new RequestQueueLog(directory, 64, mockLog).getRequests());
+    }
+
+    /**
+     * A partially written record at the end of the log is dropped, the rest is kept
+     */
+    @Test
+    public void partialRecordIsTruncated() throws IOException {
+        RequestQueueLog log = new RequestQueueLog(directory, mockLog);
+        log.append("a", false);
+        log.append("b", false);
+
+        File segment = new File(directory, RequestQueueLog.SEGMENT_FILE_PREFIX + RequestQueueLog.listSegmentIds(directory).get(0) + RequestQueueLog.SEGMENT_FILE_SUFFIX);
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.seek(raf.length());
+            raf.writeInt(100);
+            raf.write(new byte[] { 1, 2, 3 });
+        }
+
+        RequestQueueLog reopened = new RequestQueueLog(directory, mockLog);
+        Assert.assertArrayEquals(new String[] { "a", "b" }, reopened.getRequests());
+
+        reopened.append("c", false);
+        Assert.assertArrayEquals(new String[] { "a", "b", "c" }, new RequestQueueLog(directory, mockLog).getRequests());
+    }
+
+    /**
+     * The byte size of the queue follows appends, removals, replacing and reopening
+     */
+    @Test
+    public void byteSize() throws IOException {
+        RequestQueueLog log = new RequestQueueLog(directory, mockLog);
+        Assert.assertEquals(0, log.byteSize());
+
+        log.append("a=1", false);
+        log.append("bb=22", false);
+        log.append("ccc=333", false);
+        Assert.assertEquals(15, log.byteSize());
+        Assert.assertEquals(15, new RequestQueueLog(directory, mockLog).byteSize());
+
+        log.removeFirst(1);
+        Assert.assertEquals(12, log.byteSize());
+
+        log.remove("ccc=333");
+        Assert.assertEquals(5, log.byteSize());
+
+        log.replaceAll(Arrays.asList("d=4", "e=5"));
+        Assert.assertEquals(6, log.byteSize());
+
+        log.clear();
+        Assert.assertEquals(0, log.byteSize());
+    }
+
+    /**
+     * Replacing and clearing the queue
+     */
+    @Test
+    public void replaceAllAndClear() throws IOException {
+        RequestQueueLog log = new RequestQueueLog(directory, mockLog);
+        log.append("a", false);
+        log.append("b", false);
+
+        log.replaceAll(Arrays.asList("c", "", "d"));
+        Assert.assertArrayEquals(new String[] { "c", "d" }, log.getRequests());
+        Assert.assertArrayEquals(new String[] { "c", "d" }, new RequestQueueLog(directory, mockLog).getRequests());
+
+        log.clear();
+        Assert.assertEquals(0, log.size());
+        Assert.assertEquals(0, new RequestQueueLog(directory, mockLog).size());
+
+        log.delete();
+        Assert.assertFalse(RequestQueueLog.exists(directory));
+    }
+
+    /**
+     * A compaction that was interrupted before the head was moved is discarded,
+     * one that was interrupted after the head was moved is finished. Requests are never loaded twice.
+     */
+    @Test
+    public void interruptedCompaction() throws IOException {
+        RequestQueueLog log = new RequestQueueLog(directory, mockLog);
+        log.append("a", false);
+        log.append("b", false);
+        long tailSegmentId = RequestQueueLog.listSegmentIds(directory).get(0);
+
+        //crash before the head was moved, the compacted segment was only written to its temporary file
+        File tempSegment = new File(directory, RequestQueueLog.SEGMENT_FILE_PREFIX + (tailSegmentId + 1) + RequestQueueLog.SEGMENT_FILE_SUFFIX + RequestQueueLog.TEMP_FILE_SUFFIX);
+        try (RandomAccessFile raf = new RandomAccessFile(tempSegment, "rw")) {
+            raf.writeInt(1);
+            raf.write(new byte[] { 'b' });
+        }
+        RequestQueueLog reopened = new RequestQueueLog(directory, mockLog);
+        Assert.assertArrayEquals(new String[] { "a", "b" }, reopened.getRequests());
+        Assert.assertFalse(tempSegment.exists());
+
+        //crash after the head was moved, but before the compacted segment was renamed
+        reopened.replaceAll(Arrays.asList("c", "d"));
+        long compactedSegmentId = RequestQueueLog.listSegmentIds(directory).get(0);
+        File compactedSegment = new File(directory, RequestQueueLog.SEGMENT_FILE_PREFIX + compactedSegmentId + RequestQueueLog.SEGMENT_FILE_SUFFIX);
+        tempSegment = new File(directory, RequestQueueLog.SEGMENT_FILE_PREFIX + compactedSegmentId + RequestQueueLog.SEGMENT_FILE_SUFFIX + RequestQueueLog.TEMP_FILE_SUFFIX);
+        Assert.assertTrue(compactedSegment.renameTo(tempSegment));
+
+        Assert.assertArrayEquals(new String[] { "c", "d" }, new RequestQueueLog(directory, mockLog).getRequests());
+        Assert.assertTrue(compactedSegment.exists());
+        Assert.assertFalse(tempSegment.exists());
+    }
+}
@@ -0,0 +1,93 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.net.URLDecoder;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.mockito.Mockito.mock;
+
+@RunWith(AndroidJUnit4.class)
+public class SdkTelemetryTests {
+    CountlyStore store;
+    ModuleLog L;
+
+    @Before
+    public void setUp() {
+        L = mock(ModuleLog.class);
+        store = new CountlyStore(TestUtils.getContext(), L);
+        store.clear();
+    }
+
+    @After
+    public void tearDown() {
+        store.clear();
+    }
+
+    JSONObject reportedCounters(SdkTelemetry telemetry) throws Exception {
+        String param = telemetry.createRequestParam();
+        Assert.assertTrue(param.startsWith("&sdk_perf="));
+        JSONObject report = new JSONObject(URLDecoder.decode(param.substring("&sdk_perf=".length()), "UTF-8"));
+        Assert.assertEquals(PerformanceCounterCollector.SUB_BUCKETS, report.getInt("sb"));
+        Assert.assertEquals("ns", report.getString("bu"));
+        return report.getJSONObject("c");
+    }
+
+    /**
+     * Nothing is sent before a run saved its timings, and only time counters are reported
+     */
+    @Test
+    public void firstRun_nothingToSend() {
+        PerformanceCounterCollector pcc = new PerformanceCounterCollector();
+        SdkTelemetry telemetry = new SdkTelemetry(pcc, store, L);
+        pcc.TrackCounterTimeNs("time", 1_000_000L);
+        pcc.TrackCounter("plain", 5);
+
+        Assert.assertEquals("", telemetry.createRequestParam());
+        telemetry.saveState();
+        Assert.assertTrue(store.getSdkTelemetryState().contains("time"));
+        Assert.assertFalse(store.getSdkTelemetryState().contains("plain"));
+
+        new SdkTelemetry(null, store, L).saveState();
+        Assert.assertTrue(store.getSdkTelemetryState().contains("time"));
+    }
+
+    /**
+     * Timings of previous runs are merged and sent, and only the timings of the current run remain after sending
+     */
+    @Test
+    public void runsAreMerged_clearedAfterSending() throws Exception {
+        PerformanceCounterCollector pcc = new PerformanceCounterCollector();
+        for (int a = 1; a <= 100; a++) {
+            pcc.TrackCounterTimeNs("time", a * 1_000_000L);
+        }
+        new SdkTelemetry(pcc, store, L).saveState();
+
+        pcc = new PerformanceCounterCollector();
+        pcc.TrackCounterTimeNs("time", 500_000_000L);
+        new SdkTelemetry(pcc, store, L).saveState();
+
+        pcc = new PerformanceCounterCollector();
+        SdkTelemetry telemetry = new SdkTelemetry(pcc, store, L);
+        pcc.TrackCounterTimeNs("other", 2_000L);
+
+        JSONObject counter = reportedCounters(telemetry).getJSONObject("time");
+        Assert.assertEquals(101, counter.getLong("n"));
+        Assert.assertEquals(5_050_000 + 500_000, counter.getLong("s"));
+        Assert.assertEquals(500_000, counter.getLong("mx"));
+        Assert.assertEquals(51_000, counter.getLong("p50"), 51_000 / PerformanceCounterCollector.SUB_BUCKETS);
+        Assert.assertEquals(100_000, counter.getLong("p99"), 100_000 / PerformanceCounterCollector.SUB_BUCKETS);
+
+        telemetry.clearSent();
+        Assert.assertEquals("", telemetry.createRequestParam());
+
+        JSONObject counters = reportedCounters(new SdkTelemetry(null, store, L));
+        Assert.assertFalse(counters.has("time"));
+        Assert.assertEquals(1, counters.getJSONObject("other").getLong("n"));
+        Assert.assertEquals(2, counters.getJSONObject("other").getLong("s"));
+    }
+}
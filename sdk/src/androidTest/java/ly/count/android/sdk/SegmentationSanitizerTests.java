@@ -0,0 +1,181 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.json.JSONArray;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+
+@RunWith(AndroidJUnit4.class)
+public class SegmentationSanitizerTests {
+    ModuleLog L;
+    ConfigSdkInternalLimits limits;
+    ConfigurationProvider configProvider;
+
+    @Before
+    public void setUp() {
+        L = Mockito.mock(ModuleLog.class);
+        limits = new ConfigSdkInternalLimits().setMaxKeyLength(5).setMaxValueSize(4).setMaxSegmentationValues(100);
+        setFilters(Collections.<String>emptySet(), false, Collections.<String, Set<String>>emptyMap(), false);
+    }
+
+    void setFilters(Set<String> segmentationFilter, boolean segmentationWhitelist, Map<String, Set<String>> eventSegmentationFilter, boolean eventSegmentationWhitelist) {
+        configProvider = Mockito.mock(ConfigurationProvider.class);
+        Mockito.when(configProvider.getListingFilters()).thenReturn(CompiledListingFilters.compile(
+            new ConfigurationProvider.FilterList<>(Collections.<String>emptySet(), false),
+            new ConfigurationProvider.FilterList<>(Collections.<String>emptySet(), false),
+            new ConfigurationProvider.FilterList<>(segmentationFilter, segmentationWhitelist),
+            new ConfigurationProvider.FilterList<>(eventSegmentationFilter, eventSegmentationWhitelist),
+            null));
+    }
+
+    /**
+     * Same result as removing unsupported types, applying the filters and then the internal limits one after another
+     */
+    @Test
+    public void sanitize_sameAsSeparatePasses() throws Exception {
+        setFilters(new HashSet<>(Arrays.asList("blocked", "cly_v")), false, Collections.singletonMap("event", Collections.singleton("evBlocked")), false);
+
+        Map<String, Object> segmentation = new HashMap<>();
+        segmentation.put("short", "a long value");
+        segmentation.put("a long key", 5);
+        segmentation.put("blocked", "x");
+        segmentation.put("evBlocked", "x");
+        segmentation.put("object", new Object());
+        segmentation.put("nullValue", null);
+        segmentation.put("list", Arrays.asList("a", new Object(), 2));
+        segmentation.put("json", new JSONArray("[1,\"b\"]"));
+        segmentation.put("bool", true);
+        Map<String, Object> provided = new HashMap<>(segmentation);
+
+        Map<String, Object> sanitized = SegmentationSanitizer.sanitizeEventSegmentation("event", segmentation, 1, configProvider, limits, L, "tag");
+
+        Map<String, Object> expected = new HashMap<>(segmentation);
+        expected.put(ModuleEvents.VISIBILITY_KEY, 1);
+        UtilsInternalLimits.removeUnsupportedDataTypes(expected, L);
+        UtilsListingFilters.applySegmentationFilter(expected, configProvider, L);
+        UtilsListingFilters.applyEventSegmentationFilter("event", expected, configProvider, L);
+        UtilsInternalLimits.applySdkInternalLimitsToSegmentation(expected, limits, L, "tag");
+
+        Assert.assertEquals(expected.keySet(), sanitized.keySet());
+        Assert.assertEquals("a lo", sanitized.get("short"));
+        Assert.assertEquals(5, sanitized.get("a lon"));
+        Assert.assertEquals(Arrays.asList("a", 2), sanitized.get("list"));
+        Assert.assertEquals(expected.get("json").toString(), sanitized.get("json").toString());
+        Assert.assertEquals(provided, segmentation);
+    }
+
+    /**
+     * Whitelist filters keep only the listed keys
+     */
+    @Test
+    public void sanitize_whitelist() {
+        setFilters(new HashSet<>(Arrays.asList("a", "b")), true, Collections.singletonMap("event", Collections.singleton("a")), true);
+
+        Map<String, Object> segmentation = new HashMap<>();
+        segmentation.put("a", 1);
+        segmentation.put("b", 2);
+        segmentation.put("c", 3);
+
+        Assert.assertEquals(Collections.singletonMap("a", 1), SegmentationSanitizer.sanitizeEventSegmentation("event", segmentation, null, configProvider, limits, L, "tag"));
+        Assert.assertEquals(2, SegmentationSanitizer.sanitizeEventSegmentation("other", segmentation, null, configProvider, limits, L, "tag").size());
+    }
+
+    /**
+     * For 'recordEvent' the first provided entries are dropped when there are more than the segmentation count limit
+     */
+    @Test
+    public void sanitize_countLimit() {
+        limits.setMaxSegmentationValues(3);
+
+        Map<String, Object> segmentation = new HashMap<>();
+        for (int a = 0; a < 10; a++) {
+            segmentation.put("k" + a, a);
+        }
+        Map<String, Object> provided = new HashMap<>(segmentation);
+
+        Map<String, Object> expected = new HashMap<>(segmentation);
+        UtilsInternalLimits.truncateSegmentationValues(expected, 3, "tag", L);
+        Map<String, Object> limited = SegmentationSanitizer.dropEntriesOverCountLimit(segmentation, 3, L, "tag");
+        Assert.assertEquals(expected, limited);
+        Assert.assertEquals(expected, SegmentationSanitizer.sanitizeEventSegmentation("event", limited, null, configProvider, limits, L, "tag"));
+        Assert.assertEquals(provided, segmentation);
+
+        // the visibility key is added after the provided entries
+        Assert.assertEquals(3, SegmentationSanitizer.sanitizeEventSegmentation("event", limited, 1, configProvider, limits, L, "tag").size());
+        // without limiting the provided map first, the limit is still applied to the result
+        Assert.assertEquals(3, SegmentationSanitizer.sanitizeEventSegmentation("event", segmentation, null, configProvider, limits, L, "tag").size());
+        Assert.assertTrue(SegmentationSanitizer.sanitizeEventSegmentation("event", null, null, configProvider, limits, L, "tag").isEmpty());
+        Assert.assertSame(expected, SegmentationSanitizer.dropEntriesOverCountLimit(expected, 3, L, "tag"));
+    }
+
+    /**
+     * Without limiting the provided map first, unsupported and filtered entries don't count towards the segmentation count limit
+     */
+    @Test
+    public void sanitize_countLimitAfterFiltering() {
+        limits.setMaxSegmentationValues(3);
+        setFilters(new HashSet<>(Arrays.asList("b0", "b1", "b2", "b3")), false, Collections.<String, Set<String>>emptyMap(), false);
+
+        Map<String, Object> segmentation = new HashMap<>();
+        for (int a = 0; a < 4; a++) {
+            segmentation.put("b" + a, a);
+            segmentation.put("o" + a, new Object());
+        }
+        segmentation.put("k0", 0);
+        segmentation.put("k1", 1);
+        segmentation.put("k2", 2);
+
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("k0", 0);
+        expected.put("k1", 1);
+        expected.put("k2", 2);
+        Assert.assertEquals(expected, SegmentationSanitizer.sanitizeEventSegmentation("event", segmentation, null, configProvider, limits, L, "tag"));
+    }
+
+    /**
+     * Preparing a 30 key segmentation map with the single pass sanitizer costs no more per event than the separate passes
+     */
+    @Test
+    public void benchmark_30keySegmentation() {
+        limits = new ConfigSdkInternalLimits().setMaxKeyLength(128).setMaxValueSize(256).setMaxSegmentationValues(100);
+        setFilters(Collections.singleton("blocked"), false, Collections.singletonMap("event", Collections.singleton("evBlocked")), false);
+
+        Map<String, Object> segmentation = new HashMap<>();
+        for (int a = 0; a < 30; a++) {
+            segmentation.put("segmentation_key_" + a, a % 2 == 0 ? "value_" + a : a);
+        }
+
+        int iterations = 20_000;
+        long separateNs = 0;
+        long singlePassNs = 0;
+        // alternate the runs so that JIT and GC affect both in the same way
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int a = 0; a < iterations; a++) {
+                Map<String, Object> copy = new HashMap<>(segmentation);
+                UtilsInternalLimits.removeUnsupportedDataTypes(copy, L);
+                UtilsListingFilters.applySegmentationFilter(copy, configProvider, L);
+                UtilsListingFilters.applyEventSegmentationFilter("event", copy, configProvider, L);
+                UtilsInternalLimits.applySdkInternalLimitsToSegmentation(copy, limits, L, "tag");
+            }
+            separateNs = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int a = 0; a < iterations; a++) {
+                Assert.assertEquals(30, SegmentationSanitizer.sanitizeEventSegmentation("event", segmentation, null, configProvider, limits, L, "tag").size());
+            }
+            singlePassNs = System.nanoTime() - start;
+        }
+
+        Assert.assertTrue(singlePassNs <= separateNs);
+    }
+}
@@ -0,0 +1,258 @@
+package ly.count.android.sdk;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(AndroidJUnit4.class)
+public class UploadWorkerGroupTests {
+    ModuleLog mockLog;
+    CountlyStore store;
+    ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        mockLog = mock(ModuleLog.class);
+        // the file backed queue keeps this test isolated from SDK instances of other tests that use the preferences queue
+        store = new CountlyStore(TestUtils.getContext(), mockLog, false, true);
+        store.clear();
+        executor = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void tearDown() {
+        store.clear();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Validating which requests are kept in order
+     */
+    @Test
+    public void orderingKey() {
+        Assert.assertNull(UploadWorkerGroup.orderingKey("app_key=a&device_id=1&events=%5B%5D"));
+        Assert.assertNull(UploadWorkerGroup.orderingKey("app_key=a&device_id=1&crash=%7B%7D"));
+        Assert.assertEquals(UploadWorkerGroup.ORDERING_BARRIER, UploadWorkerGroup.orderingKey("app_key=a&device_id=2&old_device_id=1"));
+        Assert.assertEquals("callback", UploadWorkerGroup.orderingKey("app_key=a&device_id=1&method=rc&callback_id=x"));
+        Assert.assertEquals("session:1", UploadWorkerGroup.orderingKey("app_key=a&device_id=1&begin_session=1"));
+        Assert.assertEquals("session:1", UploadWorkerGroup.orderingKey("app_key=a&device_id=1&end_session=1&session_duration=5"));
+        Assert.assertEquals("session:2", UploadWorkerGroup.orderingKey("app_key=a&device_id=2&session_duration=60"));
+    }
+
+    /**
+     * Independent requests are claimed by different workers,
+     * requests with the same ordering key and requests after a barrier wait for the earlier ones
+     */
+    @Test
+    public void tryClaimNextRequest_respectsOrdering() {
+        String begin = "app_key=a&device_id=1&begin_session=1";
+        String event1 = "app_key=a&device_id=1&events=1";
+        String update = "app_key=a&device_id=1&session_duration=60";
+        String event2 = "app_key=a&device_id=1&events=2";
+        String idChange = "app_key=a&device_id=2&old_device_id=1";
+        String event3 = "app_key=a&device_id=2&events=3";
+        for (String request : new String[] { begin, event1, update, event2, idChange, event3 }) {
+            store.addRequest(request, false);
+        }
+
+        UploadWorkerGroup group = new UploadWorkerGroup(new ArrayList<>(), executor, mockLog);
+        Assert.assertEquals(begin, group.tryClaimNextRequest(store));
+        Assert.assertEquals(event1, group.tryClaimNextRequest(store));
+        // the session update waits for the begin session request
+        Assert.assertEquals(event2, group.tryClaimNextRequest(store));
+        // nothing after the device ID change can be sent before it
+        Assert.assertNull(group.tryClaimNextRequest(store));
+
+        store.removeRequest(begin);
+        group.releaseRequest(begin);
+        Assert.assertEquals(update, group.tryClaimNextRequest(store));
+        Assert.assertNull(group.tryClaimNextRequest(store));
+
+        for (String request : new String[] { event1, update, event2 }) {
+            store.removeRequest(request);
+            group.releaseRequest(request);
+        }
+        Assert.assertEquals(idChange, group.tryClaimNextRequest(store));
+        Assert.assertNull(group.tryClaimNextRequest(store));
+
+        store.removeRequest(idChange);
+        group.releaseRequest(idChange);
+        Assert.assertEquals(event3, group.tryClaimNextRequest(store));
+
+        group.releaseRequest(event3);
+        group.stop();
+        Assert.assertNull(group.tryClaimNextRequest(store));
+    }
+
+    /**
+     * A worker that can't claim anything waits until a request is released,
+     * and stops waiting once the whole queue is done
+     */
+    @Test
+    public void claimNextRequest_waitsForRelease() throws Exception {
+        String begin = "app_key=a&device_id=1&begin_session=1";
+        String end = "app_key=a&device_id=1&end_session=1&session_duration=10";
+        store.addRequest(begin, false);
+        store.addRequest(end, false);
+
+        UploadWorkerGroup group = new UploadWorkerGroup(new ArrayList<>(), executor, mockLog);
+        Assert.assertEquals(begin, group.claimNextRequest(store));
+
+        Future<String> waitingWorker = executor.submit(() -> group.claimNextRequest(store));
+        Thread.sleep(100);
+        Assert.assertFalse(waitingWorker.isDone());
+
+        store.removeRequest(begin);
+        group.releaseRequest(begin);
+        Assert.assertEquals(end, waitingWorker.get(5, TimeUnit.SECONDS));
+
+        waitingWorker = executor.submit(() -> group.claimNextRequest(store));
+        Thread.sleep(100);
+        Assert.assertFalse(waitingWorker.isDone());
+
+        store.removeRequest(end);
+        group.releaseRequest(end);
+        Assert.assertNull(waitingWorker.get(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Requests that were rewritten or removed after the group read the queue are not sent from an old copy
+     */
+    @Test
+    public void tryClaimNextRequest_readsCurrentQueue() {
+        String event1 = "app_key=a&device_id=1&events=1";
+        String event2 = "app_key=a&device_id=1&events=2";
+        String event3 = "app_key=a&device_id=1&events=3";
+        for (String request : new String[] { event1, event2, event3 }) {
+            store.addRequest(request, false);
+        }
+
+        UploadWorkerGroup group = new UploadWorkerGroup(new ArrayList<>(), executor, mockLog);
+        Assert.assertEquals(event1, group.tryClaimNextRequest(store));
+
+        String rewritten = "app_key=b&device_id=1&events=2";
+        store.replaceRequests(new String[] { event1, rewritten, event3 });
+        Assert.assertEquals(rewritten, group.tryClaimNextRequest(store));
+
+        store.removeRequest(event3);
+        Assert.assertNull(group.tryClaimNextRequest(store));
+    }
+
+    /**
+     * Identical requests can be claimed by different workers as separate requests
+     */
+    @Test
+    public void tryClaimNextRequest_identicalRequests() {
+        store.addRequest("app_key=a&device_id=1&events=1", false);
+        store.addRequest("app_key=a&device_id=1&events=1", false);
+
+        UploadWorkerGroup group = new UploadWorkerGroup(new ArrayList<>(), executor, mockLog);
+        Assert.assertEquals("app_key=a&device_id=1&events=1", group.tryClaimNextRequest(store));
+        Assert.assertEquals("app_key=a&device_id=1&events=1", group.tryClaimNextRequest(store));
+        Assert.assertNull(group.tryClaimNextRequest(store));
+    }
+
+    /**
+     * Drains the same queue against a server that answers in 300 ms, first with a single processor
+     * and then with 4 workers. Every request has to be delivered exactly once,
+     * session requests of the same device have to keep their order and the workers should be faster.
+     */
+    @Test
+    public void benchmark_drainWithLatency() throws IOException {
+        List<String> received = new CopyOnWriteArrayList<>();
+        try (MockWebServer server = new MockWebServer()) {
+            server.setDispatcher(new Dispatcher() {
+                @NotNull @Override public MockResponse dispatch(@NotNull RecordedRequest recordedRequest) throws InterruptedException {
+                    Thread.sleep(300);
+                    received.add(recordedRequest.getPath());
+                    return new MockResponse().setResponseCode(200).setBody("{\"result\": \"Success\"}");
+                }
+            });
+            server.start();
+            String serverUrl = server.url("/").toString();
+            serverUrl = serverUrl.substring(0, serverUrl.length() - 1);
+
+            fillQueue();
+            long start = System.nanoTime();
+            createProcessor(serverUrl).run();
+            long singleWorkerTime = System.nanoTime() - start;
+            Assert.assertEquals(0, store.getRequests().length);
+            Assert.assertEquals(18, received.size());
+            validateSessionOrder(received);
+
+            received.clear();
+            fillQueue();
+            List<ConnectionProcessor> workers = new ArrayList<>();
+            for (int a = 0; a < 4; a++) {
+                workers.add(createProcessor(serverUrl));
+            }
+            start = System.nanoTime();
+            new UploadWorkerGroup(workers, executor, mockLog).run();
+            long multipleWorkersTime = System.nanoTime() - start;
+            Assert.assertEquals(0, store.getRequests().length);
+            Assert.assertEquals(18, received.size());
+            validateSessionOrder(received);
+
+            Assert.assertTrue(multipleWorkersTime < singleWorkerTime / 2);
+        }
+    }
+
+    private void fillQueue() {
+        store.clear();
+        store.addRequest("app_key=a&device_id=1&begin_session=1", false);
+        for (int a = 0; a < 16; a++) {
+            store.addRequest("app_key=a&device_id=1&events=" + a, false);
+        }
+        store.addRequest("app_key=a&device_id=1&end_session=1&session_duration=10", false);
+    }
+
+    private void validateSessionOrder(List<String> received) {
+        int beginIndex = -1;
+        int endIndex = -1;
+        for (int a = 0; a < received.size(); a++) {
+            if (received.get(a).contains("begin_session=1")) {
+                beginIndex = a;
+            } else if (received.get(a).contains("end_session=1")) {
+                endIndex = a;
+            }
+        }
+        Assert.assertTrue(beginIndex >= 0);
+        Assert.assertTrue(endIndex > beginIndex);
+    }
+
+    private ConnectionProcessor createProcessor(String serverUrl) {
+        ConfigurationProvider configProvider = mock(ConfigurationProvider.class);
+        when(configProvider.getNetworkingEnabled()).thenReturn(true);
+        when(configProvider.getRequestTimeoutDurationMillis()).thenReturn(30_000);
+
+        RequestInfoProvider requestInfoProvider = mock(RequestInfoProvider.class);
+        when(requestInfoProvider.getRequestSalt()).thenReturn("");
+        when(requestInfoProvider.getRequestCompressionThreshold()).thenReturn(-1);
+
+        DeviceIdProvider deviceIdProvider = mock(DeviceIdProvider.class);
+        when(deviceIdProvider.getDeviceId()).thenReturn("1");
+
+        return new ConnectionProcessor(serverUrl, store, deviceIdProvider, configProvider, requestInfoProvider, null, null, mockLog, mock(HealthTracker.class), mock(Runnable.class),
+            new ConcurrentHashMap<>());
+    }
+}
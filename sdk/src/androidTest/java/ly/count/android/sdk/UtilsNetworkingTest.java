@@ -1,6 +1,11 @@
 package ly.count.android.sdk;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -32,6 +37,25 @@ public class UtilsNetworkingTest {
         Assert.assertTrue(UtilsNetworking.isValidURL("https://www.d.dd"));
     }
 
+    /**
+     * Gzip compressed data can be decompressed back to the original
+     */
+    @Test
+    public void testGzip() throws IOException {
+        byte[] original = "events=%5B%7B%22key%22%3A%22a%22%7D%2C%7B%22key%22%3A%22a%22%7D%5D&āšēŗŗ".getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = UtilsNetworking.gzip(original);
+
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[256];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                out.write(buffer, 0, len);
+            }
+            Assert.assertArrayEquals(original, out.toByteArray());
+        }
+    }
+
     @Test
     public void testEncodeDecode() {
         String[] list = { "132", "āšēŗŗ", "&#(%^$(&#^@$%$&!_)@(*#_$", " ds fdsf 8ds7f0d&)(^ F*(D&F%S( SD%(F" };
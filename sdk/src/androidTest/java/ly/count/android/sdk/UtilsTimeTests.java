@@ -1,7 +1,14 @@
 package ly.count.android.sdk;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.TimeUnit;
 import org.junit.After;
 import org.junit.Assert;
@@ -59,4 +66,183 @@ public class UtilsTimeTests {
         // so it sometimes exceeds 260ms
         Assert.assertTrue(tms2 - tms < 260);
     }
+
+    /**
+     * Hour and day of week taken from the cached hour match the ones from a Calendar
+     */
+    @Test
+    public void instant_matchesCalendar() {
+        UtilsTime.Instant current = UtilsTime.getCurrentInstant();
+        long[] timestamps = { current.timestampMs, current.timestampMs + 1, current.timestampMs - 3_600_000L, current.timestampMs + 3_600_000L, 1_579_463_653_876L };
+
+        for (long ts : timestamps) {
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(ts);
+            UtilsTime.Instant instant = UtilsTime.Instant.get(ts);
+            Assert.assertEquals(calendar.get(Calendar.HOUR_OF_DAY), instant.hour);
+            Assert.assertEquals(calendar.get(Calendar.DAY_OF_WEEK) - 1, instant.dow);
+        }
+    }
+
+    /**
+     * Timestamps are unique and increasing when the clock does not move
+     */
+    @Test
+    public void uniqueTimestamp_sameClockValue() {
+        UtilsTime.TimeUniquesEnsurer ensurer = new FixedClockEnsurer(1000L);
+
+        Assert.assertEquals(1000L, ensurer.uniqueTimestamp());
+        Assert.assertEquals(1001L, ensurer.uniqueTimestamp());
+        Assert.assertEquals(1002L, ensurer.uniqueTimestamp());
+    }
+
+    /**
+     * If the clock is moved back further than the tolerance, the clock value is used again
+     */
+    @Test
+    public void uniqueTimestamp_clockMovedBack() {
+        FixedClockEnsurer ensurer = new FixedClockEnsurer(100_000L);
+        Assert.assertEquals(100_000L, ensurer.uniqueTimestamp());
+        Assert.assertEquals(100_001L, ensurer.uniqueTimestamp());
+
+        // small step back, still unique
+        ensurer.clock = 99_900L;
+        Assert.assertEquals(100_002L, ensurer.uniqueTimestamp());
+
+        // clock moved back
+        ensurer.clock = 50_000L;
+        Assert.assertEquals(50_000L, ensurer.uniqueTimestamp());
+        Assert.assertEquals(50_001L, ensurer.uniqueTimestamp());
+    }
+
+    /**
+     * Timestamps generated from multiple threads are unique
+     */
+    @Test
+    public void uniqueTimestamp_multipleThreads() throws InterruptedException, BrokenBarrierException {
+        final UtilsTime.TimeUniquesEnsurer ensurer = new UtilsTime.TimeUniquesEnsurer();
+        final int threadCount = 8;
+        final int perThread = 5000;
+        final List<long[]> results = Collections.synchronizedList(new ArrayList<long[]>());
+
+        runThreads(threadCount, new Runnable() {
+            @Override public void run() {
+                long[] values = new long[perThread];
+                for (int a = 0; a < perThread; a++) {
+                    values[a] = ensurer.uniqueTimestamp();
+                }
+                results.add(values);
+            }
+        });
+
+        Set<Long> unique = new HashSet<>();
+        for (long[] values : results) {
+            for (long value : values) {
+                unique.add(value);
+            }
+        }
+        Assert.assertEquals(threadCount * perThread, unique.size());
+    }
+
+    /**
+     * The lock free generator has at least the throughput of the previous synchronized one under 1, 4 and 8 threads
+     */
+    @Test
+    public void uniqueTimestamp_throughput() throws InterruptedException, BrokenBarrierException {
+        final int perThread = 20_000;
+        for (int threadCount : new int[] { 1, 4, 8 }) {
+            final UtilsTime.TimeUniquesEnsurer ensurer = new UtilsTime.TimeUniquesEnsurer();
+            final SynchronizedListEnsurer legacy = new SynchronizedListEnsurer();
+
+            long lockFreeNs = runThreads(threadCount, new Runnable() {
+                @Override public void run() {
+                    for (int a = 0; a < perThread; a++) {
+                        ensurer.uniqueTimestamp();
+                    }
+                }
+            });
+
+            long legacyNs = runThreads(threadCount, new Runnable() {
+                @Override public void run() {
+                    for (int a = 0; a < perThread; a++) {
+                        legacy.uniqueTimestamp();
+                    }
+                }
+            });
+
+            // the same amount of timestamps is generated, so a shorter time means at least the same throughput
+            Assert.assertTrue("threads:[" + threadCount + "]", lockFreeNs <= legacyNs);
+        }
+    }
+
+    /**
+     * @return wall time it took for all threads to finish
+     */
+    long runThreads(int threadCount, final Runnable job) throws InterruptedException, BrokenBarrierException {
+        final CyclicBarrier gate = new CyclicBarrier(threadCount + 1);
+        List<Thread> threads = new ArrayList<>();
+        for (int a = 0; a < threadCount; a++) {
+            threads.add(new Thread() {
+                @Override public void run() {
+                    try {
+                        gate.await();
+                    } catch (BrokenBarrierException | InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    job.run();
+                }
+            });
+        }
+
+        for (Thread t : threads) {
+            t.start();
+        }
+
+        long start = System.nanoTime();
+        gate.await();
+        for (Thread t : threads) {
+            t.join();
+        }
+        return System.nanoTime() - start;
+    }
+
+    static class FixedClockEnsurer extends UtilsTime.TimeUniquesEnsurer {
+        long clock;
+
+        FixedClockEnsurer(long clock) {
+            this.clock = clock;
+        }
+
+        @Override long currentTimeMillis() {
+            return clock;
+        }
+    }
+
+    /**
+     * The previous generator, kept as the benchmark baseline
+     */
+    static class SynchronizedListEnsurer {
+        final List<Long> lastTsMs = new ArrayList<>(10);
+
+        synchronized long uniqueTimestamp() {
+            long ms = System.currentTimeMillis();
+
+            if (lastTsMs.size() > 2) {
+                long min = Collections.min(lastTsMs);
+                if (ms < min) {
+                    lastTsMs.clear();
+                    lastTsMs.add(ms);
+                    return ms;
+                }
+            }
+            while (lastTsMs.contains(ms)) {
+                ms += 1;
+            }
+            while (lastTsMs.size() >= 10) {
+                lastTsMs.remove(0);
+            }
+            lastTsMs.add(ms);
+            return ms;
+        }
+    }
 }
@@ -0,0 +1,151 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable lookup form of the listing filters received with the server config.
+ * It is built once when the filters change and then replaced as a whole, so it can be read without locking.
+ * Keys are stored in open addressing tables together with their hashes, and filters without rules
+ * are marked when they are built, so a check does not depend on how many keys the filter has.
+ */
+final class CompiledListingFilters {
+    static final CompiledListingFilters EMPTY = new CompiledListingFilters(KeyTable.NO_RULES, KeyTable.NO_RULES, KeyTable.NO_RULES, Collections.<String, KeyTable>emptyMap(), KeyTable.NO_RULES);
+
+    /**
+     * Set of keys with a whitelist or blacklist flag
+     */
+    static final class KeyTable {
+        static final KeyTable NO_RULES = new KeyTable(new String[0], new int[0], false);
+
+        private final String[] keys;
+        private final int[] hashes;
+        private final int mask;
+        final boolean isWhitelist;
+        final boolean hasRules;
+
+        private KeyTable(@NonNull String[] keys, @NonNull int[] hashes, boolean isWhitelist) {
+            this.keys = keys;
+            this.hashes = hashes;
+            this.mask = keys.length - 1;
+            this.isWhitelist = isWhitelist;
+            this.hasRules = keys.length > 0;
+        }
+
+        static @NonNull KeyTable build(@Nullable Collection<String> items, boolean isWhitelist) {
+            if (items == null || items.isEmpty()) {
+                // No rules defined so allow everything
+                return NO_RULES;
+            }
+
+            // power of two size with at most half of it used, so probe sequences stay short
+            int size = Integer.highestOneBit(Math.max(items.size(), 1) * 2 - 1) << 1;
+            String[] keys = new String[size];
+            int[] hashes = new int[size];
+            for (String item : items) {
+                if (item == null) {
+                    continue;
+                }
+                int hash = spread(item.hashCode());
+                int slot = hash & (size - 1);
+                while (keys[slot] != null && !(hashes[slot] == hash && keys[slot].equals(item))) {
+                    slot = (slot + 1) & (size - 1);
+                }
+                keys[slot] = item;
+                hashes[slot] = hash;
+            }
+            return new KeyTable(keys, hashes, isWhitelist);
+        }
+
+        boolean contains(@Nullable String key) {
+            if (!hasRules || key == null) {
+                return false;
+            }
+            int hash = spread(key.hashCode());
+            int slot = hash & mask;
+            String candidate;
+            while ((candidate = keys[slot]) != null) {
+                if (hashes[slot] == hash && candidate.equals(key)) {
+                    return true;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return false;
+        }
+
+        /**
+         * Whitelist: allowed if in the list
+         * Blacklist: allowed if NOT in the list
+         */
+        boolean allows(@Nullable String key) {
+            return !hasRules || isWhitelist == contains(key);
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+    final KeyTable eventFilter;
+    final KeyTable userPropertyFilter;
+    final KeyTable segmentationFilter;
+    private final Map<String, KeyTable> eventSegmentationFilters;
+    final KeyTable journeyTriggerEvents;
+    final boolean hasSegmentationRules;
+
+    private CompiledListingFilters(@NonNull KeyTable eventFilter, @NonNull KeyTable userPropertyFilter, @NonNull KeyTable segmentationFilter, @NonNull Map<String, KeyTable> eventSegmentationFilters,
+        @NonNull KeyTable journeyTriggerEvents) {
+        this.eventFilter = eventFilter;
+        this.userPropertyFilter = userPropertyFilter;
+        this.segmentationFilter = segmentationFilter;
+        this.eventSegmentationFilters = eventSegmentationFilters;
+        this.journeyTriggerEvents = journeyTriggerEvents;
+        this.hasSegmentationRules = segmentationFilter.hasRules || !eventSegmentationFilters.isEmpty();
+    }
+
+    static @NonNull CompiledListingFilters compile(@NonNull ConfigurationProvider.FilterList<Set<String>> eventFilterList, @NonNull ConfigurationProvider.FilterList<Set<String>> userPropertyFilterList,
+        @NonNull ConfigurationProvider.FilterList<Set<String>> segmentationFilterList, @NonNull ConfigurationProvider.FilterList<Map<String, Set<String>>> eventSegmentationFilterList,
+        @Nullable Set<String> journeyTriggerEvents) {
+        Map<String, KeyTable> eventSegmentationFilters = Collections.emptyMap();
+        if (!eventSegmentationFilterList.filterList.isEmpty()) {
+            eventSegmentationFilters = new HashMap<>();
+            for (Map.Entry<String, Set<String>> entry : eventSegmentationFilterList.filterList.entrySet()) {
+                KeyTable table = KeyTable.build(entry.getValue(), eventSegmentationFilterList.isWhitelist);
+                // events without rules allow everything, so they don't need an entry
+                if (entry.getKey() != null && table.hasRules) {
+                    eventSegmentationFilters.put(entry.getKey(), table);
+                }
+            }
+        }
+
+        return new CompiledListingFilters(
+            KeyTable.build(eventFilterList.filterList, eventFilterList.isWhitelist),
+            KeyTable.build(userPropertyFilterList.filterList, userPropertyFilterList.isWhitelist),
+            KeyTable.build(segmentationFilterList.filterList, segmentationFilterList.isWhitelist),
+            eventSegmentationFilters,
+            KeyTable.build(journeyTriggerEvents, true));
+    }
+
+    /**
+     * @return segmentation filter of the given event, it has no rules if none were provided for it
+     */
+    @NonNull KeyTable eventSegmentationFilter(@NonNull String eventName) {
+        if (eventSegmentationFilters.isEmpty()) {
+            return KeyTable.NO_RULES;
+        }
+        KeyTable table = eventSegmentationFilters.get(eventName);
+        return table == null ? KeyTable.NO_RULES : table;
+    }
+
+    /**
+     * @return true if the segmentation key passes the global and the given event specific segmentation filter
+     */
+    boolean allowsSegmentationKey(@NonNull String key, @NonNull KeyTable eventSegmentationFilter) {
+        return segmentationFilter.allows(key) && eventSegmentationFilter.allows(key);
+    }
+}
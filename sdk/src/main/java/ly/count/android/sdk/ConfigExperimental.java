@@ -3,6 +3,8 @@ package ly.count.android.sdk;
 public class ConfigExperimental {
     protected boolean viewNameRecordingEnabled = false;
     protected boolean visibilityTrackingEnabled = false;
+    protected boolean fileBackedRequestQueueEnabled = false;
+    protected boolean asyncEventIngestionEnabled = false;
 
     /**
      * This will enabled view name recording for previous view name for views
@@ -27,4 +29,31 @@ public class ConfigExperimental {
         visibilityTrackingEnabled = true;
         return this;
     }
+
+    /**
+     * This will store the request queue in append only files in the app's files directory
+     * instead of a single preference value. Adding requests and removing the oldest ones
+     * will not rewrite the whole queue.
+     * Requests stored with the other backend are moved over during init.
+     *
+     * @return ConfigExperimental instance for chaining
+     * @apiNote This is an EXPERIMENTAL feature, and it can have breaking changes
+     */
+    public ConfigExperimental enableFileBackedRequestQueue() {
+        fileBackedRequestQueueEnabled = true;
+        return this;
+    }
+
+    /**
+     * This will make the custom event calls of 'Countly.sharedInstance().events()' return without
+     * waiting for the SDK lock. Events are put in a queue and recorded shortly after on a background thread.
+     * Because of that, custom events can end up after internal events (like views) that were recorded later.
+     *
+     * @return ConfigExperimental instance for chaining
+     * @apiNote This is an EXPERIMENTAL feature, and it can have breaking changes
+     */
+    public ConfigExperimental enableAsyncEventIngestion() {
+        asyncEventIngestionEnabled = true;
+        return this;
+    }
 }
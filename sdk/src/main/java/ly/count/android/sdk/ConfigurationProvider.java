@@ -49,6 +49,13 @@ interface ConfigurationProvider {
 
     Set<String> getJourneyTriggerEvents();
 
+    /**
+     * Listing filters in the form used when filtering, implementations should build it only when the filters change
+     */
+    default CompiledListingFilters getListingFilters() {
+        return CompiledListingFilters.compile(getEventFilterList(), getUserPropertyFilterList(), getSegmentationFilterList(), getEventSegmentationFilterList(), getJourneyTriggerEvents());
+    }
+
     class FilterList<T> {
         T filterList;
         boolean isWhitelist;
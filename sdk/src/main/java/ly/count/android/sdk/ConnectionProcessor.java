@@ -23,7 +23,6 @@ package ly.count.android.sdk;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -35,9 +34,13 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -60,6 +63,7 @@ public class ConnectionProcessor implements Runnable {
     final RequestInfoProvider requestInfoProvider_;
     private final String serverURL_;
     private final SSLContext sslContext_;
+    private SSLSocketFactory sslSocketFactory_;
 
     private final Map<String, String> requestHeaderCustomValues_;
     private final Runnable backoffCallback_;
@@ -70,11 +74,31 @@ public class ConnectionProcessor implements Runnable {
 
     public PerformanceCounterCollector pcc;
 
+    // connection statistics of the last queue drain
+    int drainRequestCount = 0;
+    // requests opened after the previous connection was released for keep-alive. HttpURLConnection doesn't tell
+    // if the pooled socket was actually reused, the server or the pool could still have closed it
+    int drainKeepAliveCandidateCount = 0;
+    int drainDisconnectCount = 0;
+    // true if the previous connection was released with its response fully consumed, so the next request can reuse it
+    private boolean keepAliveConnectionAvailable = false;
+
+    // set when this processor is one of multiple upload workers draining the queue together
+    UploadWorkerGroup workerGroup;
+    private String claimedRequest_;
+    private boolean noClaimableRequest_;
+
     private enum RequestResult {
         OK,         // success
         RETRY       // retry MAX_RETRIES_BEFORE_SLEEP before switching to SLEEP
     }
 
+    private enum BulkResult {
+        CONTINUE,   // requests were sent or dropped, continue with the queue
+        STOP,       // stop processing the queue, let next tick take care of retrying
+        SINGLE      // the first request has to be sent on its own
+    }
+
     ConnectionProcessor(final String serverURL, final StorageProvider storageProvider, final DeviceIdProvider deviceIdProvider, final ConfigurationProvider configProvider,
         final RequestInfoProvider requestInfoProvider, final SSLContext sslContext, final Map<String, String> requestHeaderCustomValues, ModuleLog logModule,
         HealthTracker healthTracker, Runnable backoffCallback, final Map<String, InternalRequestCallback> internalRequestCallbacks) {
@@ -92,13 +116,17 @@ public class ConnectionProcessor implements Runnable {
     }
 
     synchronized public @NonNull URLConnection urlConnectionForServerRequest(@NonNull String requestData, @Nullable final String customEndpoint) throws IOException {
+        return urlConnectionForServerRequest(requestData, customEndpoint, false);
+    }
+
+    synchronized @NonNull URLConnection urlConnectionForServerRequest(@NonNull String requestData, @Nullable final String customEndpoint, final boolean forceHttpPost) throws IOException {
         String urlEndpoint = "/i";
         if (customEndpoint != null) {
             urlEndpoint = customEndpoint;
         }
         // determine whether or not request has a binary image file, if it has request will be sent as POST request
         boolean hasPicturePath = requestData.contains(ModuleUserProfile.PICTURE_PATH_KEY);
-        boolean usingHttpPost = requestData.contains("&crash=") || requestData.length() >= 2048 || requestInfoProvider_.isHttpPostForced() || hasPicturePath;
+        boolean usingHttpPost = forceHttpPost || requestData.contains("&crash=") || requestData.length() >= 2048 || requestInfoProvider_.isHttpPostForced() || hasPicturePath;
 
         long approximateDateSize = 0L;
         String urlStr = serverURL_ + urlEndpoint;
@@ -109,14 +137,14 @@ public class ConnectionProcessor implements Runnable {
             if (!hasPicturePath) {
                 String checksum = UtilsNetworking.sha256Hash(requestData + requestInfoProvider_.getRequestSalt());
                 requestData += "&checksum256=" + checksum;
-                L.v("[ConnectionProcessor] The following checksum was added:[" + checksum + "]");
+                L.v("[ConnectionProcessor] The following checksum was added:[{}]", checksum);
                 approximateDateSize += requestData.length(); // add request data to the estimated data size
             }
         } else {
             urlStr += "?" + requestData;
             String checksum = UtilsNetworking.sha256Hash(requestData + requestInfoProvider_.getRequestSalt());
             urlStr += "&checksum256=" + checksum;
-            L.v("[ConnectionProcessor] The following checksum was added:[" + checksum + "]");
+            L.v("[ConnectionProcessor] The following checksum was added:[{}]", checksum);
         }
         approximateDateSize += urlStr.length();
 
@@ -134,7 +162,7 @@ public class ConnectionProcessor implements Runnable {
             conn = (HttpURLConnection) url.openConnection();
         } else {
             HttpsURLConnection c = (HttpsURLConnection) url.openConnection();
-            c.setSSLSocketFactory(sslContext_.getSocketFactory());
+            c.setSSLSocketFactory(getSSLSocketFactory());
             conn = c;
         }
 
@@ -152,7 +180,9 @@ public class ConnectionProcessor implements Runnable {
 
         if (requestHeaderCustomValues_ != null) {
             //if there are custom header values, add them
-            L.v("[ConnectionProcessor] Adding [" + requestHeaderCustomValues_.size() + "] custom header fields");
+            if (L.logEnabled()) {
+                L.v("[ConnectionProcessor] Adding [{}] custom header fields", requestHeaderCustomValues_.size());
+            }
             for (Map.Entry<String, String> entry : requestHeaderCustomValues_.entrySet()) {
                 String key = entry.getKey();
                 String value = entry.getValue();
@@ -162,7 +192,9 @@ public class ConnectionProcessor implements Runnable {
             }
         }
 
-        L.v("[ConnectionProcessor] Has picturePath [" + hasPicturePath + "]");
+        if (L.logEnabled()) {
+            L.v("[ConnectionProcessor] Has picturePath [{}]", hasPicturePath);
+        }
 
         if (hasPicturePath) {
             String boundary = Long.toHexString(System.currentTimeMillis());// Just generate some unique random value as the boundary
@@ -199,11 +231,18 @@ public class ConnectionProcessor implements Runnable {
                 conn.setRequestMethod("POST");
                 conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
 
+                byte[] body = requestData.getBytes(charset);
+                int compressionThreshold = requestInfoProvider_.getRequestCompressionThreshold();
+                if (compressionThreshold >= 0 && body.length >= compressionThreshold) {
+                    // checksum is already part of the data, the server verifies it after decompressing the body
+                    body = compressRequestBody(body);
+                    conn.setRequestProperty("Content-Encoding", "gzip");
+                    approximateDateSize -= requestData.length() - body.length;
+                }
+
                 OutputStream os = conn.getOutputStream();
-                BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(os, charset));
-                writer.write(requestData);
-                writer.flush();
-                writer.close();
+                os.write(body);
+                os.flush();
                 os.close();
             } else {
                 L.v("[ConnectionProcessor] Using HTTP GET");
@@ -238,8 +277,10 @@ public class ConnectionProcessor implements Runnable {
             pcc.TrackCounterTimeNs("ConnectionProcessorUrlConnectionForServerRequest_03_HeaderFieldSize", UtilsTime.getNanoTime() - pccTsStartHeaderFieldSize);
         }
 
-        L.v("[ConnectionProcessor] Using HTTP POST: [" + usingHttpPost + "] forced:[" + requestInfoProvider_.isHttpPostForced()
-            + "] length:[" + (requestData.length() >= 2048) + "] crash:[" + requestData.contains("&crash=") + "] | Approx data size: [" + approximateDateSize + " B]");
+        if (L.logEnabled()) {
+            L.v("[ConnectionProcessor] Using HTTP POST: [" + usingHttpPost + "] forced:[" + requestInfoProvider_.isHttpPostForced()
+                + "] length:[" + (requestData.length() >= 2048) + "] crash:[" + requestData.contains("&crash=") + "] | Approx data size: [" + approximateDateSize + " B]");
+        }
         return conn;
     }
 
@@ -251,7 +292,7 @@ public class ConnectionProcessor implements Runnable {
         HttpURLConnection conn = (HttpURLConnection) url.openConnection();
 
         if (conn instanceof HttpsURLConnection && (Countly.publicKeyPinCertificates != null || Countly.certificatePinCertificates != null)) {
-            ((HttpsURLConnection) conn).setSSLSocketFactory(sslContext_.getSocketFactory());
+            ((HttpsURLConnection) conn).setSSLSocketFactory(getSSLSocketFactory());
         }
 
         if (pcc != null) {
@@ -268,7 +309,9 @@ public class ConnectionProcessor implements Runnable {
         conn.setInstanceFollowRedirects(true);
 
         if (requestHeaderCustomValues_ != null) {
-            L.v("[ConnectionProcessor] Adding [" + requestHeaderCustomValues_.size() + "] custom header fields");
+            if (L.logEnabled()) {
+                L.v("[ConnectionProcessor] Adding [{}] custom header fields", requestHeaderCustomValues_.size());
+            }
             for (Map.Entry<String, String> e : requestHeaderCustomValues_.entrySet()) {
                 if (e.getKey() != null && e.getValue() != null && !e.getKey().isEmpty()) {
                     conn.addRequestProperty(e.getKey(), e.getValue());
@@ -300,6 +343,29 @@ public class ConnectionProcessor implements Runnable {
         return conn;
     }
 
+    /**
+     * Gzip compresses the request body and records the compression ratio and time
+     *
+     * @param body uncompressed body bytes
+     * @return compressed body bytes
+     * @throws IOException if compression fails
+     */
+    @NonNull byte[] compressRequestBody(@NonNull byte[] body) throws IOException {
+        long tsStart = UtilsTime.getNanoTime();
+        byte[] compressed = UtilsNetworking.gzip(body);
+        long compressionTime = UtilsTime.getNanoTime() - tsStart;
+        double ratio = body.length == 0 ? 1.0 : (double) compressed.length / body.length;
+
+        L.v("[ConnectionProcessor] compressRequestBody, compressed [" + body.length + "] bytes to [" + compressed.length + "] bytes, ratio:[" + ratio + "], took:[" + compressionTime / 1000000.0d + "] ms");
+
+        if (pcc != null) {
+            pcc.TrackCounterTimeNs("ConnectionProcessorUrlConnectionForServerRequest_04_Compression", compressionTime);
+            pcc.TrackCounter("ConnectionProcessorUrlConnectionForServerRequest_05_CompressionRatio", ratio);
+            pcc.TrackCounter("ConnectionProcessorUrlConnectionForServerRequest_06_CompressedRequests", 1);
+        }
+        return compressed;
+    }
+
     /**
      * Return the size of the text multipart entry
      *
@@ -359,7 +425,35 @@ public class ConnectionProcessor implements Runnable {
 
     @Override
     public void run() {
+        if (workerGroup == null) {
+            drainQueue();
+            return;
+        }
+
+        noClaimableRequest_ = false;
+        try {
+            drainQueue();
+        } finally {
+            releaseClaimedRequest();
+            if (!noClaimableRequest_) {
+                // this worker stopped because of a failure, backoff or the queue being done, the other workers should stop as well
+                workerGroup.stop();
+            }
+        }
+    }
+
+    private void releaseClaimedRequest() {
+        if (claimedRequest_ != null) {
+            workerGroup.releaseRequest(claimedRequest_);
+            claimedRequest_ = null;
+        }
+    }
+
+    private void drainQueue() {
         long wholeQueueStart = UtilsTime.getNanoTime();
+        drainRequestCount = 0;
+        drainKeepAliveCandidateCount = 0;
+        drainDisconnectCount = 0;
         while (true) {
             long pccTsStartWholeQueue = 0L;
             long pccTsStartOnlyInternet = 0L;
@@ -381,18 +475,17 @@ public class ConnectionProcessor implements Runnable {
             final String[] storedRequests = storageProvider_.getRequests();
             int storedRequestCount = storedRequests == null ? 0 : storedRequests.length;
 
-            String msg = "[Connection Processor] Starting to run, there are [" + storedRequestCount + "] requests stored";
             if (storedRequestCount == 0) {
-                L.v(msg);
-            } else {
-                L.i(msg);
+                L.v("[Connection Processor] Starting to run, there are [0] requests stored");
+            } else if (L.logEnabled()) {
+                L.i("[Connection Processor] Starting to run, there are [{}] requests stored", storedRequestCount);
             }
 
             if (storedRequests == null || storedRequestCount == 0) {
                 L.i("[ConnectionProcessor] No requests in the queue, request queue skipped");
                 // currently no data to send, we are done for now
                 InternalRequestCallback globalCallback = internalRequestCallbacks_.get(ConnectionQueue.GLOBAL_RC_CALLBACK);
-                if (globalCallback != null) {
+                if (globalCallback != null && (workerGroup == null || workerGroup.markQueueFinished())) {
                     globalCallback.onRQFinished();
                 }
                 break;
@@ -404,9 +497,34 @@ public class ConnectionProcessor implements Runnable {
                 break;
             }
 
+            if (workerGroup == null && requestInfoProvider_.getBulkRequestBatchSize() > 1 && storedRequestCount > 1) {
+                BulkResult bulkResult = runBulkRequest(storedRequests);
+                if (bulkResult == BulkResult.STOP) {
+                    break;
+                } else if (bulkResult == BulkResult.CONTINUE) {
+                    continue;
+                }
+                // otherwise the first request is sent on its own
+            }
+
             // get first request in a separate variable to modify and keep the original intact
-            final String originalRequest = storedRequests[0];
+            final String originalRequest;
+            if (workerGroup == null) {
+                originalRequest = storedRequests[0];
+            } else {
+                // the previous request of this worker is done, pick the next one that is not blocked by ongoing requests
+                releaseClaimedRequest();
+                originalRequest = workerGroup.claimNextRequest(storageProvider_);
+                if (originalRequest == null) {
+                    L.d("[ConnectionProcessor] run, the upload workers were stopped or the queue is done");
+                    noClaimableRequest_ = true;
+                    break;
+                }
+                claimedRequest_ = originalRequest;
+            }
             String requestData = originalRequest;//todo rework to another param approach
+            //a claimed request is near the front of the queue, it is looked for from there
+            final RequestHeader requestHeader = RequestHeader.of(storageProvider_, originalRequest, 0);
 
             if (pcc != null) {
                 pcc.TrackCounterTimeNs("ConnectionProcessorRun_01_GetRequest", UtilsTime.getNanoTime() - pccTsStartWholeQueue);
@@ -418,8 +536,10 @@ public class ConnectionProcessor implements Runnable {
                 pccTsStartOldRCheck = UtilsTime.getNanoTime();
             }
 
-            L.i("[ConnectionProcessor] Checking if the request is older than:[" + requestInfoProvider_.getRequestDropAgeHours() + "] hours");
-            boolean isRequestOld = Utils.isRequestTooOld(requestData, requestInfoProvider_.getRequestDropAgeHours(), "[ConnectionProcessor]", L);
+            if (L.logEnabled()) {
+                L.i("[ConnectionProcessor] Checking if the request is older than:[" + requestInfoProvider_.getRequestDropAgeHours() + "] hours");
+            }
+            boolean isRequestOld = Utils.isRequestTooOld(requestHeader.timestamp, requestInfoProvider_.getRequestDropAgeHours(), "[ConnectionProcessor]", L);
 
             if (pcc != null) {
                 pcc.TrackCounterTimeNs("ConnectionProcessorRun_02_NetworkOldReq", UtilsTime.getNanoTime() - pccTsStartOldRCheck);
@@ -431,8 +551,7 @@ public class ConnectionProcessor implements Runnable {
                 pccTsStartTempIdCheck = UtilsTime.getNanoTime();
             }
             // temp ID checks
-            String temporaryIdTag = "&device_id=" + DeviceId.temporaryCountlyDeviceId;
-            boolean containsTemporaryId = requestData.contains(temporaryIdTag);
+            boolean containsTemporaryId = requestHeader.temporaryId;
             if (containsTemporaryId || deviceIdProvider_.isTemporaryIdEnabled()) {
                 //we are about to change ID to the temporary one or
                 //the internally set id is the temporary one
@@ -454,23 +573,28 @@ public class ConnectionProcessor implements Runnable {
             String customEndpoint = null;
 
             // checks if endPointOverrideTag exists in the eventData, and if so, extracts the endpoint and removes the tag from the evenData
-            String[] extractionResult = Utils.extractValueFromString(requestData, endPointOverrideTag, "&");
-            if (extractionResult[1] != null) {
-                requestData = extractionResult[0];
+            if (requestHeader.customEndpoint != null) {
+                String[] extractionResult = Utils.extractValueFromString(requestData, endPointOverrideTag, "&");
+                if (extractionResult[1] != null) {
+                    requestData = extractionResult[0];
 
-                if (!extractionResult[1].isEmpty()) {
-                    customEndpoint = extractionResult[1];
+                    if (!extractionResult[1].isEmpty()) {
+                        customEndpoint = extractionResult[1];
+                    }
+                    L.v("[ConnectionProcessor] Custom end point detected for the request:[{}]", customEndpoint);
                 }
-                L.v("[ConnectionProcessor] Custom end point detected for the request:[" + customEndpoint + "]");
             }
 
-            String[] callbackExtraction = Utils.extractValueFromString(requestData, "&callback_id=", "&");
             InternalRequestCallback requestCallback = null;
-            String callbackID = callbackExtraction[1];
-            if (callbackID != null) {
-                requestData = callbackExtraction[0];
-                requestCallback = internalRequestCallbacks_.get(callbackID);
-                L.v("[ConnectionProcessor] run, Internal request callback detected for the request");
+            String callbackID = null;
+            if (requestHeader.callbackId != null) {
+                String[] callbackExtraction = Utils.extractValueFromString(requestData, "&callback_id=", "&");
+                callbackID = callbackExtraction[1];
+                if (callbackID != null) {
+                    requestData = callbackExtraction[0];
+                    requestCallback = internalRequestCallbacks_.get(callbackID);
+                    L.v("[ConnectionProcessor] run, Internal request callback detected for the request");
+                }
             }
 
             if (pcc != null) {
@@ -496,18 +620,22 @@ public class ConnectionProcessor implements Runnable {
                 //continue with sending the request to the server
                 URLConnection conn = null;
                 InputStream connInputStream = null;
+                boolean responseConsumed = false;
                 try {
                     pccTsStartGetURLConnection = UtilsTime.getNanoTime();
 
                     // initialize and open connection
                     conn = urlConnectionForServerRequest(requestData, customEndpoint);
                     long setupServerRequestTime = UtilsTime.getNanoTime() - pccTsStartGetURLConnection;
-                    L.d("[ConnectionProcessor] run, TIMING Setup server request took:[" + setupServerRequestTime / 1000000.0d + "] ms");
+                    if (L.logEnabled()) {
+                        L.d("[ConnectionProcessor] run, TIMING Setup server request took:[" + setupServerRequestTime / 1000000.0d + "] ms");
+                    }
 
                     if (pcc != null) {
                         pcc.TrackCounterTimeNs("ConnectionProcessorRun_07_SetupServerRequest", setupServerRequestTime);
                         pccTsStartOnlyInternet = UtilsTime.getNanoTime();
                     }
+                    onConnectionOpened();
                     conn.connect();
 
                     if (pcc != null) {
@@ -532,62 +660,19 @@ public class ConnectionProcessor implements Runnable {
 
                         responseCode = httpConn.getResponseCode();
                         responseString = Utils.inputStreamToString(connInputStream);
+                        responseConsumed = true;
                     }
 
                     long readingStreamTime = UtilsTime.getNanoTime() - pccTsReadingStream;
-                    L.d("[Connection Processor] code:[" + responseCode + "], response:[" + responseString + "], response size:[" + responseString.length() + " B], request: " + requestData + ", url: " + serverURL_ + ", Reading stream took:[" + readingStreamTime / 1000000.0d + "] ms");
+                    if (L.logEnabled()) {
+                        L.d("[Connection Processor] code:[" + responseCode + "], response:[" + responseString + "], response size:[" + responseString.length() + " B], request: " + requestData + ", url: " + serverURL_ + ", Reading stream took:[" + readingStreamTime / 1000000.0d + "] ms");
+                    }
 
                     if (pcc != null) {
                         pcc.TrackCounterTimeNs("ConnectionProcessorRun_13_ReadingStream", readingStreamTime);
                     }
 
-                    final RequestResult rRes;
-
-                    if (responseCode >= 200 && responseCode < 300) {
-
-                        if (responseString.isEmpty()) {
-                            L.v("[ConnectionProcessor] Response was empty, will retry");
-                            rRes = RequestResult.RETRY;
-                        } else {
-                            JSONObject jsonObject;
-                            try {
-                                jsonObject = new JSONObject(responseString);
-                            } catch (JSONException ex) {
-                                //failed to parse, so not a valid json
-                                jsonObject = null;
-                                L.e("[ConnectionProcessor] Failed to parse response [" + responseString + "].");
-                            }
-
-                            if (jsonObject == null) {
-                                //received unparseable response, retrying
-                                L.v("[ConnectionProcessor] Response was a unknown, will retry");
-                                rRes = RequestResult.RETRY;
-                            } else {
-                                if (jsonObject.has("result")) {
-                                    //contains result entry
-                                    L.v("[ConnectionProcessor] Response was a success");
-                                    rRes = RequestResult.OK;
-                                } else {
-                                    L.v("[ConnectionProcessor] Response does not contain 'result', will retry");
-                                    rRes = RequestResult.RETRY;
-                                }
-                            }
-                        }
-                    } else if (responseCode >= 300 && responseCode < 400) {
-                        //assume redirect
-                        L.d("[ConnectionProcessor] Encountered redirect, will retry");
-                        rRes = RequestResult.RETRY;
-                    } else if (responseCode == 400 || responseCode == 404) {
-                        L.w("[ConnectionProcessor] Bad request, will still retry");
-                        rRes = RequestResult.RETRY;
-                    } else if (responseCode > 400) {
-                        //server down, try again later
-                        L.d("[ConnectionProcessor] Server is down, will retry");
-                        rRes = RequestResult.RETRY;
-                    } else {
-                        L.d("[ConnectionProcessor] Bad response code, will retry");
-                        rRes = RequestResult.RETRY;
-                    }
+                    final RequestResult rRes = evaluateResponse(responseCode, responseString);
 
                     // an 'if' needs to be used here so that a 'switch' statement does not 'eat' the 'break' call
                     // that is used to get out of the request loop
@@ -633,28 +718,21 @@ public class ConnectionProcessor implements Runnable {
                     break;
                 } finally {
                     // free connection resources
-                    if (conn instanceof HttpURLConnection) {
-                        try {
-                            if (connInputStream != null) {
-                                connInputStream.close();
-                            }
-                        } catch (Throwable ignored) {
-                        }
-
-                        ((HttpURLConnection) conn).disconnect();
-                    }
+                    releaseConnection(conn, connInputStream, responseConsumed);
                 }
                 long handlingResponseTime = UtilsTime.getNanoTime() - pccTsStartHandlingResponse;
-                L.d("[ConnectionProcessor] run, TIMING Handling response took:[" + handlingResponseTime / 1000000.0d + "] ms");
+                if (L.logEnabled()) {
+                    L.d("[ConnectionProcessor] run, TIMING Handling response took:[" + handlingResponseTime / 1000000.0d + "] ms");
+                }
                 if (pcc != null) {
                     pcc.TrackCounterTimeNs("ConnectionProcessorRun_09_HandlingResponse", handlingResponseTime);
                 }
             } else {
                 //device is identified as a app crawler and nothing is sent to the server
                 if (isRequestOld) {
-                    L.i("[ConnectionProcessor] request is too old, removing request " + originalRequest);
+                    L.i("[ConnectionProcessor] request is too old, removing request {}", originalRequest);
                 } else {
-                    L.i("[ConnectionProcessor] Device identified as an app crawler, removing request " + originalRequest);
+                    L.i("[ConnectionProcessor] Device identified as an app crawler, removing request {}", originalRequest);
                 }
 
                 // Notify callback that request was dropped (not sent to server)
@@ -673,7 +751,321 @@ public class ConnectionProcessor implements Runnable {
             }
         }
         long wholeQueueTime = UtilsTime.getNanoTime() - wholeQueueStart;
-        L.v("[ConnectionProcessor] run, TIMING Whole queue took:[" + wholeQueueTime / 1000000.0d + "] ms");
+        if (L.logEnabled()) {
+            L.v("[ConnectionProcessor] run, TIMING Whole queue took:[" + wholeQueueTime / 1000000.0d + "] ms");
+        }
+
+        if (drainRequestCount > 0) {
+            if (L.logEnabled()) {
+                L.d("[ConnectionProcessor] run, sent [" + drainRequestCount + "] requests, [" + drainKeepAliveCandidateCount + "] of them after the previous connection was released for keep-alive, [" + drainDisconnectCount + "] connections were disconnected");
+            }
+            if (pcc != null) {
+                pcc.TrackCounter("ConnectionProcessorRun_16_KeepAliveCandidate", drainKeepAliveCandidateCount);
+                pcc.TrackCounter("ConnectionProcessorRun_17_ConnectionDisconnect", drainDisconnectCount);
+            }
+        }
+    }
+
+    private @NonNull SSLSocketFactory getSSLSocketFactory() {
+        // the same factory has to be used for every request, otherwise pooled connections can't be reused
+        if (sslSocketFactory_ == null) {
+            sslSocketFactory_ = sslContext_.getSocketFactory();
+        }
+        return sslSocketFactory_;
+    }
+
+    private void onConnectionOpened() {
+        drainRequestCount++;
+        if (keepAliveConnectionAvailable) {
+            drainKeepAliveCandidateCount++;
+        }
+    }
+
+    /**
+     * Frees the resources of a finished request.
+     * If the response was fully read, the rest of the stream is consumed and closed without disconnecting
+     * so that the underlying keep-alive connection goes back to the pool and is reused by the next request.
+     * Otherwise the connection is disconnected.
+     *
+     * @param conn connection of the request
+     * @param connInputStream response stream of the request
+     * @param responseConsumed true if the response was read without errors
+     */
+    void releaseConnection(@Nullable URLConnection conn, @Nullable InputStream connInputStream, boolean responseConsumed) {
+        if (!(conn instanceof HttpURLConnection)) {
+            return;
+        }
+
+        boolean keepAlive = responseConsumed;
+        if (connInputStream != null) {
+            try {
+                byte[] buffer = new byte[256];
+                while (connInputStream.read(buffer) != -1) {
+                    //whatever is left of the response has to be read for the connection to be reusable
+                }
+            } catch (Throwable ignored) {
+                keepAlive = false;
+            }
+
+            try {
+                connInputStream.close();
+            } catch (Throwable ignored) {
+                keepAlive = false;
+            }
+        }
+
+        keepAliveConnectionAvailable = keepAlive;
+        if (!keepAlive) {
+            drainDisconnectCount++;
+            ((HttpURLConnection) conn).disconnect();
+        }
+    }
+
+    /**
+     * Decides if the request was accepted by the server from the response code and body
+     *
+     * @param responseCode HTTP response code
+     * @param responseString response body
+     * @return OK if the server accepted the request, RETRY otherwise
+     */
+    private RequestResult evaluateResponse(int responseCode, @NonNull String responseString) {
+        if (responseCode >= 200 && responseCode < 300) {
+            if (responseString.isEmpty()) {
+                L.v("[ConnectionProcessor] Response was empty, will retry");
+                return RequestResult.RETRY;
+            }
+
+            JSONObject jsonObject;
+            try {
+                jsonObject = new JSONObject(responseString);
+            } catch (JSONException ex) {
+                //failed to parse, so not a valid json
+                jsonObject = null;
+                L.e("[ConnectionProcessor] Failed to parse response [" + responseString + "].");
+            }
+
+            if (jsonObject == null) {
+                //received unparseable response, retrying
+                L.v("[ConnectionProcessor] Response was a unknown, will retry");
+                return RequestResult.RETRY;
+            }
+
+            if (jsonObject.has("result")) {
+                //contains result entry
+                L.v("[ConnectionProcessor] Response was a success");
+                return RequestResult.OK;
+            }
+
+            L.v("[ConnectionProcessor] Response does not contain 'result', will retry");
+            return RequestResult.RETRY;
+        } else if (responseCode >= 300 && responseCode < 400) {
+            //assume redirect
+            L.d("[ConnectionProcessor] Encountered redirect, will retry");
+        } else if (responseCode == 400 || responseCode == 404) {
+            L.w("[ConnectionProcessor] Bad request, will still retry");
+        } else if (responseCode > 400) {
+            //server down, try again later
+            L.d("[ConnectionProcessor] Server is down, will retry");
+        } else {
+            L.d("[ConnectionProcessor] Bad response code, will retry");
+        }
+        return RequestResult.RETRY;
+    }
+
+    /**
+     * Packs consecutive requests from the front of the queue into a single bulk request and sends it.
+     * Requests that are too old (or all requests when the device is an ignored app crawler) are dropped
+     * instead of being sent. Collection stops at the first request that has to be sent on its own:
+     * one that has a custom endpoint or a picture upload, or when a temporary device ID is encountered.
+     * Sent and dropped requests are removed from storage with a single write.
+     *
+     * @param storedRequests current request queue
+     * @return CONTINUE if requests were handled, STOP if the queue processing should stop,
+     * SINGLE if the first request should be sent on its own
+     */
+    private BulkResult runBulkRequest(@NonNull final String[] storedRequests) {
+        long pccTsStartBulk = UtilsTime.getNanoTime();
+        final int maxBatchSize = requestInfoProvider_.getBulkRequestBatchSize();
+        final boolean dropAllRequests = requestInfoProvider_.isDeviceAppCrawler() && requestInfoProvider_.ifShouldIgnoreCrawlers();
+
+        final List<String> handledRequests = new ArrayList<>(maxBatchSize);
+        final List<String> droppedRequests = new ArrayList<>();
+        final List<String> sentCallbackIds = new ArrayList<>();
+        final JSONArray bulkRequests = new JSONArray();
+        String appKey = null;
+
+        for (int a = 0; a < storedRequests.length && bulkRequests.length() < maxBatchSize; a++) {
+            final String originalRequest = storedRequests[a];
+            final RequestHeader requestHeader = RequestHeader.of(storageProvider_, originalRequest, a);
+
+            if (requestHeader.temporaryId || deviceIdProvider_.isTemporaryIdEnabled()) {
+                //everything after this point has to wait for exiting temporary ID mode
+                break;
+            }
+
+            if (requestHeader.customEndpoint != null || originalRequest.contains(ModuleUserProfile.PICTURE_PATH_KEY)) {
+                //this request needs its own connection
+                break;
+            }
+
+            String requestData = originalRequest;
+            String callbackID = null;
+            if (requestHeader.callbackId != null) {
+                String[] callbackExtraction = Utils.extractValueFromString(requestData, "&callback_id=", "&");
+                callbackID = callbackExtraction[1];
+                if (callbackID != null) {
+                    requestData = callbackExtraction[0];
+                }
+            }
+
+            boolean isRequestOld = Utils.isRequestTooOld(requestHeader.timestamp, requestInfoProvider_.getRequestDropAgeHours(), "[ConnectionProcessor] runBulkRequest", L);
+            if (dropAllRequests || isRequestOld) {
+                L.i("[ConnectionProcessor] runBulkRequest, " + (isRequestOld ? "request is too old" : "device identified as an app crawler") + ", removing request " + originalRequest);
+                if (callbackID != null) {
+                    InternalRequestCallback requestCallback = internalRequestCallbacks_.get(callbackID);
+                    if (requestCallback != null) {
+                        requestCallback.onRequestCompleted(isRequestOld ? "Request too old" : "Device is app crawler", false);
+                    }
+                    internalRequestCallbacks_.remove(callbackID);
+                }
+                handledRequests.add(originalRequest);
+                droppedRequests.add(originalRequest);
+                continue;
+            }
+
+            JSONObject requestParams = requestParamsToJSON(requestData);
+            if (appKey == null) {
+                appKey = requestParams.optString("app_key", null);
+            }
+            bulkRequests.put(requestParams);
+            handledRequests.add(originalRequest);
+            if (callbackID != null) {
+                sentCallbackIds.add(callbackID);
+            }
+        }
+
+        if (bulkRequests.length() < 2) {
+            if (droppedRequests.isEmpty()) {
+                // nothing to gain from a bulk request, the first request goes through the regular flow
+                return BulkResult.SINGLE;
+            }
+
+            // remove only the dropped requests, the rest will be picked up on the next loop
+            storageProvider_.removeRequests(droppedRequests);
+            return BulkResult.CONTINUE;
+        }
+
+        String bulkData = "app_key=" + UtilsNetworking.urlEncodeString(appKey == null ? "" : appKey)
+            + "&requests=" + UtilsNetworking.urlEncodeString(bulkRequests.toString())
+            + "&rr=" + (storedRequests.length - handledRequests.size());
+
+        if (L.logEnabled()) {
+            L.d("[ConnectionProcessor] runBulkRequest, sending [" + bulkRequests.length() + "] requests together, dropped [" + droppedRequests.size() + "] requests");
+        }
+
+        URLConnection conn = null;
+        InputStream connInputStream = null;
+        int responseCode = 0;
+        String responseString = "";
+        RequestResult rRes;
+        long setupServerRequestTime = 0L;
+        boolean responseConsumed = false;
+        try {
+            long pccTsStartGetURLConnection = UtilsTime.getNanoTime();
+            conn = urlConnectionForServerRequest(bulkData, requestInfoProvider_.getBulkRequestEndpoint(), true);
+            setupServerRequestTime = UtilsTime.getNanoTime() - pccTsStartGetURLConnection;
+            onConnectionOpened();
+            conn.connect();
+
+            if (conn instanceof HttpURLConnection) {
+                final HttpURLConnection httpConn = (HttpURLConnection) conn;
+                try {
+                    connInputStream = httpConn.getInputStream();
+                } catch (Exception ex) {
+                    connInputStream = httpConn.getErrorStream();
+                }
+
+                responseCode = httpConn.getResponseCode();
+                responseString = Utils.inputStreamToString(connInputStream);
+                responseConsumed = true;
+            }
+
+            if (L.logEnabled()) {
+                L.d("[ConnectionProcessor] runBulkRequest, code:[{}], response:[{}]", responseCode, responseString);
+            }
+            rRes = evaluateResponse(responseCode, responseString);
+        } catch (Exception e) {
+            L.d("[ConnectionProcessor] runBulkRequest, got exception while trying to submit bulk request [" + e + "]");
+            responseString = e.getMessage();
+            rRes = null;
+        } finally {
+            releaseConnection(conn, connInputStream, responseConsumed);
+        }
+
+        final boolean success = rRes == RequestResult.OK;
+        for (String callbackID : sentCallbackIds) {
+            InternalRequestCallback requestCallback = internalRequestCallbacks_.get(callbackID);
+            if (requestCallback != null) {
+                requestCallback.onRequestCompleted(success ? null : responseString, success);
+            }
+            internalRequestCallbacks_.remove(callbackID);
+        }
+
+        if (!success) {
+            // the sent requests stay in the queue, dropped ones are still removed
+            if (!droppedRequests.isEmpty()) {
+                storageProvider_.removeRequests(droppedRequests);
+            }
+
+            if (rRes != null) {
+                healthTracker.logFailedNetworkRequest(responseCode, responseString);//notify the health tracker of the issue
+                healthTracker.saveState();
+            }
+
+            if (pcc != null) {
+                pcc.TrackCounterTimeNs("ConnectionProcessorRun_14_BulkRequestFailed", UtilsTime.getNanoTime() - pccTsStartBulk);
+            }
+            return BulkResult.STOP;
+        }
+
+        storageProvider_.removeRequests(handledRequests);
+
+        if (pcc != null) {
+            pcc.TrackCounterTimeNs("ConnectionProcessorRun_15_BulkRequest", UtilsTime.getNanoTime() - pccTsStartBulk);
+        }
+
+        if (configProvider_.getBOMEnabled() && backoff(setupServerRequestTime, storedRequests.length - handledRequests.size(), handledRequests.get(handledRequests.size() - 1))) {
+            backoffCallback_.run();
+            return BulkResult.STOP;
+        }
+
+        return BulkResult.CONTINUE;
+    }
+
+    /**
+     * Converts a stored request query string into a JSON object of its decoded parameters
+     * so that it can be included in a bulk request
+     *
+     * @param requestData request query string
+     * @return JSON object with the request parameters
+     */
+    static @NonNull JSONObject requestParamsToJSON(@NonNull String requestData) {
+        JSONObject params = new JSONObject();
+        for (String pair : requestData.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+
+            int separatorIndex = pair.indexOf('=');
+            String key = separatorIndex < 0 ? pair : pair.substring(0, separatorIndex);
+            String value = separatorIndex < 0 ? "" : UtilsNetworking.urlDecodeString(pair.substring(separatorIndex + 1));
+            try {
+                params.put(key, value);
+            } catch (JSONException ignored) {
+                //only happens with a null key
+            }
+        }
+        return params;
     }
 
     /**
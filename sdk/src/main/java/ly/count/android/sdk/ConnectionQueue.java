@@ -24,6 +24,7 @@ package ly.count.android.sdk;
 import android.content.Context;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -54,6 +55,7 @@ import org.json.JSONObject;
 class ConnectionQueue implements RequestQueueProvider {
     static final String GLOBAL_RC_CALLBACK = "global_request_callback";
     private ExecutorService executor_;
+    private ExecutorService uploadWorkerExecutor_;
     private Context context_;
     private Future<?> connectionProcessorFuture_;
     private DeviceIdProvider deviceIdProvider_;
@@ -75,6 +77,8 @@ class ConnectionQueue implements RequestQueueProvider {
     StorageProvider storageProvider;
     ConfigurationProvider configProvider;
     RequestInfoProvider requestInfoProvider;
+    // amount of workers sending requests at the same time
+    int uploadConcurrency = 1;
     private final Map<String, InternalRequestCallback> internalRequestCallbacks = new ConcurrentHashMap<>();
     // Using CopyOnWriteArrayList for thread safety - allows iteration while modifications may occur from other threads
     private final List<Runnable> internalGlobalRequestCallbackActions = new CopyOnWriteArrayList<>();
@@ -814,7 +818,12 @@ class ConnectionQueue implements RequestQueueProvider {
         return data;
     }
 
-    public String prepareRemoteConfigRequest(@Nullable String keysInclude, @Nullable String keysExclude, @NonNull String preparedMetrics, boolean autoEnroll) {
+    /**
+     * @param deltaSupported if true, the server can respond with 'not modified' or only the changed keys
+     * @param storedVersion version of the stored values the server returned before, the changes are relative to it
+     */
+    public String prepareRemoteConfigRequest(@Nullable String keysInclude, @Nullable String keysExclude, @NonNull String preparedMetrics, boolean autoEnroll, boolean deltaSupported,
+        @Nullable String storedVersion) {
         String data = prepareCommonRequestData() + "&method=rc";
         if (consentProvider.getConsent(Countly.CountlyFeatureNames.sessions)) {
             //add session data if consent given
@@ -833,6 +842,13 @@ class ConnectionQueue implements RequestQueueProvider {
             data += "&oi=1";
         }
 
+        if (deltaSupported) {
+            data += "&rc_delta=1";
+            if (storedVersion != null) {
+                data += "&rc_version=" + UtilsNetworking.urlEncodeString(storedVersion);
+            }
+        }
+
         return data;
     }
 
@@ -948,10 +964,19 @@ class ConnectionQueue implements RequestQueueProvider {
             return;
         }
 
+        if (!rqEmpty) {
+            // requests that fail to send are retried by the global timer
+            Countly.sharedInstance().resumeTimerIfSuspended();
+        }
+
         if (!rqEmpty && (connectionProcessorFuture_ == null || cpDoneIfOngoing)) {
             L.d("[ConnectionQueue] tick, Starting ConnectionProcessor");
             ensureExecutor();
-            connectionProcessorFuture_ = executor_.submit(createConnectionProcessor());
+            if (uploadConcurrency > 1) {
+                connectionProcessorFuture_ = executor_.submit(createUploadWorkerGroup());
+            } else {
+                connectionProcessorFuture_ = executor_.submit(createConnectionProcessor());
+            }
         } else if (rqEmpty) {
             // only fire callback when queue is genuinely empty
             InternalRequestCallback globalCallback = internalRequestCallbacks.get(GLOBAL_RC_CALLBACK);
@@ -981,12 +1006,28 @@ class ConnectionQueue implements RequestQueueProvider {
         return cp;
     }
 
+    /**
+     * Creates a group of connection processors that drain the request queue concurrently.
+     * The group itself runs on the regular executor, so a new drain is still only started once the previous one is done.
+     */
+    UploadWorkerGroup createUploadWorkerGroup() {
+        if (uploadWorkerExecutor_ == null) {
+            L.v("[ConnectionQueue] createUploadWorkerGroup, Creating upload worker executor for [" + uploadConcurrency + "] workers");
+            uploadWorkerExecutor_ = Executors.newFixedThreadPool(uploadConcurrency - 1);
+        }
+
+        List<ConnectionProcessor> workers = new ArrayList<>(uploadConcurrency);
+        for (int a = 0; a < uploadConcurrency; a++) {
+            workers.add(createConnectionProcessor());
+        }
+        return new UploadWorkerGroup(workers, uploadWorkerExecutor_, L);
+    }
+
     public boolean queueContainsTemporaryIdItems() {
         String[] storedRequests = storageProvider.getRequests();
-        String temporaryIdTag = "&device_id=" + DeviceId.temporaryCountlyDeviceId;
 
-        for (String storedRequest : storedRequests) {
-            if (storedRequest.contains(temporaryIdTag)) {
+        for (int a = 0; a < storedRequests.length; a++) {
+            if (RequestHeader.of(storageProvider, storedRequests[a], a).temporaryId) {
                 return true;
             }
         }
@@ -35,7 +35,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -143,6 +142,9 @@ public class Countly {
     ConnectionQueue connectionQueue_;
     private ScheduledExecutorService timerService_;
     private ScheduledFuture<?> timerFuture = null;
+    private final Object timerLock = new Object();
+    private long timerDelaySeconds = TIMER_DELAY_IN_SECONDS;
+    private boolean timerSuspended = false;//if true, the global timer is stopped because there is no work for it
     private int activityCount_;
     boolean disableUpdateSessionRequests_ = false;//todo, move to module after 'setDisableUpdateSessionRequests' is removed
 
@@ -260,7 +262,56 @@ public class Countly {
             timerDelay = 1;
         }
 
-        timerFuture = service.scheduleWithFixedDelay(this::onTimer, timerDelay, timerDelay, TimeUnit.SECONDS);
+        synchronized (timerLock) {
+            timerDelaySeconds = timerDelay;
+            timerSuspended = false;
+            timerFuture = service.scheduleWithFixedDelay(this::onTimer, timerDelay, timerDelay, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Stops the global timer if the app is in the background and the timer has nothing to do.
+     * Only done when the event flush scheduler is enabled, as it takes care of sending events without the timer.
+     */
+    private void suspendTimerIfIdle() {
+        synchronized (timerLock) {
+            if (timerSuspended || timerFuture == null) {
+                return;
+            }
+
+            if (moduleSessions.manualSessionControlEnabled && moduleSessions.manualSessionControlHybridModeEnabled && moduleSessions.sessionIsRunning()) {
+                // update requests are created by the timer
+                return;
+            }
+
+            if (countlyStore.getEventQueueSize() > 0 || moduleEvents.hasPendingEvents() || !connectionQueue_.isRequestQueueEmpty()) {
+                return;
+            }
+
+            if (!moduleUserProfile.isSynced) {
+                // user profile changes are saved by the timer
+                return;
+            }
+
+            L.d("[Countly] suspendTimerIfIdle, suspending the global timer until there is work for it");
+            timerFuture.cancel(false);
+            timerSuspended = true;
+        }
+    }
+
+    /**
+     * Starts the global timer again if it was suspended because there was no work for it
+     */
+    void resumeTimerIfSuspended() {
+        synchronized (timerLock) {
+            if (!timerSuspended || timerService_ == null || timerService_.isShutdown()) {
+                return;
+            }
+
+            L.d("[Countly] resumeTimerIfSuspended, resuming the global timer");
+            timerSuspended = false;
+            timerFuture = timerService_.scheduleWithFixedDelay(this::onTimer, timerDelaySeconds, timerDelaySeconds, TimeUnit.SECONDS);
+        }
     }
 
     /**
@@ -282,7 +333,10 @@ public class Countly {
             setLoggingEnabled(true);
         }
 
-        L.SetListener(config.providedLogCallback);
+        L.SetListener(config.providedLogCallback, config.logListenerMinLevel, config.logListenerAsyncBufferSize);
+        if (config.providedLogCallback != null && config.logListenerAsyncBufferSize > 0) {
+            L.d("[Init] Informing the log listener asynchronously, buffer size:[" + config.logListenerAsyncBufferSize + "] level:[" + config.logListenerMinLevel + "]");
+        }
 
         if (COUNTLY_SDK_NAME.equals(DEFAULT_COUNTLY_SDK_NAME) && COUNTLY_SDK_VERSION_STRING.equals(DEFAULT_COUNTLY_SDK_VERSION_STRING)) {
             L.d("[Init] Initializing Countly [" + COUNTLY_SDK_NAME + "] SDK version [" + COUNTLY_SDK_VERSION_STRING + "]");
@@ -435,6 +489,12 @@ public class Countly {
 
             if (config.explicitStorageModeEnabled) {
                 L.i("[Init] Explicit storage mode is being enabled");
+            } else if (config.persistenceWriteBehindWindowMs >= 0) {
+                L.i("[Init] Write-behind persistence is being enabled with a [" + config.persistenceWriteBehindWindowMs + "] ms flush window");
+            }
+
+            if (config.experimental.fileBackedRequestQueueEnabled) {
+                L.i("[Init] File backed request queue is being enabled");
             }
 
             //set or create the CountlyStore
@@ -442,13 +502,19 @@ public class Countly {
                 //we are running a test and using a mock object
                 countlyStore = config.countlyStore;
             } else {
-                countlyStore = new CountlyStore(config.context, L, config.explicitStorageModeEnabled);
+                countlyStore = new CountlyStore(config.context, L, config.explicitStorageModeEnabled, config.experimental.fileBackedRequestQueueEnabled, config.persistenceWriteBehindWindowMs);
                 config.setCountlyStore(countlyStore);
             }
 
+            if (config.pcc == null && config.sdkTelemetrySamplingRate > 0 && Math.random() < config.sdkTelemetrySamplingRate) {
+                L.d("[Init] This app run is sampled for SDK telemetry, creating a performance counter collector");
+                config.pcc = new PerformanceCounterCollector();
+            }
+
             if (config.pcc != null) {
                 L.i("[Init] Attaching a performance counter collector");
                 countlyStore.pcc = config.pcc;
+                countlyStore.persistenceFlusher.pcc = config.pcc;
             }
 
             if (config.maxRequestQueueSize < 1) {
@@ -458,11 +524,24 @@ public class Countly {
             L.d("[Init] request queue size set to [" + config.maxRequestQueueSize + "]");
             countlyStore.setLimits(config.maxRequestQueueSize);
 
+            if (config.maxRequestQueueBytes > 0 || config.maxRequestBytes > 0) {
+                L.d("[Init] request queue byte limits set to [" + config.maxRequestQueueBytes + "] for the queue and [" + config.maxRequestBytes + "] for a single request");
+                countlyStore.setByteLimits(config.maxRequestQueueBytes, config.maxRequestBytes);
+            }
+
             if (config.disableGradualRequestCleaner) {
                 L.d("[Init] Disabling gradual request queue cleaning. Overflow will be removed in one pass.");
                 countlyStore.setDisableGradualRequestCleaner(true);
             }
 
+            if (config.requestCompressionThreshold >= 0) {
+                L.d("[Init] Request compression enabled for POST bodies of at least [" + config.requestCompressionThreshold + "] bytes");
+            }
+
+            if (config.bulkRequestBatchSize > 1) {
+                L.d("[Init] Bulk request mode enabled, up to [" + config.bulkRequestBatchSize + "] requests will be sent together to [" + config.bulkRequestEndpoint + "]");
+            }
+
             if (config.storageProvider == null) {
                 // outside of tests this should be null
                 config.storageProvider = config.countlyStore;
@@ -482,6 +561,17 @@ public class Countly {
                 L.d("[Init] Custom request queue provider was provided");
             }
 
+            if (config.fastIdGenerationEnabled) {
+                L.d("[Init] Using fast ID generation for events and views");
+                SafeIDGenerator fastIDGenerator = new FastIDGenerator();
+                if (config.safeViewIDGenerator == null) {
+                    config.safeViewIDGenerator = fastIDGenerator;
+                }
+                if (config.safeEventIDGenerator == null) {
+                    config.safeEventIDGenerator = fastIDGenerator;
+                }
+            }
+
             if (config.safeViewIDGenerator == null) {
                 //if we didn't override this for a test
                 config.safeViewIDGenerator = new SafeIDGenerator() {
@@ -621,6 +711,7 @@ public class Countly {
             baseInfoProvider = config.baseInfoProvider;
             requestQueueProvider = config.requestQueueProvider;
             L.setHealthChecker(config.healthTracker);
+            countlyStore.healthTracker = config.healthTracker;
 
             L.i("[Init] Finished initialising modules");
 
@@ -679,6 +770,12 @@ public class Countly {
             connectionQueue_.moduleRequestQueue = moduleRequestQueue;
             connectionQueue_.deviceInfo = config.deviceInfo;
             connectionQueue_.pcc = config.pcc;
+            if (config.uploadConcurrency > 1 && config.bulkRequestBatchSize > 1) {
+                L.w("[Init] Concurrent uploads can't be combined with the bulk request mode, a single upload worker will be used");
+            } else if (config.uploadConcurrency > 1) {
+                L.d("[Init] Using [" + config.uploadConcurrency + "] concurrent upload workers");
+                connectionQueue_.uploadConcurrency = config.uploadConcurrency;
+            }
             connectionQueue_.setStorageProvider(config.storageProvider);
             connectionQueue_.setupSSLContext();
             connectionQueue_.setBaseInfoProvider(config.baseInfoProvider);
@@ -706,6 +803,18 @@ public class Countly {
                 @Override public String getRequestSalt() {
                     return config.tamperingProtectionSalt;
                 }
+
+                @Override public int getBulkRequestBatchSize() {
+                    return config.bulkRequestBatchSize;
+                }
+
+                @Override public String getBulkRequestEndpoint() {
+                    return config.bulkRequestEndpoint;
+                }
+
+                @Override public int getRequestCompressionThreshold() {
+                    return config.requestCompressionThreshold;
+                }
             };
 
             sdkIsInitialised = true;
@@ -947,6 +1056,10 @@ public class Countly {
      */
     public synchronized void halt() {
         L.i("Halting Countly!");
+        //events waiting in the ingestion queue are recorded while the SDK is still initialized
+        if (moduleEvents != null) {
+            moduleEvents.drainIngestedEvents();
+        }
         sdkIsInitialised = false;
         L.SetListener(null);
         stopTimer();
@@ -954,6 +1067,7 @@ public class Countly {
         if (connectionQueue_ != null) {
             if (countlyStore != null) {
                 countlyStore.clear();
+                countlyStore.stopPersistence();
             }
             connectionQueue_.setContext(null);
             connectionQueue_ = null;
@@ -990,6 +1104,9 @@ public class Countly {
 
         connectionQueue_ = new ConnectionQueue();
         timerService_ = Executors.newSingleThreadScheduledExecutor();
+        synchronized (timerLock) {
+            timerSuspended = false;
+        }
     }
 
     synchronized void notifyDeviceIdChange(boolean withoutMerge) {
@@ -1012,6 +1129,7 @@ public class Countly {
         ++activityCount_;
         if (activityCount_ == 1) {
             // start the timer in the first activity
+            resumeTimerIfSuspended();
             if (moduleConfiguration != null) {
                 moduleConfiguration.fetchIfTimeIsUpForFetchingServerConfig();
             }
@@ -1053,6 +1171,11 @@ public class Countly {
         for (ModuleBase module : modules) {
             module.onActivityStopped(activityCount_);
         }
+
+        if (activityCount_ == 0 && countlyStore != null && countlyStore.persistenceFlusher.policy == PersistenceFlusher.Policy.WRITE_BEHIND) {
+            // start writing pending queue changes without waiting for them
+            countlyStore.flushPersistence(0);
+        }
     }
 
     public synchronized void onConfigurationChangedInternal(Configuration newConfig) {
@@ -1143,6 +1266,10 @@ public class Countly {
             moduleUserProfile.saveInternal();
 
             requestQueueProvider.tick();
+
+            if (!appIsInForeground && moduleRequestQueue.eventFlushScheduler != null) {
+                suspendTimerIfIdle();
+            }
         }
     }
 
@@ -1181,6 +1308,9 @@ public class Countly {
 
     public void setLoggingEnabled(final boolean enableLogging) {
         enableLogging_ = enableLogging;
+        if (this == sharedInstance()) {
+            ModuleLog.consoleLoggingEnabled = enableLogging;
+        }
         L.d("Enabling logging");
     }
 
@@ -1396,10 +1526,16 @@ public class Countly {
         return connectionQueue_;
     }
 
-    ExecutorService getTimerService() {
+    ScheduledExecutorService getTimerService() {
         return timerService_;
     }
 
+    boolean isTimerSuspended() {
+        synchronized (timerLock) {
+            return timerSuspended;
+        }
+    }
+
     long getPrevSessionDurationStartTime() {
         return moduleSessions.prevSessionDurationStartTime_;
     }
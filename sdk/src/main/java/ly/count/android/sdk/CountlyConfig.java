@@ -4,8 +4,11 @@ import android.app.Activity;
 import android.app.Application;
 import android.content.Context;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class CountlyConfig {
 
@@ -128,6 +131,7 @@ public class CountlyConfig {
     protected boolean enableAutoEnrollFlag = false;
 
     boolean enableRemoteConfigValueCaching = false;
+    boolean enableRemoteConfigDeltaDownload = false;
     protected RemoteConfigCallback remoteConfigCallbackLegacy = null;
 
     protected List<RCDownloadCallback> remoteConfigGlobalCallbackList = new ArrayList<>(2);
@@ -194,6 +198,12 @@ public class CountlyConfig {
 
     ModuleLog.LogCallback providedLogCallback;
 
+    // messages below this level are not passed to the log listener
+    ModuleLog.LogLevel logListenerMinLevel = ModuleLog.LogLevel.Verbose;
+
+    // if more than 0, the log listener is informed on a background thread
+    int logListenerAsyncBufferSize = 0;
+
     String daCampaignType = null;
     String daCampaignData = null;
     Map<String, String> iaAttributionValues = null;
@@ -222,6 +232,40 @@ public class CountlyConfig {
     // If set to true, the SDK will not restart manual views while switching between foreground and background
     boolean disableViewRestartForManualRecording = false;
 
+    // If larger than 1, up to this many queued requests are sent together in a single bulk request
+    int bulkRequestBatchSize = 0;
+    String bulkRequestEndpoint = "/i/bulk";
+
+    // Amount of workers sending queued requests at the same time
+    int uploadConcurrency = 1;
+
+    // POST bodies at least this many bytes long are gzip compressed (negative value means compression is disabled)
+    int requestCompressionThreshold = -1;
+
+    // Byte size limits of the request queue and of a single request (0 means no limit)
+    int maxRequestQueueBytes = 0;
+    int maxRequestBytes = 0;
+
+    // Custom events recorded within this many milliseconds are merged if they match (negative value means aggregation is disabled)
+    long eventAggregationWindowMs = -1;
+    Set<String> eventAggregationIncludedKeys = null;
+    Set<String> eventAggregationExcludedKeys = null;
+
+    // If true, event and view IDs are generated with FastIDGenerator instead of a SecureRandom per ID
+    boolean fastIdGenerationEnabled = false;
+
+    // Events are sent when the oldest one is this many seconds old, and the global timer is suspended while idle in the background (non positive value means the scheduler is disabled)
+    int eventFlushMaxAgeSeconds = -1;
+
+    // Events are sent when the stored event queue reaches this many characters (non positive value means there is no byte threshold)
+    int eventQueueByteThreshold = -1;
+
+    // Share of app runs in which internal timings are collected and sent with the health check (non positive value means it is disabled)
+    double sdkTelemetrySamplingRate = -1;
+
+    // Queue writes done within this many milliseconds are written together on a background thread (negative value means write-behind is disabled)
+    long persistenceWriteBehindWindowMs = -1;
+
     /**
      * THIS VARIABLE SHOULD NOT BE USED
      * IT IS ONLY FOR INTERNAL TESTING
@@ -574,6 +618,20 @@ public class CountlyConfig {
         return this;
     }
 
+    /**
+     * Download remote config values conditionally.
+     * Downloads of all keys send the version of the stored values that the server returned the last time.
+     * If nothing changed, the server can respond with 'not modified' and the stored values are kept without parsing or writing them.
+     * Otherwise it can respond with only the changed and removed keys.
+     * Servers that don't support this respond with all values, which are handled as before.
+     *
+     * @return Returns the same config object for convenient linking
+     */
+    public synchronized CountlyConfig enableRemoteConfigDeltaDownload() {
+        enableRemoteConfigDeltaDownload = true;
+        return this;
+    }
+
     /**
      * Calling this adds global listeners for remote config download callbacks.
      * Calling this multiple times would add multiple listeners
@@ -747,6 +805,49 @@ public class CountlyConfig {
         return this;
     }
 
+    /**
+     * Set the size of the event queue, in characters of the stored events, at which events are sent.
+     * Works together with the event count threshold, whichever is reached first triggers sending.
+     *
+     * @param threshold size at which events are sent, non positive value disables it
+     * @return Returns the same config object for convenient linking
+     */
+    public synchronized CountlyConfig setEventQueueByteThreshold(int threshold) {
+        eventQueueByteThreshold = threshold;
+        return this;
+    }
+
+    /**
+     * Enable the event flush scheduler.
+     * Recorded events are sent at the latest when the oldest of them reaches the given age,
+     * and they are sent when the app goes to the background.
+     * A flush is scheduled only while events are waiting. While the app is in the background and
+     * there are no events or requests waiting, the global timer is suspended, so an idle app is not woken up every update interval.
+     * It is resumed when the app comes to the foreground or when new requests are added.
+     *
+     * @param maxEventAgeSeconds how long events can wait in the event queue, in seconds
+     * @return Returns the same config object for convenient linking
+     */
+    public synchronized CountlyConfig enableEventFlushScheduler(int maxEventAgeSeconds) {
+        eventFlushMaxAgeSeconds = Math.max(1, maxEventAgeSeconds);
+        return this;
+    }
+
+    /**
+     * Enable reporting of the SDK's own performance.
+     * In the given share of app runs the SDK times its internal stages, like processing requests and accessing storage,
+     * and keeps the timings as compact histograms. They are sent together with the health check when the SDK is initialized the next time.
+     * App runs that are not sampled don't time anything.
+     * If a performance counter collector is provided, it is also used for the report.
+     *
+     * @param samplingRate share of app runs that collect timings, between 0 and 1
+     * @return Returns the same config object for convenient linking
+     */
+    public synchronized CountlyConfig enableSdkTelemetry(double samplingRate) {
+        sdkTelemetrySamplingRate = Math.max(0, Math.min(1, samplingRate));
+        return this;
+    }
+
     public synchronized CountlyConfig enableManualSessionControl() {
         manualSessionControlEnabled = true;
         return this;
@@ -971,6 +1072,31 @@ public class CountlyConfig {
         return this;
     }
 
+    /**
+     * Set the lowest log level that is passed to the log listener.
+     * Messages below it are filtered out before they reach the listener. Default value is "Verbose".
+     *
+     * @param minLevel lowest level that is passed on
+     * @return Returns the same config object for convenient linking
+     */
+    public synchronized CountlyConfig setLogListenerLevel(ModuleLog.LogLevel minLevel) {
+        logListenerMinLevel = minLevel;
+        return this;
+    }
+
+    /**
+     * Inform the log listener on a background thread instead of the thread that logged the message.
+     * Messages wait for delivery in a bounded buffer, so a slow listener doesn't block the SDK.
+     * If the buffer is full, new messages are dropped and the listener receives a warning with the amount of dropped messages.
+     *
+     * @param bufferSize amount of messages that can wait for delivery, values lower than 1 disable asynchronous delivery
+     * @return Returns the same config object for convenient linking
+     */
+    public synchronized CountlyConfig enableAsyncLogListener(int bufferSize) {
+        logListenerAsyncBufferSize = bufferSize;
+        return this;
+    }
+
     /**
      * Set's the new maximum size for the request queue.
      *
@@ -982,6 +1108,31 @@ public class CountlyConfig {
         return this;
     }
 
+    /**
+     * Set the maximum size of the whole request queue in bytes.
+     * When a new request would not fit, the oldest requests are removed until it fits. Crash reports are not removed.
+     * By default there is no byte limit.
+     *
+     * @param maxBytes maximum size in bytes, 0 or less means no limit
+     * @return Returns the same config object for convenient linking
+     */
+    public synchronized CountlyConfig setMaxRequestQueueBytes(int maxBytes) {
+        maxRequestQueueBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * Set the maximum size of a single request in bytes. Larger requests are not added to the request queue.
+     * By default there is no limit.
+     *
+     * @param maxBytes maximum size in bytes, 0 or less means no limit
+     * @return Returns the same config object for convenient linking
+     */
+    public synchronized CountlyConfig setMaxRequestBytes(int maxBytes) {
+        maxRequestBytes = maxBytes;
+        return this;
+    }
+
     /**
      * Report direct user attribution
      *
@@ -1029,6 +1180,76 @@ public class CountlyConfig {
         return this;
     }
 
+    /**
+     * Enable aggregation of custom events.
+     * Custom events with the same key, segmentation, current view, day and hour that are recorded
+     * within the aggregation window are merged into a single event. Count, sum and duration are added together
+     * and the merged event keeps the timestamp and ID of the first event.
+     * Merged events are written to the event queue when the window ends or when events are sent.
+     * Events that trigger a content zone refresh and events with array segmentation values are not aggregated.
+     *
+     * @param windowMs length of the aggregation window in milliseconds
+     * @return Returns the same config object for convenient linking
+     */
+    public synchronized CountlyConfig enableEventAggregation(long windowMs) {
+        this.eventAggregationWindowMs = Math.max(0, windowMs);
+        return this;
+    }
+
+    /**
+     * Only aggregate custom events with the given keys. By default all custom event keys are aggregated.
+     * Used together with 'enableEventAggregation'.
+     *
+     * @param keys event keys that are aggregated
+     * @return Returns the same config object for convenient linking
+     */
+    public synchronized CountlyConfig setEventAggregationKeys(String... keys) {
+        this.eventAggregationIncludedKeys = keys == null ? null : new HashSet<>(Arrays.asList(keys));
+        return this;
+    }
+
+    /**
+     * Don't aggregate custom events with the given keys.
+     * Used together with 'enableEventAggregation'.
+     *
+     * @param keys event keys that are not aggregated
+     * @return Returns the same config object for convenient linking
+     */
+    public synchronized CountlyConfig setEventAggregationExcludedKeys(String... keys) {
+        this.eventAggregationExcludedKeys = keys == null ? null : new HashSet<>(Arrays.asList(keys));
+        return this;
+    }
+
+    /**
+     * Generate event and view IDs with a fast non-cryptographic generator.
+     * By default a new SecureRandom is used for every ID, which is costly when a lot of events are recorded.
+     * With this option SecureRandom is used once per process and IDs are derived from it with a counter.
+     * IDs keep the same format and are unique within the process.
+     *
+     * @return Returns the same config object for convenient linking
+     */
+    public synchronized CountlyConfig enableFastIdGeneration() {
+        this.fastIdGenerationEnabled = true;
+        return this;
+    }
+
+    /**
+     * Enable write-behind persistence of the request and event queues.
+     * Instead of writing to shared preferences on the calling thread, all queue changes done
+     * within the flush window are written together on a dedicated background thread.
+     * Pending changes are also written when the last activity is stopped.
+     * Use 'Countly.sharedInstance().requestQueue().flushPersistence(long)' to wait until everything is on disk.
+     *
+     * If explicit storage mode is enabled, this option is ignored.
+     *
+     * @param flushWindowMs how long queue changes are gathered before they are written, 0 writes them as soon as possible
+     * @return Returns the same config object for convenient linking
+     */
+    public synchronized CountlyConfig enablePersistenceWriteBehind(long flushWindowMs) {
+        this.persistenceWriteBehindWindowMs = Math.max(0, flushWindowMs);
+        return this;
+    }
+
     /**
      * This is an experimental feature and it can have breaking changes
      *
@@ -1162,6 +1383,64 @@ public class CountlyConfig {
         return this;
     }
 
+    /**
+     * Enable sending queued requests in bulk. Instead of sending one request per connection,
+     * up to 'maxRequestsPerBatch' consecutive queued requests are packed into a single POST request
+     * to the bulk endpoint and removed from the queue together once the server accepts them.
+     * Requests that target a custom endpoint or contain a picture upload are still sent one by one.
+     *
+     * @param maxRequestsPerBatch maximum amount of requests sent in a single bulk request, values lower than 2 disable bulk sending
+     * @return Returns the same config object for convenient linking
+     */
+    public synchronized CountlyConfig enableBulkRequestMode(int maxRequestsPerBatch) {
+        this.bulkRequestBatchSize = maxRequestsPerBatch;
+        return this;
+    }
+
+    /**
+     * Set the endpoint that is used for sending bulk requests.
+     * Default value is "/i/bulk"
+     *
+     * @param endpoint the endpoint path, it should start with "/"
+     * @return Returns the same config object for convenient linking
+     */
+    public synchronized CountlyConfig setBulkRequestEndpoint(String endpoint) {
+        if (endpoint != null && !endpoint.isEmpty()) {
+            this.bulkRequestEndpoint = endpoint;
+        }
+        return this;
+    }
+
+    /**
+     * Set how many queued requests can be sent to the server at the same time.
+     * Requests where the order matters are still sent one after another: device ID change requests,
+     * session requests of the same device ID and requests that wait for an internal callback.
+     * Other requests, like events and crashes, are sent concurrently.
+     * Minimum value is "1", which is also the default value. This can't be combined with the bulk request mode,
+     * if that is enabled, a single worker is used.
+     *
+     * @param workerCount amount of requests that can be in flight at the same time
+     * @return Returns the same config object for convenient linking
+     */
+    public synchronized CountlyConfig setUploadConcurrency(int workerCount) {
+        this.uploadConcurrency = Math.max(1, workerCount);
+        return this;
+    }
+
+    /**
+     * Enable gzip compression of request bodies. Requests that are sent with HTTP POST and
+     * have a body of at least 'thresholdBytes' bytes are compressed and sent with "Content-Encoding: gzip".
+     * Requests with picture uploads and requests sent with HTTP GET are not compressed.
+     * The server has to support compressed request bodies for this to work.
+     *
+     * @param thresholdBytes minimum body size in bytes for compression, negative values disable compression
+     * @return Returns the same config object for convenient linking
+     */
+    public synchronized CountlyConfig enableRequestCompression(int thresholdBytes) {
+        this.requestCompressionThreshold = thresholdBytes;
+        return this;
+    }
+
     /**
      * APM configuration interface to be used with CountlyConfig
      */
@@ -26,7 +26,8 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import java.io.UnsupportedEncodingException;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -34,7 +35,6 @@ import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -60,12 +60,16 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
     private static final String STAR_RATING_PREFERENCE = "STAR_RATING";
     private static final String CACHED_ADVERTISING_ID = "ADVERTISING_ID";
     private static final String REMOTE_CONFIG_VALUES = "REMOTE_CONFIG";
+    private static final String REMOTE_CONFIG_VERSION = "REMOTE_CONFIG_VERSION";
     private static final String STORAGE_SCHEMA_VERSION = "SCHEMA_VERSION";
     private static final String PREFERENCE_KEY_ID_ID = "ly.count.android.api.DeviceId.id";
     private static final String PREFERENCE_KEY_ID_TYPE = "ly.count.android.api.DeviceId.type";
     private static final String PREFERENCE_SERVER_CONFIG = "SERVER_CONFIG";
 
     private static final String PREFERENCE_HEALTH_CHECK_STATE = "HEALTH_CHECK";
+    private static final String PREFERENCE_SDK_TELEMETRY_STATE = "SDK_TELEMETRY";
+
+    static final String REQUEST_QUEUE_LOG_DIRECTORY = "countly_rq";
 
     private static final String CACHED_PUSH_ACTION_ID = "PUSH_ACTION_ID";
     private static final String CACHED_PUSH_ACTION_INDEX = "PUSH_ACTION_INDEX";
@@ -84,18 +88,67 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
 
     int maxRequestQueueSize = 1000;
     int dropAgeHours = 0;
-    private final static int requestRemovalLoopLimit = 100;
-
-    // If true, when cleaning request queue overflow remove all overflowing requests at once (plus one slot)
-    // instead of gradually removing up to 'requestRemovalLoopLimit'
-    boolean disableGradualRequestCleaner = false;
+    int maxRequestQueueBytes = 0;//byte budget of the whole request queue, 0 means no limit
+    int maxRequestBytes = 0;//size limit of a single request, 0 means no limit
+    final RequestQueueEvictor requestQueueEvictor;
+    HealthTracker healthTracker;
 
     //explicit storage fields
     boolean explicitStorageModeEnabled;
-    boolean esDirtyFlag = false;
-    String esRequestQueueCache = null;//'null' is a special value that indicates that it hasn't read what is in persistent storage
-    String esEventQueueCache = null;//'null' is a special value that indicates that it hasn't read what is in persistent storage
-    String esHealthCheckCache = null;//'null' is a special value that indicates that it hasn't read what is in persistent storage
+
+    //writes the event queue, request queue and health check state to preferences, explicit storage mode is one of its policies
+    final PersistenceFlusher persistenceFlusher;
+
+    /**
+     * In memory copy of the event queue, sorted by timestamp from oldest to newest.
+     * 'eventQueueSource' is the stored event queue string that this copy reflects.
+     * If the stored value is changed by anything else, the copy is rebuilt on the next access.
+     */
+    List<StoredEvent> eventQueue = null;
+    String eventQueueSource = null;
+    int eventQueueStoredEntries = 0;//amount of entries in the stored event queue, including ones that could not be parsed
+    long oldestEventEnqueueTimestamp = -1;//earliest time when one of the events in the in memory copy was added, -1 if there are none
+
+    /**
+     * In memory copy of the request queue and the parsed headers of its requests at the same positions.
+     * 'requestQueueSource' is the stored request queue string that this copy reflects,
+     * for the file backed request queue 'requestQueueLogVersion' is the version of the log it reflects.
+     * If the stored queue is changed by anything else, the copy is rebuilt on the next access.
+     * Headers are parsed when they are first looked at and kept for requests that stay in the queue.
+     */
+    String[] requestQueue = null;
+    RequestHeader[] requestHeaders = null;
+    String requestQueueSource = null;
+    long requestQueueLogVersion = -1;
+
+    static class StoredEvent {
+        final long timestamp;
+        final long enqueueTimestamp;//when the event was added to the queue, for events read from storage it is the time they were read
+        final String json;
+        private Event event;//parsed from 'json' only when it is needed
+
+        StoredEvent(long timestamp, long enqueueTimestamp, @NonNull String json, @Nullable Event event) {
+            this.timestamp = timestamp;
+            this.enqueueTimestamp = enqueueTimestamp;
+            this.json = json;
+            this.event = event;
+        }
+
+        @Nullable Event getEvent() {
+            if (event == null) {
+                try {
+                    event = Event.fromJSON(new JSONObject(json));
+                } catch (JSONException ignored) {
+                    // should not happen since the string was created from a JSONObject
+                }
+            }
+            return event;
+        }
+    }
+
+    //file backed request queue, if 'null' then the request queue is stored in preferences
+    RequestQueueLog requestQueueLog = null;
+    final File requestQueueLogDirectory;
 
     public PerformanceCounterCollector pcc;
 
@@ -109,6 +162,28 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
     }
 
     public CountlyStore(final Context context, ModuleLog logModule, boolean explicitStorageModeEnabled) {
+        this(context, logModule, explicitStorageModeEnabled, false);
+    }
+
+    /**
+     * Constructs a CountlyStore object.
+     *
+     * @param context used to retrieve storage meta data, must not be null.
+     * @param fileBackedRequestQueueEnabled if true, the request queue is stored in append only segment files instead of preferences
+     */
+    public CountlyStore(final Context context, ModuleLog logModule, boolean explicitStorageModeEnabled, boolean fileBackedRequestQueueEnabled) {
+        this(context, logModule, explicitStorageModeEnabled, fileBackedRequestQueueEnabled, -1);
+    }
+
+    /**
+     * Constructs a CountlyStore object.
+     *
+     * @param context used to retrieve storage meta data, must not be null.
+     * @param fileBackedRequestQueueEnabled if true, the request queue is stored in append only segment files instead of preferences
+     * @param writeBehindWindowMs if 0 or more, queue writes done within this window are coalesced and written on a background thread.
+     * Ignored if explicit storage mode is enabled
+     */
+    public CountlyStore(final Context context, ModuleLog logModule, boolean explicitStorageModeEnabled, boolean fileBackedRequestQueueEnabled, long writeBehindWindowMs) {
         if (context == null) {
             throw new IllegalArgumentException("must provide valid context");
         }
@@ -116,12 +191,42 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
         preferences_ = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
         preferencesPush_ = createPreferencesPush(context);
         L = logModule;
+
+        PersistenceFlusher.Policy policy = PersistenceFlusher.Policy.IMMEDIATE;
+        if (explicitStorageModeEnabled) {
+            policy = PersistenceFlusher.Policy.EXPLICIT;
+        } else if (writeBehindWindowMs >= 0) {
+            policy = PersistenceFlusher.Policy.WRITE_BEHIND;
+        }
+        persistenceFlusher = new PersistenceFlusher(preferences_, policy, writeBehindWindowMs, L);
+        requestQueueEvictor = new RequestQueueEvictor(L);
+        requestQueueLogDirectory = new File(context.getFilesDir(), REQUEST_QUEUE_LOG_DIRECTORY);
+
+        if (fileBackedRequestQueueEnabled) {
+            try {
+                requestQueueLog = new RequestQueueLog(requestQueueLogDirectory, L);
+            } catch (IOException e) {
+                L.e("[CountlyStore] Failed to open the file backed request queue, falling back to preferences, " + e);
+                requestQueueLog = null;
+            }
+        }
     }
 
     public void setLimits(final int maxRequestQueueSize) {
         this.maxRequestQueueSize = maxRequestQueueSize;
     }
 
+    /**
+     * Sets the byte size limits of the request queue
+     *
+     * @param maxRequestQueueBytes byte budget of the whole request queue, 0 or less means no limit
+     * @param maxRequestBytes size limit of a single request, 0 or less means no limit
+     */
+    public void setByteLimits(final int maxRequestQueueBytes, final int maxRequestBytes) {
+        this.maxRequestQueueBytes = Math.max(maxRequestQueueBytes, 0);
+        this.maxRequestBytes = Math.max(maxRequestBytes, 0);
+    }
+
     /**
      * For testing purposes. Sets the dropAgeHours
      *
@@ -145,18 +250,7 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
             tsStart = UtilsTime.getNanoTime();
         }
 
-        String ret;
-        if (explicitStorageModeEnabled) {
-            //L.v("[CountlyStore] Returning RQ from cache");
-            if (esRequestQueueCache == null) {
-                L.v("[CountlyStore] Reading initial RQ from storage");
-                esRequestQueueCache = preferences_.getString(REQUEST_PREFERENCE, "");
-            }
-            ret = esRequestQueueCache;
-        } else {
-            //L.v("[CountlyStore] Returning RQ from preferences");
-            ret = preferences_.getString(REQUEST_PREFERENCE, "");
-        }
+        String ret = persistenceFlusher.read(REQUEST_PREFERENCE);
 
         if (pcc != null) {
             pcc.TrackCounterTimeNs("CountlyStore_storageReadRequestQueue", UtilsTime.getNanoTime() - tsStart);
@@ -170,20 +264,7 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
             tsStart = UtilsTime.getNanoTime();
         }
 
-        if (explicitStorageModeEnabled) {
-            //L.v("[CountlyStore] Writing RQ to cache");
-            esRequestQueueCache = requestQueue;
-            esDirtyFlag = true;
-        } else {
-            //L.v("[CountlyStore] Writing RQ to preferences");
-            SharedPreferences.Editor editor = preferences_.edit().putString(REQUEST_PREFERENCE, requestQueue);
-
-            if (writeInSync) {
-                editor.commit();
-            } else {
-                editor.apply();
-            }
-        }
+        persistenceFlusher.write(REQUEST_PREFERENCE, requestQueue, writeInSync);
 
         if (pcc != null) {
             pcc.TrackCounterTimeNs("CountlyStore_storageWriteRequestQueue", UtilsTime.getNanoTime() - tsStart);
@@ -196,20 +277,7 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
             tsStart = UtilsTime.getNanoTime();
         }
 
-        String ret;
-
-        if (explicitStorageModeEnabled) {
-            //L.v("[CountlyStore] Returning EQ from cache");
-            if (esEventQueueCache == null) {
-                L.v("[CountlyStore] Reading initial EQ from storage");
-                esEventQueueCache = preferences_.getString(EVENTS_PREFERENCE, "");
-            }
-
-            ret = esEventQueueCache;
-        } else {
-            //L.v("[CountlyStore] Returning EQ from preferences");
-            ret = preferences_.getString(EVENTS_PREFERENCE, "");
-        }
+        String ret = persistenceFlusher.read(EVENTS_PREFERENCE);
 
         if (pcc != null) {
             pcc.TrackCounterTimeNs("CountlyStore_storageReadEventQueue", UtilsTime.getNanoTime() - tsStart);
@@ -223,20 +291,8 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
             tsStart = UtilsTime.getNanoTime();
         }
 
-        if (explicitStorageModeEnabled) {
-            L.v("[CountlyStore] Writing EQ to cache");
-            esEventQueueCache = eventQueue;
-            esDirtyFlag = true;
-        } else {
-            L.v("[CountlyStore] Writing EQ to preferences");
-            SharedPreferences.Editor editor = preferences_.edit().putString(EVENTS_PREFERENCE, eventQueue);
-
-            if (writeInSync) {
-                editor.commit();
-            } else {
-                editor.apply();
-            }
-        }
+        L.v("[CountlyStore] Writing EQ, policy:[{}]", persistenceFlusher.policy);
+        persistenceFlusher.write(EVENTS_PREFERENCE, eventQueue, writeInSync);
 
         if (pcc != null) {
             pcc.TrackCounterTimeNs("CountlyStore_storageWriteEventQueue", UtilsTime.getNanoTime() - tsStart);
@@ -244,60 +300,41 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
     }
 
     public synchronized void esWriteCacheToStorage(@Nullable ExplicitStorageCallback callback) {
-        L.v("[CountlyStore] Trying to write ES cache to storage[" + explicitStorageModeEnabled + "], is dirty flag:[" + esDirtyFlag + "]");
+        if (L.logEnabled()) {
+            L.v("[CountlyStore] Trying to write ES cache to storage[" + explicitStorageModeEnabled + "], has pending writes:[" + persistenceFlusher.hasPendingWrites() + "]");
+        }
         if (explicitStorageModeEnabled) {
-            if (esDirtyFlag) {
-                boolean writePerformed = false;//flag for indicating if anything will be written
-                SharedPreferences.Editor spe = preferences_.edit();
-
-                //if it's not 'null' then it means that it is written to
-                if (esRequestQueueCache != null) {
-                    //check if the cached request queue matches the one in persistent memory
-                    String currentRQValue = preferences_.getString(REQUEST_PREFERENCE, "");
-                    if (!esRequestQueueCache.equals(currentRQValue)) {
-                        writePerformed = true;
-                        spe.putString(REQUEST_PREFERENCE, esRequestQueueCache);
-                    }
-                }
-
-                //if it's not 'null' then it means that it is written to
-                if (esEventQueueCache != null) {
-                    //check if the cached event queue matches the one in persistent memory
-                    String currentEQValue = preferences_.getString(EVENTS_PREFERENCE, "");
-                    if (!esEventQueueCache.equals(currentEQValue)) {
-                        writePerformed = true;
-                        spe.putString(EVENTS_PREFERENCE, esEventQueueCache);
-                    }
-                }
-
-                //if it's not 'null' then it means that it is written to
-                if (esHealthCheckCache != null) {
-                    //check if the cached health check state matches the one in persistent memory
-                    String currentHCValue = preferences_.getString(PREFERENCE_HEALTH_CHECK_STATE, "");
-                    if (!esHealthCheckCache.equals(currentHCValue)) {
-                        writePerformed = true;
-                        spe.putString(PREFERENCE_HEALTH_CHECK_STATE, esHealthCheckCache);
-                    }
-                }
+            boolean writePerformed = persistenceFlusher.flushPending();
 
-                if (writePerformed) {
-                    //commit the changes if needed
-                    spe.commit();
-                }
-                esDirtyFlag = false;//clear the dirty flag
-
-                //signal the caller about the write that was potentially done
-                if (callback != null) {
-                    callback.WriteToStorageFinished(writePerformed);
-                }
-            } else {
-                if (callback != null) {
-                    callback.WriteToStorageFinished(false);
-                }
+            //signal the caller about the write that was potentially done
+            if (callback != null) {
+                callback.WriteToStorageFinished(writePerformed);
             }
         }
     }
 
+    /**
+     * Durability barrier for the event queue, request queue and health check state.
+     * Writes everything that is not yet persisted and waits for it.
+     * In explicit storage mode this also writes the cached values.
+     *
+     * @param timeoutMs how long to wait, a negative value waits until the write is done
+     * @return true if all pending writes are on disk
+     */
+    @Override
+    public boolean flushPersistence(long timeoutMs) {
+        L.v("[CountlyStore] flushPersistence, policy:[" + persistenceFlusher.policy + "] timeout:[" + timeoutMs + "]");
+        return persistenceFlusher.flush(timeoutMs);
+    }
+
+    /**
+     * Writes everything that is not yet persisted and stops the background writer thread
+     */
+    void stopPersistence() {
+        L.v("[CountlyStore] stopPersistence, policy:[" + persistenceFlusher.policy + "]");
+        persistenceFlusher.stop();
+    }
+
     @Override
     public void setServerConfig(String config) {
         //PREFERENCE_SERVER_CONFIG
@@ -319,10 +356,8 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
             tsStart = UtilsTime.getNanoTime();
         }
 
-        final String joinedConnStr = storageReadRequestQueue();
-        //L.v("[CountlyStore] getRequests, size:" + joinedConnStr.length());
-
-        String[] ret = joinedConnStr.length() == 0 ? new String[0] : joinedConnStr.split(DELIMITER);
+        //callers are allowed to change the returned array
+        String[] ret = getRequestQueue().clone();
 
         if (pcc != null) {
             pcc.TrackCounterTimeNs("CountlyStore_getRequests", UtilsTime.getNanoTime() - tsStart);
@@ -330,6 +365,108 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
         return ret;
     }
 
+    /**
+     * Returns the in memory copy of the request queue, it is rebuilt if the stored queue was changed.
+     * The returned array must not be changed.
+     */
+    private @NonNull String[] getRequestQueue() {
+        if (requestQueueLog != null) {
+            long version = requestQueueLog.version();
+            if (requestQueue == null || version != requestQueueLogVersion) {
+                setRequestQueue(requestQueueLog.getRequests(), null);
+                requestQueueLogVersion = version;
+            }
+            return requestQueue;
+        }
+
+        final String joinedConnStr = storageReadRequestQueue();
+        if (requestQueue == null || !joinedConnStr.equals(requestQueueSource)) {
+            setRequestQueue(joinedConnStr.length() == 0 ? new String[0] : joinedConnStr.split(DELIMITER), joinedConnStr);
+        }
+        return requestQueue;
+    }
+
+    /**
+     * Replaces the in memory copy of the request queue.
+     * Headers of requests that are still in the queue are kept. Requests are matched by instance,
+     * which works because requests keep their order and are only removed or added at the end.
+     */
+    private void setRequestQueue(@NonNull String[] requests, @Nullable String source) {
+        RequestHeader[] headers = new RequestHeader[requests.length];
+        if (requestQueue != null) {
+            int oldIndex = 0;
+            for (int a = 0; a < requests.length && oldIndex < requestQueue.length; a++) {
+                while (oldIndex < requestQueue.length && requestQueue[oldIndex] != requests[a]) {
+                    oldIndex++;
+                }
+                if (oldIndex < requestQueue.length) {
+                    headers[a] = requestHeaders[oldIndex];
+                    oldIndex++;
+                }
+            }
+        }
+
+        requestQueue = requests;
+        requestHeaders = headers;
+        requestQueueSource = source;
+    }
+
+    /**
+     * Writes the request queue to preferences and updates the in memory copy
+     */
+    private void writeRequestQueue(@NonNull List<String> requests, boolean writeInSync) {
+        final String joinedConnStr = Utils.joinCountlyStore(requests, DELIMITER);
+        storageWriteRequestQueue(joinedConnStr, writeInSync);
+        setRequestQueue(requests.toArray(new String[0]), joinedConnStr);
+    }
+
+    /**
+     * Returns the parsed header of a stored request.
+     * Headers are kept next to the in memory copy of the queue, so a request is parsed only once while it is in the queue.
+     *
+     * @param requestStr stored request
+     * @param position position of the request in the array returned by 'getRequests', the request is looked for after it if it is not there
+     * @return parsed header
+     */
+    public synchronized @NonNull RequestHeader getRequestHeader(@NonNull final String requestStr, final int position) {
+        String[] requests = getRequestQueue();
+        int index = -1;
+        for (int a = Math.max(position, 0); a < requests.length; a++) {
+            if (requests[a] == requestStr) {
+                index = a;
+                break;
+            }
+        }
+        if (index == -1) {
+            for (int a = 0; a < Math.min(position, requests.length); a++) {
+                if (requests[a] == requestStr) {
+                    index = a;
+                    break;
+                }
+            }
+        }
+
+        if (index == -1) {
+            //not a stored request instance, it can't be kept
+            return RequestHeader.parse(requestStr);
+        }
+
+        if (requestHeaders[index] == null) {
+            requestHeaders[index] = RequestHeader.parse(requestStr);
+        }
+        return requestHeaders[index];
+    }
+
+    /**
+     * Keeps the header of a request that was just added to the end of the queue
+     */
+    private void keepAddedRequestHeader(@NonNull final String requestStr, @NonNull final RequestHeader header) {
+        String[] requests = getRequestQueue();
+        if (requests.length > 0 && requests[requests.length - 1] == requestStr) {
+            requestHeaders[requests.length - 1] = header;
+        }
+    }
+
     /**
      * Returns an unsorted array of the current stored event JSON strings.
      */
@@ -357,7 +494,41 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
             tsStart = UtilsTime.getNanoTime();
         }
 
-        final String[] array = getEvents();
+        final List<StoredEvent> storedEvents = getEventQueue();
+        final List<Event> events = new ArrayList<>(storedEvents.size());
+        for (StoredEvent storedEvent : storedEvents) {
+            final Event event = storedEvent.getEvent();
+            if (event != null) {
+                events.add(event);
+            }
+        }
+
+        if (pcc != null) {
+            pcc.TrackCounterTimeNs("CountlyStore_getEventList", UtilsTime.getNanoTime() - tsStart);
+        }
+        return events;
+    }
+
+    /**
+     * Returns the in memory copy of the event queue.
+     * It is only built from storage if it does not exist yet or if the stored event queue was changed from outside.
+     * The stored value is compared by reference first, which is what normally happens as it is the same string that was last written.
+     */
+    private @NonNull List<StoredEvent> getEventQueue() {
+        final String joinedEventsStr = storageReadEventQueue();
+
+        //noinspection StringEquality
+        if (eventQueue != null && (joinedEventsStr == eventQueueSource || joinedEventsStr.equals(eventQueueSource))) {
+            eventQueueSource = joinedEventsStr;
+            return eventQueue;
+        }
+
+        long tsStart = 0L;
+        if (pcc != null) {
+            tsStart = UtilsTime.getNanoTime();
+        }
+
+        final String[] array = joinedEventsStr.length() == 0 ? new String[0] : joinedEventsStr.split(DELIMITER);
         final List<Event> events = new ArrayList<>(array.length);
         for (String s : array) {
             try {
@@ -378,10 +549,43 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
             }
         });
 
+        //the time when stored events were added is not stored, they are treated as if they were added now
+        long enqueueTimestamp = UtilsTime.currentTimestampMs();
+        eventQueue = new ArrayList<>(events.size());
+        for (Event event : events) {
+            eventQueue.add(new StoredEvent(event.timestamp, enqueueTimestamp, EventEncoder.toJson(event), event));
+        }
+        eventQueueSource = joinedEventsStr;
+        eventQueueStoredEntries = array.length;
+        oldestEventEnqueueTimestamp = eventQueue.isEmpty() ? -1L : enqueueTimestamp;
+
         if (pcc != null) {
-            pcc.TrackCounterTimeNs("CountlyStore_getEventList", UtilsTime.getNanoTime() - tsStart);
+            pcc.TrackCounterTimeNs("CountlyStore_loadEventQueue", UtilsTime.getNanoTime() - tsStart);
+        }
+        return eventQueue;
+    }
+
+    /**
+     * Writes the given event queue to storage and makes it the in memory copy
+     */
+    private void writeEventQueue(@NonNull List<StoredEvent> storedEvents) {
+        final List<String> strings = new ArrayList<>(storedEvents.size());
+        for (StoredEvent storedEvent : storedEvents) {
+            strings.add(storedEvent.json);
+        }
+        String joined = Utils.joinCountlyStore(strings, DELIMITER);
+
+        storageWriteEventQueue(joined, false);
+        eventQueue = storedEvents;
+        eventQueueSource = joined;
+        eventQueueStoredEntries = storedEvents.size();
+
+        oldestEventEnqueueTimestamp = -1L;
+        for (StoredEvent storedEvent : storedEvents) {
+            if (oldestEventEnqueueTimestamp < 0 || storedEvent.enqueueTimestamp < oldestEventEnqueueTimestamp) {
+                oldestEventEnqueueTimestamp = storedEvent.enqueueTimestamp;
+            }
         }
-        return events;
     }
 
     /**
@@ -395,7 +599,8 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
             tsStart = UtilsTime.getNanoTime();
         }
 
-        int ret = getEvents().length;
+        getEventQueue();
+        int ret = eventQueueStoredEntries;
 
         if (pcc != null) {
             pcc.TrackCounterTimeNs("CountlyStore_getEventQueueSize", UtilsTime.getNanoTime() - tsStart);
@@ -403,6 +608,28 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
         return ret;
     }
 
+    /**
+     * Returns the size of the stored event queue in characters.
+     * This is the length of the stored string, so it doesn't need to go over the events.
+     *
+     * @return size of the local event queue
+     */
+    public synchronized int getEventQueueByteSize() {
+        getEventQueue();
+        return eventQueueSource.length();
+    }
+
+    /**
+     * Returns when the event that has waited the longest in the local event queue was added to it.
+     * This is not the timestamp of the event, past events can be recorded with an old timestamp.
+     *
+     * @return time when the event was added, or -1 if the queue is empty
+     */
+    public synchronized long getOldestEventEnqueueTimestamp() {
+        getEventQueue();
+        return oldestEventEnqueueTimestamp;
+    }
+
     /**
      * Removes all current events from the local queue and returns them as a
      * URL-encoded JSON string that can be submitted to a ConnectionQueue.
@@ -415,22 +642,27 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
             tsStart = UtilsTime.getNanoTime();
         }
 
-        final List<Event> events = getEventList();//todo could rework to use the string array
+        final List<StoredEvent> storedEvents = getEventQueue();
 
-        final JSONArray eventArray = new JSONArray();//todo: possibly transform to json array by hand
-        for (Event e : events) {
-            eventArray.put(e.toJSON());
+        //the in memory copy already holds the serialized form of each event, it is URL encoded while the array is built
+        int jsonLength = 0;
+        for (StoredEvent storedEvent : storedEvents) {
+            jsonLength += storedEvent.json.length() + 3;
         }
 
-        String result = eventArray.toString();
-
-        removeEvents(events);//todo instead of removing, should just set to empty
+        final StringBuilder sb = new StringBuilder(jsonLength + 6);
+        sb.append("%5B");
+        for (int a = 0; a < storedEvents.size(); a++) {
+            if (a > 0) {
+                sb.append("%2C");
+            }
+            EventEncoder.appendUrlEncoded(storedEvents.get(a).json, sb);
+        }
+        sb.append("%5D");
+        String result = sb.toString();
 
-        try {
-            result = java.net.URLEncoder.encode(result, "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            // should never happen because Android guarantees UTF-8 support
-            L.w("[CountlyStore] getEventsForRequestAndEmptyEventQueue, why is this even happening?");
+        if (!storedEvents.isEmpty()) {
+            writeEventQueue(new ArrayList<StoredEvent>());
         }
 
         if (pcc != null) {
@@ -440,6 +672,9 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
     }
 
     @NonNull public synchronized String getRequestQueueRaw() {
+        if (requestQueueLog != null) {
+            return Utils.joinCountlyStoreArray_reworked(requestQueueLog.getRequests(), DELIMITER);
+        }
         return storageReadRequestQueue();
     }
 
@@ -465,18 +700,49 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
             return;
         }
 
+        if (maxRequestBytes > 0 && requestStr.length() > maxRequestBytes) {
+            L.w("[CountlyStore] addRequest, request size [" + requestStr.length() + "] is over the limit of [" + maxRequestBytes + "] bytes, it will not be added to the request queue");
+            reportEviction(0, 1);
+            return;
+        }
+
+        RequestHeader header = RequestHeader.parse(requestStr);
+
+        if (requestQueueLog != null) {
+            addRequestToLog(requestStr, writeInSync);
+            keepAddedRequestHeader(requestStr, header);
+            requestQueueEvictor.onRequestAdded(header);
+            reportRequestQueueBytes(requestQueueLog.byteSize());
+
+            if (pcc != null) {
+                pcc.TrackCounterTimeNs("CountlyStore_addRequest", UtilsTime.getNanoTime() - tsStart);
+            }
+            return;
+        }
+
         List<String> requests = new ArrayList<>(Arrays.asList(getRequests()));
 
-        L.v("[CountlyStore] addRequest, s:[" + writeInSync + "] new q size:[" + (requests.size() + 1) + "] r:[" + requestStr + "]");
+        if (L.logEnabled()) {
+            L.v("[CountlyStore] addRequest, s:[" + writeInSync + "] new q size:[" + (requests.size() + 1) + "] r:[" + requestStr + "]");
+        }
         if (requests.size() >= maxRequestQueueSize) {
-            checkAndRemoveTooOldRequests(requests); // remove too old requests
-            if (requests.size() >= maxRequestQueueSize) { // remove oldest if nothing is too old
-                deleteOldestRequests(requests);
-            }
+            evictRequests(requests);
+        }
+
+        long queueBytes = 0;
+        for (String request : requests) {
+            queueBytes += request.length();
+        }
+        if (maxRequestQueueBytes > 0 && queueBytes + requestStr.length() > maxRequestQueueBytes) {
+            queueBytes -= requestQueueEvictor.evictForByteBudget(this, requests, queueBytes, requestStr.length(), maxRequestQueueBytes);
+            reportEviction(0, requestQueueEvictor.lastEvictedCount);
         }
 
         requests.add(requestStr);
-        storageWriteRequestQueue(Utils.joinCountlyStore(requests, DELIMITER), writeInSync);
+        writeRequestQueue(requests, writeInSync);
+        keepAddedRequestHeader(requestStr, header);
+        requestQueueEvictor.onRequestAdded(header);
+        reportRequestQueueBytes(queueBytes + requestStr.length());
 
         if (pcc != null) {
             pcc.TrackCounterTimeNs("CountlyStore_addRequest", UtilsTime.getNanoTime() - tsStart);
@@ -484,41 +750,105 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
     }
 
     /**
-     * Removes the oldest requests:
-     * 1. Gets the current requests from storage
-     * 2. Copies it to a List
-     * 3. Removes the first X entry
-     * 4. Saves the list to the storage
+     * Adds a request to the file backed request queue.
+     * If the queue is full, requests are evicted from it before the new one is appended.
+     */
+    private void addRequestToLog(@NonNull final String requestStr, final boolean writeInSync) {
+        int queueSize = requestQueueLog.size();
+        if (L.logEnabled()) {
+            L.v("[CountlyStore] addRequestToLog, s:[" + writeInSync + "] new q size:[" + (queueSize + 1) + "] r:[" + requestStr + "]");
+        }
+
+        try {
+            if (queueSize >= maxRequestQueueSize) {
+                int tooOld = 0;
+                if (requestQueueEvictor.mightContainTooOldRequests(dropAgeHours)) {
+                    List<String> requests = new ArrayList<>(Arrays.asList(requestQueueLog.getRequests()));
+                    tooOld = requestQueueEvictor.evictTooOldRequests(this, requests, dropAgeHours);
+
+                    if (tooOld > 0 && requestQueueEvictor.lastEvictionFromFront) {
+                        requestQueueLog.removeFirst(tooOld);
+                    } else if (tooOld > 0) {
+                        //there were too old requests further in the queue, the log has to be compacted
+                        requestQueueLog.replaceAll(requests);
+                    }
+                }
+
+                int overflow = requestQueueEvictor.overflowToEvict(requestQueueLog.size(), maxRequestQueueSize);
+                if (overflow > 0) {
+                    L.i("[CountlyStore] addRequestToLog, Will remove the oldest " + overflow + " request");
+                    requestQueueLog.removeFirst(overflow);
+                }
+                reportEviction(tooOld, overflow);
+            }
+
+            if (maxRequestQueueBytes > 0 && requestQueueLog.byteSize() + requestStr.length() > maxRequestQueueBytes) {
+                List<String> requests = new ArrayList<>(Arrays.asList(requestQueueLog.getRequests()));
+                requestQueueEvictor.evictForByteBudget(this, requests, requestQueueLog.byteSize(), requestStr.length(), maxRequestQueueBytes);
+
+                int evicted = requestQueueEvictor.lastEvictedCount;
+                if (evicted > 0 && requestQueueEvictor.lastEvictionFromFront) {
+                    requestQueueLog.removeFirst(evicted);
+                } else if (evicted > 0) {
+                    //crash reports were kept at the front, the log has to be compacted
+                    requestQueueLog.replaceAll(requests);
+                }
+                reportEviction(0, evicted);
+            }
+
+            requestQueueLog.append(requestStr, writeInSync);
+        } catch (IOException e) {
+            L.e("[CountlyStore] addRequestToLog, failed to write to the request queue log, " + e);
+        }
+    }
+
+    /**
+     * Evicts requests from a full request queue:
+     * 1. Removes too old requests from the next slice of the queue, if there can be any
+     * 2. Removes the oldest requests if the queue is still full
+     *
+     * @param requests current request queue, evicted requests are removed from it
      */
-    synchronized void deleteOldestRequests(List<String> requests) {
+    synchronized void evictRequests(@NonNull List<String> requests) {
         long tsStart = 0L;
         if (pcc != null) {
             tsStart = UtilsTime.getNanoTime();
         }
 
-        if (requests.size() < maxRequestQueueSize) {
-            L.i("[CountlyStore] deleteOldestRequests, Request queue is already under the limit, no need to remove anything");
-            return;
+        int tooOld = 0;
+        if (requestQueueEvictor.mightContainTooOldRequests(dropAgeHours)) {
+            tooOld = requestQueueEvictor.evictTooOldRequests(this, requests, dropAgeHours);
         }
 
-        int overflow = requests.size() - maxRequestQueueSize;
-        int requestsToRemove;
-        if (disableGradualRequestCleaner) {
-            requestsToRemove = overflow + 1;
-            L.i("[CountlyStore] deleteOldestRequests, Gradual cleaner disabled. Removing all overflow: " + requestsToRemove + " request");
-        } else {
-            requestsToRemove = Math.min(requestRemovalLoopLimit, overflow) + 1; // +1 because it should open a new place for newcomer
-            L.i("[CountlyStore] deleteOldestRequests, Will remove the oldest " + requestsToRemove + " request");
+        int overflow = requestQueueEvictor.overflowToEvict(requests.size(), maxRequestQueueSize);
+        if (overflow > 0) {
+            L.i("[CountlyStore] evictRequests, Will remove the oldest " + overflow + " request");
+            requests.subList(0, Math.min(overflow, requests.size())).clear(); // sublist reflects all changes to the main list
         }
-        requests.subList(0, requestsToRemove).clear(); // sublist reflects all changes to the main list
+        reportEviction(tooOld, overflow);
 
         if (pcc != null) {
-            pcc.TrackCounterTimeNs("CountlyStore_deleteOldestRequest", UtilsTime.getNanoTime() - tsStart);
+            pcc.TrackCounterTimeNs("CountlyStore_evictRequests", UtilsTime.getNanoTime() - tsStart);
+        }
+    }
+
+    private void reportRequestQueueBytes(long queueBytes) {
+        if (pcc != null) {
+            pcc.TrackCounterMax("CountlyStore_requestQueueBytes", queueBytes);
+        }
+        if (healthTracker != null) {
+            healthTracker.logRequestQueueBytes(queueBytes);
+        }
+    }
+
+    private void reportEviction(int tooOld, int overflow) {
+        if (healthTracker != null && (tooOld > 0 || overflow > 0)) {
+            healthTracker.logRequestQueueEviction(tooOld, overflow);
         }
     }
 
     void setDisableGradualRequestCleaner(boolean disable) {
-        disableGradualRequestCleaner = disable;
+        requestQueueEvictor.removeAllOverflow = disable;
     }
 
     synchronized void deleteOldestRequest_reworked() {
@@ -527,12 +857,26 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
             tsStart = UtilsTime.getNanoTime();
         }
 
-        //todo rework to not need an array and joining by removing the first substring until the delimiter
-        String[] requests = getRequests();
-
         L.i("[CountlyStore] deleteOldestRequest, Will remove the oldest request");
+        requestQueueEvictor.onRequestsRemoved(1);
 
-        storageWriteRequestQueue(Utils.joinCountlyStoreArray_reworked(requests, DELIMITER, 1), false);
+        if (requestQueueLog != null) {
+            try {
+                requestQueueLog.removeFirst(1);
+            } catch (IOException e) {
+                L.e("[CountlyStore] deleteOldestRequest, failed to write to the request queue log, " + e);
+            }
+
+            if (pcc != null) {
+                pcc.TrackCounterTimeNs("CountlyStore_deleteOldestRequest", UtilsTime.getNanoTime() - tsStart);
+            }
+            return;
+        }
+
+        //todo rework to not need joining by removing the first substring until the delimiter
+        String[] requests = getRequestQueue();
+
+        writeRequestQueue(Arrays.asList(requests).subList(Math.min(1, requests.length), requests.length), false);
 
         if (pcc != null) {
             pcc.TrackCounterTimeNs("CountlyStore_deleteOldestRequest", UtilsTime.getNanoTime() - tsStart);
@@ -567,11 +911,12 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
 
         L.i("[CountlyStore] checkAndRemoveTooOldRequests, will remove outdated requests from the queue");
         Iterator<String> iterator = requestList.iterator();
+        int position = 0;//position of the request in the list before anything was removed from it
         while (iterator.hasNext()) {
             String request = iterator.next();
 
             // check if the request is too old, and remove it from the list
-            if (Utils.isRequestTooOld(request, dropAgeHours, "[CountlyStore]", L)) {
+            if (Utils.isRequestTooOld(getRequestHeader(request, position++).timestamp, dropAgeHours, "[CountlyStore]", L)) {
                 L.v("[CountlyStore] checkAndRemoveTooOldRequests, removing:" + request);
                 iterator.remove();
                 removedRequests++;
@@ -600,10 +945,17 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
             tsStart = UtilsTime.getNanoTime();
         }
 
-        if (requestStr != null && requestStr.length() > 0) {
+        requestQueueEvictor.onRequestsRemoved(1);
+        if (requestStr != null && requestStr.length() > 0 && requestQueueLog != null) {
+            try {
+                requestQueueLog.remove(requestStr);
+            } catch (IOException e) {
+                L.e("[CountlyStore] removeRequest, failed to write to the request queue log, " + e);
+            }
+        } else if (requestStr != null && requestStr.length() > 0) {
             final List<String> requests = new ArrayList<>(Arrays.asList(getRequests()));
             if (requests.remove(requestStr)) {
-                storageWriteRequestQueue(Utils.joinCountlyStore(requests, DELIMITER), false);
+                writeRequestQueue(requests, false);
             }
         }
 
@@ -612,6 +964,40 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
         }
     }
 
+    /**
+     * Removes the first occurrence of each of the given requests with a single storage write
+     *
+     * @param requestsToRemove requests to remove
+     */
+    public synchronized void removeRequests(@NonNull final List<String> requestsToRemove) {
+        long tsStart = 0L;
+        if (pcc != null) {
+            tsStart = UtilsTime.getNanoTime();
+        }
+
+        requestQueueEvictor.onRequestsRemoved(requestsToRemove.size());
+        if (!requestsToRemove.isEmpty() && requestQueueLog != null) {
+            try {
+                requestQueueLog.removeAll(requestsToRemove);
+            } catch (IOException e) {
+                L.e("[CountlyStore] removeRequests, failed to write to the request queue log, " + e);
+            }
+        } else if (!requestsToRemove.isEmpty()) {
+            final List<String> requests = new ArrayList<>(Arrays.asList(getRequests()));
+            boolean removedAny = false;
+            for (String requestStr : requestsToRemove) {
+                removedAny |= requests.remove(requestStr);
+            }
+            if (removedAny) {
+                writeRequestQueue(requests, false);
+            }
+        }
+
+        if (pcc != null) {
+            pcc.TrackCounterTimeNs("CountlyStore_removeRequests", UtilsTime.getNanoTime() - tsStart);
+        }
+    }
+
     public synchronized void replaceRequests(@NonNull final String[] newRequests) {
         long tsStart = 0L;
         if (pcc != null) {
@@ -634,8 +1020,11 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
             tsStart = UtilsTime.getNanoTime();
         }
 
-        if (newRequests != null) {
-            storageWriteRequestQueue(Utils.joinCountlyStoreArray_reworked(newRequests, DELIMITER), false);
+        requestQueueEvictor.invalidate();
+        if (newRequests != null && requestQueueLog != null) {
+            replaceRequestsInLog(Arrays.asList(newRequests));
+        } else if (newRequests != null) {
+            writeRequestQueue(Arrays.asList(newRequests), false);
         }
 
         if (pcc != null) {
@@ -649,8 +1038,11 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
             tsStart = UtilsTime.getNanoTime();
         }
 
-        if (newRequests != null) {
-            storageWriteRequestQueue(Utils.joinCountlyStore(newRequests, DELIMITER), false);
+        requestQueueEvictor.invalidate();
+        if (newRequests != null && requestQueueLog != null) {
+            replaceRequestsInLog(newRequests);
+        } else if (newRequests != null) {
+            writeRequestQueue(newRequests, false);
         }
 
         if (pcc != null) {
@@ -658,13 +1050,74 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
         }
     }
 
+    private void replaceRequestsInLog(@NonNull final List<String> newRequests) {
+        try {
+            requestQueueLog.replaceAll(newRequests);
+        } catch (IOException e) {
+            L.e("[CountlyStore] replaceRequestsInLog, failed to write to the request queue log, " + e);
+        }
+    }
+
+    /**
+     * Moves the stored request queue to the currently used backend.
+     * If the file backed request queue is used, requests stored in preferences are moved to the front of the log.
+     * If it is not used, requests from a left over log are moved to the end of the preference queue and the log is deleted.
+     *
+     * @return true if any requests were moved
+     */
+    @SuppressLint("ApplySharedPref")
+    public synchronized boolean migrateRequestQueueBackend() {
+        requestQueueEvictor.invalidate();
+        if (requestQueueLog != null) {
+            String legacyQueue = preferences_.getString(REQUEST_PREFERENCE, "");
+            if (legacyQueue.isEmpty()) {
+                return false;
+            }
+
+            List<String> requests = new ArrayList<>(Arrays.asList(legacyQueue.split(DELIMITER)));
+            requests.addAll(Arrays.asList(requestQueueLog.getRequests()));
+            try {
+                requestQueueLog.replaceAll(requests);
+            } catch (IOException e) {
+                L.e("[CountlyStore] migrateRequestQueueBackend, failed to move requests to the request queue log, " + e);
+                return false;
+            }
+
+            persistenceFlusher.invalidate(REQUEST_PREFERENCE);
+            preferences_.edit().remove(REQUEST_PREFERENCE).commit();
+            L.i("[CountlyStore] migrateRequestQueueBackend, moved [" + requests.size() + "] requests from preferences to the request queue log");
+            return true;
+        }
+
+        if (!RequestQueueLog.exists(requestQueueLogDirectory)) {
+            return false;
+        }
+
+        String[] logRequests;
+        try {
+            RequestQueueLog leftOverLog = new RequestQueueLog(requestQueueLogDirectory, L);
+            logRequests = leftOverLog.getRequests();
+            leftOverLog.delete();
+        } catch (IOException e) {
+            L.e("[CountlyStore] migrateRequestQueueBackend, failed to read the left over request queue log, " + e);
+            return false;
+        }
+
+        if (logRequests.length > 0) {
+            List<String> requests = new ArrayList<>(Arrays.asList(getRequests()));
+            requests.addAll(Arrays.asList(logRequests));
+            writeRequestQueue(requests, true);
+            L.i("[CountlyStore] migrateRequestQueueBackend, moved [" + logRequests.length + "] requests from the request queue log to preferences");
+        }
+        return logRequests.length > 0;
+    }
+
     /**
      * Adds a custom event to the local store.
      *
      * @param event event to be added to the local store, must not be null
      */
-    // TODO:
-    void addEvent(final Event event) {
+    synchronized void addEvent(final Event event) {
         long tsStart = 0L;
         if (pcc != null) {
             tsStart = UtilsTime.getNanoTime();
@@ -675,10 +1128,29 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
             return;
         }
 
-        final List<Event> events = getEventList();
-        if (events.size() < MAX_EVENTS) {//todo looks weird
-            events.add(event);
-            writeEventDataToStorage(joinEvents(events, DELIMITER, pcc));
+        final List<StoredEvent> storedEvents = getEventQueue();
+        if (storedEvents.size() < MAX_EVENTS) {
+            final StoredEvent storedEvent = new StoredEvent(event.timestamp, UtilsTime.currentTimestampMs(), EventEncoder.toJson(event), null);
+
+            //events without a key are stored, but they are not valid events and would be dropped when read back
+            if (event.key != null && !event.key.isEmpty()) {
+                //keep the in memory copy sorted, events usually arrive in order so this stops right away
+                int index = storedEvents.size();
+                while (index > 0 && (int) (storedEvents.get(index - 1).timestamp - event.timestamp) > 0) {
+                    index--;
+                }
+                storedEvents.add(index, storedEvent);
+                if (oldestEventEnqueueTimestamp < 0) {
+                    oldestEventEnqueueTimestamp = storedEvent.enqueueTimestamp;
+                }
+            }
+
+            //only the new event is serialized, the events that are already stored are not encoded again.
+            //SharedPreferences can only store whole values, so the joined string is still copied and the whole preference is rewritten
+            String joined = eventQueueSource.isEmpty() ? storedEvent.json : eventQueueSource + DELIMITER + storedEvent.json;
+            storageWriteEventQueue(joined, false);
+            eventQueueSource = joined;
+            eventQueueStoredEntries++;
         }
 
         if (pcc != null) {
@@ -713,10 +1185,22 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
         preferences_.edit().putString(REMOTE_CONFIG_VALUES, values).apply();
     }
 
-    public synchronized String getRemoteConfigValues() {
+    /**
+     * Not synchronized, preferences are thread safe and return the same string object until the values are changed.
+     * This way remote config reads don't wait for other storage calls.
+     */
+    public String getRemoteConfigValues() {
         return preferences_.getString(REMOTE_CONFIG_VALUES, "");
     }
 
+    public synchronized void setRemoteConfigVersion(String version) {
+        preferences_.edit().putString(REMOTE_CONFIG_VERSION, version).apply();
+    }
+
+    public String getRemoteConfigVersion() {
+        return preferences_.getString(REMOTE_CONFIG_VERSION, "");
+    }
+
     public synchronized void setCachedAdvertisingId(String advertisingId) {
         preferences_.edit().putString(CACHED_ADVERTISING_ID, advertisingId).apply();
     }
@@ -753,8 +1237,10 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
     public void recordEventToEventQueue(@NonNull final String key, @Nullable final Map<String, Object> segmentation, final int count, final double sum, final double dur, final long timestamp, final int hour, final int dow, final @NonNull String eventID, final @Nullable String previousViewId,
         final @Nullable String currentViewId, final @Nullable String previousEventId) {
 
-        L.d("[CountlyStore] recordEventToEventQueue, key[" + key + "], segmentation[" + segmentation + "], count[" + count + "], sum[" + sum + "], dur[" + dur + "], timestamp[" + timestamp + "], hour[" + hour + "], dow[" + dow + "]");
-        L.d("[CountlyStore] recordEventToEventQueue, eventID[" + eventID + "], previousViewId[" + previousViewId + "], currentViewId[" + currentViewId + "], previousEventId[" + previousEventId + "]");
+        if (L.logEnabled()) {
+            L.d("[CountlyStore] recordEventToEventQueue, key[" + key + "], segmentation[" + segmentation + "], count[" + count + "], sum[" + sum + "], dur[" + dur + "], timestamp[" + timestamp + "], hour[" + hour + "], dow[" + dow + "]");
+            L.d("[CountlyStore] recordEventToEventQueue, eventID[" + eventID + "], previousViewId[" + previousViewId + "], currentViewId[" + currentViewId + "], previousEventId[" + previousEventId + "]");
+        }
 
         long tsStart = 0L;
         if (pcc != null) {
@@ -795,9 +1281,18 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
         }
 
         if (eventsToRemove != null && eventsToRemove.size() > 0) {
-            final List<Event> events = getEventList();
-            if (events.removeAll(eventsToRemove)) {
-                storageWriteEventQueue(joinEvents(events, DELIMITER, pcc), false);
+            final List<StoredEvent> storedEvents = new ArrayList<>(getEventQueue());
+            boolean removed = false;
+            Iterator<StoredEvent> iterator = storedEvents.iterator();
+            while (iterator.hasNext()) {
+                if (eventsToRemove.contains(iterator.next().getEvent())) {
+                    iterator.remove();
+                    removed = true;
+                }
+            }
+
+            if (removed) {
+                writeEventQueue(storedEvents);
             }
         }
 
@@ -820,11 +1315,14 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
             tsStart = UtilsTime.getNanoTime();
         }
 
-        final List<String> strings = new ArrayList<>(collection.size());
-        for (Event e : collection) {
-            strings.add(e.toJSON().toString());
+        final StringBuilder sb = new StringBuilder(collection.size() * 128);
+        for (int a = 0; a < collection.size(); a++) {
+            if (a > 0) {
+                sb.append(delimiter);
+            }
+            EventEncoder.writeEvent(collection.get(a), sb);
         }
-        String ret = Utils.joinCountlyStore(strings, delimiter);
+        String ret = sb.toString();
 
         if (pcc != null) {
             pcc.TrackCounterTimeNs("CountlyStore_joinEvents", UtilsTime.getNanoTime() - tsStart);
@@ -870,16 +1368,33 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
 
     // for unit testing
     public synchronized void clear() {
+        //clear explicit storage and write behind caches
+        persistenceFlusher.clear();
+
         final SharedPreferences.Editor prefsEditor = preferences_.edit();
         prefsEditor.remove(EVENTS_PREFERENCE);
         prefsEditor.remove(REQUEST_PREFERENCE);
         prefsEditor.clear();
         prefsEditor.apply();
 
-        //clear explicit storage things
-        esDirtyFlag = false;
-        esRequestQueueCache = null;
-        esEventQueueCache = null;
+        eventQueue = null;
+        eventQueueSource = null;
+        eventQueueStoredEntries = 0;
+        oldestEventEnqueueTimestamp = -1;
+
+        requestQueue = null;
+        requestHeaders = null;
+        requestQueueSource = null;
+        requestQueueLogVersion = -1;
+        requestQueueEvictor.invalidate();
+
+        if (requestQueueLog != null) {
+            try {
+                requestQueueLog.clear();
+            } catch (IOException e) {
+                L.e("[CountlyStore] clear, failed to clear the request queue log, " + e);
+            }
+        }
 
         preferencesPush_.edit().clear().apply();
     }
@@ -929,6 +1444,10 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
             return true;
         }
 
+        if (requestQueueLog != null && requestQueueLog.size() > 0) {
+            return true;
+        }
+
         if (preferences_.getString(EVENTS_PREFERENCE, null) != null) {
             return true;
         }
@@ -982,30 +1501,21 @@ public class CountlyStore implements StorageProvider, EventQueueProvider {
     }
 
     public @NonNull String getHealthCheckCounterState() {
-        if (explicitStorageModeEnabled) {
-            //L.v("[CountlyStore] Returning health check state from cache");
-            if (esHealthCheckCache == null) {
-                L.v("[CountlyStore] Reading initial health check state from storage");
-                esHealthCheckCache = preferences_.getString(PREFERENCE_HEALTH_CHECK_STATE, "");
-            }
-
-            return esHealthCheckCache;
-        } else {
-            //L.v("[CountlyStore] Returning health check state from preferences");
-            return preferences_.getString(PREFERENCE_HEALTH_CHECK_STATE, "");
-        }
+        return persistenceFlusher.read(PREFERENCE_HEALTH_CHECK_STATE);
     }
 
     public void setHealthCheckCounterState(@NonNull String counterState) {
-        if (explicitStorageModeEnabled) {
-            L.v("[CountlyStore] Writing health check state to cache");
-            esHealthCheckCache = counterState;
-        } else {
-            L.v("[CountlyStore] Writing health check state to preferences");
-            SharedPreferences.Editor editor = preferences_.edit().putString(PREFERENCE_HEALTH_CHECK_STATE, counterState);
+        L.v("[CountlyStore] Writing health check state, policy:[{}]", persistenceFlusher.policy);
+        persistenceFlusher.write(PREFERENCE_HEALTH_CHECK_STATE, counterState, false);
+    }
 
-            editor.apply();
-        }
+    public @NonNull String getSdkTelemetryState() {
+        return persistenceFlusher.read(PREFERENCE_SDK_TELEMETRY_STATE);
+    }
+
+    public void setSdkTelemetryState(@NonNull String telemetryState) {
+        L.v("[CountlyStore] Writing SDK telemetry state, policy:[{}]", persistenceFlusher.policy);
+        persistenceFlusher.write(PREFERENCE_SDK_TELEMETRY_STATE, telemetryState, false);
     }
 
     public int getMaxRequestQueueSize() {
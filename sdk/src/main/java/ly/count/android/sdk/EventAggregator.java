@@ -0,0 +1,189 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TimeZone;
+import org.json.JSONArray;
+
+/**
+ * Merges custom events that have the same key, segmentation, current view, local day and hour.
+ * Merged events are kept in memory for the aggregation window and then written to the event queue
+ * as a single event, with the count, sum and duration of all merged events.
+ * The merged event keeps the timestamp and ID of the first event in it.
+ * Not thread safe, used while holding the SDK lock.
+ */
+class EventAggregator {
+    static class AggregatedEvent {
+        final String key;
+        final Map<String, Object> segmentation;
+        int count;
+        double sum;
+        double dur;
+        final long timestamp;
+        final int hour;
+        final int dow;
+        final String eventId;
+        final String pvid;
+        final String cvid;
+        final String peid;
+
+        AggregatedEvent(@NonNull String key, @Nullable Map<String, Object> segmentation, int count, double sum, double dur, long timestamp, int hour, int dow, @NonNull String eventId, @Nullable String pvid, @Nullable String cvid, @Nullable String peid) {
+            this.key = key;
+            this.segmentation = segmentation;
+            this.count = count;
+            this.sum = sum;
+            this.dur = dur;
+            this.timestamp = timestamp;
+            this.hour = hour;
+            this.dow = dow;
+            this.eventId = eventId;
+            this.pvid = pvid;
+            this.cvid = cvid;
+            this.peid = peid;
+        }
+    }
+
+    private static class AggregationKey {
+        final String key;
+        final Map<String, Object> segmentation;
+        final String cvid;
+        final long day;//local day of the event, so that events recorded a week apart at the same hour are not merged
+        final int hour;
+        final int dow;
+
+        AggregationKey(@NonNull String key, @Nullable Map<String, Object> segmentation, @Nullable String cvid, long day, int hour, int dow) {
+            this.key = key;
+            this.segmentation = segmentation;
+            this.cvid = cvid;
+            this.day = day;
+            this.hour = hour;
+            this.dow = dow;
+        }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof AggregationKey)) {
+                return false;
+            }
+            AggregationKey that = (AggregationKey) o;
+            return day == that.day && hour == that.hour && dow == that.dow && key.equals(that.key) && Objects.equals(segmentation, that.segmentation) && Objects.equals(cvid, that.cvid);
+        }
+
+        @Override public int hashCode() {
+            return Objects.hash(key, segmentation, cvid, day, hour, dow);
+        }
+    }
+
+    final long windowMs;
+    private final Set<String> includedKeys;//if not 'null', only these keys are aggregated
+    private final Set<String> excludedKeys;//if not 'null', these keys are not aggregated
+    private final ModuleLog L;
+
+    private final Map<AggregationKey, AggregatedEvent> pending = new LinkedHashMap<>();
+    private long bucketStartMs = 0;
+
+    EventAggregator(long windowMs, @Nullable Set<String> includedKeys, @Nullable Set<String> excludedKeys, @NonNull ModuleLog logModule) {
+        this.windowMs = windowMs;
+        this.includedKeys = includedKeys;
+        this.excludedKeys = excludedKeys;
+        L = logModule;
+    }
+
+    /**
+     * @return true if events with this key and segmentation can be merged
+     */
+    boolean isAggregatable(@NonNull String key, @Nullable Map<String, Object> segmentation) {
+        if (includedKeys != null && !includedKeys.contains(key)) {
+            return false;
+        }
+        if (excludedKeys != null && excludedKeys.contains(key)) {
+            return false;
+        }
+
+        if (segmentation != null) {
+            for (Object value : segmentation.values()) {
+                // arrays are compared by reference, so events with them would never match
+                if (value instanceof JSONArray || (value != null && value.getClass().isArray())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the event to the current bucket. If an event with the same properties is in the bucket, this one is merged into it.
+     * The given segmentation must not be changed after this call.
+     *
+     * @return ID of the event that this event was merged into, or the ID of this event if it started a new entry
+     */
+    @NonNull String add(@NonNull String key, @Nullable Map<String, Object> segmentation, int count, double sum, double dur, long timestamp, int hour, int dow, @NonNull String eventId, @Nullable String pvid, @Nullable String cvid,
+        @Nullable String peid) {
+        if (pending.isEmpty()) {
+            bucketStartMs = System.currentTimeMillis();
+        }
+
+        // the segmentation map is owned by the aggregator from here on, it is a sanitized copy made for this event
+        AggregationKey aggregationKey = new AggregationKey(key, segmentation, cvid, localDay(timestamp), hour, dow);
+        AggregatedEvent existing = pending.get(aggregationKey);
+        if (existing != null) {
+            existing.count += count;
+            existing.sum += sum;
+            existing.dur += dur;
+            return existing.eventId;
+        }
+
+        pending.put(aggregationKey, new AggregatedEvent(key, segmentation, count, sum, dur, timestamp, hour, dow, eventId, pvid, cvid, peid));
+        return eventId;
+    }
+
+    /**
+     * @return days since the epoch in the local time zone
+     */
+    static long localDay(long timestamp) {
+        return (timestamp + TimeZone.getDefault().getOffset(timestamp)) / 86_400_000L;
+    }
+
+    /**
+     * @return time when the current bucket has to be written, or -1 if it is empty
+     */
+    long windowDeadline() {
+        return pending.isEmpty() ? -1L : bucketStartMs + windowMs;
+    }
+
+    boolean isWindowElapsed() {
+        return !pending.isEmpty() && System.currentTimeMillis() - bucketStartMs >= windowMs;
+    }
+
+    /**
+     * @return amount of merged events that are waiting to be written
+     */
+    int size() {
+        return pending.size();
+    }
+
+    /**
+     * Writes all merged events to the event queue and starts a new bucket
+     */
+    void flush(@NonNull EventQueueProvider eventQueueProvider) {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        L.d("[EventAggregator] flush, writing [" + pending.size() + "] aggregated events to the event queue");
+        for (AggregatedEvent e : pending.values()) {
+            eventQueueProvider.recordEventToEventQueue(e.key, e.segmentation, e.count, e.sum, e.dur, e.timestamp, e.hour, e.dow, e.eventId, e.pvid, e.cvid, e.peid);
+        }
+        pending.clear();
+    }
+
+    void clear() {
+        pending.clear();
+    }
+}
@@ -0,0 +1,301 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+
+/**
+ * Writes events as JSON straight into a StringBuilder, without building JSONObject's.
+ * The output is the same as 'Event.toJSON().toString()'. Events with values that org.json
+ * would handle in a special way (non finite numbers, 'null' values, unsupported types) are
+ * encoded with 'Event.toJSON()' so that the output stays the same for them as well.
+ */
+final class EventEncoder {
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private EventEncoder() {
+    }
+
+    static @NonNull String toJson(@NonNull Event event) {
+        StringBuilder sb = new StringBuilder(128);
+        writeEvent(event, sb);
+        return sb.toString();
+    }
+
+    /**
+     * Appends the JSON of the event to the given builder
+     */
+    static void writeEvent(@NonNull Event event, @NonNull StringBuilder out) {
+        int start = out.length();
+        if (!tryWriteEvent(event, out)) {
+            out.setLength(start);
+            out.append(event.toJSON().toString());
+        }
+    }
+
+    /**
+     * Same result as 'URLEncoder.encode(value, "UTF-8")' but appended to the given builder
+     */
+    static void appendUrlEncoded(@NonNull String value, @NonNull StringBuilder out) {
+        final int length = value.length();
+        for (int a = 0; a < length; a++) {
+            char c = value.charAt(a);
+
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '-' || c == '*' || c == '_') {
+                out.append(c);
+            } else if (c == ' ') {
+                out.append('+');
+            } else if (c < 0x80) {
+                appendPercentByte(c, out);
+            } else if (c < 0x800) {
+                appendPercentByte(0xC0 | (c >> 6), out);
+                appendPercentByte(0x80 | (c & 0x3F), out);
+            } else if (Character.isHighSurrogate(c) && a + 1 < length && Character.isLowSurrogate(value.charAt(a + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(a + 1));
+                a++;
+                appendPercentByte(0xF0 | (codePoint >> 18), out);
+                appendPercentByte(0x80 | ((codePoint >> 12) & 0x3F), out);
+                appendPercentByte(0x80 | ((codePoint >> 6) & 0x3F), out);
+                appendPercentByte(0x80 | (codePoint & 0x3F), out);
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogates are replaced the same way the UTF-8 encoder does it
+                appendUrlEncodedBytes(String.valueOf(c).getBytes(StandardCharsets.UTF_8), out);
+            } else {
+                appendPercentByte(0xE0 | (c >> 12), out);
+                appendPercentByte(0x80 | ((c >> 6) & 0x3F), out);
+                appendPercentByte(0x80 | (c & 0x3F), out);
+            }
+        }
+    }
+
+    private static void appendUrlEncodedBytes(byte[] bytes, StringBuilder out) {
+        for (byte b : bytes) {
+            appendPercentByte(b & 0xFF, out);
+        }
+    }
+
+    private static void appendPercentByte(int b, StringBuilder out) {
+        out.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+    }
+
+    /**
+     * Field order matches the order in which 'Event.toJSON' puts them
+     *
+     * @return false if the event contains something that has to be encoded by org.json
+     */
+    private static boolean tryWriteEvent(@NonNull Event event, @NonNull StringBuilder out) {
+        if (!isFinite(event.sum) || (event.dur > 0 && !isFinite(event.dur))) {
+            return false;
+        }
+
+        out.append('{');
+        boolean first = true;
+        if (event.key != null) {
+            writeKey(Event.KEY_KEY, true, out);
+            writeString(event.key, out);
+            first = false;
+        }
+        writeKey(Event.COUNT_KEY, first, out);
+        out.append(event.count);
+        writeKey(Event.TIMESTAMP_KEY, false, out);
+        out.append(event.timestamp);
+        writeKey(Event.HOUR_KEY, false, out);
+        out.append(event.hour);
+        writeKey(Event.DAY_OF_WEEK_KEY, false, out);
+        out.append(event.dow);
+
+        writeOptionalString(Event.ID_KEY, event.id, out);
+        writeOptionalString(Event.PV_ID_KEY, event.pvid, out);
+        writeOptionalString(Event.CV_ID_KEY, event.cvid, out);
+        writeOptionalString(Event.PE_ID_KEY, event.peid, out);
+
+        if (event.segmentation != null && !event.segmentation.isEmpty()) {
+            writeKey(Event.SEGMENTATION_KEY, false, out);
+            out.append('{');
+            boolean firstEntry = true;
+            for (Map.Entry<String, Object> pair : event.segmentation.entrySet()) {
+                if (pair.getKey() == null) {
+                    return false;
+                }
+                writeKey(pair.getKey(), firstEntry, out);
+                if (!writeSegmentationValue(pair.getValue(), out)) {
+                    return false;
+                }
+                firstEntry = false;
+            }
+            out.append('}');
+        }
+
+        writeKey(Event.SUM_KEY, false, out);
+        writeNumber(event.sum, out);
+
+        if (event.dur > 0) {
+            writeKey(Event.DUR_KEY, false, out);
+            writeNumber(event.dur, out);
+        }
+
+        out.append('}');
+        return true;
+    }
+
+    private static boolean writeSegmentationValue(Object value, StringBuilder out) {
+        if (value == null) {
+            return false;
+        }
+
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            out.append('[');
+            for (int a = 0; a < array.length(); a++) {
+                if (a > 0) {
+                    out.append(',');
+                }
+                if (!writeBasicValue(array.opt(a), out)) {
+                    return false;
+                }
+            }
+            out.append(']');
+            return true;
+        }
+
+        if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.append('[');
+            for (int a = 0; a < list.size(); a++) {
+                if (a > 0) {
+                    out.append(',');
+                }
+                if (!writeBasicValue(list.get(a), out)) {
+                    return false;
+                }
+            }
+            out.append(']');
+            return true;
+        }
+
+        if (value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            out.append('[');
+            for (int a = 0; a < length; a++) {
+                if (a > 0) {
+                    out.append(',');
+                }
+                if (!writeBasicValue(Array.get(value, a), out)) {
+                    return false;
+                }
+            }
+            out.append(']');
+            return true;
+        }
+
+        return writeBasicValue(value, out);
+    }
+
+    private static boolean writeBasicValue(Object value, StringBuilder out) {
+        if (value instanceof String) {
+            writeString((String) value, out);
+            return true;
+        }
+
+        if (value instanceof Boolean) {
+            out.append(((Boolean) value).booleanValue());
+            return true;
+        }
+
+        if (value instanceof Integer || value instanceof Long || value instanceof Double || value instanceof Float) {
+            Number number = (Number) value;
+            if (!isFinite(number.doubleValue())) {
+                return false;
+            }
+            writeNumber(number, out);
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Same formatting as 'JSONObject.numberToString'
+     */
+    private static void writeNumber(Number number, StringBuilder out) {
+        double doubleValue = number.doubleValue();
+        if (number.equals(-0d)) {
+            out.append("-0");
+            return;
+        }
+
+        long longValue = number.longValue();
+        if (doubleValue == (double) longValue) {
+            out.append(longValue);
+        } else {
+            out.append(number.toString());
+        }
+    }
+
+    private static void writeNumber(double value, StringBuilder out) {
+        writeNumber(Double.valueOf(value), out);
+    }
+
+    private static void writeOptionalString(String key, String value, StringBuilder out) {
+        if (value != null) {
+            writeKey(key, false, out);
+            writeString(value, out);
+        }
+    }
+
+    private static void writeKey(String key, boolean first, StringBuilder out) {
+        if (!first) {
+            out.append(',');
+        }
+        writeString(key, out);
+        out.append(':');
+    }
+
+    /**
+     * Same escaping as org.json 'JSONStringer'
+     */
+    private static void writeString(String value, StringBuilder out) {
+        out.append('"');
+        final int length = value.length();
+        for (int a = 0; a < length; a++) {
+            char c = value.charAt(a);
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    out.append('\\').append(c);
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                case '\b':
+                    out.append("\\b");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\f':
+                    out.append("\\f");
+                    break;
+                default:
+                    if (c <= 0x1F) {
+                        out.append("\\u00").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xF, 16));
+                    } else {
+                        out.append(c);
+                    }
+                    break;
+            }
+        }
+        out.append('"');
+    }
+
+    private static boolean isFinite(double value) {
+        return !Double.isNaN(value) && !Double.isInfinite(value);
+    }
+}
@@ -0,0 +1,78 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules sending the event queue when the event that was added to it first has waited for the maximum event age.
+ * A one shot task is scheduled only while there are events waiting, so an idle app has no wakeups for events.
+ * Not thread safe, used while holding the SDK lock.
+ */
+class EventFlushScheduler {
+    final long maxEventAgeMs;
+    private final ModuleLog L;
+
+    private ScheduledFuture<?> pendingFlush = null;
+    private long pendingFlushDeadlineMs = -1;
+
+    EventFlushScheduler(long maxEventAgeMs, @NonNull ModuleLog logModule) {
+        this.maxEventAgeMs = maxEventAgeMs;
+        L = logModule;
+    }
+
+    /**
+     * @return true if the event that was added to the queue at this time has waited for the maximum age
+     */
+    boolean isTooOld(long oldestEnqueueTimestamp, long nowMs) {
+        return oldestEnqueueTimestamp >= 0 && nowMs - oldestEnqueueTimestamp >= maxEventAgeMs;
+    }
+
+    /**
+     * @return time when the event that was added to the queue at this time has waited for the maximum age, or -1 if there is no such event
+     */
+    long deadlineFor(long oldestEnqueueTimestamp) {
+        return oldestEnqueueTimestamp < 0 ? -1L : oldestEnqueueTimestamp + maxEventAgeMs;
+    }
+
+    /**
+     * Makes sure that a flush is scheduled for the given time.
+     * If there is no deadline, the scheduled flush is cancelled.
+     *
+     * @param deadlineMs when the flush should happen, or a negative value if nothing is waiting to be sent
+     */
+    void schedule(long deadlineMs, @NonNull ScheduledExecutorService executor, @NonNull Runnable flushTask) {
+        if (deadlineMs < 0) {
+            cancel();
+            return;
+        }
+
+        if (pendingFlush != null && !pendingFlush.isDone() && pendingFlushDeadlineMs == deadlineMs) {
+            return;
+        }
+
+        cancel();
+        long delayMs = Math.max(deadlineMs - UtilsTime.currentTimestampMs(), 0);
+        try {
+            pendingFlush = executor.schedule(flushTask, delayMs, TimeUnit.MILLISECONDS);
+            pendingFlushDeadlineMs = deadlineMs;
+            L.v("[EventFlushScheduler] schedule, event flush scheduled in [" + delayMs + "] ms");
+        } catch (RejectedExecutionException e) {
+            L.w("[EventFlushScheduler] schedule, failed to schedule event flush, " + e);
+        }
+    }
+
+    boolean isScheduled() {
+        return pendingFlush != null && !pendingFlush.isDone();
+    }
+
+    void cancel() {
+        if (pendingFlush != null) {
+            pendingFlush.cancel(false);
+            pendingFlush = null;
+            pendingFlushDeadlineMs = -1;
+        }
+    }
+}
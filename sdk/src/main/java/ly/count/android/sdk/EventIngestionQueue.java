@@ -0,0 +1,119 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Non blocking front end for recording events.
+ * Producers add an immutable record to a lock free queue and return immediately.
+ * A single consumer thread drains the queue and records the events while holding the SDK lock
+ * once per drained batch instead of once per call.
+ */
+class EventIngestionQueue {
+    static class EventRecord {
+        final String key;
+        final Map<String, Object> segmentation;
+        final int count;
+        final double sum;
+        final double dur;
+        final UtilsTime.Instant instant;
+
+        EventRecord(@NonNull String key, @Nullable Map<String, Object> segmentation, int count, double sum, double dur, @NonNull UtilsTime.Instant instant) {
+            this.key = key;
+            //copied so that later changes by the caller don't affect the recorded event
+            this.segmentation = segmentation == null ? null : new HashMap<>(segmentation);
+            this.count = count;
+            this.sum = sum;
+            this.dur = dur;
+            this.instant = instant;
+        }
+    }
+
+    interface RecordConsumer {
+        void recordEvent(@NonNull EventRecord record);
+    }
+
+    private final ConcurrentLinkedQueue<EventRecord> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private final Object lock;
+    private final RecordConsumer consumer;
+    private final ModuleLog L;
+    private ExecutorService executor;
+
+    /**
+     * @param lock held by the consumer thread while a batch is recorded
+     */
+    EventIngestionQueue(@NonNull Object lock, @NonNull RecordConsumer consumer, @NonNull ModuleLog logModule) {
+        this.lock = lock;
+        this.consumer = consumer;
+        L = logModule;
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Countly-EventIngestion");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void add(@NonNull EventRecord record) {
+        queue.offer(record);
+
+        if (drainScheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drainLoop);
+            } catch (RejectedExecutionException e) {
+                L.w("[EventIngestionQueue] add, consumer is stopped, event [" + record.key + "] will not be recorded");
+                drainScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Records all queued events on the caller thread
+     *
+     * @return amount of recorded events
+     */
+    int drain() {
+        int recorded = 0;
+        synchronized (lock) {
+            EventRecord record;
+            while ((record = queue.poll()) != null) {
+                consumer.recordEvent(record);
+                recorded++;
+            }
+        }
+        return recorded;
+    }
+
+    int size() {
+        return queue.size();
+    }
+
+    /**
+     * Stops the consumer thread and records the events that were not recorded yet on the caller thread
+     */
+    void stop() {
+        executor.shutdownNow();
+        int recorded = drain();
+        L.v("[EventIngestionQueue] stop, recorded [" + recorded + "] remaining events");
+    }
+
+    private void drainLoop() {
+        while (true) {
+            int recorded = drain();
+            L.v("[EventIngestionQueue] drainLoop, recorded [" + recorded + "] events");
+
+            drainScheduled.set(false);
+            // a producer could have added a record after the last poll but before the flag was cleared
+            if (queue.isEmpty() || !drainScheduled.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+}
@@ -12,6 +12,9 @@ public class HealthCheckCounter implements HealthTracker {
     public int statusCode = -1;
     public String errorMessage = "";
     public int consecutiveBackoffRequest = 0;
+    public long countEvictedTooOldRequests = 0;
+    public long countEvictedOverflowRequests = 0;
+    public long maxRequestQueueBytes = 0;
     private int consecutiveBackoffRequestCounter = 0;
 
     private final static String keyLogError = "LErr";
@@ -20,6 +23,9 @@ public class HealthCheckCounter implements HealthTracker {
     private final static String keyErrorMessage = "REMsg";
     private final static String keyBackoffRequest = "BReq";
     private final String keyConsecutiveBackoffRequest = "CBReq";
+    private final static String keyEvictedTooOldRequests = "EOReq";
+    private final static String keyEvictedOverflowRequests = "EFReq";
+    private final static String keyMaxRequestQueueBytes = "RQBytes";
 
     private final static String requestKeyErrorCount = "el";
     private final static String requestKeyWarningCount = "wl";
@@ -27,6 +33,9 @@ public class HealthCheckCounter implements HealthTracker {
     private final static String requestKeyRequestError = "em";
     private final static String requestKeyBackoffRequest = "bom";
     private final static String requestKeyConsecutiveBackoffRequest = "cbom";
+    private final static String requestKeyEvictedTooOldRequests = "rqeo";
+    private final static String requestKeyEvictedOverflowRequests = "rqef";
+    private final static String requestKeyMaxRequestQueueBytes = "rqb";
 
     StorageProvider storageProvider;
     ModuleLog L;
@@ -56,6 +65,9 @@ public class HealthCheckCounter implements HealthTracker {
             errorMessage = jsonObject.optString(keyErrorMessage, "");
             countBackoffRequest = jsonObject.optLong(keyBackoffRequest, 0);
             consecutiveBackoffRequest = jsonObject.optInt(keyConsecutiveBackoffRequest, 0);
+            countEvictedTooOldRequests = jsonObject.optLong(keyEvictedTooOldRequests, 0);
+            countEvictedOverflowRequests = jsonObject.optLong(keyEvictedOverflowRequests, 0);
+            maxRequestQueueBytes = jsonObject.optLong(keyMaxRequestQueueBytes, 0);
 
             L.d("[HealthCheckCounter] Loaded initial health check state: [" + jsonObject.toString() + "]");
         } catch (Exception e) {
@@ -109,6 +121,15 @@ public class HealthCheckCounter implements HealthTracker {
         consecutiveBackoffRequestCounter = 0; //reset the counter
     }
 
+    @Override public void logRequestQueueEviction(int tooOldCount, int overflowCount) {
+        countEvictedTooOldRequests += tooOldCount;
+        countEvictedOverflowRequests += overflowCount;
+    }
+
+    @Override public void logRequestQueueBytes(long queueBytes) {
+        maxRequestQueueBytes = Math.max(maxRequestQueueBytes, queueBytes);
+    }
+
     @Override public void clearAndSave() {
         clearValues();//clear values
         storageProvider.setHealthCheckCounterState("");//clear stored State
@@ -124,6 +145,9 @@ public class HealthCheckCounter implements HealthTracker {
             jsonObject.put(keyBackoffRequest, countBackoffRequest);
             logConsecutiveBackoffRequest();
             jsonObject.put(keyConsecutiveBackoffRequest, consecutiveBackoffRequest);
+            jsonObject.put(keyEvictedTooOldRequests, countEvictedTooOldRequests);
+            jsonObject.put(keyEvictedOverflowRequests, countEvictedOverflowRequests);
+            jsonObject.put(keyMaxRequestQueueBytes, maxRequestQueueBytes);
 
             storageProvider.setHealthCheckCounterState(jsonObject.toString());
         } catch (Exception e) {
@@ -140,6 +164,9 @@ public class HealthCheckCounter implements HealthTracker {
         countBackoffRequest = 0;
         consecutiveBackoffRequest = 0;
         consecutiveBackoffRequestCounter = 0;
+        countEvictedTooOldRequests = 0;
+        countEvictedOverflowRequests = 0;
+        maxRequestQueueBytes = 0;
     }
 
     @NonNull String createRequestParam() {
@@ -154,6 +181,9 @@ public class HealthCheckCounter implements HealthTracker {
             jsonObject.put(requestKeyRequestError, errorMessage);
             jsonObject.put(requestKeyBackoffRequest, countBackoffRequest);
             jsonObject.put(requestKeyConsecutiveBackoffRequest, consecutiveBackoffRequest);
+            jsonObject.put(requestKeyEvictedTooOldRequests, countEvictedTooOldRequests);
+            jsonObject.put(requestKeyEvictedOverflowRequests, countEvictedOverflowRequests);
+            jsonObject.put(requestKeyMaxRequestQueueBytes, maxRequestQueueBytes);
         } catch (JSONException e) {
             L.w("[HealthCheckCounter] Failed to create param for hc request, " + e);
         }
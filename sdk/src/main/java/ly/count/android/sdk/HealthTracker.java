@@ -17,6 +17,10 @@ interface HealthTracker {
 
     void logConsecutiveBackoffRequest();
 
+    void logRequestQueueEviction(int tooOldCount, int overflowCount);
+
+    void logRequestQueueBytes(long queueBytes);
+
     void clearAndSave();
 
     void saveState();
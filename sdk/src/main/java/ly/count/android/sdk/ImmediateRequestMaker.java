@@ -25,6 +25,9 @@ class ImmediateRequestMaker extends AsyncTask<Object, Void, JSONObject> implemen
     InternalImmediateRequestCallback callback;
     ModuleLog L;
 
+    // a 'not modified' response is passed to the callback as an object with this key set to true
+    static final String keyNotModified = "unchanged";
+
     @Override
     public void doWork(@NonNull String requestData, @Nullable String customEndpoint, @NonNull ConnectionProcessor cp, boolean requestShouldBeDelayed, boolean networkingIsEnabled, @NonNull InternalImmediateRequestCallback callback, @NonNull ModuleLog log) {
         assert Utils.isNotNullOrEmpty(requestData);
@@ -97,6 +100,12 @@ class ImmediateRequestMaker extends AsyncTask<Object, Void, JSONObject> implemen
             //connecting
             connection.connect();
 
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                //only conditional requests can get this, the caller keeps what it already has
+                L.d("[ImmediateRequestMaker] Server responded with 'not modified'");
+                return new JSONObject().put(keyNotModified, true);
+            }
+
             InputStream stream;
 
             //todo check response code
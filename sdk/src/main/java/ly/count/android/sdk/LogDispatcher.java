@@ -0,0 +1,164 @@
+package ly.count.android.sdk;
+
+import android.util.Log;
+import androidx.annotation.NonNull;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Delivers log messages to the log listener on a background thread.
+ * Producers claim a slot of a bounded ring buffer with a CAS and return immediately. If the buffer is full,
+ * the message is dropped and counted. A single consumer thread drains the buffer and calls the listener,
+ * so a slow listener doesn't block the SDK.
+ */
+class LogDispatcher {
+    private final ModuleLog.LogCallback listener;
+
+    private final int mask;
+    private final String[] messages;
+    private final ModuleLog.LogLevel[] levels;
+    // a slot can be written when its sequence equals the claiming position, and read when it equals position + 1
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong(0);
+    // only changed by the consumer thread
+    private volatile long head = 0;
+    private long reportedDropped = 0;
+
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private final ExecutorService executor;
+
+    /**
+     * @param capacity amount of messages that can wait for delivery, rounded up to a power of two, at least 4
+     */
+    LogDispatcher(@NonNull ModuleLog.LogCallback listener, int capacity) {
+        this.listener = listener;
+
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        messages = new String[size];
+        levels = new ModuleLog.LogLevel[size];
+        sequences = new AtomicLongArray(size);
+        for (int a = 0; a < size; a++) {
+            sequences.set(a, a);
+        }
+
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Countly-LogDispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return false if the buffer was full and the message was dropped
+     */
+    boolean offer(@NonNull String msg, @NonNull ModuleLog.LogLevel level) {
+        long position;
+        int index;
+        while (true) {
+            position = tail.get();
+            index = (int) position & mask;
+            long sequence = sequences.get(index);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (sequence < position) {
+                //the consumer has not freed this slot yet, the buffer is full
+                dropped.incrementAndGet();
+                return false;
+            }
+            //otherwise another producer claimed the slot, try the next one
+        }
+
+        messages[index] = msg;
+        levels[index] = level;
+        sequences.set(index, position + 1);
+
+        if (drainScheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drainLoop);
+            } catch (RejectedExecutionException e) {
+                //dispatcher is stopped
+                drainScheduled.set(false);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return amount of messages that were dropped because the buffer was full
+     */
+    long droppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return amount of messages that were not delivered yet
+     */
+    int size() {
+        return (int) (tail.get() - head);
+    }
+
+    /**
+     * Stops the consumer thread, messages that were not delivered yet are dropped
+     */
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Delivers all published messages. Must only be called from the consumer thread.
+     */
+    private void drain() {
+        long position = head;
+        while (true) {
+            int index = (int) position & mask;
+            if (sequences.get(index) != position + 1) {
+                break;
+            }
+
+            String msg = messages[index];
+            ModuleLog.LogLevel level = levels[index];
+            messages[index] = null;
+            levels[index] = null;
+            //frees the slot for the producer that wraps around to it
+            sequences.set(index, position + mask + 1);
+            position++;
+            head = position;
+
+            deliver(msg, level);
+        }
+
+        long droppedNow = dropped.get();
+        if (droppedNow > reportedDropped) {
+            deliver("[LogDispatcher] [" + (droppedNow - reportedDropped) + "] log messages were dropped because the log listener could not keep up", ModuleLog.LogLevel.Warning);
+            reportedDropped = droppedNow;
+        }
+    }
+
+    private void deliver(String msg, ModuleLog.LogLevel level) {
+        try {
+            listener.LogHappened(msg, level);
+        } catch (Exception ex) {
+            Log.e(Countly.TAG, "[LogDispatcher] Failed to inform listener [" + ex.toString() + "]");
+        }
+    }
+
+    private void drainLoop() {
+        while (true) {
+            drain();
+
+            drainScheduled.set(false);
+            // a producer could have published a message after the last read but before the flag was cleared
+            if (tail.get() == head || !drainScheduled.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+}
@@ -64,6 +64,19 @@ class MigrationHelper {
 
             currentVersion = getCurrentSchemaVersion();
         }
+
+        performRequestQueueBackendMigration();
+    }
+
+    /**
+     * The request queue can be stored either in preferences or in a file backed log.
+     * This is not tied to a schema version as the used backend can be changed between app launches.
+     * If requests are found in the backend that is not in use, they are moved to the one that is.
+     */
+    void performRequestQueueBackendMigration() {
+        if (storage.migrateRequestQueueBackend()) {
+            L.w("[MigrationHelper] performRequestQueueBackendMigration, moved stored requests to the currently used request queue backend");
+        }
     }
 
     /**
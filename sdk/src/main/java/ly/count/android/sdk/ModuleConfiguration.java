@@ -88,6 +88,8 @@ class ModuleConfiguration extends ModuleBase implements ConfigurationProvider {
     FilterList<Set<String>> currentVSegmentationFilterList = new FilterList<>(new HashSet<>(), false);
     FilterList<Map<String, Set<String>>> currentVEventSegmentationFilterList = new FilterList<>(new ConcurrentHashMap<>(), false);
     Set<String> currentVJourneyTriggerEvents = new HashSet<>();
+    // rebuilt and replaced whenever the filters above change, readers don't need a lock
+    volatile CompiledListingFilters currentVListingFilters = CompiledListingFilters.EMPTY;
 
     // SERVER CONFIGURATION PARAMS
     Integer serverConfigUpdateInterval; // in hours
@@ -329,6 +331,8 @@ class ModuleConfiguration extends ModuleBase implements ConfigurationProvider {
             extractFilterSetFromJSONArray(journeyTriggerEventsJSARR, currentVJourneyTriggerEvents);
         }
 
+        currentVListingFilters = CompiledListingFilters.compile(currentVEventFilterList, currentVUserPropertyFilterList, currentVSegmentationFilterList, currentVEventSegmentationFilterList, currentVJourneyTriggerEvents);
+
         L.d("[ModuleConfiguration] updateListingFilters, current listing filters after updating: \n" +
             "Event Filter List: " + currentVEventFilterList.filterList + ", isWhitelist: " + currentVEventFilterList.isWhitelist + "\n" +
             "User Property Filter List: " + currentVUserPropertyFilterList.filterList + ", isWhitelist: " + currentVUserPropertyFilterList.isWhitelist + "\n" +
@@ -689,4 +693,8 @@ class ModuleConfiguration extends ModuleBase implements ConfigurationProvider {
     @Override public Set<String> getJourneyTriggerEvents() {
         return currentVJourneyTriggerEvents;
     }
+
+    @Override public CompiledListingFilters getListingFilters() {
+        return currentVListingFilters;
+    }
 }
@@ -58,7 +58,7 @@ public class ModuleDeviceId extends ModuleBase implements OpenUDIDProvider, Devi
 
         boolean foundOne = false;
         for (int a = 0; a < storedRequests.length; a++) {
-            if (storedRequests[a].contains(temporaryIdTag)) {
+            if (RequestHeader.of(storageProvider, storedRequests[a], a).temporaryId) {
                 L.d("[ModuleDeviceId] [exitTemporaryIdMode] Found a tag to replace in: [" + storedRequests[a] + "]");
                 storedRequests[a] = storedRequests[a].replace(temporaryIdTag, newIdTag);
                 foundOne = true;
@@ -102,6 +102,11 @@ public class ModuleDeviceId extends ModuleBase implements OpenUDIDProvider, Devi
      * @param deviceId Optional device ID for a case when type = DEVELOPER_SPECIFIED
      */
     void changeDeviceIdWithoutMergeInternal(@NonNull String deviceId) {
+        //events recorded before the change have to be written with the previous device ID
+        if (_cly.moduleEvents != null) {
+            _cly.moduleEvents.drainIngestedEvents();
+        }
+
         if (isTemporaryIdEnabled() && deviceId.equals(ly.count.android.sdk.DeviceId.temporaryCountlyDeviceId)) {
             // we already are in temporary mode and we want to set temporary mode
             // in this case we just ignore the request since nothing has to be done
@@ -163,6 +168,11 @@ public class ModuleDeviceId extends ModuleBase implements OpenUDIDProvider, Devi
      * @param deviceId new device id
      */
     void changeDeviceIdWithMergeInternal(@NonNull String deviceId) {
+        //events recorded before the change have to be written with the previous device ID
+        if (_cly.moduleEvents != null) {
+            _cly.moduleEvents.drainIngestedEvents();
+        }
+
         if (deviceId.isEmpty()) {
             L.e("changeDeviceIdWithMergeInternal, provided device ID can't be empty string");
             return;
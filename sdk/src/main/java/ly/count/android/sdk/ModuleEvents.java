@@ -4,10 +4,11 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import ly.count.android.sdk.messaging.ModulePush;
 
 public class ModuleEvents extends ModuleBase implements EventProvider {
-    static final Map<String, Event> timedEvents = new HashMap<>();
+    static final Map<String, Event> timedEvents = new ConcurrentHashMap<>();
 
     final static String ACTION_EVENT_KEY = "[CLY]_action";
     final static String VISIBILITY_KEY = "cly_v";
@@ -27,6 +28,12 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
     private final boolean viewNameRecordingEnabled;
     private final boolean visibilityTracking;
 
+    //if not 'null', custom events are recorded through this queue without taking the SDK lock on the caller thread
+    volatile EventIngestionQueue eventIngestionQueue = null;
+
+    //if not 'null', matching custom events are merged before they are written to the event queue
+    EventAggregator eventAggregator = null;
+
     ModuleEvents(Countly cly, CountlyConfig config) {
         super(cly, config);
         L.v("[ModuleEvents] Initialising");
@@ -38,6 +45,16 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
         viewNameRecordingEnabled = config.experimental.viewNameRecordingEnabled;
         visibilityTracking = config.experimental.visibilityTrackingEnabled;
 
+        if (config.experimental.asyncEventIngestionEnabled) {
+            L.d("[ModuleEvents] Enabling async event ingestion");
+            eventIngestionQueue = new EventIngestionQueue(cly, this::recordIngestedEvent, L);
+        }
+
+        if (config.eventAggregationWindowMs >= 0) {
+            L.d("[ModuleEvents] Enabling event aggregation with a [" + config.eventAggregationWindowMs + "] ms window");
+            eventAggregator = new EventAggregator(config.eventAggregationWindowMs, config.eventAggregationIncludedKeys, config.eventAggregationExcludedKeys, L);
+        }
+
         eventsInterface = new Events();
     }
 
@@ -92,9 +109,13 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
             count = 1;
         }
 
-        L.d("[ModuleEvents] recordEventInternal, key:[" + key + "] eventIdOverride:[" + eventIdOverride + "] segmentation:[" + segmentation + "] count:[" + count + "] sum:[" + sum + "] dur:[" + dur + "] instant:[" + instant + "]");
+        if (L.logEnabled()) {
+            L.d("[ModuleEvents] recordEventInternal, key:[" + key + "] eventIdOverride:[" + eventIdOverride + "] segmentation:[" + segmentation + "] count:[" + count + "] sum:[" + sum + "] dur:[" + dur + "] instant:[" + instant + "]");
+        }
 
-        if (segmentation != null) {
+        // custom event segmentation is sanitized in a single pass when it is recorded
+        final boolean isCustomEvent = isCustomEventKey(key);
+        if (segmentation != null && !isCustomEvent) {
             UtilsInternalLimits.removeUnsupportedDataTypes(segmentation, L);
         }
 
@@ -155,8 +176,9 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
         //before each event is recorded, check if user profile data needs to be saved
         _cly.moduleUserProfile.saveInternal();
 
+        Integer visibilityState = null;
         if (visibilityTracking) {
-            if (segmentation == null) {
+            if (segmentation == null && !isCustomEvent) {
                 segmentation = new HashMap<>();
             }
 
@@ -168,9 +190,15 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
                 if ("true".equals(appInBackground)) {
                     state = 0; // in background
                 }
-                L.d("[ModuleEvents] recordEventInternal, Adding visibility tracking to segmentation app in background:[" + appInBackground + "] cly_v:[" + state + "]");
+                if (L.logEnabled()) {
+                    L.d("[ModuleEvents] recordEventInternal, Adding visibility tracking to segmentation app in background:[{}] cly_v:[{}]", appInBackground, state);
+                }
 
-                segmentation.put(VISIBILITY_KEY, state);
+                if (isCustomEvent) {
+                    visibilityState = state;
+                } else {
+                    segmentation.put(VISIBILITY_KEY, state);
+                }
             }
         }
 
@@ -226,7 +254,7 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
                 break;
             default:
                 if (!configProvider.getCustomEventTrackingEnabled()) {
-                    L.d("[ModuleEvents] recordEventInternal, Custom event tracking is disabled. Event [" + key + "] will not be recorded.");
+                    L.d("[ModuleEvents] recordEventInternal, Custom event tracking is disabled. Event [{}] will not be recorded.", key);
                     return;
                 }
                 if (consentProvider.getConsent(Countly.CountlyFeatureNames.events)) {
@@ -236,28 +264,29 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
                         return;
                     }
 
-                    if (segmentation == null) {
-                        segmentation = new HashMap<>();
-                    }
-
-                    // apply segmentation listing filters
-                    UtilsListingFilters.applySegmentationFilter(segmentation, configProvider, L);
-
-                    // then apply specific event segmentation listing filters if any
-                    UtilsListingFilters.applyEventSegmentationFilter(key, segmentation, configProvider, L);
+                    // removes unsupported types, applies the segmentation listing filters and internal limits
+                    segmentation = SegmentationSanitizer.sanitizeEventSegmentation(key, segmentation, visibilityState, configProvider, _cly.config_.sdkInternalLimits, L, "[ModuleEvents] recordEventInternal");
 
                     // apply journey trigger events here
-                    boolean triggerRefreshContentZone = configProvider.getJourneyTriggerEvents().contains(key);
+                    boolean triggerRefreshContentZone = configProvider.getListingFilters().journeyTriggerEvents.contains(key);
 
                     String keyTruncated = UtilsInternalLimits.truncateKeyLength(key, _cly.config_.sdkInternalLimits.maxKeyLength, L, "[ModuleEvents] recordEventInternal");
 
-                    UtilsInternalLimits.applySdkInternalLimitsToSegmentation(segmentation, _cly.config_.sdkInternalLimits, L, "[ModuleEvents] recordEventInternal");
-
                     if (viewNameRecordingEnabled) {
                         segmentation.put(CURRENT_VIEW_NAME_KEY, cvn);
                         segmentation.put(PREVIOUS_EVENT_NAME_KEY, pen);
                     }
 
+                    if (eventAggregator != null && !triggerRefreshContentZone && eventAggregator.isAggregatable(keyTruncated, segmentation)) {
+                        if (eventAggregator.isWindowElapsed()) {
+                            eventAggregator.flush(eventQueueProvider);
+                        }
+                        previousEventId = eventAggregator.add(keyTruncated, segmentation, count, sum, dur, timestamp, hour, dow, eventId, pvid, cvid, previousEventId);
+                        previousEventName = keyTruncated;
+                        _cly.moduleRequestQueue.sendEventsIfNeeded(false);
+                        break;
+                    }
+
                     eventQueueProvider.recordEventToEventQueue(keyTruncated, segmentation, count, sum, dur, timestamp, hour, dow, eventId, pvid, cvid, previousEventId);
                     previousEventId = eventId;
                     previousEventName = keyTruncated;
@@ -271,22 +300,95 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
         }
     }
 
+    /**
+     * Records the events waiting in the ingestion queue on the caller thread.
+     * Called before anything that has to see all events that were recorded before it.
+     */
+    void drainIngestedEvents() {
+        EventIngestionQueue queue = eventIngestionQueue;
+        if (queue != null) {
+            queue.drain();
+        }
+    }
+
+    /**
+     * Called by the ingestion queue consumer while holding the SDK lock
+     */
+    void recordIngestedEvent(@NonNull EventIngestionQueue.EventRecord record) {
+        if (!_cly.isInitialized()) {
+            L.w("[ModuleEvents] recordIngestedEvent, SDK is not initialized, event [" + record.key + "] will not be recorded");
+            return;
+        }
+
+        eventProvider.recordEventInternal(record.key, record.segmentation, record.count, record.sum, record.dur, record.instant, null);
+    }
+
+    /**
+     * Writes aggregated events to the event queue if they need to be sent
+     *
+     * @param force if true, they are written even if the aggregation window has not ended
+     * @param eventsInEventQueue current size of the event queue
+     * @return true if aggregated events were written to the event queue
+     */
+    boolean flushAggregatedEventsIfNeeded(boolean force, int eventsInEventQueue) {
+        if (eventAggregator == null || eventAggregator.size() == 0) {
+            return false;
+        }
+
+        if (force || eventAggregator.isWindowElapsed() || eventsInEventQueue + eventAggregator.size() >= _cly.EVENT_QUEUE_SIZE_THRESHOLD) {
+            eventAggregator.flush(eventQueueProvider);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return false for the internal event keys that are handled separately in 'recordEventInternal'
+     */
+    static boolean isCustomEventKey(@NonNull String key) {
+        switch (key) {
+            case ModuleFeedback.NPS_EVENT_KEY:
+            case ModuleFeedback.SURVEY_EVENT_KEY:
+            case ModuleFeedback.RATING_EVENT_KEY:
+            case ModuleViews.VIEW_EVENT_KEY:
+            case ModuleViews.ORIENTATION_EVENT_KEY:
+            case ModulePush.PUSH_EVENT_ACTION:
+            case ACTION_EVENT_KEY:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * @return true if there are recorded events that are not in the event queue yet
+     */
+    boolean hasPendingEvents() {
+        return (eventAggregator != null && eventAggregator.size() > 0) || (eventIngestionQueue != null && eventIngestionQueue.size() > 0);
+    }
+
+    /**
+     * @return time when aggregated events have to be written to the event queue, or -1 if there are none
+     */
+    long aggregatedEventsDeadline() {
+        return eventAggregator == null ? -1L : eventAggregator.windowDeadline();
+    }
+
     boolean startEventInternal(final String key) {
         if (key == null || key.length() == 0) {
             L.e("[ModuleEvents] Can't start event with a null or empty key");
             return false;
         }
-        if (timedEvents.containsKey(key)) {
+        UtilsTime.Instant instant = UtilsTime.getCurrentInstant();
+        if (timedEvents.putIfAbsent(key, new Event(key, instant.timestampMs, instant.hour, instant.dow)) != null) {
             return false;
         }
-        L.d("[ModuleEvents] Starting event: [" + key + "]");
-        UtilsTime.Instant instant = UtilsTime.getCurrentInstant();
-        timedEvents.put(key, new Event(key, instant.timestampMs, instant.hour, instant.dow));
+        L.d("[ModuleEvents] Starting event: [{}]", key);
         return true;
     }
 
     boolean endEventInternal(@Nullable final String key, @Nullable final Map<String, Object> segmentation, int count, final double sum) {
-        L.d("[ModuleEvents] Ending event: [" + key + "]");
+        L.d("[ModuleEvents] Ending event: [{}]", key);
 
         if (key == null || key.length() == 0) {
             L.e("[ModuleEvents] Can't end event with a null or empty key");
@@ -296,15 +398,24 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
         Event event = timedEvents.remove(key);
 
         if (event != null) {
-            if (!consentProvider.getConsent(Countly.CountlyFeatureNames.events)) {
-                return true;
-            }
-
             if (count < 1) {
                 L.e("[ModuleEvents] endEventInternal, event count should be greater than zero, key [" + key + "], dur:[" + count + "]. Count will be reset to '1'.");
                 count = 1;
             }
-            L.d("[ModuleEvents] Ending event: [" + key + "]");
+
+            if (eventIngestionQueue != null) {
+                //consent is checked by the consumer when the event is recorded
+                long currentTimestamp = UtilsTime.currentTimestampMs();
+                double duration = (currentTimestamp - event.timestamp) / 1000.0;
+                UtilsTime.Instant instant = new UtilsTime.Instant(event.timestamp, event.hour, event.dow);
+                eventIngestionQueue.add(new EventIngestionQueue.EventRecord(key, segmentation, count, sum, duration, instant));
+                return true;
+            }
+
+            if (!consentProvider.getConsent(Countly.CountlyFeatureNames.events)) {
+                return true;
+            }
+            L.d("[ModuleEvents] Ending event: [{}]", key);
 
             long currentTimestamp = UtilsTime.currentTimestampMs();
             double duration = (currentTimestamp - event.timestamp) / 1000.0;
@@ -336,6 +447,15 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
     @Override
     void halt() {
         timedEvents.clear();
+
+        if (eventAggregator != null) {
+            eventAggregator.clear();
+        }
+
+        if (eventIngestionQueue != null) {
+            eventIngestionQueue.stop();
+            eventIngestionQueue = null;
+        }
     }
 
     public class Events {
@@ -349,9 +469,7 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
          * @param timestamp unix timestamp in milliseconds of when the event occurred
          */
         public void recordPastEvent(@NonNull final String key, @Nullable final Map<String, Object> segmentation, long timestamp) {
-            synchronized (_cly) {
-                recordPastEvent(key, segmentation, 1, 0, 0, timestamp);
-            }
+            recordPastEvent(key, segmentation, 1, 0, 0, timestamp);
         }
 
         /**
@@ -367,8 +485,24 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
          * @param timestamp unix timestamp in milliseconds of when the event occurred
          */
         public void recordPastEvent(@NonNull final String key, @Nullable final Map<String, Object> segmentation, final int count, final double sum, final double dur, long timestamp) {
+            if (eventIngestionQueue != null) {
+                L.i("[Events] Calling recordPastEvent through the ingestion queue: [{}]", key);
+                if (key == null || key.isEmpty()) {
+                    L.e("[Events] recordPastEvent, Valid Countly event key is required. Event will be ignored.");
+                    return;
+                }
+
+                if (timestamp <= 0) {
+                    L.e("Provided timestamp has to be greater that zero. Replacing that timestamp with the current time");
+                    timestamp = UtilsTime.currentTimestampMs();
+                }
+
+                eventIngestionQueue.add(new EventIngestionQueue.EventRecord(key, segmentation, count, sum, dur, UtilsTime.Instant.get(timestamp)));
+                return;
+            }
+
             synchronized (_cly) {
-                L.i("[Events] Calling recordPastEvent: [" + key + "]");
+                L.i("[Events] Calling recordPastEvent: [{}]", key);
 
                 if (timestamp <= 0) {
                     L.e("Provided timestamp has to be greater that zero. Replacing that timestamp with the current time");
@@ -387,8 +521,13 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
          * @return true if no event with this key existed before and event is started, false otherwise
          */
         public boolean startEvent(@NonNull final String key) {
+            if (eventIngestionQueue != null) {
+                L.i("[Events] Calling startEvent without the SDK lock: [{}]", key);
+                return startEventInternal(key);
+            }
+
             synchronized (_cly) {
-                L.i("[Events] Calling startEvent: [" + key + "]");
+                L.i("[Events] Calling startEvent: [{}]", key);
 
                 return startEventInternal(key);
             }
@@ -401,9 +540,7 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
          * @return true if event with this key has been previously started, false otherwise
          */
         public boolean endEvent(@NonNull final String key) {
-            synchronized (_cly) {
-                return endEvent(key, null, 1, 0);
-            }
+            return endEvent(key, null, 1, 0);
         }
 
         /**
@@ -416,8 +553,13 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
          * @return true if event with this key has been previously started, false otherwise
          */
         public boolean endEvent(@NonNull final String key, @Nullable final Map<String, Object> segmentation, final int count, final double sum) {
+            if (eventIngestionQueue != null) {
+                L.i("[Events] Calling endEvent without the SDK lock: [{}]", key);
+                return endEventInternal(key, segmentation, count, sum);
+            }
+
             synchronized (_cly) {
-                L.i("[Events] Calling endEvent: [" + key + "]");
+                L.i("[Events] Calling endEvent: [{}]", key);
 
                 return endEventInternal(key, segmentation, count, sum);
             }
@@ -429,8 +571,13 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
          * @return true if event with this key has been previously started, false otherwise
          **/
         public boolean cancelEvent(@NonNull final String key) {
+            if (eventIngestionQueue != null) {
+                L.i("[Events] Calling cancelEvent without the SDK lock: [{}]", key);
+                return cancelEventInternal(key);
+            }
+
             synchronized (_cly) {
-                L.i("[Events] Calling cancelEvent: [" + key + "]");
+                L.i("[Events] Calling cancelEvent: [{}]", key);
 
                 return cancelEventInternal(key);
             }
@@ -442,9 +589,7 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
          * @param key name of the custom event, required, must not be the empty string
          */
         public void recordEvent(@NonNull final String key) {
-            synchronized (_cly) {
-                recordEvent(key, null, 1, 0);
-            }
+            recordEvent(key, null, 1, 0);
         }
 
         /**
@@ -454,9 +599,7 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
          * @param count count to associate with the event, should be more than zero
          */
         public void recordEvent(@NonNull final String key, final int count) {
-            synchronized (_cly) {
-                recordEvent(key, null, count, 0);
-            }
+            recordEvent(key, null, count, 0);
         }
 
         /**
@@ -467,9 +610,7 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
          * @param sum sum to associate with the event
          */
         public void recordEvent(@NonNull final String key, final int count, final double sum) {
-            synchronized (_cly) {
-                recordEvent(key, null, count, sum);
-            }
+            recordEvent(key, null, count, sum);
         }
 
         /**
@@ -479,9 +620,7 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
          * @param segmentation segmentation dictionary to associate with the event, can be null. Allowed values are String, int, double, boolean
          */
         public void recordEvent(@NonNull final String key, @Nullable final Map<String, Object> segmentation) {
-            synchronized (_cly) {
-                recordEvent(key, segmentation, 1, 0);
-            }
+            recordEvent(key, segmentation, 1, 0);
         }
 
         /**
@@ -492,9 +631,7 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
          * @param count count to associate with the event, should be more than zero
          */
         public void recordEvent(@NonNull final String key, @Nullable final Map<String, Object> segmentation, final int count) {
-            synchronized (_cly) {
-                recordEvent(key, segmentation, count, 0);
-            }
+            recordEvent(key, segmentation, count, 0);
         }
 
         /**
@@ -506,9 +643,7 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
          * @param sum sum to associate with the event
          */
         public void recordEvent(@NonNull final String key, @Nullable final Map<String, Object> segmentation, final int count, final double sum) {
-            synchronized (_cly) {
-                recordEvent(key, segmentation, count, sum, 0);
-            }
+            recordEvent(key, segmentation, count, sum, 0);
         }
 
         /**
@@ -521,14 +656,27 @@ public class ModuleEvents extends ModuleBase implements EventProvider {
          * @param dur duration of an event
          */
         public void recordEvent(@NonNull final String key, @Nullable final Map<String, Object> segmentation, final int count, final double sum, final double dur) {
-            synchronized (_cly) {
-                L.i("[Events] Calling recordEvent: [" + key + "]");
+            // only this call limits the provided entries before unsupported and filtered ones are removed
+            Map<String, Object> limitedSegmentation = segmentation;
+            if (segmentation != null) {
+                limitedSegmentation = SegmentationSanitizer.dropEntriesOverCountLimit(segmentation, _cly.config_.sdkInternalLimits.maxSegmentationValues, L, "[Events] recordEvent,");
+            }
 
-                if (segmentation != null) {
-                    UtilsInternalLimits.truncateSegmentationValues(segmentation, _cly.config_.sdkInternalLimits.maxSegmentationValues, "[Events] recordEvent,", L);
+            if (eventIngestionQueue != null) {
+                L.i("[Events] Calling recordEvent through the ingestion queue: [{}]", key);
+                if (key == null || key.isEmpty()) {
+                    L.e("[Events] recordEvent, Valid Countly event key is required. Event will be ignored.");
+                    return;
                 }
 
-                eventProvider.recordEventInternal(key, segmentation, count, sum, dur, null, null);
+                eventIngestionQueue.add(new EventIngestionQueue.EventRecord(key, limitedSegmentation, count, sum, dur, UtilsTime.getCurrentInstant()));
+                return;
+            }
+
+            synchronized (_cly) {
+                L.i("[Events] Calling recordEvent: [{}]", key);
+
+                eventProvider.recordEventInternal(key, limitedSegmentation, count, sum, dur, null, null);
             }
         }
     }
@@ -6,6 +6,7 @@ class ModuleHealthCheck extends ModuleBase {
 
     ImmediateRequestGenerator immediateRequestGenerator;
     HealthCheckCounter hCounter;
+    SdkTelemetry sdkTelemetry = null;
 
     boolean healthCheckEnabled = true;
 
@@ -19,6 +20,12 @@ class ModuleHealthCheck extends ModuleBase {
         config.healthTracker = hCounter;
         immediateRequestGenerator = config.immediateRequestGenerator;
         healthCheckEnabled = config.healthCheckEnabled;
+
+        if (healthCheckEnabled && config.sdkTelemetrySamplingRate > 0) {
+            //runs that are not sampled have no collector, but they still send what previous runs collected
+            L.d("[ModuleHealthCheck] SDK telemetry enabled, collecting in this run: [" + (pcc != null) + "]");
+            sdkTelemetry = new SdkTelemetry(pcc, config.storageProvider, L);
+        }
     }
 
     @Override
@@ -31,12 +38,16 @@ class ModuleHealthCheck extends ModuleBase {
     @Override
     void halt() {
         hCounter = null;
+        sdkTelemetry = null;
         immediateRequestGenerator = null;
     }
 
     @Override
     void onActivityStopped(int updatedActivityCount) {
         hCounter.saveState();
+        if (sdkTelemetry != null) {
+            sdkTelemetry.saveState();
+        }
     }
 
     void sendHealthCheck() {
@@ -68,6 +79,9 @@ class ModuleHealthCheck extends ModuleBase {
         ConnectionProcessor cp = requestQueueProvider.createConnectionProcessor();
         final boolean networkingIsEnabled = cp.configProvider_.getNetworkingEnabled();
         requestData.append(hCounter.createRequestParam());
+        if (sdkTelemetry != null) {
+            requestData.append(sdkTelemetry.createRequestParam());
+        }
 
         immediateRequestGenerator.CreateImmediateRequestMaker().doWork(requestData.toString(), "/i", cp, false, networkingIsEnabled, checkResponse -> {
             if (checkResponse == null) {
@@ -86,6 +100,9 @@ class ModuleHealthCheck extends ModuleBase {
             //at this point we can expect that the request succeed and we can clear the counters
             L.d("[ModuleHealthCheck] sendHealthCheck, SDK health information sent successfully");
             hCounter.clearAndSave();
+            if (sdkTelemetry != null) {
+                sdkTelemetry.clearSent();
+            }
         }, L);
     }
 }
@@ -9,7 +9,16 @@ public class ModuleLog {
 
     public enum LogLevel {Verbose, Debug, Info, Warning, Error}
 
-    LogCallback logListener = null;
+    // mirrors the logging flag of the shared SDK instance, so the enabled check doesn't go through the singleton
+    static volatile boolean consoleLoggingEnabled = false;
+
+    volatile LogCallback logListener = null;
+
+    // messages below this level are not passed to the listener
+    volatile LogLevel listenerMinLevel = LogLevel.Verbose;
+
+    // set if the listener is informed on a background thread
+    volatile LogDispatcher logDispatcher = null;
 
     HealthTracker healthTracker;
 
@@ -17,6 +26,24 @@ public class ModuleLog {
     int countErrors = 0;
 
     void SetListener(LogCallback logListener) {
+        SetListener(logListener, LogLevel.Verbose, 0);
+    }
+
+    /**
+     * @param minLevel messages below this level are filtered out before they are passed on
+     * @param asyncBufferSize if more than 0, the listener is informed on a background thread and at most this many messages wait for delivery
+     */
+    synchronized void SetListener(LogCallback logListener, LogLevel minLevel, int asyncBufferSize) {
+        LogDispatcher previousDispatcher = logDispatcher;
+        if (previousDispatcher != null) {
+            logDispatcher = null;
+            previousDispatcher.stop();
+        }
+
+        listenerMinLevel = minLevel == null ? LogLevel.Verbose : minLevel;
+        if (logListener != null && asyncBufferSize > 0) {
+            logDispatcher = new LogDispatcher(logListener, asyncBufferSize);
+        }
         this.logListener = logListener;
     }
 
@@ -60,7 +87,7 @@ public class ModuleLog {
         if (!logEnabled()) {
             return;
         }
-        if (Countly.sharedInstance().isLoggingEnabled()) {
+        if (consoleLoggingEnabled) {
             Log.v(Countly.TAG, msg);
         }
         informListener(msg, null, LogLevel.Verbose);
@@ -70,7 +97,7 @@ public class ModuleLog {
         if (!logEnabled()) {
             return;
         }
-        if (Countly.sharedInstance().isLoggingEnabled()) {
+        if (consoleLoggingEnabled) {
             Log.d(Countly.TAG, msg);
         }
         informListener(msg, null, LogLevel.Debug);
@@ -80,12 +107,70 @@ public class ModuleLog {
         if (!logEnabled()) {
             return;
         }
-        if (Countly.sharedInstance().isLoggingEnabled()) {
+        if (consoleLoggingEnabled) {
             Log.i(Countly.TAG, msg);
         }
         informListener(msg, null, LogLevel.Info);
     }
 
+    /**
+     * Parameterized variants of the log calls. Every "{}" in the format is replaced by the next argument.
+     * The message is only built if logging is enabled, so arguments like maps and JSON objects are not turned into strings otherwise.
+     */
+    public void v(String format, Object arg1) {
+        if (logEnabled()) {
+            v(format(format, 1, arg1, null, null));
+        }
+    }
+
+    public void v(String format, Object arg1, Object arg2) {
+        if (logEnabled()) {
+            v(format(format, 2, arg1, arg2, null));
+        }
+    }
+
+    public void v(String format, Object arg1, Object arg2, Object arg3) {
+        if (logEnabled()) {
+            v(format(format, 3, arg1, arg2, arg3));
+        }
+    }
+
+    public void d(String format, Object arg1) {
+        if (logEnabled()) {
+            d(format(format, 1, arg1, null, null));
+        }
+    }
+
+    public void d(String format, Object arg1, Object arg2) {
+        if (logEnabled()) {
+            d(format(format, 2, arg1, arg2, null));
+        }
+    }
+
+    public void d(String format, Object arg1, Object arg2, Object arg3) {
+        if (logEnabled()) {
+            d(format(format, 3, arg1, arg2, arg3));
+        }
+    }
+
+    public void i(String format, Object arg1) {
+        if (logEnabled()) {
+            i(format(format, 1, arg1, null, null));
+        }
+    }
+
+    public void i(String format, Object arg1, Object arg2) {
+        if (logEnabled()) {
+            i(format(format, 2, arg1, arg2, null));
+        }
+    }
+
+    public void i(String format, Object arg1, Object arg2, Object arg3) {
+        if (logEnabled()) {
+            i(format(format, 3, arg1, arg2, arg3));
+        }
+    }
+
     public void w(String msg) {
         w(msg, null);
     }
@@ -95,7 +180,7 @@ public class ModuleLog {
         if (!logEnabled()) {
             return;
         }
-        if (Countly.sharedInstance().isLoggingEnabled()) {
+        if (consoleLoggingEnabled) {
             Log.w(Countly.TAG, msg);
         }
         informListener(msg, null, LogLevel.Warning);
@@ -110,18 +195,46 @@ public class ModuleLog {
         if (!logEnabled()) {
             return;
         }
-        if (Countly.sharedInstance().isLoggingEnabled()) {
+        if (consoleLoggingEnabled) {
             Log.e(Countly.TAG, msg, t);
         }
         informListener(msg, t, LogLevel.Error);
     }
 
+    /**
+     * Cheap check that should guard building log messages in hot paths
+     *
+     * @return true if a log call would reach the console or the listener
+     */
     public boolean logEnabled() {
-        return logListener != null || Countly.sharedInstance().isLoggingEnabled();
+        return consoleLoggingEnabled || logListener != null;
+    }
+
+    static String format(String format, int argCount, Object arg1, Object arg2, Object arg3) {
+        if (format == null) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder(format.length() + 32);
+        int start = 0;
+        for (int a = 0; a < argCount; a++) {
+            int index = format.indexOf("{}", start);
+            if (index < 0) {
+                break;
+            }
+            sb.append(format, start, index).append(a == 0 ? arg1 : a == 1 ? arg2 : arg3);
+            start = index + 2;
+        }
+        return sb.append(format, start, format.length()).toString();
     }
 
     private void informListener(String msg, final Throwable t, final LogLevel level) {
         try {
+            LogCallback listener = logListener;
+            if (listener == null || level.ordinal() < listenerMinLevel.ordinal()) {
+                return;
+            }
+
             if (msg == null) {
                 msg = "";
             }
@@ -129,8 +242,11 @@ public class ModuleLog {
                 msg += Log.getStackTraceString(t);
             }
 
-            if (logListener != null) {
-                logListener.LogHappened(msg, level);
+            LogDispatcher dispatcher = logDispatcher;
+            if (dispatcher != null) {
+                dispatcher.offer(msg, level);
+            } else {
+                listener.LogHappened(msg, level);
             }
         } catch (Exception ex) {
             Log.e(Countly.TAG, "[ModuleLog] Failed to inform listener [" + ex.toString() + "]");
@@ -11,6 +11,7 @@ import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 import ly.count.android.sdk.internal.RemoteConfigHelper;
 import ly.count.android.sdk.internal.RemoteConfigValueStore;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -25,6 +26,10 @@ public class ModuleRemoteConfig extends ModuleBase {
     // dedicated lock for remote config
     private final Object remoteConfigLock = new Object();
 
+    // decoded remote config values, built at init and replaced as a whole whenever this module writes the values,
+    // so that reads don't touch storage or take a lock
+    private volatile RemoteConfigSnapshot rcSnapshot;
+
     //if set to true, it will automatically download remote configs on module startup
     boolean automaticDownloadTriggersEnabled;
 
@@ -33,6 +38,17 @@ public class ModuleRemoteConfig extends ModuleBase {
 
     boolean remoteConfigValuesShouldBeCached = false;
 
+    // if set to true, downloads of all keys can be answered with 'not modified' or only the changed keys
+    boolean deltaDownloadEnabled = false;
+
+    // keys of the stored version and of conditional download responses
+    final static String keyVersionValue = "v";
+    final static String keyVersionSourceHash = "h";
+    final static String keyResponseVersion = "rc_version";
+    final static String keyResponseValues = "values";
+    final static String keyResponseChanged = "changed";
+    final static String keyResponseRemoved = "removed";
+
     List<RCDownloadCallback> downloadCallbacks = new CopyOnWriteArrayList<>();
 
     public final static String variantObjectNameKey = "name";
@@ -51,6 +67,7 @@ public class ModuleRemoteConfig extends ModuleBase {
         automaticDownloadTriggersEnabled = config.enableRemoteConfigAutomaticDownloadTriggers;
         remoteConfigValuesShouldBeCached = config.enableRemoteConfigValueCaching;
         autoEnrollEnabled = config.enableAutoEnrollFlag;
+        deltaDownloadEnabled = config.enableRemoteConfigDeltaDownload;
 
         downloadCallbacks.addAll(config.remoteConfigGlobalCallbackList);
 
@@ -58,6 +75,8 @@ public class ModuleRemoteConfig extends ModuleBase {
             downloadCallbacks.add((downloadResult, error, fullValueUpdate, downloadedValues) -> config.remoteConfigCallbackLegacy.callback(error));
         }
 
+        rcSnapshot = RemoteConfigSnapshot.fromValueStore(loadConfig());
+
         remoteConfigInterface = new RemoteConfig();
     }
 
@@ -93,11 +112,13 @@ public class ModuleRemoteConfig extends ModuleBase {
             //prepare metrics and request data
             String preparedMetrics = deviceInfo.getMetrics(_cly.context_, metricOverride, L);
             String requestData;
+            final boolean conditionalDownload = deltaDownloadEnabled && fullUpdate && !useLegacyAPI;
 
             if (useLegacyAPI) {
                 requestData = requestQueueProvider.prepareRemoteConfigRequestLegacy(preparedKeys[0], preparedKeys[1], preparedMetrics);
             } else {
-                requestData = requestQueueProvider.prepareRemoteConfigRequest(preparedKeys[0], preparedKeys[1], preparedMetrics, autoEnrollEnabled);
+                requestData = requestQueueProvider.prepareRemoteConfigRequest(preparedKeys[0], preparedKeys[1], preparedMetrics, autoEnrollEnabled, conditionalDownload,
+                    conditionalDownload ? getStoredVersion() : null);
             }
             L.d("[ModuleRemoteConfig] RemoteConfig requestData:[" + requestData + "]");
 
@@ -111,6 +132,13 @@ public class ModuleRemoteConfig extends ModuleBase {
                     return;
                 }
 
+                if (conditionalDownload && isConditionalResponse(checkResponse)) {
+                    String conditionalError = processConditionalResponse(checkResponse);
+                    NotifyDownloadCallbacks(devProvidedCallback, conditionalError == null ? RequestResult.Success : RequestResult.Error, conditionalError, fullUpdate,
+                        conditionalError == null ? getAllRemoteConfigValuesInternal() : null);
+                    return;
+                }
+
                 String error = null;
                 Map<String, RCData> newRC = RemoteConfigHelper.DownloadedValuesIntoMap(checkResponse);
 
@@ -264,16 +292,123 @@ public class ModuleRemoteConfig extends ModuleBase {
      * Merge the values acquired from the server into the current values.
      * Clear if needed.
      *
+     * @return the stored values string
      * @throws Exception it throws an exception so that it is escalated upwards
      */
-    void mergeCheckResponseIntoCurrentValues(boolean clearOldValues, @NonNull Map<String, RCData> newRC) {
+    @NonNull String mergeCheckResponseIntoCurrentValues(boolean clearOldValues, @NonNull Map<String, RCData> newRC) {
         //todo iterate over all response values and print a summary of the returned keys + ideally a summary of their payload.
         synchronized (remoteConfigLock) {
             RemoteConfigValueStore rcvs = loadConfig();
             rcvs.mergeValues(newRC, clearOldValues);
             L.d("[ModuleRemoteConfig] Finished remote config processing, starting saving");
-            saveConfig(rcvs);
+            String stored = saveConfig(rcvs);
             L.d("[ModuleRemoteConfig] Finished remote config saving");
+            return stored;
+        }
+    }
+
+    /**
+     * @return the version the server returned for the stored values, or null if there is none or the values changed since then
+     */
+    @Nullable String getStoredVersion() {
+        String storedVersion = storageProvider.getRemoteConfigVersion();
+        if (storedVersion == null || storedVersion.isEmpty()) {
+            return null;
+        }
+
+        try {
+            JSONObject versionObj = new JSONObject(storedVersion);
+            String stored = storageProvider.getRemoteConfigValues();
+            if (versionObj.optInt(keyVersionSourceHash) != (stored == null ? "" : stored).hashCode()) {
+                //values were changed by something else, like a partial download or a device ID change
+                L.v("[ModuleRemoteConfig] getStoredVersion, stored values changed since the version was received");
+                return null;
+            }
+            return versionObj.optString(keyVersionValue, null);
+        } catch (JSONException e) {
+            L.w("[ModuleRemoteConfig] getStoredVersion, failed to read the stored version, " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the version together with the hash of the values it belongs to, so it is ignored once they are changed in any other way
+     *
+     * @param storedValues the exact string that was stored with 'setRemoteConfigValues'
+     */
+    void saveVersion(@Nullable String version, @NonNull String storedValues) {
+        if (version == null || version.isEmpty()) {
+            storageProvider.setRemoteConfigVersion("");
+            return;
+        }
+
+        try {
+            JSONObject versionObj = new JSONObject();
+            versionObj.put(keyVersionValue, version);
+            versionObj.put(keyVersionSourceHash, storedValues.hashCode());
+            storageProvider.setRemoteConfigVersion(versionObj.toString());
+        } catch (JSONException e) {
+            L.w("[ModuleRemoteConfig] saveVersion, failed to store the version, " + e);
+        }
+    }
+
+    /**
+     * Servers that support conditional downloads respond with 'not modified' or with an object that has the version
+     * and either all values or the changed and removed keys. Other servers respond with the values themselves.
+     */
+    static boolean isConditionalResponse(@NonNull JSONObject response) {
+        if (response.optBoolean(ImmediateRequestMaker.keyNotModified, false)) {
+            return true;
+        }
+        return response.opt(keyResponseVersion) instanceof String
+            && (response.opt(keyResponseValues) instanceof JSONObject || response.opt(keyResponseChanged) instanceof JSONObject || response.opt(keyResponseRemoved) instanceof JSONArray);
+    }
+
+    /**
+     * @return error message, or null if the response was applied
+     */
+    @Nullable String processConditionalResponse(@NonNull JSONObject response) {
+        synchronized (remoteConfigLock) {
+            String baseVersion = getStoredVersion();
+
+            if (response.optBoolean(ImmediateRequestMaker.keyNotModified, false)) {
+                if (baseVersion == null) {
+                    //values were changed while the request was in flight, they can't be confirmed
+                    return "Remote config values changed during the download";
+                }
+                L.d("[ModuleRemoteConfig] processConditionalResponse, values not modified, keeping the stored values");
+                return null;
+            }
+
+            String version = response.optString(keyResponseVersion, "");
+            JSONObject allValues = response.optJSONObject(keyResponseValues);
+            if (allValues != null) {
+                L.d("[ModuleRemoteConfig] processConditionalResponse, received all values, version:[" + version + "]");
+                String stored = mergeCheckResponseIntoCurrentValues(true, RemoteConfigHelper.DownloadedValuesIntoMap(allValues));
+                saveVersion(version, stored);
+                return null;
+            }
+
+            if (baseVersion == null) {
+                return "Remote config values changed during the download";
+            }
+
+            JSONObject changed = response.optJSONObject(keyResponseChanged);
+            JSONArray removed = response.optJSONArray(keyResponseRemoved);
+            L.d("[ModuleRemoteConfig] processConditionalResponse, received changes, version:[" + version + "] changed:[" + (changed == null ? 0 : changed.length()) + "] removed:[" + (removed == null ? 0 : removed.length()) + "]");
+
+            RemoteConfigValueStore rcvs = loadConfig();
+            if (removed != null) {
+                List<String> removedKeys = new ArrayList<>(removed.length());
+                for (int a = 0; a < removed.length(); a++) {
+                    removedKeys.add(removed.optString(a));
+                }
+                rcvs.removeValues(removedKeys);
+            }
+            rcvs.mergeValues(RemoteConfigHelper.DownloadedValuesIntoMap(changed), false);
+            String stored = saveConfig(rcvs);
+            saveVersion(version, stored);
+            return null;
         }
     }
 
@@ -300,8 +435,7 @@ public class ModuleRemoteConfig extends ModuleBase {
 
     RCData getRCValue(@NonNull String key) {
         try {
-            RemoteConfigValueStore rcvs = loadConfig();
-            return rcvs.getValue(key);
+            return currentSnapshot().getValue(key);
         } catch (Exception ex) {
             L.e("[ModuleRemoteConfig] getValue, Call failed:[" + ex.toString() + "]");
             return new RCData(null, true);
@@ -310,16 +444,33 @@ public class ModuleRemoteConfig extends ModuleBase {
 
     Object getRCValueLegacy(@NonNull String key) {
         try {
-            RemoteConfigValueStore rcvs = loadConfig();
-            return rcvs.getValueLegacy(key);
+            return currentSnapshot().getValueLegacy(key);
         } catch (Exception ex) {
             L.e("[ModuleRemoteConfig] getValueLegacy, Call failed:[" + ex.toString() + "]");
             return null;
         }
     }
 
-    void saveConfig(@NonNull RemoteConfigValueStore rcvs) {
-        storageProvider.setRemoteConfigValues(rcvs.dataToString());
+    /**
+     * Returns the decoded values without locking or reading storage.
+     * All writes of the stored values go through this module, which replaces the snapshot after every write.
+     */
+    @NonNull RemoteConfigSnapshot currentSnapshot() {
+        return rcSnapshot;
+    }
+
+    /**
+     * Stores the values and publishes their snapshot
+     *
+     * @return the stored values string
+     */
+    @NonNull String saveConfig(@NonNull RemoteConfigValueStore rcvs) {
+        synchronized (remoteConfigLock) {
+            String data = rcvs.dataToString();
+            storageProvider.setRemoteConfigValues(data);
+            rcSnapshot = RemoteConfigSnapshot.fromValueStore(rcvs);
+            return data;
+        }
     }
 
     /**
@@ -336,30 +487,25 @@ public class ModuleRemoteConfig extends ModuleBase {
     void clearValueStoreInternal() {
         synchronized (remoteConfigLock) {
             storageProvider.setRemoteConfigValues("");
+            rcSnapshot = RemoteConfigSnapshot.EMPTY;
         }
     }
 
     @NonNull Map<String, Object> getAllRemoteConfigValuesInternalLegacy() {
-        synchronized (remoteConfigLock) {
-            try {
-                RemoteConfigValueStore rcvs = loadConfig();
-                return rcvs.getAllValuesLegacy();
-            } catch (Exception ex) {
-                Countly.sharedInstance().L.e("[ModuleRemoteConfig] getAllRemoteConfigValuesInternal, Call failed:[" + ex.toString() + "]");
-                return new HashMap<>();
-            }
+        try {
+            return currentSnapshot().getAllValuesLegacy();
+        } catch (Exception ex) {
+            Countly.sharedInstance().L.e("[ModuleRemoteConfig] getAllRemoteConfigValuesInternal, Call failed:[" + ex.toString() + "]");
+            return new HashMap<>();
         }
     }
 
     @NonNull Map<String, RCData> getAllRemoteConfigValuesInternal() {
-        synchronized (remoteConfigLock) {
-            try {
-                RemoteConfigValueStore rcvs = loadConfig();
-                return rcvs.getAllValues();
-            } catch (Exception ex) {
-                Countly.sharedInstance().L.e("[ModuleRemoteConfig] getAllRemoteConfigValuesInternal, Call failed:[" + ex.toString() + "]");
-                return new HashMap<>();
-            }
+        try {
+            return currentSnapshot().getAllValues();
+        } catch (Exception ex) {
+            Countly.sharedInstance().L.e("[ModuleRemoteConfig] getAllRemoteConfigValuesInternal, Call failed:[" + ex.toString() + "]");
+            return new HashMap<>();
         }
     }
 
@@ -507,7 +653,7 @@ public class ModuleRemoteConfig extends ModuleBase {
          */
         public Object getValueForKey(String key) {
             synchronized (_cly) {
-                L.i("[RemoteConfig] remoteConfigValueForKey, " + key);
+                L.i("[RemoteConfig] remoteConfigValueForKey, {}", key);
 
                 return getRCValueLegacy(key);
             }
@@ -692,9 +838,7 @@ public class ModuleRemoteConfig extends ModuleBase {
          */
         public @NonNull Map<String, RCData> getValues() {
             L.i("[RemoteConfig] getValues");
-            synchronized (remoteConfigLock) {
-                return getAllRemoteConfigValuesInternal();
-            }
+            return getAllRemoteConfigValuesInternal();
         }
 
         /**
@@ -704,10 +848,7 @@ public class ModuleRemoteConfig extends ModuleBase {
          */
         public @NonNull Map<String, RCData> getAllValuesAndEnroll() {
             L.i("[RemoteConfig] getAllValuesAndEnroll");
-            Map<String, RCData> values;
-            synchronized (remoteConfigLock) {
-                values = getAllRemoteConfigValuesInternal();
-            }
+            Map<String, RCData> values = getAllRemoteConfigValuesInternal();
 
             if (!values.isEmpty()) {
                 Set<String> setOfKeys = values.keySet();
@@ -730,14 +871,73 @@ public class ModuleRemoteConfig extends ModuleBase {
          * @return The returned value. If no value existed for the key then the inner object (value) will be returned as "null"
          */
         public @NonNull RCData getValue(final @Nullable String key) {
-            L.i("[RemoteConfig] getValue, key:[" + key + "]");
+            L.i("[RemoteConfig] getValue, key:[{}]", key);
             if (key == null || key.equals("")) {
                 L.i("[RemoteConfig] getValue, A valid key should be provided to get its value.");
                 return new RCData(null, true);
             }
-            synchronized (remoteConfigLock) {
-                return getRCValue(key);
+            return getRCValue(key);
+        }
+
+        /**
+         * Returns the remote config value of the given key as a boolean.
+         * Unlike 'getValue', this does not create any objects, so it can be called in layout and drawing code.
+         * It does not enroll to A/B tests.
+         *
+         * @param key Key for which the remote config value needs to be returned
+         * @param defaultValue Returned if there is no value for the key or the value is not a boolean
+         * @return The stored value or the default value
+         */
+        public boolean getBoolean(@Nullable String key, boolean defaultValue) {
+            if (key == null) {
+                return defaultValue;
+            }
+            return currentSnapshot().getBoolean(key, defaultValue);
+        }
+
+        /**
+         * Returns the remote config value of the given key as a long.
+         * Decimal values are truncated. Unlike 'getValue', this does not create any objects. It does not enroll to A/B tests.
+         *
+         * @param key Key for which the remote config value needs to be returned
+         * @param defaultValue Returned if there is no value for the key or the value is not a number
+         * @return The stored value or the default value
+         */
+        public long getLong(@Nullable String key, long defaultValue) {
+            if (key == null) {
+                return defaultValue;
+            }
+            return currentSnapshot().getLong(key, defaultValue);
+        }
+
+        /**
+         * Returns the remote config value of the given key as a double.
+         * Unlike 'getValue', this does not create any objects. It does not enroll to A/B tests.
+         *
+         * @param key Key for which the remote config value needs to be returned
+         * @param defaultValue Returned if there is no value for the key or the value is not a number
+         * @return The stored value or the default value
+         */
+        public double getDouble(@Nullable String key, double defaultValue) {
+            if (key == null) {
+                return defaultValue;
+            }
+            return currentSnapshot().getDouble(key, defaultValue);
+        }
+
+        /**
+         * Returns the remote config value of the given key as a String.
+         * Unlike 'getValue', this does not create any objects. It does not enroll to A/B tests.
+         *
+         * @param key Key for which the remote config value needs to be returned
+         * @param defaultValue Returned if there is no value for the key or the value is not a String
+         * @return The stored value or the default value
+         */
+        public @Nullable String getString(@Nullable String key, @Nullable String defaultValue) {
+            if (key == null) {
+                return defaultValue;
             }
+            return currentSnapshot().getString(key, defaultValue);
         }
 
         /**
@@ -747,15 +947,12 @@ public class ModuleRemoteConfig extends ModuleBase {
          * @return The returned value. If no value existed for the key then the inner object will be returned as "null"
          */
         public @NonNull RCData getValueAndEnroll(@Nullable String key) {
-            L.i("[RemoteConfig] getValueAndEnroll, key:[" + key + "]");
+            L.i("[RemoteConfig] getValueAndEnroll, key:[{}]", key);
             if (key == null || key.equals("")) {
                 L.i("[RemoteConfig] getValueAndEnroll, A valid key should be provided to get its value.");
                 return new RCData(null, true);
             }
-            RCData data;
-            synchronized (remoteConfigLock) {
-                data = getRCValue(key);
-            }
+            RCData data = getRCValue(key);
             if (data.value != null) {
                 String[] arrayOfKeys = { key };
                 enrollIntoABTestsForKeys(arrayOfKeys);
@@ -12,6 +12,9 @@ import java.util.concurrent.ConcurrentHashMap;
 public class ModuleRequestQueue extends ModuleBase implements BaseInfoProvider {
     RequestQueue requestQueueInterface;
 
+    EventFlushScheduler eventFlushScheduler = null;//if not 'null', events are sent when the oldest one reaches the max age
+    int eventQueueByteThreshold = -1;//if positive, events are sent when the stored event queue reaches this size
+
     @NonNull String appKey;
     @NonNull String serverURL;
 
@@ -56,6 +59,16 @@ public class ModuleRequestQueue extends ModuleBase implements BaseInfoProvider {
 
         checkIfDeviceIsAppCrawler();
 
+        if (config.eventFlushMaxAgeSeconds > 0) {
+            L.d("[ModuleRequestQueue] Enabling the event flush scheduler with a max event age of [" + config.eventFlushMaxAgeSeconds + "] seconds");
+            eventFlushScheduler = new EventFlushScheduler(config.eventFlushMaxAgeSeconds * 1000L, L);
+        }
+
+        if (config.eventQueueByteThreshold > 0) {
+            L.d("[ModuleRequestQueue] Setting event queue byte threshold to [" + config.eventQueueByteThreshold + "]");
+            eventQueueByteThreshold = config.eventQueueByteThreshold;
+        }
+
         requestQueueInterface = new RequestQueue();
     }
 
@@ -83,13 +96,21 @@ public class ModuleRequestQueue extends ModuleBase implements BaseInfoProvider {
                 return filteredRequests;
             }
 
-            String replacementPart = "app_key=" + UtilsNetworking.urlEncodeString(targetAppKey);
+            String targetAppKeyEncoded = UtilsNetworking.urlEncodeString(targetAppKey);
+            String replacementPart = "app_key=" + targetAppKeyEncoded;
 
-            for (String storedRequest : storedRequests) {
+            for (int a = 0; a < storedRequests.length; a++) {
+                String storedRequest = storedRequests[a];
                 if (storedRequest == null) {
                     continue;
                 }
 
+                if (targetAppKeyEncoded.equals(RequestHeader.of(storageProvider, storedRequest, a).appKey)) {
+                    //the request already has the target app key, nothing to rewrite
+                    filteredRequests.add(storedRequest);
+                    continue;
+                }
+
                 boolean found = false;
                 String[] parts = storedRequest.split("&");
 
@@ -160,7 +181,17 @@ public class ModuleRequestQueue extends ModuleBase implements BaseInfoProvider {
      * They will be sent either if they exceed the Threshold size or if their sending is forced
      */
     protected void sendEventsIfNeeded(boolean forceSendingEvents, boolean triggerRefreshContentZone) {
+        //events waiting in the ingestion queue were recorded before this and have to be sent with it
+        if (forceSendingEvents && _cly.moduleEvents != null) {
+            _cly.moduleEvents.drainIngestedEvents();
+        }
+
         int eventsInEventQueue = storageProvider.getEventQueueSize();
+
+        //aggregated events are written to the event queue before it is sent
+        if (_cly.moduleEvents != null && _cly.moduleEvents.flushAggregatedEventsIfNeeded(forceSendingEvents, eventsInEventQueue)) {
+            eventsInEventQueue = storageProvider.getEventQueueSize();
+        }
         L.v("[ModuleRequestQueue] forceSendingEvents, forced:[" + forceSendingEvents + "], event count:[" + eventsInEventQueue + "]");
 
         InternalRequestCallback callback = null;
@@ -174,9 +205,49 @@ public class ModuleRequestQueue extends ModuleBase implements BaseInfoProvider {
             };
         }
 
-        if ((forceSendingEvents && eventsInEventQueue > 0) || eventsInEventQueue >= _cly.EVENT_QUEUE_SIZE_THRESHOLD) {
+        if (eventsInEventQueue > 0 && (forceSendingEvents || eventsInEventQueue >= _cly.EVENT_QUEUE_SIZE_THRESHOLD || isEventQueueOverByteThreshold() || isOldestEventTooOld())) {
             requestQueueProvider.recordEvents(storageProvider.getEventsForRequestAndEmptyEventQueue(), callback);
         }
+
+        scheduleEventFlush();
+    }
+
+    private boolean isEventQueueOverByteThreshold() {
+        return eventQueueByteThreshold > 0 && storageProvider.getEventQueueByteSize() >= eventQueueByteThreshold;
+    }
+
+    private boolean isOldestEventTooOld() {
+        return eventFlushScheduler != null && eventFlushScheduler.isTooOld(storageProvider.getOldestEventEnqueueTimestamp(), UtilsTime.currentTimestampMs());
+    }
+
+    /**
+     * Schedules the next event flush for when the oldest waiting event reaches the max age
+     * or the aggregation window ends, whichever is earlier. Cancels it if nothing is waiting.
+     */
+    void scheduleEventFlush() {
+        if (eventFlushScheduler == null) {
+            return;
+        }
+
+        long deadlineMs = eventFlushScheduler.deadlineFor(storageProvider.getOldestEventEnqueueTimestamp());
+        long aggregationDeadlineMs = _cly.moduleEvents != null ? _cly.moduleEvents.aggregatedEventsDeadline() : -1L;
+        if (deadlineMs < 0 || (aggregationDeadlineMs >= 0 && aggregationDeadlineMs < deadlineMs)) {
+            deadlineMs = aggregationDeadlineMs;
+        }
+
+        eventFlushScheduler.schedule(deadlineMs, _cly.getTimerService(), this::onEventFlushDeadline);
+    }
+
+    private void onEventFlushDeadline() {
+        synchronized (_cly) {
+            if (!_cly.isInitialized() || eventFlushScheduler == null) {
+                return;
+            }
+
+            L.d("[ModuleRequestQueue] onEventFlushDeadline, sending waiting events");
+            sendEventsIfNeeded(true);
+            requestQueueProvider.tick();
+        }
     }
 
     boolean isHttpPostForcedInternal() {
@@ -331,12 +402,31 @@ public class ModuleRequestQueue extends ModuleBase implements BaseInfoProvider {
         storageProvider.esWriteCacheToStorage(callback);
     }
 
+    boolean flushPersistenceInternal(long timeoutMs) {
+        L.i("[ModuleRequestQueue] Calling flushPersistenceInternal, timeout:[" + timeoutMs + "]");
+        return storageProvider.flushPersistence(timeoutMs);
+    }
+
     boolean doesBelongToCurrentAppKeyOrDeviceId(@NonNull String request) {
         return request.contains(APP_KEY_KEY + "=" + baseInfoProvider.getAppKey()) && request.contains(DEVICE_ID_KEY + "=" + deviceIdProvider.getDeviceId());
     }
 
+    @Override
+    void onActivityStopped(int updatedActivityCount) {
+        if (updatedActivityCount == 0 && eventFlushScheduler != null) {
+            // the app went to the background, send the waiting events while the process is still active
+            L.d("[ModuleRequestQueue] onActivityStopped, app went to the background, sending waiting events");
+            sendEventsIfNeeded(true);
+            requestQueueProvider.tick();
+        }
+    }
+
     @Override
     void halt() {
+        if (eventFlushScheduler != null) {
+            eventFlushScheduler.cancel();
+            eventFlushScheduler = null;
+        }
         requestQueueInterface = null;
     }
 
@@ -459,6 +549,19 @@ public class ModuleRequestQueue extends ModuleBase implements BaseInfoProvider {
             }
         }
 
+        /**
+         * Writes all request and event queue changes that are not yet on disk and waits for it.
+         * This is useful with write-behind persistence or explicit storage mode.
+         *
+         * @param timeoutMs how long to wait for the write in milliseconds, a negative value waits until it is done
+         * @return true if all pending changes are on disk
+         */
+        public boolean flushPersistence(long timeoutMs) {
+            // the wait does not need the SDK lock, the write is serialized by the storage itself
+            L.i("[RequestQueue] flushPersistence, timeout:[" + timeoutMs + "]");
+            return flushPersistenceInternal(timeoutMs);
+        }
+
         /**
          * Record device metrics manually as a standalone call
          *
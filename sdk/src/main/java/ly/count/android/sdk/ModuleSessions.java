@@ -87,6 +87,10 @@ public class ModuleSessions extends ModuleBase {
         }
 
         if (!_cly.disableUpdateSessionRequests_) {
+            //events recorded before the update are written to the event queue ahead of it
+            if (_cly.moduleEvents != null) {
+                _cly.moduleEvents.drainIngestedEvents();
+            }
             _cly.moduleUserProfile.saveInternal();
 
             requestQueueProvider.updateSession(roundedSecondsSinceLastSessionDurationUpdate());
@@ -110,6 +114,7 @@ public class ModuleSessions extends ModuleBase {
             return;
         }
 
+        //this also records the events that are waiting in the ingestion queue
         _cly.moduleRequestQueue.sendEventsIfNeeded(true);
 
         _cly.moduleUserProfile.saveInternal();
@@ -257,6 +257,8 @@ public class ModuleUserProfile extends ModuleBase {
             applyUserPropertyCacheLimit(customMods);
 
             isSynced = false;
+            // the changes are saved by the global timer
+            _cly.resumeTimerIfSuspended();
         } catch (JSONException e) {
             e.printStackTrace();
         }
@@ -335,6 +337,8 @@ public class ModuleUserProfile extends ModuleBase {
         applyUserPropertyCacheLimit(custom);
 
         isSynced = false;
+        // the changes are saved by the global timer
+        _cly.resumeTimerIfSuspended();
     }
 
     private void applyUserPropertyCacheLimit(Map<String, ?> map) {
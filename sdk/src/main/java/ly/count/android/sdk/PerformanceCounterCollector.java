@@ -1,22 +1,204 @@
 package ly.count.android.sdk;
 
 import android.annotation.SuppressLint;
-import android.os.Build;
 import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 
+/**
+ * Collects performance counters from any thread.
+ * Every key keeps a sum, a count and the min and max of the tracked values.
+ * Time values also go into a log-linear histogram, from which percentiles are calculated.
+ * Sums and counts are spread over per thread stripes so that threads don't contend on the same memory location.
+ */
 public class PerformanceCounterCollector {
-    HashMap<String, Double> perfCounter = new HashMap<String, Double>();
+    // must be a power of two
+    static final int STRIPES = 8;
+
+    // values below this are counted exactly, above it every power of two is split into this many buckets
+    static final int SUB_BUCKETS = 8;
+    private static final int SUB_BUCKET_BITS = 3;
+    // values above 2^40 ns (around 18 minutes) go to the last bucket
+    private static final int MAX_EXPONENT = 40;
+    static final int HISTOGRAM_BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + SUB_BUCKETS;
+
+    final ConcurrentHashMap<String, Counter> perfCounter = new ConcurrentHashMap<>();
+
+    /**
+     * Summary of one counter at the moment the snapshot was taken.
+     * Time values are in seconds. Percentiles are only available for keys tracked with 'TrackCounterTimeNs',
+     * otherwise they are 'NaN'.
+     */
+    public static final class CounterSnapshot {
+        public final String key;
+        public final long count;
+        public final double sum;
+        public final double min;
+        public final double max;
+        public final double p50;
+        public final double p90;
+        public final double p99;
+        //if true, the counter was tracked as a maximum value and 'max' is its value
+        public final boolean isMaxCounter;
+
+        CounterSnapshot(@NonNull String key, long count, double sum, double min, double max, double p50, double p90, double p99, boolean isMaxCounter) {
+            this.key = key;
+            this.count = count;
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.isMaxCounter = isMaxCounter;
+        }
+
+        /**
+         * @return the value that 'ReturnResults' reports for this counter
+         */
+        public double value() {
+            return isMaxCounter ? max : sum;
+        }
+
+        @NonNull JSONObject toJSON() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("count", count);
+            json.put("sum", sum);
+            if (count > 0) {
+                json.put("min", min);
+                json.put("max", max);
+            }
+            if (!Double.isNaN(p50)) {
+                json.put("p50", p50);
+                json.put("p90", p90);
+                json.put("p99", p99);
+            }
+            return json;
+        }
+    }
+
+    static final class Counter {
+        final AtomicLongArray sumBits = new AtomicLongArray(STRIPES);
+        final AtomicLongArray counts = new AtomicLongArray(STRIPES);
+        final AtomicLong minBits = new AtomicLong(Double.doubleToRawLongBits(Double.POSITIVE_INFINITY));
+        final AtomicLong maxBits = new AtomicLong(Double.doubleToRawLongBits(Double.NEGATIVE_INFINITY));
+        volatile AtomicLongArray histogram = null;//created on the first time value
+        volatile boolean isMaxCounter = false;
+
+        Counter() {
+            for (int a = 0; a < STRIPES; a++) {
+                sumBits.set(a, Double.doubleToRawLongBits(0.0));
+            }
+        }
+
+        void add(double value) {
+            int stripe = stripe();
+            counts.incrementAndGet(stripe);
+
+            long current;
+            do {
+                current = sumBits.get(stripe);
+            } while (!sumBits.compareAndSet(stripe, current, Double.doubleToRawLongBits(Double.longBitsToDouble(current) + value)));
+
+            updateMin(value);
+            updateMax(value);
+        }
+
+        void addTimeNs(long valueNs) {
+            add(valueNs / 1_000_000_000.0);
+
+            AtomicLongArray buckets = histogram;
+            if (buckets == null) {
+                synchronized (this) {
+                    if (histogram == null) {
+                        histogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+                    }
+                    buckets = histogram;
+                }
+            }
+            buckets.incrementAndGet(bucketIndex(valueNs));
+        }
+
+        void updateMin(double value) {
+            long current;
+            while (value < Double.longBitsToDouble(current = minBits.get())) {
+                if (minBits.compareAndSet(current, Double.doubleToRawLongBits(value))) {
+                    return;
+                }
+            }
+        }
+
+        void updateMax(double value) {
+            long current;
+            while (value > Double.longBitsToDouble(current = maxBits.get())) {
+                if (maxBits.compareAndSet(current, Double.doubleToRawLongBits(value))) {
+                    return;
+                }
+            }
+        }
+
+        long count() {
+            long total = 0;
+            for (int a = 0; a < STRIPES; a++) {
+                total += counts.get(a);
+            }
+            return total;
+        }
+
+        double sum() {
+            double total = 0;
+            for (int a = 0; a < STRIPES; a++) {
+                total += Double.longBitsToDouble(sumBits.get(a));
+            }
+            return total;
+        }
+
+        @NonNull CounterSnapshot snapshot(@NonNull String key) {
+            long count = count();
+            double min = count > 0 ? Double.longBitsToDouble(minBits.get()) : 0;
+            double max = count > 0 ? Double.longBitsToDouble(maxBits.get()) : 0;
+
+            double p50 = Double.NaN;
+            double p90 = Double.NaN;
+            double p99 = Double.NaN;
+            AtomicLongArray buckets = histogram;
+            if (buckets != null) {
+                long[] values = new long[HISTOGRAM_BUCKETS];
+                long total = 0;
+                for (int a = 0; a < HISTOGRAM_BUCKETS; a++) {
+                    values[a] = buckets.get(a);
+                    total += values[a];
+                }
+                p50 = clamp(percentileNs(values, total, 0.50) / 1_000_000_000.0, min, max);
+                p90 = clamp(percentileNs(values, total, 0.90) / 1_000_000_000.0, min, max);
+                p99 = clamp(percentileNs(values, total, 0.99) / 1_000_000_000.0, min, max);
+            }
+
+            return new CounterSnapshot(key, count, sum(), min, max, p50, p90, p99, isMaxCounter);
+        }
+    }
 
     public void Clear() {
         perfCounter.clear();
     }
 
     public void TrackCounterTimeNs(String key, long valueNs) {
-        TrackCounter(key, valueNs / 1_000_000_000.0);
+        assert Utils.isNotNullOrEmpty(key);
+
+        if (valueNs < 0) {
+            Log.w("Countly", "Problem, we should only log positive values");
+        }
+
+        getCounter(key).addTimeNs(valueNs);
     }
 
     public void TrackCounter(String key, double value) {
@@ -26,34 +208,66 @@ public class PerformanceCounterCollector {
             Log.w("Countly", "Problem, we should only log positive values");
         }
 
-        Double retrievedValue = perfCounter.get(key);
+        getCounter(key).add(value);
+    }
 
-        if (retrievedValue == null) {
-            retrievedValue = 0.0;
+    public void TrackCounterMax(String key, double value) {
+        assert Utils.isNotNullOrEmpty(key);
+
+        Counter counter = getCounter(key);
+        counter.isMaxCounter = true;
+        counter.counts.incrementAndGet(stripe());
+        counter.updateMin(value);
+        counter.updateMax(value);
+    }
+
+    /**
+     * @return value of the counter as reported by 'ReturnResults', or null if it was not tracked
+     */
+    public @Nullable Double GetValue(String key) {
+        Counter counter = perfCounter.get(key);
+        if (counter == null) {
+            return null;
         }
+        return counter.snapshot(key).value();
+    }
 
-        retrievedValue += value;
+    /**
+     * @return snapshots of all counters sorted by key
+     */
+    public @NonNull Map<String, CounterSnapshot> TakeSnapshot() {
+        Map<String, CounterSnapshot> snapshots = new TreeMap<>();
+        for (Map.Entry<String, Counter> entry : perfCounter.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().snapshot(entry.getKey()));
+        }
+        return snapshots;
+    }
 
-        perfCounter.put(key, retrievedValue);
+    /**
+     * @return all counters as a JSON object where every key has its count, sum, min, max and percentiles
+     */
+    public @NonNull JSONObject ReturnResultsJson() {
+        JSONObject results = new JSONObject();
+        for (CounterSnapshot snapshot : TakeSnapshot().values()) {
+            try {
+                results.put(snapshot.key, snapshot.toJSON());
+            } catch (JSONException e) {
+                Log.w("Countly", "[PerformanceCounterCollector] ReturnResultsJson, could not export counter [" + snapshot.key + "], " + e);
+            }
+        }
+        return results;
     }
 
     public String ReturnResults() {
-        List<String> entries = new ArrayList<>(perfCounter.size());
-
-        //create all string entries
-        for (Map.Entry<String, Double> entry : perfCounter.entrySet()) {
-            String key = entry.getKey();
-            Double value = entry.getValue();
+        Map<String, CounterSnapshot> snapshots = TakeSnapshot();
+        List<String> entries = new ArrayList<>(snapshots.size());
 
+        //create all string entries, they are already sorted by key
+        for (CounterSnapshot snapshot : snapshots.values()) {
             @SuppressLint("DefaultLocale")
-            String strValue = String.format("%.6f", value);
+            String strValue = String.format("%.6f", snapshot.value());
 
-            entries.add(key + " - " + strValue + "\n");
-        }
-
-        //sort if possible
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-            entries.sort(String::compareTo);
+            entries.add(snapshot.key + " - " + strValue + "\n");
         }
 
         //combine into printable String
@@ -64,4 +278,75 @@ public class PerformanceCounterCollector {
 
         return res.toString();
     }
+
+    private @NonNull Counter getCounter(@NonNull String key) {
+        Counter counter = perfCounter.get(key);
+        if (counter == null) {
+            Counter created = new Counter();
+            counter = perfCounter.putIfAbsent(key, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    static int stripe() {
+        long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 7)) & (STRIPES - 1);
+    }
+
+    /**
+     * Values below SUB_BUCKETS have their own bucket. Above that, every power of two range is split into SUB_BUCKETS equal buckets,
+     * so the relative error of a value taken from a bucket is at most 1 / SUB_BUCKETS.
+     */
+    static int bucketIndex(long valueNs) {
+        if (valueNs < SUB_BUCKETS) {
+            return valueNs < 0 ? 0 : (int) valueNs;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(valueNs);
+        if (exponent > MAX_EXPONENT) {
+            return HISTOGRAM_BUCKETS - 1;
+        }
+        int subBucket = (int) (valueNs >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the smallest value that falls into the given bucket
+     */
+    static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * @return middle value of the bucket in which the given percentile falls
+     */
+    static double percentileNs(@NonNull long[] buckets, long total, double percentile) {
+        if (total <= 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile * total));
+        long seen = 0;
+        for (int a = 0; a < buckets.length; a++) {
+            seen += buckets[a];
+            if (seen >= rank) {
+                long lower = bucketLowerBound(a);
+                long upper = a + 1 < buckets.length ? bucketLowerBound(a + 1) : lower;
+                return (lower + Math.max(upper - 1, lower)) / 2.0;
+            }
+        }
+        return bucketLowerBound(buckets.length - 1);
+    }
+
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
 }
@@ -0,0 +1,273 @@
+package ly.count.android.sdk;
+
+import android.content.SharedPreferences;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Writes the preferences backed queues (event queue, request queue and health check state) to disk.
+ * How and when that happens depends on the policy:
+ * - IMMEDIATE: every write goes to preferences on the caller thread, this is the default
+ * - WRITE_BEHIND: writes are cached and all writes done within the flush window are coalesced
+ * into a single disk write that is done on a dedicated thread
+ * - EXPLICIT: writes are cached until 'flushPending' is called, used by the explicit storage mode
+ * While writes are cached, reads are served from the cache.
+ */
+class PersistenceFlusher {
+    enum Policy {
+        IMMEDIATE,
+        WRITE_BEHIND,
+        EXPLICIT
+    }
+
+    final Policy policy;
+    final long flushWindowMs;
+    int diskWriteCount = 0;//amount of disk writes done by cached policies
+    PerformanceCounterCollector pcc;
+
+    private final SharedPreferences preferences;
+    private final ModuleLog L;
+
+    // last written or read value for each key, a missing key means that it hasn't been read from storage
+    private final Map<String, String> cache = new HashMap<>();
+    // written values that are not persisted yet
+    private final Map<String, String> pending = new HashMap<>();
+    // serializes disk writes so that an older snapshot can't overwrite a newer one
+    private final Object diskLock = new Object();
+    // last value written to disk for each key, guarded by 'diskLock'
+    private final Map<String, String> written = new HashMap<>();
+
+    private ScheduledExecutorService executor = null;
+    private boolean flushScheduled = false;
+
+    PersistenceFlusher(@NonNull SharedPreferences preferences, @NonNull Policy policy, long flushWindowMs, @NonNull ModuleLog logModule) {
+        this.preferences = preferences;
+        this.policy = policy;
+        this.flushWindowMs = Math.max(flushWindowMs, 0);
+        L = logModule;
+    }
+
+    @NonNull String read(@NonNull String key) {
+        if (policy == Policy.IMMEDIATE) {
+            return preferences.getString(key, "");
+        }
+
+        synchronized (this) {
+            String value = cache.get(key);
+            if (value == null) {
+                L.v("[PersistenceFlusher] read, reading initial value of [" + key + "] from storage");
+                value = preferences.getString(key, "");
+                cache.put(key, value);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * @param writeInSync if true, the value is on disk when this call returns
+     */
+    void write(@NonNull String key, @Nullable String value, boolean writeInSync) {
+        if (policy == Policy.IMMEDIATE) {
+            SharedPreferences.Editor editor = preferences.edit().putString(key, value);
+            if (writeInSync) {
+                editor.commit();
+            } else {
+                editor.apply();
+            }
+            return;
+        }
+
+        if (value == null) {
+            value = "";
+        }
+
+        synchronized (this) {
+            cache.put(key, value);
+            pending.put(key, value);
+        }
+
+        if (policy == Policy.WRITE_BEHIND) {
+            if (writeInSync) {
+                flushPending();
+            } else {
+                scheduleFlush();
+            }
+        }
+    }
+
+    synchronized boolean hasPendingWrites() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Writes all pending values to disk on the caller thread.
+     * Values that match the last written value are not written.
+     *
+     * @return true if a disk write was performed
+     */
+    boolean flushPending() {
+        synchronized (diskLock) {
+            Map<String, String> snapshot;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return false;
+                }
+                snapshot = new HashMap<>(pending);
+                pending.clear();
+            }
+
+            long tsStart = 0L;
+            if (pcc != null) {
+                tsStart = UtilsTime.getNanoTime();
+            }
+
+            boolean writePerformed = false;
+            SharedPreferences.Editor editor = preferences.edit();
+            for (Map.Entry<String, String> entry : snapshot.entrySet()) {
+                String lastWritten = written.get(entry.getKey());
+                if (lastWritten == null) {
+                    //nothing was written for this key yet, compare with what is stored
+                    lastWritten = preferences.getString(entry.getKey(), "");
+                }
+                if (!entry.getValue().equals(lastWritten)) {
+                    editor.putString(entry.getKey(), entry.getValue());
+                    writePerformed = true;
+                }
+                written.put(entry.getKey(), entry.getValue());
+            }
+
+            if (writePerformed) {
+                editor.commit();
+                diskWriteCount++;
+            }
+
+            if (pcc != null) {
+                pcc.TrackCounterTimeNs("PersistenceFlusher_flushPending", UtilsTime.getNanoTime() - tsStart);
+            }
+            L.v("[PersistenceFlusher] flushPending, coalesced [" + snapshot.size() + "] values, write performed:[" + writePerformed + "]");
+            return writePerformed;
+        }
+    }
+
+    /**
+     * Durability barrier. Writes all pending values to disk and waits for it.
+     * With the write-behind policy the write is done on the flusher thread.
+     *
+     * @param timeoutMs how long to wait for the write, a negative value waits until it is done,
+     * 0 only triggers the write without waiting
+     * @return true if all values that were pending when this was called are on disk
+     */
+    boolean flush(long timeoutMs) {
+        Future<Boolean> flushTask;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return true;
+            }
+            if (policy != Policy.WRITE_BEHIND) {
+                flushTask = null;
+            } else {
+                flushTask = getExecutor().submit(this::flushPending);
+            }
+        }
+
+        if (flushTask == null) {
+            flushPending();
+            return true;
+        }
+
+        if (timeoutMs == 0) {
+            return false;
+        }
+
+        try {
+            if (timeoutMs < 0) {
+                flushTask.get();
+            } else {
+                flushTask.get(timeoutMs, TimeUnit.MILLISECONDS);
+            }
+            return true;
+        } catch (TimeoutException e) {
+            L.w("[PersistenceFlusher] flush, pending writes were not finished within [" + timeoutMs + "] ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            L.w("[PersistenceFlusher] flush, interrupted while waiting for pending writes");
+        } catch (ExecutionException e) {
+            L.e("[PersistenceFlusher] flush, failed to write pending values, " + e.getCause());
+        }
+        return false;
+    }
+
+    /**
+     * Drops all cached and pending values, used when the underlying storage is cleared.
+     * Waits for a disk write that is in progress so that it can't restore the dropped values.
+     */
+    void clear() {
+        synchronized (diskLock) {
+            written.clear();
+            synchronized (this) {
+                cache.clear();
+                pending.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes all pending values to disk and stops the flusher thread.
+     * If values are written after this, the thread is started again when it is needed.
+     */
+    void stop() {
+        flushPending();
+        synchronized (this) {
+            if (executor != null) {
+                executor.shutdown();
+                executor = null;
+            }
+        }
+    }
+
+    /**
+     * Drops the cached and pending value of a single key, used when that key is changed in storage directly
+     */
+    void invalidate(@NonNull String key) {
+        synchronized (diskLock) {
+            written.remove(key);
+            synchronized (this) {
+                cache.remove(key);
+                pending.remove(key);
+            }
+        }
+    }
+
+    private synchronized void scheduleFlush() {
+        if (flushScheduled) {
+            return;
+        }
+
+        flushScheduled = true;
+        getExecutor().schedule(() -> {
+            synchronized (PersistenceFlusher.this) {
+                flushScheduled = false;
+            }
+            flushPending();
+        }, flushWindowMs, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized @NonNull ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "Countly-PersistenceFlusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+}
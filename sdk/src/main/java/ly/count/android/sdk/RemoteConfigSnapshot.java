@@ -0,0 +1,154 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import ly.count.android.sdk.internal.RemoteConfigValueStore;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Immutable, decoded form of the stored remote config values.
+ * It is built when the values are loaded or changed and then replaced as a whole, so reads are map lookups without locking.
+ * Every read returns a new RCData object and JSONObject and JSONArray values are copied, so callers can't change the snapshot through them.
+ * Booleans and numbers are also stored unboxed, so the typed getters don't create any objects.
+ */
+final class RemoteConfigSnapshot {
+    static final RemoteConfigSnapshot EMPTY = new RemoteConfigSnapshot(Collections.<String, Entry>emptyMap());
+
+    static final int TYPE_OTHER = 0;
+    static final int TYPE_BOOLEAN = 1;
+    static final int TYPE_NUMBER = 2;
+    static final int TYPE_STRING = 3;
+
+    static final class Entry {
+        @Nullable final Object value;
+        final boolean isCurrentUsersData;
+        final int type;
+        final boolean booleanValue;
+        final long longValue;
+        final double doubleValue;
+
+        Entry(@Nullable Object value, boolean isCurrentUsersData) {
+            this.value = value;
+            this.isCurrentUsersData = isCurrentUsersData;
+
+            if (value instanceof Boolean) {
+                type = TYPE_BOOLEAN;
+                booleanValue = (Boolean) value;
+                longValue = 0;
+                doubleValue = 0;
+            } else if (value instanceof Number) {
+                type = TYPE_NUMBER;
+                booleanValue = false;
+                longValue = ((Number) value).longValue();
+                doubleValue = ((Number) value).doubleValue();
+            } else {
+                type = value instanceof String ? TYPE_STRING : TYPE_OTHER;
+                booleanValue = false;
+                longValue = 0;
+                doubleValue = 0;
+            }
+        }
+
+        /**
+         * @return the value, JSON containers are returned as copies because they are mutable
+         */
+        @Nullable Object readValue() {
+            try {
+                if (value instanceof JSONObject) {
+                    return new JSONObject(value.toString());
+                } else if (value instanceof JSONArray) {
+                    return new JSONArray(value.toString());
+                }
+            } catch (JSONException ignored) {
+                // should not happen since the string was created from the same container
+            }
+            return value;
+        }
+    }
+
+    private final Map<String, Entry> entries;
+
+    private RemoteConfigSnapshot(@NonNull Map<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    static @NonNull RemoteConfigSnapshot fromValueStore(@NonNull RemoteConfigValueStore rcvs) {
+        if (rcvs.values.length() == 0) {
+            return EMPTY;
+        }
+
+        Map<String, Entry> entries = new HashMap<>(rcvs.values.length() * 2);
+        Iterator<String> keys = rcvs.values.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            JSONObject rcObj = rcvs.values.optJSONObject(key);
+            if (rcObj == null) {
+                continue;
+            }
+            boolean isCurrentUsersData = rcObj.optInt(RemoteConfigValueStore.keyCacheFlag, RemoteConfigValueStore.cacheValFresh) != RemoteConfigValueStore.cacheValCached;
+            entries.put(key, new Entry(rcObj.opt(RemoteConfigValueStore.keyValue), isCurrentUsersData));
+        }
+        return new RemoteConfigSnapshot(entries);
+    }
+
+    boolean getBoolean(@NonNull String key, boolean defaultValue) {
+        Entry entry = entries.get(key);
+        return entry != null && entry.type == TYPE_BOOLEAN ? entry.booleanValue : defaultValue;
+    }
+
+    long getLong(@NonNull String key, long defaultValue) {
+        Entry entry = entries.get(key);
+        return entry != null && entry.type == TYPE_NUMBER ? entry.longValue : defaultValue;
+    }
+
+    double getDouble(@NonNull String key, double defaultValue) {
+        Entry entry = entries.get(key);
+        return entry != null && entry.type == TYPE_NUMBER ? entry.doubleValue : defaultValue;
+    }
+
+    @Nullable String getString(@NonNull String key, @Nullable String defaultValue) {
+        Entry entry = entries.get(key);
+        return entry != null && entry.type == TYPE_STRING ? (String) entry.value : defaultValue;
+    }
+
+    @NonNull RCData getValue(@NonNull String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return new RCData(null, true);
+        }
+        return new RCData(entry.readValue(), entry.isCurrentUsersData);
+    }
+
+    @Nullable Object getValueLegacy(@NonNull String key) {
+        Entry entry = entries.get(key);
+        return entry == null ? null : entry.readValue();
+    }
+
+    @NonNull Map<String, RCData> getAllValues() {
+        Map<String, RCData> ret = new HashMap<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            ret.put(entry.getKey(), new RCData(entry.getValue().readValue(), entry.getValue().isCurrentUsersData));
+        }
+        return ret;
+    }
+
+    @NonNull Map<String, Object> getAllValuesLegacy() {
+        Map<String, Object> ret = new HashMap<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().value != null) {
+                ret.put(entry.getKey(), entry.getValue().readValue());
+            }
+        }
+        return ret;
+    }
+
+    int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,118 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Metadata of a stored request that is needed while managing the request queue.
+ * It is parsed once with a single pass over the request parameters so that the queue
+ * can be checked for age, temporary IDs, app keys, etc. without scanning the raw request strings again.
+ * Values are kept in the same (url encoded) form as they are in the request.
+ */
+class RequestHeader {
+    static final long NO_TIMESTAMP = -1;
+
+    /** request timestamp in milliseconds or NO_TIMESTAMP if it is missing or malformed */
+    final long timestamp;
+    final @Nullable String appKey;
+    final @Nullable String deviceId;
+    /** true if the request was created while in temporary ID mode */
+    final boolean temporaryId;
+    /** value of the custom endpoint tag, can be empty, null if the tag is not present */
+    final @Nullable String customEndpoint;
+    /** value of the internal callback tag, null if the tag is not present */
+    final @Nullable String callbackId;
+    /** true if the request carries a crash report */
+    final boolean crash;
+    /** length of the request string */
+    final int size;
+
+    RequestHeader(long timestamp, @Nullable String appKey, @Nullable String deviceId, @Nullable String customEndpoint, @Nullable String callbackId, boolean crash, int size) {
+        this.timestamp = timestamp;
+        this.appKey = appKey;
+        this.deviceId = deviceId;
+        this.temporaryId = DeviceId.temporaryCountlyDeviceId.equals(deviceId);
+        this.customEndpoint = customEndpoint;
+        this.callbackId = callbackId;
+        this.crash = crash;
+        this.size = size;
+    }
+
+    /**
+     * Returns the kept header of a stored request, if the storage has none for it, the request is parsed
+     *
+     * @param storageProvider storage that holds the request
+     * @param request stored request
+     * @param position position of the request in the array returned by 'getRequests'
+     * @return parsed header
+     */
+    static @NonNull RequestHeader of(@NonNull StorageProvider storageProvider, @NonNull String request, int position) {
+        RequestHeader header = storageProvider.getRequestHeader(request, position);
+        if (header == null) {
+            header = parse(request);
+        }
+        return header;
+    }
+
+    /**
+     * Parses the header of the given request. If a parameter is present multiple times, the first value is used.
+     *
+     * @param request stored request
+     * @return parsed header
+     */
+    static @NonNull RequestHeader parse(@NonNull String request) {
+        long timestamp = NO_TIMESTAMP;
+        String appKey = null;
+        String deviceId = null;
+        String customEndpoint = null;
+        String callbackId = null;
+        boolean crash = false;
+
+        final int length = request.length();
+        int paramStart = 0;
+        while (paramStart <= length) {
+            int paramEnd = request.indexOf('&', paramStart);
+            if (paramEnd == -1) {
+                paramEnd = length;
+            }
+
+            if (timestamp == NO_TIMESTAMP && isKey(request, paramStart, "timestamp=")) {
+                timestamp = parseTimestamp(request, paramStart + 10, paramEnd);
+            } else if (appKey == null && isKey(request, paramStart, "app_key=")) {
+                appKey = request.substring(paramStart + 8, paramEnd);
+            } else if (deviceId == null && isKey(request, paramStart, "device_id=")) {
+                deviceId = request.substring(paramStart + 10, paramEnd);
+            } else if (customEndpoint == null && isKey(request, paramStart, "new_end_point=")) {
+                customEndpoint = request.substring(paramStart + 14, paramEnd);
+            } else if (callbackId == null && isKey(request, paramStart, "callback_id=")) {
+                callbackId = request.substring(paramStart + 12, paramEnd);
+            } else if (!crash && isKey(request, paramStart, "crash=")) {
+                crash = true;
+            }
+
+            paramStart = paramEnd + 1;
+        }
+
+        return new RequestHeader(timestamp, appKey, deviceId, customEndpoint, callbackId, crash, length);
+    }
+
+    private static boolean isKey(@NonNull String request, int paramStart, @NonNull String keyWithSeparator) {
+        return request.regionMatches(paramStart, keyWithSeparator, 0, keyWithSeparator.length());
+    }
+
+    private static long parseTimestamp(@NonNull String request, int start, int end) {
+        if (start == end) {
+            return NO_TIMESTAMP;
+        }
+
+        long value = 0;
+        for (int a = start; a < end; a++) {
+            char c = request.charAt(a);
+            if (c < '0' || c > '9' || value > (Long.MAX_VALUE - 9) / 10) {
+                return NO_TIMESTAMP;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
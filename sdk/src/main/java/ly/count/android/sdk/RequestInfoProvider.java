@@ -10,4 +10,10 @@ interface RequestInfoProvider {
     int getRequestDropAgeHours();
 
     String getRequestSalt();
+
+    int getBulkRequestBatchSize();
+
+    String getBulkRequestEndpoint();
+
+    int getRequestCompressionThreshold();
 }
@@ -0,0 +1,209 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import java.util.List;
+
+/**
+ * Decides which requests are evicted when a request is added to a full request queue.
+ * The work done for a single request addition is bounded:
+ * - a lower bound of the oldest request timestamp is kept, so while nothing can be too old the age check is O(1)
+ * - too old requests are looked for in slices of at most 'sliceSize' requests and within 'timeBudgetNs',
+ * continuing from where the previous slice ended. Too old requests that were not reached yet
+ * are dropped by the connection processor if they reach the front of the queue before that
+ * - if the queue is still full, at most 'sliceSize' + 1 oldest requests are evicted (or all overflow if the gradual cleaner is disabled)
+ * - if a byte budget is set, the oldest requests are evicted until the new request fits, crash reports are kept
+ */
+class RequestQueueEvictor {
+    static final int DEFAULT_SLICE_SIZE = 100;
+    static final long DEFAULT_TIME_BUDGET_NS = 2_000_000L;
+    private static final long UNKNOWN_TIMESTAMP = Long.MIN_VALUE;
+
+    int sliceSize = DEFAULT_SLICE_SIZE;
+    long timeBudgetNs = DEFAULT_TIME_BUDGET_NS;
+    boolean removeAllOverflow = false;
+
+    // no request in the queue is older than this, UNKNOWN_TIMESTAMP if that is not known
+    private long oldestTimestamp = UNKNOWN_TIMESTAMP;
+
+    // state of the current pass over the queue that looks for too old requests
+    private int scanCursor = 0;
+    private long scanOldestTimestamp = Long.MAX_VALUE;
+    private long addedOldestTimestamp = Long.MAX_VALUE;
+
+    // true if the requests removed by the last eviction from a list were all at the front of the queue
+    boolean lastEvictionFromFront = true;
+    // amount of requests removed by the last byte budget eviction
+    int lastEvictedCount = 0;
+
+    private final ModuleLog L;
+
+    RequestQueueEvictor(@NonNull ModuleLog logModule) {
+        L = logModule;
+    }
+
+    /**
+     * Has to be called when requests were replaced or moved in the queue
+     */
+    void invalidate() {
+        oldestTimestamp = UNKNOWN_TIMESTAMP;
+        restartScan();
+    }
+
+    /**
+     * Has to be called when requests were removed from the queue other than through eviction.
+     * The oldest timestamp stays a valid lower bound. The current pass steps back so that no request is skipped,
+     * at worst a few requests are checked twice.
+     */
+    void onRequestsRemoved(int count) {
+        scanCursor = Math.max(0, scanCursor - count);
+    }
+
+    /**
+     * Has to be called after a request was added to the queue
+     */
+    void onRequestAdded(@NonNull RequestHeader header) {
+        if (header.timestamp < 0) {
+            return;
+        }
+
+        addedOldestTimestamp = Math.min(addedOldestTimestamp, header.timestamp);
+        if (oldestTimestamp != UNKNOWN_TIMESTAMP) {
+            oldestTimestamp = Math.min(oldestTimestamp, header.timestamp);
+        }
+    }
+
+    /**
+     * O(1) check if the queue could contain too old requests
+     *
+     * @param dropAgeHours request age limit, 0 or less if there is none
+     */
+    boolean mightContainTooOldRequests(int dropAgeHours) {
+        if (dropAgeHours <= 0) {
+            return false;
+        }
+
+        return oldestTimestamp == UNKNOWN_TIMESTAMP || oldestTimestamp < thresholdTimestamp(dropAgeHours);
+    }
+
+    /**
+     * Removes too old requests from the next slice of the queue
+     *
+     * @param storageProvider used to get the kept request headers
+     * @param requests current request queue, too old requests are removed from it
+     * @param dropAgeHours request age limit
+     * @return amount of removed requests
+     */
+    int evictTooOldRequests(@NonNull StorageProvider storageProvider, @NonNull List<String> requests, int dropAgeHours) {
+        long tsStart = UtilsTime.getNanoTime();
+        long thresholdTimestampMs = thresholdTimestamp(dropAgeHours);
+        int removed = 0;
+        int scanned = 0;
+        lastEvictionFromFront = true;
+
+        while (scanCursor < requests.size() && scanned < sliceSize) {
+            long timestamp = RequestHeader.of(storageProvider, requests.get(scanCursor), scanCursor).timestamp;
+            scanned++;
+
+            if (timestamp >= 0 && timestamp < thresholdTimestampMs) {
+                if (scanCursor != 0) {
+                    lastEvictionFromFront = false;
+                }
+                requests.remove(scanCursor);
+                removed++;
+            } else {
+                if (timestamp >= 0) {
+                    scanOldestTimestamp = Math.min(scanOldestTimestamp, timestamp);
+                }
+                scanCursor++;
+            }
+
+            if ((scanned & 0xF) == 0 && UtilsTime.getNanoTime() - tsStart > timeBudgetNs) {
+                L.v("[RequestQueueEvictor] evictTooOldRequests, time budget reached after [" + scanned + "] requests");
+                break;
+            }
+        }
+
+        if (scanCursor >= requests.size()) {
+            // the whole queue has been checked, everything that is left is newer than the threshold
+            oldestTimestamp = Math.min(scanOldestTimestamp, addedOldestTimestamp);
+            restartScan();
+        }
+
+        if (removed > 0) {
+            L.i("[RequestQueueEvictor] evictTooOldRequests, removed [" + removed + "] too old requests after checking [" + scanned + "]");
+        }
+        return removed;
+    }
+
+    /**
+     * Returns how many of the oldest requests should be removed to make room for a new one
+     *
+     * @param queueSize amount of requests in the queue
+     * @param maxQueueSize request queue size limit
+     * @return amount of requests to remove from the front of the queue
+     */
+    int overflowToEvict(int queueSize, int maxQueueSize) {
+        if (queueSize < maxQueueSize) {
+            return 0;
+        }
+
+        int overflow = queueSize - maxQueueSize;
+        // +1 because it should open a new place for the newcomer
+        int toEvict = removeAllOverflow ? overflow + 1 : Math.min(sliceSize, overflow) + 1;
+        onRequestsRemoved(toEvict);
+        return toEvict;
+    }
+
+    /**
+     * Removes the oldest requests until the queue and the new request fit into the byte budget.
+     * Crash reports are not removed.
+     *
+     * @param storageProvider used to get the kept request headers
+     * @param requests current request queue, evicted requests are removed from it
+     * @param queueBytes current size of the queue in bytes
+     * @param newRequestBytes size of the request that is about to be added
+     * @param maxQueueBytes byte budget of the queue
+     * @return amount of removed bytes
+     */
+    long evictForByteBudget(@NonNull StorageProvider storageProvider, @NonNull List<String> requests, long queueBytes, long newRequestBytes, long maxQueueBytes) {
+        lastEvictionFromFront = true;
+        lastEvictedCount = 0;
+        long bytesToFree = queueBytes + newRequestBytes - maxQueueBytes;
+        long freed = 0;
+        int index = 0;
+
+        while (freed < bytesToFree && index < requests.size()) {
+            RequestHeader header = RequestHeader.of(storageProvider, requests.get(index), index);
+            if (header.crash) {
+                index++;
+                continue;
+            }
+
+            if (index != 0) {
+                lastEvictionFromFront = false;
+            }
+            requests.remove(index);
+            freed += header.size;
+            lastEvictedCount++;
+        }
+
+        if (lastEvictedCount > 0) {
+            onRequestsRemoved(lastEvictedCount);
+            L.i("[RequestQueueEvictor] evictForByteBudget, removed [" + lastEvictedCount + "] requests with [" + freed + "] bytes");
+        }
+        if (freed < bytesToFree) {
+            L.w("[RequestQueueEvictor] evictForByteBudget, only crash reports are left, the queue stays [" + (bytesToFree - freed) + "] bytes over the budget");
+        }
+        return freed;
+    }
+
+    private void restartScan() {
+        scanCursor = 0;
+        scanOldestTimestamp = Long.MAX_VALUE;
+        addedOldestTimestamp = Long.MAX_VALUE;
+    }
+
+    private static long thresholdTimestamp(int dropAgeHours) {
+        return UtilsTime.currentTimestampMs() - dropAgeHours * 3_600_000L;
+    }
+}
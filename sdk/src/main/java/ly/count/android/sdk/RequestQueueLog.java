@@ -0,0 +1,539 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * File backed storage for the request queue.
+ *
+ * Requests are stored as length prefixed records in append only segment files.
+ * A small "head" file holds the position (segment id and byte offset) of the oldest request that is still in the queue.
+ * Adding a request is an append to the newest segment, removing from the front of the queue only moves the head.
+ * Segments that are fully behind the head are deleted.
+ *
+ * Record layout: [4 byte big endian length][UTF-8 bytes of the request]
+ * Head file layout: [8 byte segment id][8 byte offset]
+ *
+ * A copy of the queued requests is kept in memory so that reading the queue does not touch the disk.
+ * Removing a request from the middle of the queue (or replacing the whole queue) compacts the log into a new segment.
+ * The compacted segment is first written to a temporary file. It is renamed only after the head pointing to it is synced,
+ * so after a crash either the old segments or the new one are loaded, never both.
+ */
+class RequestQueueLog {
+    static final String HEAD_FILE_NAME = "head";
+    static final String SEGMENT_FILE_PREFIX = "rq_";
+    static final String SEGMENT_FILE_SUFFIX = ".seg";
+    static final String TEMP_FILE_SUFFIX = ".tmp";
+    static final long DEFAULT_MAX_SEGMENT_SIZE = 256 * 1024;
+    private static final int RECORD_HEADER_SIZE = 4;
+
+    final File directory;
+    final long maxSegmentSize;
+    final ModuleLog L;
+
+    private static class Record {
+        final String request;
+        final long segmentId;
+        final long endOffset;//position right after this record in its segment
+
+        Record(String request, long segmentId, long endOffset) {
+            this.request = request;
+            this.segmentId = segmentId;
+            this.endOffset = endOffset;
+        }
+    }
+
+    private final ArrayDeque<Record> records = new ArrayDeque<>();
+    private final ArrayDeque<Long> segmentIds = new ArrayDeque<>();//ids of the segments at or after the head, in ascending order
+    private long requestBytes = 0;//summed length of the stored requests
+    private long version = 0;//changed every time the queue is changed
+    private long headSegmentId = 0;
+    private long headOffset = 0;
+    private long tailSegmentId = 0;
+    private long tailSize = 0;
+    private FileOutputStream tailStream;
+    private RandomAccessFile headFile;
+
+    RequestQueueLog(@NonNull File directory, @NonNull ModuleLog logModule) throws IOException {
+        this(directory, DEFAULT_MAX_SEGMENT_SIZE, logModule);
+    }
+
+    RequestQueueLog(@NonNull File directory, long maxSegmentSize, @NonNull ModuleLog logModule) throws IOException {
+        assert directory != null;
+        assert maxSegmentSize > 0;
+        assert logModule != null;
+
+        this.directory = directory;
+        this.maxSegmentSize = maxSegmentSize;
+        L = logModule;
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create request queue directory: " + directory.getAbsolutePath());
+        }
+
+        open();
+    }
+
+    /**
+     * Returns true if the given directory contains a request queue log
+     */
+    static boolean exists(@NonNull File directory) {
+        return new File(directory, HEAD_FILE_NAME).exists() || !listSegmentIds(directory).isEmpty();
+    }
+
+    /**
+     * Reads the head and all segments and rebuilds the in memory copy of the queue.
+     * A partially written record at the end of a segment is cut off.
+     */
+    private void open() throws IOException {
+        headFile = new RandomAccessFile(new File(directory, HEAD_FILE_NAME), "rw");
+        if (headFile.length() >= 16) {
+            headFile.seek(0);
+            headSegmentId = headFile.readLong();
+            headOffset = headFile.readLong();
+        }
+
+        recoverCompaction();
+
+        for (Long segmentId : listSegmentIds(directory)) {
+            if (segmentId < headSegmentId) {
+                //everything in this segment was already removed
+                deleteSegment(segmentId);
+                continue;
+            }
+
+            long startOffset = segmentId == headSegmentId ? headOffset : 0;
+            readSegment(segmentId, startOffset);
+            segmentIds.add(segmentId);
+        }
+
+        if (segmentIds.isEmpty()) {
+            tailSegmentId = headSegmentId;
+            tailSize = 0;
+            segmentIds.add(tailSegmentId);
+        } else {
+            tailSegmentId = segmentIds.peekLast();
+            tailSize = segmentFile(tailSegmentId).length();
+        }
+
+        L.d("[RequestQueueLog] open, loaded [" + records.size() + "] requests, head:[" + headSegmentId + ":" + headOffset + "] tail segment:[" + tailSegmentId + "]");
+    }
+
+    /**
+     * Finishes or discards a compaction that was interrupted.
+     * If the head was already moved to the compacted segment, its temporary file is renamed,
+     * otherwise the old segments are still valid and the temporary file is deleted.
+     */
+    private void recoverCompaction() {
+        File headTempFile = tempSegmentFile(headSegmentId);
+        if (headTempFile.exists() && !segmentFile(headSegmentId).exists()) {
+            L.w("[RequestQueueLog] recoverCompaction, finishing interrupted compaction into segment [" + headSegmentId + "]");
+            if (!headTempFile.renameTo(segmentFile(headSegmentId))) {
+                L.w("[RequestQueueLog] recoverCompaction, failed to rename compacted segment [" + headSegmentId + "]");
+            }
+        }
+
+        String[] names = directory.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            if (name.startsWith(SEGMENT_FILE_PREFIX) && name.endsWith(SEGMENT_FILE_SUFFIX + TEMP_FILE_SUFFIX)) {
+                //noinspection ResultOfMethodCallIgnored
+                new File(directory, name).delete();
+            }
+        }
+    }
+
+    private void readSegment(long segmentId, long startOffset) throws IOException {
+        File file = segmentFile(segmentId);
+        long fileLength = file.length();
+        long position = 0;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (position < startOffset) {
+                long skipped = in.skip(startOffset - position);
+                if (skipped <= 0) {
+                    break;
+                }
+                position += skipped;
+            }
+
+            while (position + RECORD_HEADER_SIZE <= fileLength) {
+                int length = in.readInt();
+                if (length < 0 || position + RECORD_HEADER_SIZE + length > fileLength) {
+                    break;
+                }
+                byte[] data = new byte[length];
+                in.readFully(data);
+                position += RECORD_HEADER_SIZE + length;
+                Record record = new Record(new String(data, StandardCharsets.UTF_8), segmentId, position);
+                records.add(record);
+                requestBytes += record.request.length();
+            }
+        } catch (EOFException ignored) {
+            //reached a partially written record
+        }
+
+        if (position < fileLength && position >= startOffset) {
+            L.w("[RequestQueueLog] readSegment, segment [" + segmentId + "] ends with a partial record, truncating it from [" + fileLength + "] to [" + position + "] bytes");
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(position);
+            }
+        }
+    }
+
+    synchronized int size() {
+        return records.size();
+    }
+
+    /**
+     * Returns the summed length of the stored requests.
+     * Requests are url encoded, so this is also their size in bytes.
+     */
+    synchronized long byteSize() {
+        return requestBytes;
+    }
+
+    /**
+     * Returns a value that changes every time the queue is changed
+     */
+    synchronized long version() {
+        return version;
+    }
+
+    synchronized @NonNull String[] getRequests() {
+        String[] ret = new String[records.size()];
+        int index = 0;
+        for (Record record : records) {
+            ret[index++] = record.request;
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the oldest request in the queue or null if the queue is empty
+     */
+    synchronized String peek() {
+        Record record = records.peekFirst();
+        return record == null ? null : record.request;
+    }
+
+    /**
+     * Appends a request to the end of the queue
+     *
+     * @param request request to append
+     * @param writeInSync if true, the segment is synced to the disk before returning
+     */
+    synchronized void append(@NonNull String request, boolean writeInSync) throws IOException {
+        if (tailSize >= maxSegmentSize) {
+            rollSegment();
+        }
+
+        byte[] data = encodeRecord(request);
+        FileOutputStream out = tailStream();
+        out.write(data);
+        if (writeInSync) {
+            out.getFD().sync();
+        }
+
+        tailSize += data.length;
+        records.add(new Record(request, tailSegmentId, tailSize));
+        requestBytes += request.length();
+        version++;
+    }
+
+    /**
+     * Removes up to the given amount of requests from the front of the queue
+     *
+     * @return the amount of removed requests
+     */
+    synchronized int removeFirst(int count) throws IOException {
+        int removed = 0;
+        Record last = null;
+        while (removed < count && !records.isEmpty()) {
+            last = records.pollFirst();
+            requestBytes -= last.request.length();
+            removed++;
+        }
+
+        if (last != null) {
+            version++;
+            moveHead(last.segmentId, last.endOffset);
+        }
+        return removed;
+    }
+
+    /**
+     * Removes the first occurrence of the given request.
+     * Removing the oldest request only moves the head, removing any other request compacts the log.
+     *
+     * @return true if the request was found and removed
+     */
+    synchronized boolean remove(@NonNull String request) throws IOException {
+        Record first = records.peekFirst();
+        if (first == null) {
+            return false;
+        }
+
+        if (first.request.equals(request)) {
+            removeFirst(1);
+            return true;
+        }
+
+        List<String> remaining = new ArrayList<>(records.size());
+        boolean found = false;
+        for (Record record : records) {
+            if (!found && record.request.equals(request)) {
+                found = true;
+                continue;
+            }
+            remaining.add(record.request);
+        }
+
+        if (found) {
+            replaceAll(remaining);
+        }
+        return found;
+    }
+
+    /**
+     * Removes the first occurrence of each of the given requests with a single write.
+     * If they are the oldest requests in the queue, only the head is moved, otherwise the log is compacted.
+     *
+     * @return the amount of removed requests
+     */
+    synchronized int removeAll(@NonNull List<String> requestsToRemove) throws IOException {
+        int prefixLength = 0;
+        for (Record record : records) {
+            if (prefixLength >= requestsToRemove.size() || !record.request.equals(requestsToRemove.get(prefixLength))) {
+                break;
+            }
+            prefixLength++;
+        }
+
+        if (prefixLength == requestsToRemove.size()) {
+            return removeFirst(prefixLength);
+        }
+
+        List<String> remaining = new ArrayList<>(Arrays.asList(getRequests()));
+        int removed = 0;
+        for (String request : requestsToRemove) {
+            if (remaining.remove(request)) {
+                removed++;
+            }
+        }
+
+        if (removed > 0) {
+            replaceAll(remaining);
+        }
+        return removed;
+    }
+
+    /**
+     * Replaces the whole queue with the given requests.
+     * They are written to a new segment and the head is moved to its beginning.
+     * The segment is written to a temporary file that is renamed after the new head is synced.
+     */
+    synchronized void replaceAll(@NonNull List<String> requests) throws IOException {
+        closeTailStream();
+        long newSegmentId = tailSegmentId + 1;
+        File file = tempSegmentFile(newSegmentId);
+
+        List<Record> newRecords = new ArrayList<>(requests.size());
+        long position = 0;
+        long newRequestBytes = 0;
+        try (FileOutputStream out = new FileOutputStream(file, false)) {
+            for (String request : requests) {
+                if (request == null || request.isEmpty()) {
+                    continue;
+                }
+                byte[] data = encodeRecord(request);
+                out.write(data);
+                position += data.length;
+                newRecords.add(new Record(request, newSegmentId, position));
+                newRequestBytes += request.length();
+            }
+            out.getFD().sync();
+        }
+
+        records.clear();
+        records.addAll(newRecords);
+        requestBytes = newRequestBytes;
+        version++;
+        tailSegmentId = newSegmentId;
+        tailSize = position;
+        segmentIds.addLast(newSegmentId);
+
+        writeHead(newSegmentId, 0);
+        if (!file.renameTo(segmentFile(newSegmentId))) {
+            throw new IOException("Could not rename compacted segment [" + newSegmentId + "]");
+        }
+        deleteSegmentsBehindHead();
+    }
+
+    /**
+     * Removes all requests and all files of this log
+     */
+    synchronized void clear() throws IOException {
+        records.clear();
+        requestBytes = 0;
+        version++;
+        closeTailStream();
+        for (Long segmentId : listSegmentIds(directory)) {
+            deleteSegment(segmentId);
+        }
+        segmentIds.clear();
+        tailSegmentId = tailSegmentId + 1;
+        tailSize = 0;
+        segmentIds.add(tailSegmentId);
+        moveHead(tailSegmentId, 0);
+    }
+
+    /**
+     * Closes all open files and deletes the log directory
+     */
+    synchronized void delete() {
+        records.clear();
+        requestBytes = 0;
+        version++;
+        closeTailStream();
+        try {
+            headFile.close();
+        } catch (IOException ignored) {
+        }
+        deleteDirectory(directory);
+    }
+
+    static void deleteDirectory(@NonNull File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        directory.delete();
+    }
+
+    private void moveHead(long segmentId, long offset) throws IOException {
+        if (records.isEmpty() && segmentId == tailSegmentId && offset == tailSize && tailSize > 0) {
+            //queue is empty, start over with a fresh segment so that disk usage does not grow
+            closeTailStream();
+            tailSegmentId = tailSegmentId + 1;
+            tailSize = 0;
+            segmentIds.addLast(tailSegmentId);
+            segmentId = tailSegmentId;
+            offset = 0;
+        }
+
+        writeHead(segmentId, offset);
+        deleteSegmentsBehindHead();
+    }
+
+    /**
+     * Writes and syncs the head, so that it can't revert to an older position once segments behind it are deleted
+     */
+    private void writeHead(long segmentId, long offset) throws IOException {
+        headSegmentId = segmentId;
+        headOffset = offset;
+
+        headFile.seek(0);
+        headFile.writeLong(headSegmentId);
+        headFile.writeLong(headOffset);
+        headFile.getFD().sync();
+    }
+
+    private void deleteSegmentsBehindHead() {
+        while (!segmentIds.isEmpty() && segmentIds.peekFirst() < headSegmentId) {
+            deleteSegment(segmentIds.pollFirst());
+        }
+    }
+
+    private void rollSegment() {
+        closeTailStream();
+        tailSegmentId++;
+        tailSize = 0;
+        segmentIds.addLast(tailSegmentId);
+        L.v("[RequestQueueLog] rollSegment, starting segment [" + tailSegmentId + "]");
+    }
+
+    private FileOutputStream tailStream() throws IOException {
+        if (tailStream == null) {
+            tailStream = new FileOutputStream(segmentFile(tailSegmentId), true);
+        }
+        return tailStream;
+    }
+
+    private void closeTailStream() {
+        if (tailStream != null) {
+            try {
+                tailStream.close();
+            } catch (IOException e) {
+                L.w("[RequestQueueLog] closeTailStream, failed to close segment, " + e);
+            }
+            tailStream = null;
+        }
+    }
+
+    private void deleteSegment(long segmentId) {
+        File file = segmentFile(segmentId);
+        if (file.exists() && !file.delete()) {
+            L.w("[RequestQueueLog] deleteSegment, failed to delete segment [" + segmentId + "]");
+        }
+    }
+
+    private File segmentFile(long segmentId) {
+        return new File(directory, SEGMENT_FILE_PREFIX + segmentId + SEGMENT_FILE_SUFFIX);
+    }
+
+    private File tempSegmentFile(long segmentId) {
+        return new File(directory, SEGMENT_FILE_PREFIX + segmentId + SEGMENT_FILE_SUFFIX + TEMP_FILE_SUFFIX);
+    }
+
+    static @NonNull List<Long> listSegmentIds(@NonNull File directory) {
+        List<Long> ids = new ArrayList<>();
+        String[] names = directory.list();
+        if (names == null) {
+            return ids;
+        }
+
+        for (String name : names) {
+            if (!name.startsWith(SEGMENT_FILE_PREFIX) || !name.endsWith(SEGMENT_FILE_SUFFIX)) {
+                continue;
+            }
+            try {
+                ids.add(Long.parseLong(name.substring(SEGMENT_FILE_PREFIX.length(), name.length() - SEGMENT_FILE_SUFFIX.length())));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+
+        Long[] sorted = ids.toArray(new Long[0]);
+        Arrays.sort(sorted);
+        return Arrays.asList(sorted);
+    }
+
+    private static byte[] encodeRecord(@NonNull String request) {
+        byte[] data = request.getBytes(StandardCharsets.UTF_8);
+        byte[] record = new byte[RECORD_HEADER_SIZE + data.length];
+        record[0] = (byte) (data.length >>> 24);
+        record[1] = (byte) (data.length >>> 16);
+        record[2] = (byte) (data.length >>> 8);
+        record[3] = (byte) data.length;
+        System.arraycopy(data, 0, record, RECORD_HEADER_SIZE, data.length);
+        return record;
+    }
+}
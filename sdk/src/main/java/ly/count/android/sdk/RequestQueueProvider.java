@@ -58,7 +58,7 @@ interface RequestQueueProvider {
 
     String prepareRemoteConfigRequestLegacy(@Nullable String keysInclude, @Nullable String keysExclude, @NonNull String preparedMetrics);
 
-    String prepareRemoteConfigRequest(@Nullable String keysInclude, @Nullable String keysExclude, @NonNull String preparedMetrics, boolean autoEnroll);
+    String prepareRemoteConfigRequest(@Nullable String keysInclude, @Nullable String keysExclude, @NonNull String preparedMetrics, boolean autoEnroll, boolean deltaSupported, @Nullable String storedVersion);
 
     String prepareFetchAllVariants(); // for fetching all A/B test variants
 
@@ -0,0 +1,205 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Keeps the internal timings of the SDK as sparse histograms and sends them with the health check.
+ * Only keys tracked with 'TrackCounterTimeNs' are reported. Timings are saved when the app goes to the background,
+ * merged with the timings of previous app runs that were not sent yet, and sent on the next SDK initialization.
+ * Counts, sums, maximums and percentiles are in microseconds. Histogram buckets are stored by their index in the
+ * nanosecond based scheme of 'PerformanceCounterCollector.bucketIndex': values below 'sb' have their own bucket and
+ * every power of two range above that is split into 'sb' buckets. The report names the bucket unit in 'bu'.
+ */
+class SdkTelemetry {
+    private final static String keyCount = "n";
+    private final static String keySum = "s";
+    private final static String keyMax = "mx";
+    private final static String keyBuckets = "b";
+
+    private final static String requestKeyVersion = "v";
+    private final static String requestKeySubBuckets = "sb";
+    private final static String requestKeyBucketUnit = "bu";
+    private final static String requestKeyCounters = "c";
+    private final static String requestKeyP50 = "p50";
+    private final static String requestKeyP90 = "p90";
+    private final static String requestKeyP99 = "p99";
+
+    @Nullable final PerformanceCounterCollector pcc;
+    final StorageProvider storageProvider;
+    final ModuleLog L;
+
+    // timings of previous app runs that were not sent yet
+    @NonNull JSONObject storedCounters = new JSONObject();
+
+    /**
+     * @param pcc collector of the current app run, null if this run is not sampled
+     */
+    SdkTelemetry(@Nullable PerformanceCounterCollector pcc, @NonNull StorageProvider sp, @NonNull ModuleLog L) {
+        assert sp != null;
+        assert L != null;
+
+        this.pcc = pcc;
+        this.L = L;
+        storageProvider = sp;
+        setupInitialState(storageProvider.getSdkTelemetryState());
+    }
+
+    void setupInitialState(@NonNull String initialState) {
+        if (initialState == null || initialState.isEmpty()) {
+            return;
+        }
+
+        try {
+            storedCounters = new JSONObject(initialState);
+            L.d("[SdkTelemetry] Loaded timings of [" + storedCounters.length() + "] counters");
+        } catch (JSONException e) {
+            storedCounters = new JSONObject();
+            storageProvider.setSdkTelemetryState("");
+            L.w("[SdkTelemetry] Failed to read initial state, " + e);
+        }
+    }
+
+    /**
+     * Saves the stored timings together with the ones collected in this app run
+     */
+    synchronized void saveState() {
+        JSONObject counters = copy(storedCounters);
+
+        if (pcc != null) {
+            for (Map.Entry<String, PerformanceCounterCollector.Counter> entry : pcc.perfCounter.entrySet()) {
+                PerformanceCounterCollector.Counter counter = entry.getValue();
+                AtomicLongArray histogram = counter.histogram;
+                if (histogram == null) {
+                    //not a time counter
+                    continue;
+                }
+
+                long[] buckets = new long[histogram.length()];
+                for (int a = 0; a < buckets.length; a++) {
+                    buckets[a] = histogram.get(a);
+                }
+                long count = counter.count();
+                long maxUs = count > 0 ? Math.round(Double.longBitsToDouble(counter.maxBits.get()) * 1_000_000) : 0;
+                mergeInto(counters, entry.getKey(), count, Math.round(counter.sum() * 1_000_000), maxUs, buckets);
+            }
+        }
+
+        storageProvider.setSdkTelemetryState(counters.length() == 0 ? "" : counters.toString());
+    }
+
+    /**
+     * Called after the stored timings were sent. Timings of this app run are kept for the next report.
+     */
+    synchronized void clearSent() {
+        L.v("[SdkTelemetry] Clearing sent timings");
+        storedCounters = new JSONObject();
+        saveState();
+    }
+
+    /**
+     * @return request param with the stored timings, empty if there is nothing to send
+     */
+    synchronized @NonNull String createRequestParam() {
+        if (storedCounters.length() == 0) {
+            return "";
+        }
+
+        JSONObject report = new JSONObject();
+        try {
+            JSONObject counters = new JSONObject();
+            Iterator<String> keys = storedCounters.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                JSONObject counter = copy(storedCounters.getJSONObject(key));
+
+                long[] buckets = readBuckets(counter.optJSONObject(keyBuckets));
+                long total = counter.optLong(keyCount, 0);
+                long maxUs = counter.optLong(keyMax, 0);
+                counter.put(requestKeyP50, percentileUs(buckets, total, 0.50, maxUs));
+                counter.put(requestKeyP90, percentileUs(buckets, total, 0.90, maxUs));
+                counter.put(requestKeyP99, percentileUs(buckets, total, 0.99, maxUs));
+                counters.put(key, counter);
+            }
+
+            report.put(requestKeyVersion, 1);
+            report.put(requestKeySubBuckets, PerformanceCounterCollector.SUB_BUCKETS);
+            report.put(requestKeyBucketUnit, "ns");
+            report.put(requestKeyCounters, counters);
+        } catch (JSONException e) {
+            L.w("[SdkTelemetry] Failed to create param for hc request, " + e);
+            return "";
+        }
+
+        return "&sdk_perf=" + UtilsNetworking.urlEncodeString(report.toString());
+    }
+
+    /**
+     * Adds the given values to the counter of the key. Buckets are stored by their index and only if they are not empty.
+     */
+    static void mergeInto(@NonNull JSONObject counters, @NonNull String key, long count, long sumUs, long maxUs, @NonNull long[] buckets) {
+        try {
+            JSONObject counter = counters.optJSONObject(key);
+            if (counter == null) {
+                counter = new JSONObject();
+                counters.put(key, counter);
+            }
+
+            counter.put(keyCount, counter.optLong(keyCount, 0) + count);
+            counter.put(keySum, counter.optLong(keySum, 0) + sumUs);
+            counter.put(keyMax, Math.max(counter.optLong(keyMax, 0), maxUs));
+
+            JSONObject storedBuckets = counter.optJSONObject(keyBuckets);
+            if (storedBuckets == null) {
+                storedBuckets = new JSONObject();
+                counter.put(keyBuckets, storedBuckets);
+            }
+            for (int a = 0; a < buckets.length; a++) {
+                if (buckets[a] > 0) {
+                    String index = Integer.toString(a);
+                    storedBuckets.put(index, storedBuckets.optLong(index, 0) + buckets[a]);
+                }
+            }
+        } catch (JSONException ignored) {
+            //keys are never null, so this can't happen
+        }
+    }
+
+    static @NonNull long[] readBuckets(@Nullable JSONObject storedBuckets) {
+        long[] buckets = new long[PerformanceCounterCollector.HISTOGRAM_BUCKETS];
+        if (storedBuckets == null) {
+            return buckets;
+        }
+
+        Iterator<String> keys = storedBuckets.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            try {
+                int index = Integer.parseInt(key);
+                if (index >= 0 && index < buckets.length) {
+                    buckets[index] = storedBuckets.optLong(key, 0);
+                }
+            } catch (NumberFormatException ignored) {
+                //skip malformed entries
+            }
+        }
+        return buckets;
+    }
+
+    static long percentileUs(@NonNull long[] buckets, long total, double percentile, long maxUs) {
+        return Math.min(maxUs, Math.round(PerformanceCounterCollector.percentileNs(buckets, total, percentile) / 1000));
+    }
+
+    private static @NonNull JSONObject copy(@NonNull JSONObject source) {
+        try {
+            return new JSONObject(source.toString());
+        } catch (JSONException e) {
+            return new JSONObject();
+        }
+    }
+}
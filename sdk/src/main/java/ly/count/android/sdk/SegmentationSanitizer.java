@@ -0,0 +1,189 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+
+/**
+ * Prepares custom event segmentation in a single pass over the provided map.
+ * Unsupported data types are removed, segmentation listing filters are applied, keys and string values are truncated
+ * and the segmentation count limit is enforced while the result is written into a new pre-sized map.
+ * The provided map is not modified.
+ */
+final class SegmentationSanitizer {
+
+    private SegmentationSanitizer() {
+    }
+
+    /**
+     * @param eventName name of the event, used for the event specific segmentation filter
+     * @param segmentation segmentation provided by the developer, can be null
+     * @param visibilityState value for the visibility key, or null if it should not be added
+     * @return sanitized segmentation, never null
+     */
+    static @NonNull Map<String, Object> sanitizeEventSegmentation(@NonNull String eventName, @Nullable Map<String, Object> segmentation, @Nullable Integer visibilityState,
+        @NonNull ConfigurationProvider configProvider, @NonNull ConfigSdkInternalLimits limits, @NonNull ModuleLog L, @NonNull String tag) {
+        final int maxKeyLength = limits.maxKeyLength;
+        final int maxValueSize = limits.maxValueSize;
+        final int maxSegmentationValues = limits.maxSegmentationValues;
+
+        int providedCount = (segmentation == null ? 0 : segmentation.size()) + (visibilityState == null ? 0 : 1);
+        // +2 for the view name keys that could be added after this
+        Map<String, Object> result = new HashMap<>(capacityFor(Math.min(providedCount, maxSegmentationValues) + 2));
+        if (providedCount == 0) {
+            return result;
+        }
+
+        CompiledListingFilters filters = configProvider.getListingFilters();
+        CompiledListingFilters.KeyTable eventSegmentationFilter = filters.eventSegmentationFilter(eventName);
+        final boolean hasFilterRules = filters.hasSegmentationRules;
+
+        List<Map.Entry<String, Object>> renamed = null;
+
+        if (segmentation != null) {
+            for (Map.Entry<String, Object> entry : segmentation.entrySet()) {
+                String key = entry.getKey();
+                Object value = entry.getValue();
+
+                if (key == null || key.isEmpty() || !UtilsInternalLimits.isSupportedDataType(value)) {
+                    L.w(tag + ", removed unsupported segmentation key:[" + key + "] value:[" + value + "] type:[" + (value == null ? "null" : value.getClass().getSimpleName()) + "]");
+                    continue;
+                }
+
+                if (hasFilterRules && !filters.allowsSegmentationKey(key, eventSegmentationFilter)) {
+                    L.d("{}, segmentation key [{}] was filtered out by segmentation filter list", tag, key);
+                    continue;
+                }
+
+                if (value instanceof String) {
+                    value = truncate((String) value, maxValueSize, L, tag);
+                } else if (value instanceof List) {
+                    value = supportedListElements((List<?>) value, L, tag);
+                } else if (value instanceof JSONArray) {
+                    value = supportedJsonArrayElements((JSONArray) value, L, tag);
+                }
+
+                String truncatedKey = truncate(key, maxKeyLength, L, tag);
+                if (truncatedKey.equals(key)) {
+                    result.put(key, value);
+                } else {
+                    // truncated keys replace existing keys with the same name, so they are added after all others
+                    if (renamed == null) {
+                        renamed = new ArrayList<>();
+                    }
+                    renamed.add(new AbstractMap.SimpleEntry<>(truncatedKey, value));
+                }
+            }
+        }
+
+        if (visibilityState != null && (!hasFilterRules || filters.allowsSegmentationKey(ModuleEvents.VISIBILITY_KEY, eventSegmentationFilter))) {
+            result.put(ModuleEvents.VISIBILITY_KEY, visibilityState);
+        }
+
+        if (renamed != null) {
+            for (Map.Entry<String, Object> entry : renamed) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        if (result.size() > maxSegmentationValues) {
+            Iterator<Map.Entry<String, Object>> iterator = result.entrySet().iterator();
+            while (result.size() > maxSegmentationValues && iterator.hasNext()) {
+                L.w(tag + ", Value exceeded the maximum segmentation count key:[" + iterator.next().getKey() + "]");
+                iterator.remove();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Applies the segmentation count limit to a map provided to 'recordEvent' before anything else is done with it,
+     * the first entries are dropped. Other ways of recording events apply the limit only after unsupported and filtered entries are removed.
+     *
+     * @return the provided map if it is within the limit, otherwise a copy without the first entries over the limit
+     */
+    static @Nullable Map<String, Object> dropEntriesOverCountLimit(@Nullable Map<String, Object> segmentation, int maxSegmentationValues, @NonNull ModuleLog L, @NonNull String tag) {
+        if (segmentation == null || segmentation.size() <= maxSegmentationValues) {
+            return segmentation;
+        }
+
+        int skipCount = segmentation.size() - maxSegmentationValues;
+        Map<String, Object> result = new LinkedHashMap<>(capacityFor(maxSegmentationValues));
+        for (Map.Entry<String, Object> entry : segmentation.entrySet()) {
+            if (skipCount > 0) {
+                skipCount--;
+                L.w(tag + ", Value exceeded the maximum segmentation count key:[" + entry.getKey() + "]");
+                continue;
+            }
+            result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * @return initial capacity with which a HashMap holds the given amount of entries without resizing
+     */
+    static int capacityFor(int expectedSize) {
+        return expectedSize < 3 ? 4 : (int) (expectedSize / 0.75f) + 1;
+    }
+
+    private static @NonNull String truncate(@NonNull String value, int limit, @NonNull ModuleLog L, @NonNull String tag) {
+        if (value.length() <= limit) {
+            return value;
+        }
+        String truncated = value.substring(0, limit);
+        L.w(tag + ", Value length exceeds limit of " + limit + " characters. Truncated to " + truncated);
+        return truncated;
+    }
+
+    /**
+     * @return the same list if all elements are supported, otherwise a copy without the unsupported elements
+     */
+    private static @NonNull List<?> supportedListElements(@NonNull List<?> list, @NonNull ModuleLog L, @NonNull String tag) {
+        List<Object> copy = null;
+        for (int a = 0; a < list.size(); a++) {
+            Object element = list.get(a);
+            boolean supported = UtilsInternalLimits.isSupportedDataTypeBasic(element);
+            if (!supported && copy == null) {
+                copy = new ArrayList<>(list.subList(0, a));
+            }
+            if (!supported) {
+                L.w(tag + ", removed unsupported list element index:[" + a + "] value:[" + element + "]");
+            } else if (copy != null) {
+                copy.add(element);
+            }
+        }
+        return copy == null ? list : copy;
+    }
+
+    /**
+     * @return the same array if all elements are supported, otherwise a copy without the unsupported elements
+     */
+    private static @NonNull JSONArray supportedJsonArrayElements(@NonNull JSONArray array, @NonNull ModuleLog L, @NonNull String tag) {
+        JSONArray copy = null;
+        for (int a = 0; a < array.length(); a++) {
+            Object element = array.opt(a);
+            boolean supported = UtilsInternalLimits.isSupportedDataTypeBasic(element);
+            if (!supported && copy == null) {
+                copy = new JSONArray();
+                for (int b = 0; b < a; b++) {
+                    copy.put(array.opt(b));
+                }
+            }
+            if (!supported) {
+                L.w(tag + ", removed unsupported array element index:[" + a + "] value:[" + element + "]");
+            } else if (copy != null) {
+                copy.put(element);
+            }
+        }
+        return copy == null ? array : copy;
+    }
+}
@@ -17,14 +17,24 @@ interface StorageProvider {
 
     void removeRequest(final String requestStr);
 
+    void removeRequests(@NonNull final List<String> requestsToRemove);
+
     void replaceRequests(final String[] newConns);
 
     void replaceRequestList(final List<String> newConns);
 
+    @NonNull RequestHeader getRequestHeader(@NonNull final String requestStr, final int position);
+
+    boolean migrateRequestQueueBackend();
+
     void removeEvents(final List<Event> eventsToRemove);
 
     int getEventQueueSize();
 
+    int getEventQueueByteSize();
+
+    long getOldestEventEnqueueTimestamp();
+
     int getMaxRequestQueueSize();
 
     String getEventsForRequestAndEmptyEventQueue();
@@ -49,8 +59,14 @@ interface StorageProvider {
 
     String getRemoteConfigValues();//not integrated
 
+    void setRemoteConfigVersion(String version);
+
+    String getRemoteConfigVersion();
+
     void esWriteCacheToStorage(@Nullable ExplicitStorageCallback callback);//required for explicit storage
 
+    boolean flushPersistence(long timeoutMs);
+
     void setServerConfig(String config);
 
     String getServerConfig();
@@ -65,4 +81,8 @@ interface StorageProvider {
     @NonNull String getHealthCheckCounterState();
 
     void setHealthCheckCounterState(String counterState);
+
+    @NonNull String getSdkTelemetryState();
+
+    void setSdkTelemetryState(@NonNull String telemetryState);
 }
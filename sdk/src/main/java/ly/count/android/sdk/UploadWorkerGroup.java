@@ -0,0 +1,263 @@
+package ly.count.android.sdk;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs multiple ConnectionProcessor workers that drain the request queue at the same time.
+ * Every worker claims the request it is about to send, so that a request is sent by only one worker.
+ * Requests where the order matters are not sent concurrently:
+ * - a device ID change request is sent only after everything before it is done and before anything after it
+ * - session requests of the same device ID are sent one after another
+ * - requests with an internal callback are sent one after another
+ * Everything else (events, crashes, etc.) is sent by whichever worker is free.
+ * Every claim is made from the current queue, so requests that were evicted or rewritten meanwhile are not sent from an old copy.
+ * Workers that can't claim anything wait until another worker releases its request, they only stop once the queue is done.
+ */
+class UploadWorkerGroup implements Runnable {
+    static final String ORDERING_BARRIER = "";
+    // upper bound for an idle worker to wait, so that requests added to the queue meanwhile are picked up
+    static final long IDLE_WAIT_MS = 500;
+
+    private final List<ConnectionProcessor> workers;
+    private final ExecutorService executor;
+    private final ModuleLog L;
+
+    // claimed request -> amount of workers that claimed an identical request
+    private final Map<String, Integer> claimedRequests = new HashMap<>();
+    private volatile boolean stopped = false;
+    private boolean queueFinished = false;
+
+    /**
+     * @param workers processors that drain the queue together, the first one runs on the calling thread
+     * @param executor executor for the rest of the workers
+     * @param logModule logger
+     */
+    UploadWorkerGroup(@NonNull List<ConnectionProcessor> workers, @NonNull ExecutorService executor, @NonNull ModuleLog logModule) {
+        this.workers = workers;
+        this.executor = executor;
+        L = logModule;
+
+        for (ConnectionProcessor worker : workers) {
+            worker.workerGroup = this;
+        }
+    }
+
+    @Override
+    public void run() {
+        long tsStart = UtilsTime.getNanoTime();
+        List<Future<?>> futures = new ArrayList<>(workers.size());
+        for (int a = 1; a < workers.size(); a++) {
+            futures.add(executor.submit(workers.get(a)));
+        }
+
+        workers.get(0).run();
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                L.w("[UploadWorkerGroup] run, interrupted while waiting for workers");
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                L.e("[UploadWorkerGroup] run, worker failed, " + e.getCause());
+            }
+        }
+
+        L.v("[UploadWorkerGroup] run, TIMING [" + workers.size() + "] workers took:[" + (UtilsTime.getNanoTime() - tsStart) / 1000000.0d + "] ms");
+    }
+
+    /**
+     * Picks the oldest request that can be sent right now and marks it as claimed.
+     * If nothing can be sent at the moment, waits until another worker releases its request.
+     *
+     * @param storageProvider storage of the request queue
+     * @return the claimed request or null if the group was stopped or the whole queue is done
+     */
+    synchronized @Nullable String claimNextRequest(@NonNull StorageProvider storageProvider) {
+        while (!stopped) {
+            List<String> unclaimedRequests = unclaimedRequests(storageProvider.getRequests());
+            String request = takeNextClaimableRequest(unclaimedRequests);
+            if (request != null) {
+                claim(request);
+                return request;
+            }
+            if (unclaimedRequests.isEmpty() && claimedRequests.isEmpty()) {
+                return null;
+            }
+
+            try {
+                wait(IDLE_WAIT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Picks the oldest request that can be sent right now and marks it as claimed, without waiting
+     *
+     * @param storageProvider storage of the request queue
+     * @return the claimed request or null if nothing can be sent at the moment
+     */
+    synchronized @Nullable String tryClaimNextRequest(@NonNull StorageProvider storageProvider) {
+        if (stopped) {
+            return null;
+        }
+
+        String request = takeNextClaimableRequest(unclaimedRequests(storageProvider.getRequests()));
+        if (request != null) {
+            claim(request);
+        }
+        return request;
+    }
+
+    /**
+     * The queue is read on every claim while holding the group lock. Workers remove a sent request before releasing it,
+     * so a request that was already sent can't be claimed again and removed or rewritten requests are not sent from an old copy.
+     *
+     * @return the requests of the queue that are not claimed at the moment, in queue order
+     */
+    private @NonNull List<String> unclaimedRequests(@Nullable String[] storedRequests) {
+        List<String> unclaimed = new ArrayList<>();
+        if (storedRequests == null) {
+            return unclaimed;
+        }
+
+        Map<String, Integer> skippedClaims = new HashMap<>();
+        for (String request : storedRequests) {
+            Integer claimedCount = claimedRequests.get(request);
+            if (claimedCount != null) {
+                Integer skipped = skippedClaims.get(request);
+                int skippedCount = skipped == null ? 0 : skipped;
+                if (skippedCount < claimedCount) {
+                    //in flight
+                    skippedClaims.put(request, skippedCount + 1);
+                    continue;
+                }
+            }
+            unclaimed.add(request);
+        }
+        return unclaimed;
+    }
+
+    /**
+     * @return the first unclaimed request that is not blocked by a claimed or an earlier request, null if all are blocked
+     */
+    private @Nullable String takeNextClaimableRequest(@NonNull List<String> unclaimedRequests) {
+        Set<String> blockedKeys = new HashSet<>();
+        for (String claimed : claimedRequests.keySet()) {
+            String key = orderingKey(claimed);
+            if (ORDERING_BARRIER.equals(key)) {
+                // nothing can be sent before it is done
+                return null;
+            }
+            if (key != null) {
+                blockedKeys.add(key);
+            }
+        }
+
+        boolean first = true;
+        for (String request : unclaimedRequests) {
+            String key = orderingKey(request);
+
+            if (ORDERING_BARRIER.equals(key)) {
+                if (!first || !claimedRequests.isEmpty()) {
+                    // nothing after this request can be sent before it is done
+                    return null;
+                }
+                return request;
+            }
+            first = false;
+
+            if (key != null && blockedKeys.contains(key)) {
+                // waiting for an earlier request with the same key
+                continue;
+            }
+
+            return request;
+        }
+        return null;
+    }
+
+    private void claim(@NonNull String request) {
+        Integer claimedCount = claimedRequests.get(request);
+        claimedRequests.put(request, claimedCount == null ? 1 : claimedCount + 1);
+    }
+
+    /**
+     * Releases a request claimed with {@link #claimNextRequest(StorageProvider)}.
+     * Should be called after the request was removed from the queue or its sending has failed.
+     */
+    synchronized void releaseRequest(@NonNull String request) {
+        Integer claimedCount = claimedRequests.get(request);
+        if (claimedCount == null) {
+            return;
+        }
+
+        if (claimedCount <= 1) {
+            claimedRequests.remove(request);
+        } else {
+            claimedRequests.put(request, claimedCount - 1);
+        }
+        // waiting workers could be able to claim something now
+        notifyAll();
+    }
+
+    /**
+     * Stops all workers from claiming new requests, requests that are in flight are finished
+     */
+    synchronized void stop() {
+        stopped = true;
+        notifyAll();
+    }
+
+    /**
+     * Used so that only one of the workers reports that the queue was fully processed
+     *
+     * @return true only for the first call
+     */
+    synchronized boolean markQueueFinished() {
+        if (queueFinished) {
+            return false;
+        }
+        queueFinished = true;
+        return true;
+    }
+
+    /**
+     * Returns the key of requests that have to keep their relative order.
+     *
+     * @param request stored request
+     * @return ORDERING_BARRIER for requests that have to keep their order against all requests,
+     * a key shared by requests that have to keep their order between each other,
+     * null if the request can be sent in any order
+     */
+    static @Nullable String orderingKey(@NonNull String request) {
+        if (request.contains("&old_device_id=")) {
+            return ORDERING_BARRIER;
+        }
+
+        if (request.contains("&callback_id=")) {
+            return "callback";
+        }
+
+        if (request.contains("&begin_session=") || request.contains("&end_session=") || request.contains("&session_duration=")) {
+            return "session:" + Utils.extractValueFromString(request, "&device_id=", "&")[1];
+        }
+
+        return null;
+    }
+}
@@ -291,28 +291,50 @@ public class Utils {
             return false;
         }
 
+        long requestTimestampMs;
         try {
             // starting index +11 gets to the end of the tag and then +13 to get timestamp
-            long requestTimestampMs = Long.parseLong(request.substring(timestampStartIndex + 11, timestampStartIndex + 24));
+            requestTimestampMs = Long.parseLong(request.substring(timestampStartIndex + 11, timestampStartIndex + 24));
+        } catch (NumberFormatException e) {
+            L.w(messagePrefix + " isRequestTooOld, Timestamp is not long");
+            return false;
+        }
+
+        return isRequestTooOld(requestTimestampMs, dropAgeHours, messagePrefix, L);
+    }
+
+    /**
+     * Same as {@link #isRequestTooOld(String, int, String, ModuleLog)} but uses an already parsed request timestamp
+     *
+     * @param requestTimestampMs request timestamp in milliseconds, a negative value if the request has no timestamp
+     * @param dropAgeHours oldness threshold (in hours)
+     * @return true if old, false if not
+     */
+    static boolean isRequestTooOld(final long requestTimestampMs, final int dropAgeHours, @NonNull final String messagePrefix, final @NonNull ModuleLog L) {
+        if (dropAgeHours <= 0) {
+            L.v(messagePrefix + " isRequestTooOld, No request drop age set. Request will bypass age checks");
+            return false;
+        }
 
-            // calculate the threshold timestamp by subtracting dropAgeHours from the current time
-            long thresholdTimestampMs = UtilsTime.currentTimestampMs() - (dropAgeHours * 3_600_000L); // 1 hour = 3600000 milliseconds
+        if (requestTimestampMs < 0) {
+            L.w(messagePrefix + " isRequestTooOld, No timestamp in request");
+            return false;
+        }
 
-            // check if the request's timestamp is older than the threshold
-            boolean result = requestTimestampMs < thresholdTimestampMs;
+        // calculate the threshold timestamp by subtracting dropAgeHours from the current time
+        long thresholdTimestampMs = UtilsTime.currentTimestampMs() - (dropAgeHours * 3_600_000L); // 1 hour = 3600000 milliseconds
 
-            if (result) {
-                long timeGapMs = thresholdTimestampMs - requestTimestampMs;
-                String message = formatTimeDifference(timeGapMs);
+        // check if the request's timestamp is older than the threshold
+        boolean result = requestTimestampMs < thresholdTimestampMs;
 
-                L.v(messagePrefix + " isRequestTooOld, This request is " + message + " older than acceptable time frame");
-            }
+        if (result) {
+            long timeGapMs = thresholdTimestampMs - requestTimestampMs;
+            String message = formatTimeDifference(timeGapMs);
 
-            return result;
-        } catch (NumberFormatException e) {
-            L.w(messagePrefix + " isRequestTooOld, Timestamp is not long");
-            return false;
+            L.v(messagePrefix + " isRequestTooOld, This request is " + message + " older than acceptable time frame");
         }
+
+        return result;
     }
 
     /**
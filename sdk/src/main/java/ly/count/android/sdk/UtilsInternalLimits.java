@@ -376,7 +376,7 @@ public class UtilsInternalLimits {
         return sb.toString();
     }
 
-    private static boolean isSupportedDataTypeBasic(@Nullable Object value) {
+    static boolean isSupportedDataTypeBasic(@Nullable Object value) {
         return value instanceof String || value instanceof Integer || value instanceof Double || value instanceof Boolean || value instanceof Float || value instanceof Long;
     }
 
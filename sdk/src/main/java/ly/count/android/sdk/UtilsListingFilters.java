@@ -3,7 +3,6 @@ package ly.count.android.sdk;
 import androidx.annotation.NonNull;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.Set;
 
 final class UtilsListingFilters {
 
@@ -11,13 +10,11 @@ final class UtilsListingFilters {
     }
 
     static boolean applyEventFilter(@NonNull String eventName, @NonNull ConfigurationProvider configProvider) {
-        ConfigurationProvider.FilterList<Set<String>> eventFilterList = configProvider.getEventFilterList();
-        return applyListFilter(eventName, eventFilterList.filterList, eventFilterList.isWhitelist);
+        return configProvider.getListingFilters().eventFilter.allows(eventName);
     }
 
     static boolean applyUserPropertyFilter(@NonNull String propertyName, @NonNull ConfigurationProvider configProvider) {
-        ConfigurationProvider.FilterList<Set<String>> userPropertyFilterList = configProvider.getUserPropertyFilterList();
-        return applyListFilter(propertyName, userPropertyFilterList.filterList, userPropertyFilterList.isWhitelist);
+        return configProvider.getListingFilters().userPropertyFilter.allows(propertyName);
     }
 
     static void applySegmentationFilter(@NonNull Map<String, Object> segmentation, @NonNull ConfigurationProvider configProvider, @NonNull ModuleLog L) {
@@ -25,26 +22,21 @@ final class UtilsListingFilters {
             return;
         }
 
-        applyMapFilter(segmentation, configProvider.getSegmentationFilterList().filterList, configProvider.getSegmentationFilterList().isWhitelist, L);
+        applyMapFilter(segmentation, configProvider.getListingFilters().segmentationFilter, L);
     }
 
     static void applyEventSegmentationFilter(@NonNull String eventName, @NonNull Map<String, Object> segmentation,
         @NonNull ConfigurationProvider configProvider, @NonNull ModuleLog L) {
-        ConfigurationProvider.FilterList<Map<String, Set<String>>> eventSegmentationFilterList = configProvider.getEventSegmentationFilterList();
-        if (segmentation.isEmpty() || eventSegmentationFilterList.filterList.isEmpty()) {
+        if (segmentation.isEmpty()) {
             return;
         }
 
-        Set<String> segmentationSet = eventSegmentationFilterList.filterList.get(eventName);
-        if (segmentationSet == null || segmentationSet.isEmpty()) {
-            // No rules defined for this event so allow everything
-            return;
-        }
-        applyMapFilter(segmentation, segmentationSet, eventSegmentationFilterList.isWhitelist, L);
+        // No rules defined for this event so allow everything
+        applyMapFilter(segmentation, configProvider.getListingFilters().eventSegmentationFilter(eventName), L);
     }
 
-    private static void applyMapFilter(@NonNull Map<String, Object> map, @NonNull Set<String> filterSet, boolean isWhitelist, @NonNull ModuleLog L) {
-        if (filterSet.isEmpty()) {
+    private static void applyMapFilter(@NonNull Map<String, Object> map, @NonNull CompiledListingFilters.KeyTable filter, @NonNull ModuleLog L) {
+        if (!filter.hasRules) {
             // No rules defined so allow everything
             return;
         }
@@ -54,22 +46,12 @@ final class UtilsListingFilters {
             Map.Entry<String, Object> entry = iterator.next();
             String key = entry.getKey();
 
-            boolean contains = filterSet.contains(key);
-
             // Whitelist: remove if NOT in list
             // Blacklist: remove if IN list
-            if ((isWhitelist && !contains) || (!isWhitelist && contains)) {
+            if (!filter.allows(key)) {
                 iterator.remove();
-                L.d("[UtilsListingFilters] applyMapFilter, removed key: " + key + (isWhitelist ? "not in whitelist" : "blacklisted"));
+                L.d("[UtilsListingFilters] applyMapFilter, removed key: " + key + (filter.isWhitelist ? "not in whitelist" : "blacklisted"));
             }
         }
     }
-
-    private static boolean applyListFilter(String item, @NonNull Set<String> filterSet, boolean isWhitelist) {
-        if (filterSet.isEmpty()) {
-            // No rules defined so allow everything
-            return true;
-        }
-        return isWhitelist == filterSet.contains(item);
-    }
 }
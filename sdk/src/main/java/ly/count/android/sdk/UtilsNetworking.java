@@ -2,10 +2,13 @@ package ly.count.android.sdk;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.MessageDigest;
+import java.util.zip.GZIPOutputStream;
 
 public class UtilsNetworking {
     // http://stackoverflow.com/questions/9655181/convert-from-byte-array-to-hex-string-in-java
@@ -95,6 +98,21 @@ public class UtilsNetworking {
         return new String(hexChars).toLowerCase();
     }
 
+    /**
+     * Compress the given data with gzip
+     *
+     * @param data bytes to compress
+     * @return gzip compressed bytes
+     * @throws IOException if compression fails
+     */
+    static @NonNull byte[] gzip(@NonNull byte[] data) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(32, data.length / 4));
+        try (GZIPOutputStream gzipStream = new GZIPOutputStream(compressed)) {
+            gzipStream.write(data);
+        }
+        return compressed.toByteArray();
+    }
+
     /**
      * Utility method for testing validity of a URL.
      */
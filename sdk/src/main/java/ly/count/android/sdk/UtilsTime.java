@@ -1,9 +1,7 @@
 package ly.count.android.sdk;
 
-import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Collections;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class UtilsTime {
     protected static int ONE_SECOND_IN_MS = 1000;
@@ -30,23 +28,73 @@ public class UtilsTime {
                 //todo remove exception
                 throw new IllegalArgumentException("timestampInMillis must be greater than or equal to zero");
             }
+
+            HourBucket bucket = currentHour;
+            if (bucket == null || !bucket.contains(timestampInMillis)) {
+                bucket = HourBucket.create(timestampInMillis);
+            }
+            return new Instant(timestampInMillis, bucket);
+        }
+
+        private Instant(long timestampInMillis, HourBucket bucket) {
+            this(timestampInMillis, bucket.hour, bucket.dow);
+        }
+    }
+
+    /**
+     * Local hour that a timestamp falls in, so that hour and day of week don't need a Calendar for every timestamp.
+     * A time zone change is picked up at the next hour boundary.
+     */
+    static final class HourBucket {
+        final long startMs;
+        final long endMs;
+        final int hour;
+        final int dow;
+
+        private HourBucket(long startMs, long endMs, int hour, int dow) {
+            this.startMs = startMs;
+            this.endMs = endMs;
+            this.hour = hour;
+            this.dow = dow;
+        }
+
+        boolean contains(long timestampMs) {
+            return timestampMs >= startMs && timestampMs < endMs;
+        }
+
+        static HourBucket create(long timestampMs) {
             Calendar calendar = Calendar.getInstance();
-            calendar.setTimeInMillis(timestampInMillis);
+            calendar.setTimeInMillis(timestampMs);
             final int hour = calendar.get(Calendar.HOUR_OF_DAY);
             // Calendar days are 1-based, Countly days are 0-based
             final int dow = calendar.get(Calendar.DAY_OF_WEEK) - 1;
-            return new Instant(timestampInMillis, hour, dow);
+
+            calendar.set(Calendar.MINUTE, 0);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+            final long startMs = calendar.getTimeInMillis();
+            calendar.add(Calendar.HOUR_OF_DAY, 1);
+            return new HourBucket(startMs, calendar.getTimeInMillis(), hour, dow);
         }
     }
 
+    //hour of the latest current instant, only replaced by 'getCurrentInstant'
+    private static volatile HourBucket currentHour = null;
+
     /**
      * Get's a instant for the current moment
      *
      * @return
      */
-    public static synchronized Instant getCurrentInstant() {
+    public static Instant getCurrentInstant() {
         long timestamp = currentTimestampMs();
-        return Instant.get(timestamp);
+
+        HourBucket bucket = currentHour;
+        if (bucket == null || !bucket.contains(timestamp)) {
+            bucket = HourBucket.create(timestamp);
+            currentHour = bucket;
+        }
+        return new Instant(timestamp, bucket);
     }
 
     /**
@@ -54,11 +102,11 @@ public class UtilsTime {
      *
      * @return
      */
-    public static synchronized long currentTimestampMs() {
+    public static long currentTimestampMs() {
         return timeGenerator.uniqueTimestamp();
     }
 
-    public static synchronized long getNanoTime() {
+    public static long getNanoTime() {
         return System.nanoTime();
     }
 
@@ -69,35 +117,48 @@ public class UtilsTime {
         return (int) (System.currentTimeMillis() / 1000L);
     }
 
-    private static class TimeUniquesEnsurer {
-        final List<Long> lastTsMs = new ArrayList<>(10);
+    static class TimeUniquesEnsurer {
+        //if the clock goes this far behind its highest seen value, it is treated as the clock being moved back
+        static final long CLOCK_BACKWARDS_TOLERANCE_MS = 1000;
+
+        final AtomicLong lastTsMs = new AtomicLong(0);
+        final AtomicLong highestClockMs = new AtomicLong(0);
         final long addition = 0;
 
         long currentTimeMillis() {
             return System.currentTimeMillis() + addition;
         }
 
-        synchronized long uniqueTimestamp() {
-            long ms = currentTimeMillis();
+        /**
+         * Returns max(last + 1, now) so that every returned timestamp is unique.
+         * If the clock was moved back, the clock value is returned and the sequence continues from there.
+         */
+        long uniqueTimestamp() {
+            while (true) {
+                long ms = currentTimeMillis();
+                long highestClock = highestClockMs.get();
+
+                // change time back case
+                if (ms < highestClock - CLOCK_BACKWARDS_TOLERANCE_MS) {
+                    if (highestClockMs.compareAndSet(highestClock, ms)) {
+                        lastTsMs.set(ms);
+                        return ms;
+                    }
+                    continue;
+                }
 
-            // change time back case
-            if (lastTsMs.size() > 2) {
-                long min = Collections.min(lastTsMs);
-                if (ms < min) {
-                    lastTsMs.clear();
-                    lastTsMs.add(ms);
-                    return ms;
+                if (ms > highestClock) {
+                    // losing this race only leaves the highest value slightly behind, which the tolerance covers
+                    highestClockMs.compareAndSet(highestClock, ms);
+                }
+
+                // usual case
+                long last = lastTsMs.get();
+                long next = Math.max(last + 1, ms);
+                if (lastTsMs.compareAndSet(last, next)) {
+                    return next;
                 }
             }
-            // usual case
-            while (lastTsMs.contains(ms)) {
-                ms += 1;
-            }
-            while (lastTsMs.size() >= 10) {
-                lastTsMs.remove(0);
-            }
-            lastTsMs.add(ms);
-            return ms;
         }
     }
 
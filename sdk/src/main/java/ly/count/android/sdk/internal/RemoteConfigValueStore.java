@@ -2,10 +2,12 @@ package ly.count.android.sdk.internal;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import ly.count.android.sdk.Countly;
+import ly.count.android.sdk.ModuleLog;
 import ly.count.android.sdk.RCData;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -66,7 +68,10 @@ public class RemoteConfigValueStore {
 
     public void mergeValues(@NonNull Map<String, RCData> newValues, boolean fullUpdate) {
         //Countly.sharedInstance().L.i("[RemoteConfigValueStore] mergeValues, stored values:" + values.toString() + "provided values:" + newValues);
-        Countly.sharedInstance().L.v("[RemoteConfigValueStore] mergeValues, stored values C:" + values.length() + "provided values C:" + newValues.size());
+        ModuleLog L = Countly.sharedInstance().L;
+        if (L.logEnabled()) {
+            L.v("[RemoteConfigValueStore] mergeValues, stored values C:" + values.length() + "provided values C:" + newValues.size());
+        }
 
         if (fullUpdate) {
             clearValues();
@@ -81,10 +86,17 @@ public class RemoteConfigValueStore {
                 newObj.put(keyCacheFlag, cacheValFresh);
                 values.put(key, newObj);
             } catch (Exception e) {
-                Countly.sharedInstance().L.e("[RemoteConfigValueStore] Failed merging remote config values");
+                L.e("[RemoteConfigValueStore] Failed merging remote config values");
             }
         }
-        Countly.sharedInstance().L.v("[RemoteConfigValueStore] merging done:" + values.toString());
+        L.v("[RemoteConfigValueStore] merging done:{}", values);
+    }
+
+    public void removeValues(@NonNull Collection<String> keys) {
+        Countly.sharedInstance().L.v("[RemoteConfigValueStore] removeValues, removing [" + keys.size() + "] keys");
+        for (String key : keys) {
+            values.remove(key);
+        }
     }
 
     //========================================